@@ -278,12 +278,12 @@ public class TreeDemo {
                 // GH树
                 ghTree.resetStatistics();
                 List<MetricSpaceData> ghResults = ghTree.rangeQuery(queryPoint, radius);
-                int ghDist = ghTree.getDistanceComputations();
+                long ghDist = ghTree.getDistanceComputations();
 
                 // VP树
                 vpTree.resetStatistics();
                 List<MetricSpaceData> vpResults = vpTree.rangeQuery(queryPoint, radius);
-                int vpDist = vpTree.getDistanceComputations();
+                long vpDist = vpTree.getDistanceComputations();
 
                 // 计算剪枝率
                 double ghPruneRate = 100.0 * (1.0 - (double) ghDist / linearDist);
@@ -321,12 +321,12 @@ public class TreeDemo {
                 // GH树
                 ghTree.resetStatistics();
                 List<MetricSpaceData> ghResults = ghTree.knnQuery(queryPoint, k);
-                int ghDist = ghTree.getDistanceComputations();
+                long ghDist = ghTree.getDistanceComputations();
 
                 // VP树
                 vpTree.resetStatistics();
                 List<MetricSpaceData> vpResults = vpTree.knnQuery(queryPoint, k);
-                int vpDist = vpTree.getDistanceComputations();
+                long vpDist = vpTree.getDistanceComputations();
 
                 double ghPruneRate = 100.0 * (1.0 - (double) ghDist / linearDist);
                 double vpPruneRate = 100.0 * (1.0 - (double) vpDist / linearDist);
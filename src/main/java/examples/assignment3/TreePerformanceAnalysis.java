@@ -8,9 +8,17 @@ import datatype.protein.ProteinData;
 import datatype.protein.AlignmentDistance;
 import io.VectorDataReader;
 import io.ProteinDataReader;
+import index.pivottable.PivotSelectionMethod;
+import index.pivottable.PivotTable;
+import index.pivottable.PivotTableKNNQuery;
+import index.tree.TreeIndex;
 import index.tree.ghtree.GHTree;
+import index.tree.mvptree.MVPTree;
 import index.tree.vptree.VPTree;
 import index.tree.common.TreeConfig;
+import query.ApproximateKNNQuery;
+import query.KNNQuery;
+import query.KNNResult;
 import query.RangeQuery;
 import query.LinearScanRangeQuery;
 
@@ -25,6 +33,7 @@ import java.util.*;
  * 3. kNN查询性能对比
  * 4. 不同数据集上的性能分析
  * 5. 不同参数对性能的影响分析
+ * 6. 近似kNN查询的召回率与距离计算次数
  *
  * @author Jixiang Ding
  * @version 1.0
@@ -54,6 +63,9 @@ public class TreePerformanceAnalysis {
             // 4. 参数影响分析
             runParameterAnalysis();
 
+            // 5. 近似kNN查询
+            runApproximateKnnExperiment();
+
         } catch (Exception e) {
             System.err.println("分析过程中发生错误: " + e.getMessage());
             e.printStackTrace();
@@ -222,23 +234,149 @@ public class TreePerformanceAnalysis {
 
             GHTree ghTree = new GHTree(config);
             ghTree.buildIndex(dataset, metric);
-            int ghBuildDist = ghTree.getBuildDistanceComputations();
+            long ghBuildDist = ghTree.getBuildDistanceComputations();
             ghTree.resetStatistics();
             ghTree.rangeQuery(query, radius);
-            int ghQueryDist = ghTree.getDistanceComputations();
+            long ghQueryDist = ghTree.getDistanceComputations();
 
             VPTree vpTree = new VPTree(config);
             vpTree.buildIndex(dataset, metric);
-            int vpBuildDist = vpTree.getBuildDistanceComputations();
+            long vpBuildDist = vpTree.getBuildDistanceComputations();
             vpTree.resetStatistics();
             vpTree.rangeQuery(query, radius);
-            int vpQueryDist = vpTree.getDistanceComputations();
+            long vpQueryDist = vpTree.getDistanceComputations();
 
             System.out.printf("%-15s | %-12d | %-12d | %-12d | %-12d%n", strategy, ghBuildDist,
                     vpBuildDist, ghQueryDist, vpQueryDist);
         }
     }
 
+    /**
+     * 近似kNN查询实验
+     *
+     * 对比精确查询与各种近似控制（ε、距离计算预算、概率提前停止）的召回率和距离计算次数。
+     * 召回率 = |近似结果 ∩ 精确结果| / k；预算取精确查询平均距离计算次数的10%。
+     */
+    private static void runApproximateKnnExperiment() {
+        System.out.println();
+        System.out.println(SEPARATOR);
+        System.out.println("实验5: 近似kNN查询 (召回率 vs 距离计算)");
+        System.out.println(SEPARATOR);
+
+        List<VectorData> dataset = generateRandomVectors(10000, 10);
+        MetricFunction metric = MinkowskiDistance.L2;
+        int k = 10;
+
+        // 查询对象与数据同分布，但不在数据集中
+        Random rand = new Random(7);
+        List<VectorData> queries = new ArrayList<>();
+        for (int q = 0; q < 50; q++) {
+            double[] coords = new double[10];
+            for (int j = 0; j < coords.length; j++) {
+                coords[j] = rand.nextDouble() * 10.0;
+            }
+            queries.add(new VectorData(-1 - q, coords));
+        }
+
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config)};
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+        }
+        PivotTable pivotTable =
+                new PivotTable(dataset, 16, metric, PivotSelectionMethod.FFT, false);
+
+        String[] settings = {"精确", "ε=0.5", "ε=1.0", "预算10%", "δ=0.1", "δ=0.01"};
+
+        System.out.println("数据量: " + dataset.size() + ", 维度: 10, k = " + k
+                + ", 查询数: " + queries.size());
+        System.out.printf("%-28s | %-10s | %-8s | %-12s | %-10s%n", "索引", "设置", "召回率",
+                "平均距离计算", "相对精确");
+        System.out.println("-".repeat(80));
+
+        for (int t = 0; t <= trees.length; t++) {
+            TreeIndex tree = t < trees.length ? trees[t] : null;
+            String name = tree != null ? tree.getIndexName() : "Pivot Table (16 pivots)";
+
+            // 精确结果与其距离计算次数
+            List<List<MetricSpaceData>> exact = new ArrayList<>();
+            long exactDistances = 0;
+            for (VectorData query : queries) {
+                if (tree != null) {
+                    tree.resetStatistics();
+                    exact.add(tree.knnQuery(query, k));
+                    exactDistances += tree.getDistanceComputations();
+                } else {
+                    exact.add(toData(PivotTableKNNQuery.execute(pivotTable,
+                            new KNNQuery(query, k), false)));
+                    exactDistances += pivotTable.getLastQueryDistanceCalculations();
+                }
+            }
+            long budget = Math.max(1, exactDistances / queries.size() / 10);
+
+            for (String setting : settings) {
+                double recall = 0;
+                long distances = 0;
+                for (int q = 0; q < queries.size(); q++) {
+                    ApproximateKNNQuery.Builder builder =
+                            new ApproximateKNNQuery.Builder(queries.get(q), k);
+                    switch (setting) {
+                        case "ε=0.5": builder.epsilon(0.5); break;
+                        case "ε=1.0": builder.epsilon(1.0); break;
+                        case "预算10%": builder.maxDistanceComputations(budget); break;
+                        case "δ=0.1": builder.stopProbability(0.1); break;
+                        case "δ=0.01": builder.stopProbability(0.01); break;
+                        default: break;
+                    }
+                    List<MetricSpaceData> approx;
+                    if (tree != null) {
+                        tree.resetStatistics();
+                        approx = tree.knnQuery(builder.build());
+                        distances += tree.getDistanceComputations();
+                    } else {
+                        approx = toData(
+                                PivotTableKNNQuery.execute(pivotTable, builder.build(), false));
+                        distances += pivotTable.getLastQueryDistanceCalculations();
+                    }
+                    recall += recall(exact.get(q), approx);
+                }
+                System.out.printf("%-28s | %-10s | %-8.3f | %-12.1f | %9.1f%%%n", name, setting,
+                        recall / queries.size(), (double) distances / queries.size(),
+                        100.0 * distances / exactDistances);
+            }
+            System.out.println("-".repeat(80));
+        }
+    }
+
+    /**
+     * 计算召回率：近似结果中属于精确结果的比例
+     */
+    private static double recall(List<MetricSpaceData> exact, List<MetricSpaceData> approx) {
+        Set<Integer> ids = new HashSet<>();
+        for (MetricSpaceData data : exact) {
+            ids.add(data.getDataId());
+        }
+        int hits = 0;
+        for (MetricSpaceData data : approx) {
+            if (ids.contains(data.getDataId())) {
+                hits++;
+            }
+        }
+        return exact.isEmpty() ? 1.0 : (double) hits / exact.size();
+    }
+
+    /**
+     * 把kNN结果转为数据对象列表
+     */
+    private static List<MetricSpaceData> toData(List<KNNResult> results) {
+        List<MetricSpaceData> data = new ArrayList<>(results.size());
+        for (KNNResult result : results) {
+            data.add(result.getData());
+        }
+        return data;
+    }
+
     /**
      * 在向量数据集上运行实验
      */
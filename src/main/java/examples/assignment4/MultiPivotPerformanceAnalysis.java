@@ -210,8 +210,8 @@ public class MultiPivotPerformanceAnalysis {
             mvpTree.buildIndex(data, euclidean);
             cghTree.buildIndex(data, euclidean);
 
-            int mvpBuildDist = mvpTree.getBuildDistanceComputations();
-            int cghBuildDist = cghTree.getBuildDistanceComputations();
+            long mvpBuildDist = mvpTree.getBuildDistanceComputations();
+            long cghBuildDist = cghTree.getBuildDistanceComputations();
 
             VectorData query = data.get(0);
             double radius = 2.0;
@@ -0,0 +1,301 @@
+package index;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * 批量查询执行器
+ *
+ * 决定一批查询在哪些线程上执行，可以替换：
+ * 1. forkJoin：固定大小的ForkJoin线程池（默认），查询区间递归二分为小任务，
+ *    空闲线程通过工作窃取分走尚未执行的查询，代价差异很大的查询也能均衡
+ * 2. virtualThreads：运行时支持虚拟线程时每个任务一个虚拟线程，否则退化为forkJoin
+ * 3. sequential：在调用线程上依次执行（用于调试和基准对比）
+ *
+ * 执行器只负责调度，查询本身必须是线程安全的。
+ * {@link #forkJoin(int)} 创建的执行器拥有自己的线程池，用完后应调用 {@link #close()}
+ * （或放在try-with-resources中）关闭线程池；共享的默认执行器、使用调用方线程池的执行器
+ * 以及其余执行器的close()不做任何事。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public abstract class BatchExecutor implements AutoCloseable {
+
+    /** 每个工作线程平均分到的最小任务数，任务越小负载越均衡 */
+    private static final int TASKS_PER_THREAD = 64;
+
+    /** 默认的ForkJoin执行器（延迟创建） */
+    private static volatile BatchExecutor defaultExecutor;
+
+    /**
+     * 执行n个任务，按下标顺序返回结果
+     *
+     * @param n 任务数
+     * @param task 第i个任务
+     * @param <T> 结果类型
+     * @return 结果列表，第i个元素为task.apply(i)
+     */
+    public abstract <T> List<T> map(int n, IntFunction<T> task);
+
+    /**
+     * 获取执行器名称
+     */
+    public abstract String getName();
+
+    /**
+     * 释放执行器拥有的线程（默认不做任何事）
+     *
+     * 关闭后不能再执行查询。
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 默认执行器：并行度为CPU核数的ForkJoin线程池（所有批量查询共享，不需要关闭）
+     * @return 执行器
+     */
+    public static BatchExecutor forkJoin() {
+        if (defaultExecutor == null) {
+            synchronized (BatchExecutor.class) {
+                if (defaultExecutor == null) {
+                    defaultExecutor = new ForkJoinExecutor(
+                            new ForkJoinPool(Runtime.getRuntime().availableProcessors()), false);
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * 创建指定并行度的ForkJoin执行器
+     *
+     * 执行器拥有新建的线程池，调用方负责 {@link #close()}，否则线程池的线程一直保留。
+     *
+     * @param parallelism 并行度
+     * @return 执行器
+     */
+    public static BatchExecutor forkJoin(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("并行度必须大于0，当前值: " + parallelism);
+        }
+        return new ForkJoinExecutor(new ForkJoinPool(parallelism), true);
+    }
+
+    /**
+     * 使用已有的ForkJoin线程池（线程池由调用方管理，关闭执行器不会关闭它）
+     * @param pool 线程池
+     * @return 执行器
+     */
+    public static BatchExecutor forkJoin(ForkJoinPool pool) {
+        return new ForkJoinExecutor(pool, false);
+    }
+
+    /**
+     * 虚拟线程执行器
+     *
+     * 运行时不支持虚拟线程（JDK 21之前）时返回默认的ForkJoin执行器。
+     *
+     * @return 执行器
+     */
+    public static BatchExecutor virtualThreads() {
+        Method factory = virtualThreadFactory();
+        if (factory == null) {
+            return forkJoin();
+        }
+        return new ExecutorServiceExecutor("VirtualThreads", () -> {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("无法创建虚拟线程执行器", e);
+            }
+        });
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * 在调用线程上依次执行
+     * @return 执行器
+     */
+    public static BatchExecutor sequential() {
+        return new SequentialExecutor();
+    }
+
+    /**
+     * 查找Executors.newVirtualThreadPerTaskExecutor（通过反射，保持源码兼容旧版本JDK）
+     */
+    private static Method virtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 计算任务粒度：保证每个线程平均至少有TASKS_PER_THREAD个任务
+     */
+    private static int grainSize(int n, int parallelism) {
+        return Math.max(1, n / (parallelism * TASKS_PER_THREAD));
+    }
+
+    /**
+     * ForkJoin执行器：下标区间递归二分，叶子任务在窃取到它的线程上执行
+     */
+    private static class ForkJoinExecutor extends BatchExecutor {
+        private final ForkJoinPool pool;
+
+        /** 线程池是否由本执行器创建（关闭执行器时一并关闭） */
+        private final boolean owned;
+
+        ForkJoinExecutor(ForkJoinPool pool, boolean owned) {
+            this.pool = pool;
+            this.owned = owned;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> map(int n, IntFunction<T> task) {
+            Object[] results = new Object[n];
+            int grain = grainSize(n, pool.getParallelism());
+            pool.invoke(new RangeTask(0, n, grain, i -> results[i] = task.apply(i)));
+            List<T> list = new ArrayList<>(n);
+            for (Object result : results) {
+                list.add((T) result);
+            }
+            return list;
+        }
+
+        @Override
+        public String getName() {
+            return "ForkJoin(" + pool.getParallelism() + ")";
+        }
+
+        @Override
+        public void close() {
+            if (owned) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 执行下标区间 [from, to) 的ForkJoin任务
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final IntConsumer body;
+
+        RangeTask(int from, int to, int grain, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    body.accept(i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+        }
+    }
+
+    /**
+     * 基于ExecutorService的执行器：每批查询创建一个新的ExecutorService，执行完后关闭
+     */
+    private static class ExecutorServiceExecutor extends BatchExecutor {
+        private final String name;
+        private final Supplier<ExecutorService> factory;
+
+        ExecutorServiceExecutor(String name, Supplier<ExecutorService> factory) {
+            this.name = name;
+            this.factory = factory;
+        }
+
+        @Override
+        public <T> List<T> map(int n, IntFunction<T> task) {
+            int grain = grainSize(n, Runtime.getRuntime().availableProcessors());
+            ExecutorService service = factory.get();
+            try {
+                List<Future<List<T>>> futures = new ArrayList<>();
+                for (int from = 0; from < n; from += grain) {
+                    final int start = from;
+                    final int end = Math.min(n, from + grain);
+                    futures.add(service.submit(() -> {
+                        List<T> chunk = new ArrayList<>(end - start);
+                        for (int i = start; i < end; i++) {
+                            chunk.add(task.apply(i));
+                        }
+                        return chunk;
+                    }));
+                }
+                List<T> results = new ArrayList<>(n);
+                for (Future<List<T>> future : futures) {
+                    results.addAll(future.get());
+                }
+                return results;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("批量查询被中断", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("批量查询执行失败", e.getCause());
+            } finally {
+                service.shutdown();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * 串行执行器
+     */
+    private static class SequentialExecutor extends BatchExecutor {
+        @Override
+        public <T> List<T> map(int n, IntFunction<T> task) {
+            List<T> results = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                results.add(task.apply(i));
+            }
+            return results;
+        }
+
+        @Override
+        public String getName() {
+            return "Sequential";
+        }
+    }
+}
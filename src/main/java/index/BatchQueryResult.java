@@ -0,0 +1,105 @@
+package index;
+
+import core.MetricSpaceData;
+
+import java.util.List;
+
+/**
+ * 批量查询结果
+ *
+ * 包含每个查询的结果（与查询列表一一对应）以及整批查询的汇总统计。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class BatchQueryResult {
+
+    /** 每个查询的结果 */
+    private final List<List<MetricSpaceData>> results;
+
+    /** 整批查询的距离计算次数 */
+    private final long distanceComputations;
+
+    /** 整批查询的耗时（毫秒） */
+    private final long elapsedMs;
+
+    /** 使用的执行器名称 */
+    private final String executorName;
+
+    /**
+     * 构造批量查询结果
+     * @param results 每个查询的结果
+     * @param distanceComputations 距离计算次数
+     * @param elapsedMs 耗时（毫秒）
+     * @param executorName 执行器名称
+     */
+    public BatchQueryResult(List<List<MetricSpaceData>> results, long distanceComputations,
+            long elapsedMs, String executorName) {
+        this.results = results;
+        this.distanceComputations = distanceComputations;
+        this.elapsedMs = elapsedMs;
+        this.executorName = executorName;
+    }
+
+    /**
+     * 获取第i个查询的结果
+     * @param i 查询下标
+     * @return 查询结果
+     */
+    public List<MetricSpaceData> getResult(int i) {
+        return results.get(i);
+    }
+
+    public List<List<MetricSpaceData>> getResults() {
+        return results;
+    }
+
+    public int getNumQueries() {
+        return results.size();
+    }
+
+    public long getDistanceComputations() {
+        return distanceComputations;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public String getExecutorName() {
+        return executorName;
+    }
+
+    /**
+     * 获取平均每个查询的距离计算次数
+     */
+    public double getAverageDistanceComputations() {
+        return results.isEmpty() ? 0 : (double) distanceComputations / results.size();
+    }
+
+    /**
+     * 获取吞吐量（查询数/秒）
+     */
+    public double getThroughput() {
+        return results.size() * 1000.0 / Math.max(1, elapsedMs);
+    }
+
+    /**
+     * 获取所有查询的结果总数
+     */
+    public long getTotalResultCount() {
+        long total = 0;
+        for (List<MetricSpaceData> result : results) {
+            total += result.size();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchQueryResult[queries=%d, results=%d, distanceComputations=%d, "
+                + "avgDistanceComputations=%.1f, time=%d ms, throughput=%.1f q/s, executor=%s]",
+                getNumQueries(), getTotalResultCount(), distanceComputations,
+                getAverageDistanceComputations(), elapsedMs, getThroughput(), executorName);
+    }
+}
@@ -0,0 +1,33 @@
+package index;
+
+import core.MetricSpaceData;
+import query.KNNResult;
+import query.SharedKnnBound;
+
+import java.util.List;
+
+/**
+ * 可以与其他索引协同执行kNN查询的索引
+ *
+ * 同一个kNN查询分散到多个索引（例如分片）上并发执行时，各索引通过 {@link SharedKnnBound}
+ * 共享第k近邻距离的上界：剪枝半径取本地第k近邻距离和共享上界中较小的一个，
+ * 本地结果堆满后把堆顶距离提交给共享上界。合并各索引返回的结果并取最近的k个，即为全局的k近邻。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public interface BoundedKnnIndex extends Index {
+
+    /**
+     * 在共享上界下执行kNN查询
+     *
+     * 返回的结果是本索引中的候选（按距离升序，至多k个），全局的k近邻一定都在各索引候选的并集中；
+     * 距离超过共享上界的候选可能不完整，但它们本来也不会进入全局结果。
+     *
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @param bound 共享的第k近邻距离上界
+     * @return 带距离的候选列表（按距离升序）
+     */
+    List<KNNResult> knnQuery(MetricSpaceData queryObject, int k, SharedKnnBound bound);
+}
@@ -0,0 +1,147 @@
+package index;
+
+import core.MetricSpaceData;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * 可查询的索引接口
+ *
+ * 定义了所有索引结构的查询和统计操作：范围查询、k近邻查询、批量查询和统计信息。
+ * 可以构建的索引实现 {@link Index}；只读的索引视图（例如冻结布局和分页树）只实现本接口，
+ * 它们由已构建的索引导出，没有构建操作。
+ * 批量查询会在多个线程上同时调用单个查询方法，因此实现类的查询方法需要是线程安全的。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public interface SearchIndex {
+
+    /**
+     * 范围查询
+     *
+     * 找出所有与查询对象距离不超过radius的数据对象
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @return 满足条件的数据对象列表
+     */
+    List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius);
+
+    /**
+     * k近邻查询
+     *
+     * 找出与查询对象最近的k个数据对象
+     *
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @return k个最近邻数据对象列表（按距离升序排序）
+     */
+    List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k);
+
+    /**
+     * 批量范围查询（使用默认的ForkJoin执行器）
+     *
+     * @param queries 查询对象列表
+     * @param radius 查询半径
+     * @return 每个查询的结果及汇总统计
+     */
+    default BatchQueryResult batchRangeQuery(List<? extends MetricSpaceData> queries,
+            double radius) {
+        return batchRangeQuery(queries, radius, BatchExecutor.forkJoin());
+    }
+
+    /**
+     * 批量范围查询
+     *
+     * @param queries 查询对象列表
+     * @param radius 查询半径
+     * @param executor 执行器
+     * @return 每个查询的结果及汇总统计
+     */
+    default BatchQueryResult batchRangeQuery(List<? extends MetricSpaceData> queries,
+            double radius, BatchExecutor executor) {
+        return runBatch(queries.size(), executor, i -> rangeQuery(queries.get(i), radius));
+    }
+
+    /**
+     * 批量k近邻查询（使用默认的ForkJoin执行器）
+     *
+     * @param queries 查询对象列表
+     * @param k 近邻数量
+     * @return 每个查询的结果及汇总统计
+     */
+    default BatchQueryResult batchKnnQuery(List<? extends MetricSpaceData> queries, int k) {
+        return batchKnnQuery(queries, k, BatchExecutor.forkJoin());
+    }
+
+    /**
+     * 批量k近邻查询
+     *
+     * @param queries 查询对象列表
+     * @param k 近邻数量
+     * @param executor 执行器
+     * @return 每个查询的结果及汇总统计
+     */
+    default BatchQueryResult batchKnnQuery(List<? extends MetricSpaceData> queries, int k,
+            BatchExecutor executor) {
+        return runBatch(queries.size(), executor, i -> knnQuery(queries.get(i), k));
+    }
+
+    /**
+     * 在执行器上运行一批查询并汇总统计
+     *
+     * 距离计算次数取批量查询前后累计值之差（累计值是long，实际不会溢出）；
+     * 批量查询期间如有其他线程查询同一索引，其计数也会被计入。
+     *
+     * @param numQueries 查询数
+     * @param executor 执行器
+     * @param query 第i个查询
+     * @return 批量查询结果
+     */
+    private BatchQueryResult runBatch(int numQueries, BatchExecutor executor,
+            IntFunction<List<MetricSpaceData>> query) {
+        long before = getDistanceComputations();
+        long startTime = System.currentTimeMillis();
+        List<List<MetricSpaceData>> results = executor.map(numQueries, query);
+        long elapsedMs = System.currentTimeMillis() - startTime;
+        long distanceComputations = getDistanceComputations() - before;
+        return new BatchQueryResult(results, distanceComputations, elapsedMs,
+                executor.getName());
+    }
+
+    /**
+     * 获取索引的统计信息
+     *
+     * @return 包含索引统计信息的字符串
+     */
+    String getStatistics();
+
+    /**
+     * 获取索引名称
+     *
+     * @return 索引的名称
+     */
+    String getIndexName();
+
+    /**
+     * 重置统计信息
+     *
+     * 清除查询过程中累计的统计数据，如距离计算次数等
+     */
+    void resetStatistics();
+
+    /**
+     * 获取查询过程中的距离计算次数
+     *
+     * @return 距离计算次数
+     */
+    long getDistanceComputations();
+
+    /**
+     * 获取数据集大小
+     *
+     * @return 数据集中数据对象的数量
+     */
+    int getDatasetSize();
+}
@@ -0,0 +1,363 @@
+package index.graph;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import index.BatchExecutor;
+import index.tree.TreeIndex;
+import index.tree.common.TreeConfig;
+import index.tree.vptree.VPTree;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * k近邻图
+ *
+ * 数据集中每个对象到其k个最近邻（不含自身）的有向边。对象用它在数据集列表中的下标表示，
+ * 邻接表紧凑地存放在两个数组中：第i个对象的第j近邻为 neighbors[i*k + j]，距离为 distances[i*k + j]
+ * （float）。对象数不足k+1时多余的位置为-1。
+ *
+ * 由 {@link Builder} 构建，支持两种方式：
+ * 1. EXACT：在数据集上建立树索引，用共享遍历的全kNN查询求精确的近邻（见 {@link TreeIndex#allKnnQuery}）
+ * 2. NN_DESCENT：从随机近邻开始，反复用“近邻的近邻”改进近邻表，得到近似的近邻图（见 {@link NNDescent}）
+ *
+ * 两种方式都只通过 {@link MetricFunction} 计算距离，适用于任意度量空间。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public final class KNNGraph {
+
+    /** 单个数组的最大长度（部分JVM保留数组头，留出余量） */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /** 构建方式 */
+    public enum Strategy {
+        /** 基于树索引的精确kNN图 */
+        EXACT,
+        /** NN-descent近似kNN图 */
+        NN_DESCENT
+    }
+
+    /** 对象数 */
+    private final int size;
+
+    /** 每个对象的近邻数 */
+    private final int k;
+
+    /** 邻接表（行优先，-1表示空位） */
+    private final int[] neighbors;
+
+    /** 与邻接表对应的距离 */
+    private final float[] distances;
+
+    /** 构建方式 */
+    private final Strategy strategy;
+
+    /** 构建时的距离计算次数 */
+    private final long distanceComputations;
+
+    /** 构建时间（毫秒） */
+    private final long buildTimeMs;
+
+    /**
+     * 计算n个对象、每个对象k个近邻的邻接表长度
+     *
+     * @param n 对象数
+     * @param k 每个对象的近邻数
+     * @return n * k
+     * @throws IllegalArgumentException 如果邻接表超过单个数组的上限
+     */
+    static int tableLength(int n, int k) {
+        long length = (long) n * k;
+        if (length > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "k近邻图过大: %d个对象 x %d个近邻 = %d项，超过单个数组的上限%d，请减小k或把数据分片",
+                    n, k, length, MAX_ARRAY_LENGTH));
+        }
+        return (int) length;
+    }
+
+    KNNGraph(int size, int k, int[] neighbors, float[] distances, Strategy strategy,
+            long distanceComputations, long buildTimeMs) {
+        this.size = size;
+        this.k = k;
+        this.neighbors = neighbors;
+        this.distances = distances;
+        this.strategy = strategy;
+        this.distanceComputations = distanceComputations;
+        this.buildTimeMs = buildTimeMs;
+    }
+
+    /**
+     * 获取对象数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 获取每个对象的近邻数k
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * 获取第i个对象的实际近邻数（对象数不足k+1时小于k）
+     *
+     * @param i 对象下标
+     * @return 近邻数
+     */
+    public int degree(int i) {
+        int d = 0;
+        while (d < k && neighbors[i * k + d] >= 0) {
+            d++;
+        }
+        return d;
+    }
+
+    /**
+     * 获取第i个对象的第j近邻
+     *
+     * @param i 对象下标
+     * @param j 近邻序号（0为最近）
+     * @return 近邻的下标，空位为-1
+     */
+    public int neighbor(int i, int j) {
+        return neighbors[i * k + j];
+    }
+
+    /**
+     * 获取第i个对象到其第j近邻的距离
+     *
+     * @param i 对象下标
+     * @param j 近邻序号（0为最近）
+     * @return 距离
+     */
+    public float distance(int i, int j) {
+        return distances[i * k + j];
+    }
+
+    /**
+     * 获取第i个对象的近邻（按距离升序，不含空位）
+     *
+     * @param i 对象下标
+     * @return 近邻下标数组（副本）
+     */
+    public int[] getNeighbors(int i) {
+        return Arrays.copyOfRange(neighbors, i * k, i * k + degree(i));
+    }
+
+    /**
+     * 计算相对于精确kNN图的召回率：各对象近邻中，距离不超过精确第k近邻距离的比例
+     *
+     * 按距离而不是按下标比较，距离相同的近邻互相替换不算错误。
+     *
+     * @param exact 同一数据集、同一k的精确kNN图
+     * @return 召回率（0到1之间）
+     */
+    public double recall(KNNGraph exact) {
+        if (exact.size != size || exact.k != k) {
+            throw new IllegalArgumentException("两个kNN图的对象数或k不同");
+        }
+        long hits = 0;
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            int d = exact.degree(i);
+            if (d == 0) {
+                continue;
+            }
+            float kth = exact.distance(i, d - 1);
+            for (int j = 0; j < d; j++) {
+                if (neighbors[i * k + j] >= 0 && distances[i * k + j] <= kth) {
+                    hits++;
+                }
+            }
+            total += d;
+        }
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public long getDistanceComputations() {
+        return distanceComputations;
+    }
+
+    public long getBuildTimeMs() {
+        return buildTimeMs;
+    }
+
+    /**
+     * 获取邻接表占用的字节数
+     */
+    public long getMemoryBytes() {
+        return 4L * neighbors.length + 4L * distances.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KNNGraph[n=%d, k=%d, strategy=%s, distances=%,d, time=%dms]", size,
+                k, strategy, distanceComputations, buildTimeMs);
+    }
+
+    /**
+     * kNN图构建器
+     */
+    public static class Builder {
+        private final List<? extends MetricSpaceData> data;
+        private final MetricFunction metric;
+        private final int k;
+        private Strategy strategy = Strategy.EXACT;
+        private TreeIndex tree;
+        private int groupSize = TreeIndex.DEFAULT_QUERY_GROUP_SIZE;
+        private BatchExecutor executor;
+        private int maxIterations = 20;
+        private double sampleRate = 1.0;
+        private double terminationThreshold = 0.001;
+        private long randomSeed = 42;
+
+        /**
+         * @param data 数据集（同一实例不能出现两次）
+         * @param metric 距离函数
+         * @param k 每个对象的近邻数，必须 > 0
+         */
+        public Builder(List<? extends MetricSpaceData> data, MetricFunction metric, int k) {
+            if (data == null || data.isEmpty()) {
+                throw new IllegalArgumentException("数据集不能为空");
+            }
+            if (metric == null) {
+                throw new IllegalArgumentException("距离函数不能为空");
+            }
+            if (k <= 0) {
+                throw new IllegalArgumentException("k必须大于0");
+            }
+            tableLength(data.size(), k);
+            this.data = data;
+            this.metric = metric;
+            this.k = k;
+        }
+
+        /**
+         * 设置构建方式（默认EXACT）
+         */
+        public Builder strategy(Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * 设置精确方式使用的树索引（构建时在数据集上重新建树；默认为VP树）
+         */
+        public Builder tree(TreeIndex tree) {
+            this.tree = tree;
+            return this;
+        }
+
+        /**
+         * 设置精确方式中共享遍历的组大小
+         */
+        public Builder groupSize(int groupSize) {
+            if (groupSize <= 0) {
+                throw new IllegalArgumentException("查询组大小必须大于0，当前值: " + groupSize);
+            }
+            this.groupSize = groupSize;
+            return this;
+        }
+
+        /**
+         * 设置执行器（默认为共享的ForkJoin执行器）
+         */
+        public Builder executor(BatchExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 设置NN-descent的最大迭代次数
+         */
+        public Builder maxIterations(int maxIterations) {
+            if (maxIterations <= 0) {
+                throw new IllegalArgumentException("最大迭代次数必须大于0: " + maxIterations);
+            }
+            this.maxIterations = maxIterations;
+            return this;
+        }
+
+        /**
+         * 设置NN-descent的采样率ρ（每轮从新近邻和反向近邻中各取 ρk 个参与局部连接）
+         */
+        public Builder sampleRate(double sampleRate) {
+            if (!(sampleRate > 0 && sampleRate <= 1)) {
+                throw new IllegalArgumentException("采样率必须在(0,1]之间: " + sampleRate);
+            }
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * 设置NN-descent的终止阈值δ（一轮中近邻表的更新次数少于 δnk 时停止）
+         */
+        public Builder terminationThreshold(double terminationThreshold) {
+            if (!(terminationThreshold >= 0 && terminationThreshold < 1)) {
+                throw new IllegalArgumentException("终止阈值必须在[0,1)之间: "
+                        + terminationThreshold);
+            }
+            this.terminationThreshold = terminationThreshold;
+            return this;
+        }
+
+        /**
+         * 设置NN-descent的随机种子
+         */
+        public Builder randomSeed(long randomSeed) {
+            this.randomSeed = randomSeed;
+            return this;
+        }
+
+        public KNNGraph build() {
+            BatchExecutor exec = executor != null ? executor : BatchExecutor.forkJoin();
+            long startTime = System.currentTimeMillis();
+            if (strategy == Strategy.NN_DESCENT) {
+                NNDescent descent = new NNDescent(data, metric, k, exec);
+                descent.run(maxIterations, sampleRate, terminationThreshold, randomSeed);
+                return descent.toGraph(System.currentTimeMillis() - startTime);
+            }
+            return buildExact(exec, startTime);
+        }
+
+        private KNNGraph buildExact(BatchExecutor exec, long startTime) {
+            int n = data.size();
+            Map<MetricSpaceData, Integer> rows = new IdentityHashMap<>(n);
+            for (int i = 0; i < n; i++) {
+                if (rows.put(data.get(i), i) != null) {
+                    throw new IllegalArgumentException("数据集中同一对象出现了多次: " + data.get(i));
+                }
+            }
+            TreeIndex index = tree != null ? tree
+                    : new VPTree(new TreeConfig.Builder().randomSeed(randomSeed).build());
+            index.buildIndex(data, metric);
+
+            int length = tableLength(n, k);
+            int[] neighbors = new int[length];
+            float[] distances = new float[length];
+            Arrays.fill(neighbors, -1);
+            long queryComputations = index.allKnnQuery(k, groupSize, exec,
+                    (object, count, found, dist) -> {
+                        int base = rows.get(object) * k;
+                        for (int j = 0; j < count; j++) {
+                            neighbors[base + j] = rows.get(found[j]);
+                            distances[base + j] = (float) dist[j];
+                        }
+                    });
+            long computations = index.getBuildDistanceComputations() + queryComputations;
+            return new KNNGraph(n, k, neighbors, distances, Strategy.EXACT, computations,
+                    System.currentTimeMillis() - startTime);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package index.graph;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import index.BatchExecutor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NN-descent近似kNN图构建
+ *
+ * 基本思想是“近邻的近邻很可能也是近邻”：
+ * 1. 每个对象从k个随机对象开始，近邻表是容量为k的最大堆，新加入的近邻标记为“新”
+ * 2. 每一轮为每个对象v收集两组候选：新近邻（抽样ρk个，取出后标记为旧）和旧近邻，
+ *    再分别并入抽样的反向近邻（把v当作近邻的对象）
+ * 3. 局部连接：v的新候选两两之间、新候选与旧候选之间计算距离，尝试互相加入近邻表；
+ *    两个旧候选之间在之前的轮次中已经比较过，不再重复
+ * 4. 一轮中近邻表的更新次数少于 δnk 时停止
+ *
+ * 采样在调用线程上用一个随机数生成器完成（结果可重复）；局部连接在执行器上并行，
+ * 近邻表的更新按对象分段加锁。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class NNDescent {
+
+    /** 近邻表锁的段数 */
+    private static final int LOCK_STRIPES = 1024;
+
+    private final List<? extends MetricSpaceData> data;
+    private final MetricFunction metric;
+    private final BatchExecutor executor;
+
+    /** 对象数 */
+    private final int n;
+
+    /** 输出的近邻数k */
+    private final int k;
+
+    /** 每个近邻表的容量：min(k, n-1) */
+    private final int capacity;
+
+    /** 近邻表（每个对象一段，段内是按距离的最大堆） */
+    private final int[] ids;
+    private final double[] distances;
+    private final boolean[] isNew;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final LongAdder distanceComputations = new LongAdder();
+
+    NNDescent(List<? extends MetricSpaceData> data, MetricFunction metric, int k,
+            BatchExecutor executor) {
+        this.data = data;
+        this.metric = metric;
+        this.executor = executor;
+        this.n = data.size();
+        this.k = k;
+        this.capacity = Math.min(k, n - 1);
+        int length = KNNGraph.tableLength(n, capacity);
+        this.ids = new int[length];
+        this.distances = new double[length];
+        this.isNew = new boolean[length];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 执行NN-descent
+     *
+     * @param maxIterations 最大迭代次数
+     * @param sampleRate 采样率ρ
+     * @param threshold 终止阈值δ
+     * @param seed 随机种子
+     */
+    void run(int maxIterations, double sampleRate, double threshold, long seed) {
+        if (capacity == 0) {
+            return;
+        }
+        Random random = new Random(seed);
+        initialize(random);
+        int sampleSize = Math.max(1, (int) Math.ceil(sampleRate * capacity));
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            int[][] newCandidates = new int[n][];
+            int[][] oldCandidates = new int[n][];
+            sample(random, sampleSize, newCandidates, oldCandidates);
+
+            LongAdder updates = new LongAdder();
+            executor.map(n, v -> {
+                updates.add(localJoin(newCandidates[v], oldCandidates[v]));
+                return null;
+            });
+            if (updates.sum() < threshold * n * capacity) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 每个对象取capacity个不同的随机对象作为初始近邻
+     */
+    private void initialize(Random random) {
+        for (int v = 0; v < n; v++) {
+            int base = v * capacity;
+            int filled = 0;
+            while (filled < capacity) {
+                int u = random.nextInt(n);
+                if (u != v && !contains(base, filled, u)) {
+                    ids[base + filled++] = u;
+                }
+            }
+        }
+        executor.map(n, v -> {
+            int base = v * capacity;
+            for (int j = 0; j < capacity; j++) {
+                distances[base + j] = distance(v, ids[base + j]);
+                isNew[base + j] = true;
+            }
+            for (int j = capacity / 2 - 1; j >= 0; j--) {
+                siftDown(base, j);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 为每个对象收集本轮的新候选和旧候选（各自并入抽样的反向近邻）
+     */
+    private void sample(Random random, int sampleSize, int[][] newCandidates,
+            int[][] oldCandidates) {
+        int[][] forwardNew = new int[n][];
+        int[][] forwardOld = new int[n][];
+        int[] slots = new int[capacity];
+        for (int v = 0; v < n; v++) {
+            int base = v * capacity;
+            int fresh = 0;
+            int old = 0;
+            for (int j = 0; j < capacity; j++) {
+                if (isNew[base + j]) {
+                    slots[fresh++] = j;
+                } else {
+                    old++;
+                }
+            }
+            forwardOld[v] = new int[old];
+            old = 0;
+            for (int j = 0; j < capacity; j++) {
+                if (!isNew[base + j]) {
+                    forwardOld[v][old++] = ids[base + j];
+                }
+            }
+            // 新近邻中随机取sampleSize个（部分洗牌），取出的标记为旧；其余新近邻留到下一轮
+            int taken = Math.min(fresh, sampleSize);
+            forwardNew[v] = new int[taken];
+            for (int t = 0; t < taken; t++) {
+                int pick = t + random.nextInt(fresh - t);
+                int slot = slots[pick];
+                slots[pick] = slots[t];
+                forwardNew[v][t] = ids[base + slot];
+                isNew[base + slot] = false;
+            }
+        }
+
+        int[][] reverseNew = reverse(forwardNew);
+        int[][] reverseOld = reverse(forwardOld);
+        for (int v = 0; v < n; v++) {
+            newCandidates[v] = union(forwardNew[v], reverseNew[v], sampleSize, random);
+            oldCandidates[v] = union(forwardOld[v], reverseOld[v], sampleSize, random);
+        }
+    }
+
+    /**
+     * 反向候选：v的候选u产生u的反向候选v
+     */
+    private int[][] reverse(int[][] forward) {
+        int[] counts = new int[n];
+        for (int[] list : forward) {
+            for (int u : list) {
+                counts[u]++;
+            }
+        }
+        int[][] result = new int[n][];
+        for (int u = 0; u < n; u++) {
+            result[u] = new int[counts[u]];
+            counts[u] = 0;
+        }
+        for (int v = 0; v < n; v++) {
+            for (int u : forward[v]) {
+                result[u][counts[u]++] = v;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把反向候选中随机的至多sampleSize个并入候选（去重）
+     */
+    private static int[] union(int[] candidates, int[] reverse, int sampleSize,
+            Random random) {
+        int taken = Math.min(reverse.length, sampleSize);
+        int[] merged = Arrays.copyOf(candidates, candidates.length + taken);
+        int count = candidates.length;
+        for (int t = 0; t < taken; t++) {
+            int pick = t + random.nextInt(reverse.length - t);
+            int u = reverse[pick];
+            reverse[pick] = reverse[t];
+            reverse[t] = u;
+            boolean duplicate = false;
+            for (int c = 0; c < count; c++) {
+                if (merged[c] == u) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                merged[count++] = u;
+            }
+        }
+        return count == merged.length ? merged : Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * 局部连接：新候选两两之间、新候选与旧候选之间互相尝试加入近邻表
+     *
+     * @return 近邻表的更新次数
+     */
+    private int localJoin(int[] fresh, int[] old) {
+        int updates = 0;
+        for (int a = 0; a < fresh.length; a++) {
+            int u1 = fresh[a];
+            for (int b = a + 1; b < fresh.length; b++) {
+                updates += join(u1, fresh[b]);
+            }
+            for (int u2 : old) {
+                if (u2 != u1) {
+                    updates += join(u1, u2);
+                }
+            }
+        }
+        return updates;
+    }
+
+    private int join(int u1, int u2) {
+        double d = distance(u1, u2);
+        return (update(u1, u2, d) ? 1 : 0) + (update(u2, u1, d) ? 1 : 0);
+    }
+
+    /**
+     * 尝试把u加入v的近邻表（比当前第k近邻近且尚不在表中时替换堆顶）
+     */
+    private boolean update(int v, int u, double d) {
+        int base = v * capacity;
+        synchronized (locks[v % LOCK_STRIPES]) {
+            if (d >= distances[base] || contains(base, capacity, u)) {
+                return false;
+            }
+            ids[base] = u;
+            distances[base] = d;
+            isNew[base] = true;
+            siftDown(base, 0);
+            return true;
+        }
+    }
+
+    private void siftDown(int base, int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= capacity) {
+                return;
+            }
+            if (child + 1 < capacity && distances[base + child + 1] > distances[base + child]) {
+                child++;
+            }
+            if (distances[base + i] >= distances[base + child]) {
+                return;
+            }
+            swap(base + i, base + child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double d = distances[a];
+        distances[a] = distances[b];
+        distances[b] = d;
+        boolean flag = isNew[a];
+        isNew[a] = isNew[b];
+        isNew[b] = flag;
+    }
+
+    private boolean contains(int base, int length, int u) {
+        for (int j = 0; j < length; j++) {
+            if (ids[base + j] == u) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double distance(int a, int b) {
+        distanceComputations.increment();
+        return metric.getDistance(data.get(a), data.get(b));
+    }
+
+    /**
+     * 按距离升序导出为kNN图
+     *
+     * @param buildTimeMs 构建时间
+     * @return kNN图
+     */
+    KNNGraph toGraph(long buildTimeMs) {
+        int length = KNNGraph.tableLength(n, k);
+        int[] neighbors = new int[length];
+        float[] dists = new float[length];
+        Arrays.fill(neighbors, -1);
+        Integer[] order = new Integer[capacity];
+        for (int v = 0; v < n; v++) {
+            int base = v * capacity;
+            for (int j = 0; j < capacity; j++) {
+                order[j] = base + j;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+            for (int j = 0; j < capacity; j++) {
+                neighbors[v * k + j] = ids[order[j]];
+                dists[v * k + j] = (float) distances[order[j]];
+            }
+        }
+        return new KNNGraph(n, k, neighbors, dists, KNNGraph.Strategy.NN_DESCENT,
+                distanceComputations.sum(), buildTimeMs);
+    }
+}
@@ -0,0 +1,474 @@
+package index.pivottable;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分块存储在磁盘上的Pivot Table（外存模式）
+ *
+ * 适用于数据集大于内存的情况：
+ * 1. 数据按固定行数分块，每块有一个距离块文件（行 x 支撑点的double）和一个对象文件
+ * 2. 查询时顺序扫描各块，并预读下一块的距离块
+ * 3. 先用距离块做支撑点过滤，只有幸存的行才从对象文件中读取完整对象，按块内行号升序读取
+ *
+ * 内存中只保留支撑点和每块的行数。查询见 {@link PivotTableRangeQuery} 和 {@link PivotTableKNNQuery}。
+ * 预读线程由表持有并在查询之间复用，同时进行的查询各用一个预读线程；
+ * 线程是守护线程，空闲一段时间后自动结束。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class ChunkedPivotTable {
+
+    /** 元数据文件名（支撑点和每块行数） */
+    private static final String META_FILE = "pivot-table.meta";
+
+    /** 单个距离块的最大字节数（读取时整块放入一个数组） */
+    private static final long MAX_BLOCK_BYTES = Integer.MAX_VALUE - 8;
+
+    /** 预读线程空闲多久后结束（秒） */
+    private static final long READ_AHEAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final File directory; // 存储目录
+    private final List<MetricSpaceData> pivots; // 支撑点列表
+    private final MetricFunction metric; // 距离函数
+    private final int[] chunkRowCounts; // 每块的行数
+    private final long datasetSize; // 总行数
+
+    // 统计信息
+    private long buildDistanceCalculations; // 构建时的距离计算次数
+
+    // 查询统计信息（当前线程的最后一次查询）：[距离计算次数, 剪枝数量, 验证数量, 读取字节数]
+    // 按线程保存，多个线程同时查询同一个表时互不干扰
+    private final ThreadLocal<long[]> lastQueryStatistics =
+            ThreadLocal.withInitial(() -> new long[4]);
+
+    // 距离块预读线程（按需创建，查询之间复用）
+    private final ExecutorService readAhead = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            READ_AHEAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                Thread thread = new Thread(r, "pivot-table-read-ahead");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private ChunkedPivotTable(File directory, List<MetricSpaceData> pivots, MetricFunction metric,
+            int[] chunkRowCounts) {
+        this.directory = directory;
+        this.pivots = pivots;
+        this.metric = metric;
+        this.chunkRowCounts = chunkRowCounts;
+        long total = 0;
+        for (int count : chunkRowCounts) {
+            total += count;
+        }
+        this.datasetSize = total;
+    }
+
+    /**
+     * 流式构建分块Pivot Table
+     *
+     * 数据只需顺序遍历一次，任意时刻内存中最多保留一块数据。
+     * 支撑点需要预先选好（例如在内存中的样本上用 {@link PivotSelector} 选择）。
+     *
+     * @param data 数据源
+     * @param pivots 支撑点列表
+     * @param metric 距离函数
+     * @param directory 存储目录（不存在时自动创建）
+     * @param chunkSize 每块的行数
+     * @param verbose 是否打印详细信息
+     * @return 分块Pivot Table
+     * @throws IOException 如果写入失败
+     */
+    public static ChunkedPivotTable build(Iterable<? extends MetricSpaceData> data,
+            List<? extends MetricSpaceData> pivots, MetricFunction metric, File directory,
+            int chunkSize, boolean verbose) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("每块行数必须大于0");
+        }
+        if (pivots.isEmpty()) {
+            throw new IllegalArgumentException("支撑点列表不能为空");
+        }
+        if (8L * chunkSize * pivots.size() > MAX_BLOCK_BYTES) {
+            throw new IllegalArgumentException(String.format(
+                    "距离块过大: %d行 x %d个支撑点超过单块上限%d字节，请减小每块行数",
+                    chunkSize, pivots.size(), MAX_BLOCK_BYTES));
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录: " + directory);
+        }
+
+        if (verbose) {
+            System.out.println("=== 开始构建分块Pivot Table ===");
+            System.out.println("存储目录: " + directory);
+            System.out.println("支撑点数量: " + pivots.size());
+            System.out.println("每块行数: " + chunkSize);
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<Integer> rowCounts = new ArrayList<>();
+        List<MetricSpaceData> buffer = new ArrayList<>(chunkSize);
+        long distanceCalculations = 0;
+
+        Iterator<? extends MetricSpaceData> iterator = data.iterator();
+        while (iterator.hasNext()) {
+            buffer.add(iterator.next());
+            if (buffer.size() == chunkSize || !iterator.hasNext()) {
+                distanceCalculations += writeChunk(directory, rowCounts.size(), buffer, pivots,
+                        metric);
+                rowCounts.add(buffer.size());
+                buffer.clear();
+
+                if (verbose && rowCounts.size() % 10 == 0) {
+                    System.out.println("  已写入块数: " + rowCounts.size());
+                }
+            }
+        }
+
+        int[] chunkRowCounts = rowCounts.stream().mapToInt(Integer::intValue).toArray();
+        List<MetricSpaceData> pivotList = new ArrayList<>(pivots);
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, META_FILE))))) {
+            out.writeObject(pivotList);
+            out.writeObject(chunkRowCounts);
+        }
+
+        ChunkedPivotTable table =
+                new ChunkedPivotTable(directory, pivotList, metric, chunkRowCounts);
+        table.buildDistanceCalculations = distanceCalculations;
+
+        if (verbose) {
+            System.out.println("分块Pivot Table构建完成:");
+            System.out.println("  总行数: " + table.datasetSize);
+            System.out.println("  块数: " + chunkRowCounts.length);
+            System.out.println("  距离计算次数: " + distanceCalculations);
+            System.out.println("  耗时: " + (System.currentTimeMillis() - startTime) + " ms");
+            System.out.println("=================================\n");
+        }
+        return table;
+    }
+
+    /**
+     * 打开已构建的分块Pivot Table
+     * @param directory 存储目录
+     * @param metric 距离函数（须与构建时一致）
+     * @return 分块Pivot Table
+     * @throws IOException 如果读取失败
+     */
+    @SuppressWarnings("unchecked")
+    public static ChunkedPivotTable open(File directory, MetricFunction metric)
+            throws IOException {
+        try (ObjectInputStream in =
+                new ObjectInputStream(new FileInputStream(new File(directory, META_FILE)))) {
+            List<MetricSpaceData> pivots = (List<MetricSpaceData>) in.readObject();
+            int[] chunkRowCounts = (int[]) in.readObject();
+            return new ChunkedPivotTable(directory, pivots, metric, chunkRowCounts);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("元数据格式错误: " + directory, e);
+        }
+    }
+
+    /**
+     * 写入一块数据：距离块文件和对象文件
+     *
+     * 对象文件格式：行数、count+1个偏移量、各对象的序列化字节。
+     *
+     * @return 距离计算次数
+     */
+    private static long writeChunk(File directory, int chunk, List<MetricSpaceData> rows,
+            List<? extends MetricSpaceData> pivots, MetricFunction metric) throws IOException {
+        int k = pivots.size();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(distanceFile(directory, chunk)), 1 << 16))) {
+            for (MetricSpaceData row : rows) {
+                for (int j = 0; j < k; j++) {
+                    out.writeDouble(metric.getDistance(row, pivots.get(j)));
+                }
+            }
+        }
+
+        List<byte[]> records = new ArrayList<>(rows.size());
+        for (MetricSpaceData row : rows) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(row);
+            }
+            records.add(bytes.toByteArray());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(objectFile(directory, chunk)), 1 << 16))) {
+            long headerBytes = 4L + 8L * (records.size() + 1);
+            long offset = headerBytes;
+            out.writeInt(records.size());
+            for (byte[] record : records) {
+                out.writeLong(offset);
+                offset += record.length;
+            }
+            out.writeLong(offset);
+            for (byte[] record : records) {
+                out.write(record);
+            }
+        }
+        return (long) rows.size() * k;
+    }
+
+    private static File distanceFile(File directory, int chunk) {
+        return new File(directory, String.format("chunk-%05d.dist", chunk));
+    }
+
+    private static File objectFile(File directory, int chunk) {
+        return new File(directory, String.format("chunk-%05d.obj", chunk));
+    }
+
+    /**
+     * 读取一块的距离块
+     * @param chunk 块编号
+     * @return 距离数组 [row * numPivots + pivot]
+     * @throws IOException 如果读取失败
+     */
+    public double[] readDistanceBlock(int chunk) throws IOException {
+        long bytes = 8L * chunkRowCounts[chunk] * pivots.size();
+        if (bytes > MAX_BLOCK_BYTES) {
+            throw new IOException(String.format(
+                    "距离块过大: 块%d有%d行 x %d个支撑点，共%d字节，超过单块上限%d字节",
+                    chunk, chunkRowCounts[chunk], pivots.size(), bytes, MAX_BLOCK_BYTES));
+        }
+        int length = (int) (bytes / 8);
+        ByteBuffer buffer = ByteBuffer.allocate((int) bytes);
+        try (FileChannel channel =
+                FileChannel.open(distanceFile(directory, chunk).toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("距离块文件不完整: " + distanceFile(directory, chunk));
+                }
+            }
+        }
+        buffer.flip();
+        double[] distances = new double[length];
+        buffer.asDoubleBuffer().get(distances);
+        return distances;
+    }
+
+    /**
+     * 读取一块中指定行的完整对象
+     *
+     * 行号须升序排列，读取位置单调向前，保持顺序I/O。
+     *
+     * @param chunk 块编号
+     * @param rows 升序的块内行号
+     * @param rowCount 有效行号数量
+     * @return 对象列表，与行号一一对应
+     * @throws IOException 如果读取失败
+     */
+    public List<MetricSpaceData> fetchRows(int chunk, int[] rows, int rowCount)
+            throws IOException {
+        List<MetricSpaceData> result = new ArrayList<>(rowCount);
+        if (rowCount == 0) {
+            return result;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(objectFile(directory, chunk), "r")) {
+            int count = file.readInt();
+            byte[] header = new byte[8 * (count + 1)];
+            file.readFully(header);
+            ByteBuffer offsets = ByteBuffer.wrap(header);
+
+            for (int r = 0; r < rowCount; r++) {
+                int row = rows[r];
+                long start = offsets.getLong(8 * row);
+                long end = offsets.getLong(8 * (row + 1));
+                byte[] record = new byte[(int) (end - start)];
+                file.seek(start);
+                file.readFully(record);
+                lastQueryStatistics.get()[3] += record.length;
+
+                try (ObjectInputStream in =
+                        new ObjectInputStream(new ByteArrayInputStream(record))) {
+                    result.add((MetricSpaceData) in.readObject());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("对象格式错误: 块" + chunk + " 行" + row, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 块处理器
+     */
+    @FunctionalInterface
+    public interface ChunkVisitor {
+        /**
+         * 处理一块
+         * @param chunk 块编号
+         * @param distances 距离块 [row * numPivots + pivot]
+         * @throws IOException 如果读取失败
+         */
+        void visit(int chunk, double[] distances) throws IOException;
+    }
+
+    /**
+     * 顺序扫描所有块，处理当前块时后台预读下一块的距离块
+     *
+     * 处理器在调用线程上执行；读取的字节数计入当前线程的查询统计。
+     *
+     * @param visitor 块处理器
+     */
+    public void scan(ChunkVisitor visitor) {
+        long[] statistics = lastQueryStatistics.get();
+        statistics[3] = 0;
+        if (chunkRowCounts.length == 0) {
+            return;
+        }
+
+        Future<double[]> next = null;
+        try {
+            next = readAhead.submit(() -> readDistanceBlock(0));
+            for (int c = 0; c < chunkRowCounts.length; c++) {
+                double[] distances = next.get();
+                statistics[3] += 8L * distances.length;
+                if (c + 1 < chunkRowCounts.length) {
+                    final int nextChunk = c + 1;
+                    next = readAhead.submit(() -> readDistanceBlock(nextChunk));
+                }
+                visitor.visit(c, distances);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw new IllegalStateException("预读距离块失败", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("扫描被中断", e);
+        } finally {
+            // 处理器出错时放弃尚未使用的预读（正常结束时最后一个预读已经取走，取消无效果）
+            if (next != null) {
+                next.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 获取支撑点列表
+     */
+    public List<MetricSpaceData> getPivots() {
+        return pivots;
+    }
+
+    /**
+     * 获取距离函数
+     */
+    public MetricFunction getMetric() {
+        return metric;
+    }
+
+    /**
+     * 获取支撑点数量
+     */
+    public int getNumPivots() {
+        return pivots.size();
+    }
+
+    /**
+     * 获取块数
+     */
+    public int getNumChunks() {
+        return chunkRowCounts.length;
+    }
+
+    /**
+     * 获取某块的行数
+     * @param chunk 块编号
+     */
+    public int getChunkRowCount(int chunk) {
+        return chunkRowCounts[chunk];
+    }
+
+    /**
+     * 获取数据集大小
+     */
+    public long getDatasetSize() {
+        return datasetSize;
+    }
+
+    /**
+     * 获取存储目录
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 获取构建时的距离计算次数
+     */
+    public long getBuildDistanceCalculations() {
+        return buildDistanceCalculations;
+    }
+
+    /**
+     * 设置最后一次查询的统计信息（当前线程）
+     */
+    public void setLastQueryStatistics(long distanceCalculations, long pruned, long verified) {
+        long[] statistics = lastQueryStatistics.get();
+        statistics[0] = distanceCalculations;
+        statistics[1] = pruned;
+        statistics[2] = verified;
+    }
+
+    /**
+     * 获取当前线程最后一次查询的距离计算次数
+     */
+    public long getLastQueryDistanceCalculations() {
+        return lastQueryStatistics.get()[0];
+    }
+
+    /**
+     * 获取当前线程最后一次查询的剪枝数量
+     */
+    public long getLastQueryPruned() {
+        return lastQueryStatistics.get()[1];
+    }
+
+    /**
+     * 获取当前线程最后一次查询的验证数量
+     */
+    public long getLastQueryVerified() {
+        return lastQueryStatistics.get()[2];
+    }
+
+    /**
+     * 获取当前线程最后一次查询读取的字节数（距离块和对象）
+     */
+    public long getLastQueryBytesRead() {
+        return lastQueryStatistics.get()[3];
+    }
+}
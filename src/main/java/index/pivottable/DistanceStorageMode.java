@@ -0,0 +1,59 @@
+package index.pivottable;
+
+/**
+ * 距离表存储模式枚举
+ *
+ * 决定Pivot Table中"数据对象到支撑点距离"的存储方式。
+ * 压缩模式下只保存距离所在的桶编号，查询时使用桶区间作为距离的上下界进行剪枝，
+ * 剪枝结果仍然是正确的（保守的），只是剪枝能力略弱于精确距离。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public enum DistanceStorageMode {
+    /**
+     * 精确存储：double[n][k]，每个距离8字节
+     */
+    DOUBLE(64),
+
+    /**
+     * 16位分桶存储：每个距离2字节，每个支撑点65536个桶
+     */
+    SHORT(16),
+
+    /**
+     * 8位分桶存储：每个距离1字节，每个支撑点256个桶
+     */
+    BYTE(8);
+
+    /** 每个距离占用的位数 */
+    private final int bits;
+
+    DistanceStorageMode(int bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * 获取每个距离占用的位数
+     * @return 位数
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * 是否为压缩（分桶）存储
+     * @return 压缩存储返回true
+     */
+    public boolean isQuantized() {
+        return this != DOUBLE;
+    }
+
+    /**
+     * 获取每个支撑点的桶数量（仅压缩模式有效）
+     * @return 桶数量
+     */
+    public int getNumBuckets() {
+        return isQuantized() ? 1 << bits : 0;
+    }
+}
@@ -0,0 +1,199 @@
+package index.pivottable;
+
+import index.pivottable.bitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pivot Table上的位图索引
+ *
+ * 将每个支撑点的距离划分为若干区间，每个区间用一个压缩位图记录落在其中的数据行：
+ * 1. 区间边界取该支撑点距离分布的分位数（等深划分）
+ * 2. 范围查询时，对每个支撑点把覆盖 [d(q,p)-r, d(q,p)+r] 的区间位图求并
+ * 3. 再对所有支撑点的结果求交，得到候选集，无需逐行检查距离表
+ *
+ * 若距离表为压缩存储，数据行会登记到与其距离区间[lo, hi]相交的所有区间中，候选集依然不漏。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class PivotBitmapIndex {
+
+    /** 计算区间边界时的最大采样行数 */
+    private static final int BOUNDARY_SAMPLE_SIZE = 100000;
+
+    /** 数据行数 */
+    private final int numRows;
+
+    /** 支撑点数量 */
+    private final int numPivots;
+
+    /** 每个支撑点的区间内部边界 [pivot][i]，区间b为 [boundaries[b-1], boundaries[b]) */
+    private final double[][] boundaries;
+
+    /** 区间位图 [pivot][range] */
+    private final RoaringBitmap[][] bitmaps;
+
+    /** 所有数据行（所有支撑点都无法过滤时使用） */
+    private final RoaringBitmap allRows;
+
+    /**
+     * 基于Pivot Table构建位图索引
+     * @param pivotTable Pivot Table
+     * @param numRanges 每个支撑点的区间数量
+     */
+    public PivotBitmapIndex(PivotTable pivotTable, int numRanges) {
+        if (numRanges < 2) {
+            throw new IllegalArgumentException("区间数量必须至少为2");
+        }
+        this.numRows = pivotTable.getDatasetSize();
+        this.numPivots = pivotTable.getNumPivots();
+        this.boundaries = new double[numPivots][];
+        this.bitmaps = new RoaringBitmap[numPivots][];
+
+        for (int j = 0; j < numPivots; j++) {
+            boundaries[j] = computeBoundaries(pivotTable, j, numRanges);
+            int ranges = boundaries[j].length + 1;
+            bitmaps[j] = new RoaringBitmap[ranges];
+            for (int b = 0; b < ranges; b++) {
+                bitmaps[j][b] = new RoaringBitmap();
+            }
+
+            for (int i = 0; i < numRows; i++) {
+                int from = rangeOf(j, pivotTable.getDistanceLowerBound(i, j));
+                int to = rangeOf(j, pivotTable.getDistanceUpperBound(i, j));
+                for (int b = from; b <= to; b++) {
+                    bitmaps[j][b].add(i);
+                }
+            }
+
+            for (RoaringBitmap bitmap : bitmaps[j]) {
+                bitmap.runOptimize();
+            }
+        }
+
+        this.allRows = new RoaringBitmap();
+        for (int i = 0; i < numRows; i++) {
+            allRows.add(i);
+        }
+        allRows.runOptimize();
+    }
+
+    /**
+     * 根据采样距离的分位数计算区间内部边界（去重）
+     */
+    private static double[] computeBoundaries(PivotTable pivotTable, int pivot, int numRanges) {
+        int n = pivotTable.getDatasetSize();
+        int numSamples = Math.min(n, BOUNDARY_SAMPLE_SIZE);
+        if (numSamples == 0) {
+            return new double[0];
+        }
+        int stride = Math.max(1, n / numSamples);
+
+        double[] column = new double[numSamples];
+        for (int s = 0; s < numSamples; s++) {
+            column[s] = pivotTable.getDistanceLowerBound(s * stride, pivot);
+        }
+        Arrays.sort(column);
+
+        double[] result = new double[numRanges - 1];
+        int count = 0;
+        for (int b = 1; b < numRanges; b++) {
+            double value = column[(int) ((long) b * (numSamples - 1) / numRanges)];
+            if (count == 0 || value > result[count - 1]) {
+                result[count++] = value;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 计算距离所在的区间编号（边界数组中 <= distance 的元素个数）
+     */
+    private int rangeOf(int pivot, double distance) {
+        double[] bounds = boundaries[pivot];
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[mid] <= distance) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 计算范围查询的候选集
+     *
+     * 候选集是查询结果的超集：不在候选集中的行一定满足 d(q,s) > r。
+     * 返回的位图总是新建的，调用方可以修改它，不会影响索引。
+     *
+     * @param queryToPivotDist 查询对象到各支撑点的距离
+     * @param radius 查询半径
+     * @return 候选行位图
+     */
+    public RoaringBitmap getCandidates(double[] queryToPivotDist, double radius) {
+        List<RoaringBitmap> perPivot = new ArrayList<>();
+        for (int j = 0; j < numPivots; j++) {
+            int from = rangeOf(j, queryToPivotDist[j] - radius);
+            int to = rangeOf(j, queryToPivotDist[j] + radius);
+            if (from == 0 && to == bitmaps[j].length - 1) {
+                continue; // 覆盖全部区间，该支撑点无法过滤
+            }
+            RoaringBitmap union = from == to ? bitmaps[j][from]
+                    : RoaringBitmap.or(Arrays.asList(bitmaps[j]).subList(from, to + 1));
+            perPivot.add(union);
+        }
+
+        if (perPivot.isEmpty()) {
+            return allRows.copy();
+        }
+
+        // 从最小的集合开始求交，尽早缩小中间结果
+        perPivot.sort((a, b) -> Integer.compare(a.getCardinality(), b.getCardinality()));
+        if (perPivot.size() == 1 || perPivot.get(0).isEmpty()) {
+            // 只有一个集合时它可能是索引内部的位图
+            return perPivot.get(0).copy();
+        }
+        RoaringBitmap candidates = RoaringBitmap.and(perPivot.get(0), perPivot.get(1));
+        for (int j = 2; j < perPivot.size() && !candidates.isEmpty(); j++) {
+            candidates = RoaringBitmap.and(candidates, perPivot.get(j));
+        }
+        return candidates;
+    }
+
+    /**
+     * 获取某个支撑点的区间数量
+     * @param pivot 支撑点索引
+     * @return 区间数量
+     */
+    public int getNumRanges(int pivot) {
+        return bitmaps[pivot].length;
+    }
+
+    /**
+     * 获取数据行数
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * 估算所有位图占用的字节数
+     * @return 字节数
+     */
+    public long getSizeInBytes() {
+        long bytes = allRows.getSizeInBytes();
+        for (RoaringBitmap[] pivotBitmaps : bitmaps) {
+            for (RoaringBitmap bitmap : pivotBitmaps) {
+                bytes += bitmap.getSizeInBytes();
+            }
+        }
+        return bytes;
+    }
+}
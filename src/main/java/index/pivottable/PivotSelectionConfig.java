@@ -0,0 +1,200 @@
+package index.pivottable;
+
+/**
+ * 支撑点选择配置类
+ *
+ * 管理支撑点选择算法的采样规模和并行参数。数据量不超过采样规模时，
+ * BORDER/CENTER退化为精确计算；数据量很大时只在样本上估计，避免O(n²)的距离计算。
+ * 使用Builder模式方便配置。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class PivotSelectionConfig {
+
+    /** 估计平均距离时使用的参考样本数（默认500） */
+    private int sampleSize;
+
+    /** BORDER策略评估的候选对象数（默认10000） */
+    private int candidateSize;
+
+    /** INCREMENTAL策略每轮评估的候选对象数（默认50） */
+    private int incrementalCandidates;
+
+    /** INCREMENTAL策略用于评估下界的对象对数（默认1000） */
+    private int incrementalPairs;
+
+    /** 是否并行计算距离 */
+    private boolean parallel;
+
+    /** 并行计算的最小规模，低于该值时串行执行（默认4096） */
+    private int parallelThreshold;
+
+    /** 随机种子（用于可重复实验） */
+    private long randomSeed;
+
+    /**
+     * 默认构造函数
+     * 使用默认配置参数
+     */
+    public PivotSelectionConfig() {
+        this.sampleSize = 500;
+        this.candidateSize = 10000;
+        this.incrementalCandidates = 50;
+        this.incrementalPairs = 1000;
+        this.parallel = true;
+        this.parallelThreshold = 4096;
+        this.randomSeed = 42;
+    }
+
+    /**
+     * Builder类，用于方便地构建PivotSelectionConfig
+     */
+    public static class Builder {
+        private PivotSelectionConfig config = new PivotSelectionConfig();
+
+        /**
+         * 设置参考样本数
+         * @param size 样本数
+         * @return Builder实例
+         */
+        public Builder sampleSize(int size) {
+            config.sampleSize = size;
+            return this;
+        }
+
+        /**
+         * 设置BORDER策略的候选对象数
+         * @param size 候选数
+         * @return Builder实例
+         */
+        public Builder candidateSize(int size) {
+            config.candidateSize = size;
+            return this;
+        }
+
+        /**
+         * 设置INCREMENTAL策略每轮的候选对象数
+         * @param size 候选数
+         * @return Builder实例
+         */
+        public Builder incrementalCandidates(int size) {
+            config.incrementalCandidates = size;
+            return this;
+        }
+
+        /**
+         * 设置INCREMENTAL策略的对象对数
+         * @param pairs 对象对数
+         * @return Builder实例
+         */
+        public Builder incrementalPairs(int pairs) {
+            config.incrementalPairs = pairs;
+            return this;
+        }
+
+        /**
+         * 设置是否并行计算
+         * @param parallel 是否并行
+         * @return Builder实例
+         */
+        public Builder parallel(boolean parallel) {
+            config.parallel = parallel;
+            return this;
+        }
+
+        /**
+         * 设置并行计算的最小规模
+         * @param threshold 最小规模
+         * @return Builder实例
+         */
+        public Builder parallelThreshold(int threshold) {
+            config.parallelThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 设置随机种子
+         * @param seed 随机种子
+         * @return Builder实例
+         */
+        public Builder randomSeed(long seed) {
+            config.randomSeed = seed;
+            return this;
+        }
+
+        /**
+         * 构建PivotSelectionConfig对象
+         * @return 配置好的PivotSelectionConfig
+         * @throws IllegalArgumentException 如果配置参数非法
+         */
+        public PivotSelectionConfig build() {
+            validate();
+            return config;
+        }
+
+        /**
+         * 验证配置参数
+         */
+        private void validate() {
+            if (config.sampleSize <= 0) {
+                throw new IllegalArgumentException("sampleSize必须大于0，当前值: " + config.sampleSize);
+            }
+            if (config.candidateSize <= 0) {
+                throw new IllegalArgumentException(
+                        "candidateSize必须大于0，当前值: " + config.candidateSize);
+            }
+            if (config.incrementalCandidates <= 0) {
+                throw new IllegalArgumentException(
+                        "incrementalCandidates必须大于0，当前值: " + config.incrementalCandidates);
+            }
+            if (config.incrementalPairs <= 0) {
+                throw new IllegalArgumentException(
+                        "incrementalPairs必须大于0，当前值: " + config.incrementalPairs);
+            }
+            if (config.parallelThreshold < 0) {
+                throw new IllegalArgumentException(
+                        "parallelThreshold不能为负数，当前值: " + config.parallelThreshold);
+            }
+        }
+    }
+
+    // Getters
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getCandidateSize() {
+        return candidateSize;
+    }
+
+    public int getIncrementalCandidates() {
+        return incrementalCandidates;
+    }
+
+    public int getIncrementalPairs() {
+        return incrementalPairs;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "PivotSelectionConfig[sampleSize=%d, candidateSize=%d, incrementalCandidates=%d, "
+                        + "incrementalPairs=%d, parallel=%s, seed=%d]",
+                sampleSize, candidateSize, incrementalCandidates, incrementalPairs, parallel,
+                randomSeed);
+    }
+}
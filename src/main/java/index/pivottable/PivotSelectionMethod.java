@@ -20,11 +20,19 @@ public enum PivotSelectionMethod {
 
     /**
      * 选择距离数据集中心最近的点
+     * 中心在参考样本上估计
      */
     CENTER,
 
     /**
      * 选择距离数据集边界最近的点
+     * 平均距离在参考样本上估计
      */
-    BORDER
+    BORDER,
+
+    /**
+     * 增量选择
+     * 每次选择使采样对象对上平均距离下界最大的候选点
+     */
+    INCREMENTAL
 }
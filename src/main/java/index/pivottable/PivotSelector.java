@@ -4,13 +4,23 @@ import core.MetricFunction;
 import core.MetricSpaceData;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * 支撑点选择器
  *
- * 实现多种支撑点选择算法
+ * 实现多种支撑点选择算法。为了在百万级数据上使用，各算法都避免了O(n²)的距离计算：
+ * FFT维护增量的最小距离数组，BORDER/CENTER在样本上估计，INCREMENTAL在采样的对象对上评估，
+ * 大规模的距离计算按 {@link PivotSelectionConfig} 的设置并行执行。
  *
  * @author Jixiang Ding
  * @version 1.0
@@ -41,6 +51,23 @@ public class PivotSelector {
      */
     public static List<MetricSpaceData> selectPivots(List<? extends MetricSpaceData> dataset,
             int numPivots, PivotSelectionMethod method, MetricFunction metric, boolean verbose) {
+        return selectPivots(dataset, numPivots, method, metric, new PivotSelectionConfig(),
+                verbose);
+    }
+
+    /**
+     * 选择支撑点
+     * @param dataset 数据集
+     * @param numPivots 支撑点数量
+     * @param method 选择方法
+     * @param metric 距离函数
+     * @param config 采样与并行配置
+     * @param verbose 是否打印详细信息
+     * @return 支撑点列表
+     */
+    public static List<MetricSpaceData> selectPivots(List<? extends MetricSpaceData> dataset,
+            int numPivots, PivotSelectionMethod method, MetricFunction metric,
+            PivotSelectionConfig config, boolean verbose) {
 
         if (numPivots <= 0) {
             throw new IllegalArgumentException("支撑点数量必须大于0");
@@ -64,16 +91,19 @@ public class PivotSelector {
 
         switch (method) {
             case RANDOM:
-                pivots = selectRandomPivots(dataset, numPivots);
+                pivots = selectRandomPivots(dataset, numPivots, config);
                 break;
             case FFT:
-                pivots = selectFFTPivots(dataset, numPivots, metric);
+                pivots = selectFFTPivots(dataset, numPivots, metric, config);
                 break;
             case CENTER:
-                pivots = selectCenterPivots(dataset, numPivots, metric);
+                pivots = selectCenterPivots(dataset, numPivots, metric, config);
                 break;
             case BORDER:
-                pivots = selectBorderPivots(dataset, numPivots, metric);
+                pivots = selectBorderPivots(dataset, numPivots, metric, config);
+                break;
+            case INCREMENTAL:
+                pivots = selectIncrementalPivots(dataset, numPivots, metric, config);
                 break;
             default:
                 throw new IllegalArgumentException("不支持的支撑点选择方法: " + method);
@@ -89,64 +119,72 @@ public class PivotSelector {
 
     /**
      * 随机选择支撑点
+     *
+     * 使用稀疏的Fisher-Yates洗牌，只记录被交换过的位置，不复制数据集。
      */
     private static List<MetricSpaceData> selectRandomPivots(List<? extends MetricSpaceData> dataset,
-            int numPivots) {
+            int numPivots, PivotSelectionConfig config) {
 
         List<MetricSpaceData> pivots = new ArrayList<>();
-        List<MetricSpaceData> candidates = new ArrayList<>(dataset);
-        Random random = new Random(42); // 固定种子以保证可重复性
-
-        for (int i = 0; i < numPivots && !candidates.isEmpty(); i++) {
-            int index = random.nextInt(candidates.size());
-            pivots.add(candidates.remove(index));
+        Random random = new Random(config.getRandomSeed());
+        for (int index : sampleIndices(dataset.size(), numPivots, random, true)) {
+            pivots.add(dataset.get(index));
         }
-
         return pivots;
     }
 
     /**
      * FFT (Farthest-First Traversal) 算法选择支撑点
      * 每次选择距离已选支撑点最远的点
+     *
+     * 维护每个对象到已选支撑点的最小距离，每选出一个支撑点只需计算n次距离，
+     * 总代价为O(n·k)而不是O(n·k²)。
      */
     private static List<MetricSpaceData> selectFFTPivots(List<? extends MetricSpaceData> dataset,
-            int numPivots, MetricFunction metric) {
+            int numPivots, MetricFunction metric, PivotSelectionConfig config) {
 
+        int n = dataset.size();
         List<MetricSpaceData> pivots = new ArrayList<>();
+        boolean[] selected = new boolean[n];
+        double[] minDist = new double[n];
+        Arrays.fill(minDist, Double.MAX_VALUE);
 
         // 第一个支撑点：随机选择
-        Random random = new Random(42);
-        pivots.add(dataset.get(random.nextInt(dataset.size())));
+        Random random = new Random(config.getRandomSeed());
+        int current = random.nextInt(n);
+
+        while (true) {
+            selected[current] = true;
+            MetricSpaceData pivot = dataset.get(current);
+            pivots.add(pivot);
+            if (pivots.size() >= numPivots) {
+                break;
+            }
 
-        // 后续支撑点：选择距离已选支撑点最远的点
-        while (pivots.size() < numPivots) {
-            double maxMinDist = -1;
-            MetricSpaceData farthest = null;
-
-            for (MetricSpaceData candidate : dataset) {
-                // 跳过已选的支撑点
-                if (pivots.contains(candidate))
-                    continue;
-
-                // 计算candidate到已选支撑点的最小距离
-                double minDist = Double.MAX_VALUE;
-                for (MetricSpaceData pivot : pivots) {
-                    double dist = metric.getDistance(candidate, pivot);
-                    minDist = Math.min(minDist, dist);
+            // 用新支撑点更新每个对象的最小距离
+            forEachIndex(n, config, i -> {
+                if (!selected[i]) {
+                    double dist = metric.getDistance(dataset.get(i), pivot);
+                    if (dist < minDist[i]) {
+                        minDist[i] = dist;
+                    }
                 }
+            });
 
-                // 选择最小距离最大的candidate
-                if (minDist > maxMinDist) {
-                    maxMinDist = minDist;
-                    farthest = candidate;
+            // 选择最小距离最大的对象
+            int farthest = -1;
+            double maxMinDist = -1;
+            for (int i = 0; i < n; i++) {
+                if (!selected[i] && minDist[i] > maxMinDist) {
+                    maxMinDist = minDist[i];
+                    farthest = i;
                 }
             }
 
-            if (farthest != null) {
-                pivots.add(farthest);
-            } else {
+            if (farthest < 0) {
                 break;
             }
+            current = farthest;
         }
 
         return pivots;
@@ -154,23 +192,73 @@ public class PivotSelector {
 
     /**
      * 选择距离数据集中心最近的点作为支撑点
+     *
+     * 在参考样本上求中心点（到其他样本平均距离最小的样本），再选择距离中心最近的k个点。
      */
     private static List<MetricSpaceData> selectCenterPivots(List<? extends MetricSpaceData> dataset,
-            int numPivots, MetricFunction metric) {
+            int numPivots, MetricFunction metric, PivotSelectionConfig config) {
 
-        // 简化实现：先随机选择一个中心，然后选择距离中心最近的k个点
-        Random random = new Random(42);
-        MetricSpaceData center = dataset.get(random.nextInt(dataset.size()));
+        Random random = new Random(config.getRandomSeed());
+        int[] sample = sampleIndices(dataset.size(), config.getSampleSize(), random, false);
+        double[] avgDist = averageDistances(dataset, sample, sample, metric, config);
+
+        int center = 0;
+        for (int i = 1; i < sample.length; i++) {
+            if (avgDist[i] < avgDist[center]) {
+                center = i;
+            }
+        }
+        MetricSpaceData centerData = dataset.get(sample[center]);
 
         // 计算所有点到中心的距离
+        int n = dataset.size();
+        double[] dist = new double[n];
+        forEachIndex(n, config, i -> dist[i] = metric.getDistance(centerData, dataset.get(i)));
+
+        // 用大小为k的最大堆选出距离最小的k个点
+        PriorityQueue<Integer> heap =
+                new PriorityQueue<>(numPivots, (a, b) -> Double.compare(dist[b], dist[a]));
+        for (int i = 0; i < n; i++) {
+            if (heap.size() < numPivots) {
+                heap.offer(i);
+            } else if (dist[i] < dist[heap.peek()]) {
+                heap.poll();
+                heap.offer(i);
+            }
+        }
+
+        List<Integer> nearest = new ArrayList<>(heap);
+        nearest.sort((a, b) -> Double.compare(dist[a], dist[b]));
+        List<MetricSpaceData> pivots = new ArrayList<>();
+        for (int index : nearest) {
+            pivots.add(dataset.get(index));
+        }
+        return pivots;
+    }
+
+    /**
+     * 选择距离数据集边界最近的点作为支撑点
+     *
+     * 选择到其他点平均距离最大的点（边界点）。平均距离在参考样本上估计，
+     * 候选对象也限制为一个样本，代价为O(候选数 × 样本数)。
+     */
+    private static List<MetricSpaceData> selectBorderPivots(List<? extends MetricSpaceData> dataset,
+            int numPivots, MetricFunction metric, PivotSelectionConfig config) {
+
+        Random random = new Random(config.getRandomSeed());
+        int n = dataset.size();
+        int[] candidates = sampleIndices(n, Math.max(numPivots, config.getCandidateSize()),
+                random, false);
+        int[] reference = sampleIndices(n, config.getSampleSize(), random, false);
+        double[] avgDist = averageDistances(dataset, candidates, reference, metric, config);
+
         List<DistancePair> pairs = new ArrayList<>();
-        for (MetricSpaceData data : dataset) {
-            double dist = metric.getDistance(center, data);
-            pairs.add(new DistancePair(data, dist));
+        for (int i = 0; i < candidates.length; i++) {
+            pairs.add(new DistancePair(dataset.get(candidates[i]), avgDist[i]));
         }
 
-        // 按距离升序排序
-        pairs.sort((a, b) -> Double.compare(a.distance, b.distance));
+        // 按平均距离降序排序
+        pairs.sort((a, b) -> Double.compare(b.distance, a.distance));
 
         // 选择前k个点
         List<MetricSpaceData> pivots = new ArrayList<>();
@@ -182,39 +270,173 @@ public class PivotSelector {
     }
 
     /**
-     * 选择距离数据集边界最近的点作为支撑点
+     * 增量选择支撑点（Bustos等人的增量选择法）
+     *
+     * 在采样的对象对(x, y)上，支撑点集合P给出的距离下界为 max_p |d(x,p) - d(y,p)|。
+     * 每一轮从若干候选对象中选出使平均下界最大的一个加入P，下界越大剪枝能力越强。
      */
-    private static List<MetricSpaceData> selectBorderPivots(List<? extends MetricSpaceData> dataset,
-            int numPivots, MetricFunction metric) {
+    private static List<MetricSpaceData> selectIncrementalPivots(
+            List<? extends MetricSpaceData> dataset, int numPivots, MetricFunction metric,
+            PivotSelectionConfig config) {
 
-        // 简化实现：选择距离其他点平均距离最大的点（边界点）
-        List<DistancePair> pairs = new ArrayList<>();
+        int n = dataset.size();
+        Random random = new Random(config.getRandomSeed());
+        List<MetricSpaceData> pivots = new ArrayList<>();
+        if (n < 2) {
+            pivots.add(dataset.get(0));
+            return pivots;
+        }
 
-        for (MetricSpaceData candidate : dataset) {
+        // 采样对象对
+        int numPairs = config.getIncrementalPairs();
+        int[] pairX = new int[numPairs];
+        int[] pairY = new int[numPairs];
+        for (int a = 0; a < numPairs; a++) {
+            pairX[a] = random.nextInt(n);
+            int y = random.nextInt(n - 1);
+            pairY[a] = y >= pairX[a] ? y + 1 : y;
+        }
+
+        double[] bound = new double[numPairs]; // 当前支撑点集合在每个对象对上的下界
+        boolean[] selected = new boolean[n];
+
+        while (pivots.size() < numPivots) {
+            int[] candidates = sampleUnselected(selected, pivots.size(),
+                    config.getIncrementalCandidates(), random);
+            double[][] lowerBounds = new double[candidates.length][numPairs];
+            double[] scores = new double[candidates.length];
+
+            // 评估每个候选加入后的平均下界
+            IntStream range = IntStream.range(0, candidates.length);
+            if (config.isParallel()
+                    && (long) candidates.length * numPairs >= config.getParallelThreshold()) {
+                range = range.parallel();
+            }
+            range.forEach(c -> {
+                MetricSpaceData candidate = dataset.get(candidates[c]);
+                double sum = 0;
+                for (int a = 0; a < numPairs; a++) {
+                    double lb = Math.abs(metric.getDistance(dataset.get(pairX[a]), candidate)
+                            - metric.getDistance(dataset.get(pairY[a]), candidate));
+                    lowerBounds[c][a] = lb;
+                    sum += Math.max(bound[a], lb);
+                }
+                scores[c] = sum / numPairs;
+            });
+
+            int best = 0;
+            for (int c = 1; c < candidates.length; c++) {
+                if (scores[c] > scores[best]) {
+                    best = c;
+                }
+            }
+
+            selected[candidates[best]] = true;
+            pivots.add(dataset.get(candidates[best]));
+            for (int a = 0; a < numPairs; a++) {
+                bound[a] = Math.max(bound[a], lowerBounds[best][a]);
+            }
+        }
+
+        return pivots;
+    }
+
+    /**
+     * 计算每个候选对象到参考样本的平均距离（不含自身）
+     */
+    private static double[] averageDistances(List<? extends MetricSpaceData> dataset,
+            int[] candidates, int[] reference, MetricFunction metric,
+            PivotSelectionConfig config) {
+
+        double[] avgDist = new double[candidates.length];
+        forEachIndex(candidates.length, config, i -> {
+            MetricSpaceData candidate = dataset.get(candidates[i]);
             double sumDist = 0;
             int count = 0;
-
-            for (MetricSpaceData other : dataset) {
-                if (candidate != other) {
-                    sumDist += metric.getDistance(candidate, other);
+            for (int r : reference) {
+                if (r != candidates[i]) {
+                    sumDist += metric.getDistance(candidate, dataset.get(r));
                     count++;
                 }
             }
+            avgDist[i] = (count > 0) ? sumDist / count : 0;
+        });
+        return avgDist;
+    }
+
+    /**
+     * 从[0, n)中无放回地抽取size个下标
+     *
+     * 使用稀疏Fisher-Yates洗牌，代价为O(size)。
+     *
+     * @param n 总数
+     * @param size 抽取数量
+     * @param random 随机数生成器
+     * @param alwaysShuffle 为false时若size >= n直接按原顺序返回全部下标
+     * @return 下标数组
+     */
+    private static int[] sampleIndices(int n, int size, Random random, boolean alwaysShuffle) {
+        if (size >= n && !alwaysShuffle) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
 
-            double avgDist = (count > 0) ? sumDist / count : 0;
-            pairs.add(new DistancePair(candidate, avgDist));
+        size = Math.min(size, n);
+        int[] result = new int[size];
+        Map<Integer, Integer> swapped = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(n - i);
+            int valueJ = swapped.getOrDefault(j, j);
+            int valueI = swapped.getOrDefault(i, i);
+            swapped.put(j, valueI);
+            result[i] = valueJ;
         }
+        return result;
+    }
 
-        // 按平均距离降序排序
-        pairs.sort((a, b) -> Double.compare(b.distance, a.distance));
+    /**
+     * 从未被选中的对象中随机抽取至多size个下标
+     */
+    private static int[] sampleUnselected(boolean[] selected, int numSelected, int size,
+            Random random) {
+        int n = selected.length;
+        int remaining = n - numSelected;
+        if (remaining <= size) {
+            int[] all = new int[remaining];
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                if (!selected[i]) {
+                    all[pos++] = i;
+                }
+            }
+            return all;
+        }
 
-        // 选择前k个点
-        List<MetricSpaceData> pivots = new ArrayList<>();
-        for (int i = 0; i < Math.min(numPivots, pairs.size()); i++) {
-            pivots.add(pairs.get(i).data);
+        // 候选数远小于剩余对象数，拒绝采样即可
+        int[] result = new int[size];
+        Set<Integer> chosen = new HashSet<>();
+        int pos = 0;
+        while (pos < size) {
+            int i = random.nextInt(n);
+            if (!selected[i] && chosen.add(i)) {
+                result[pos++] = i;
+            }
         }
+        return result;
+    }
 
-        return pivots;
+    /**
+     * 对[0, n)中的每个下标执行操作，规模足够大时并行执行
+     */
+    private static void forEachIndex(int n, PivotSelectionConfig config, IntConsumer action) {
+        IntStream range = IntStream.range(0, n);
+        if (config.isParallel() && n >= config.getParallelThreshold()) {
+            range = range.parallel();
+        }
+        range.forEach(action);
     }
 
     /**
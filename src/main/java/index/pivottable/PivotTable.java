@@ -2,9 +2,11 @@ package index.pivottable;
 
 import core.MetricFunction;
 import core.MetricSpaceData;
+import query.DistanceDistribution;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Pivot Table索引
@@ -14,23 +16,37 @@ import java.util.List;
  * 2. 预计算并存储每个数据对象到每个支撑点的距离
  * 3. 查询时利用三角不等式进行剪枝
  *
+ * 距离表支持多种存储模式（见 {@link DistanceStorageMode}）：
+ * 精确模式保存double距离；压缩模式保存8/16位桶编号，查询时使用桶区间作为距离的上下界。
+ *
  * @author Jixiang Ding
  * @version 1.0
  */
 public class PivotTable {
     private List<MetricSpaceData> pivots; // 支撑点列表
     private List<MetricSpaceData> dataset; // 数据集
-    private double[][] distanceTable; // 距离表 [dataIndex][pivotIndex]
+    private double[][] distanceTable; // 距离表 [dataIndex][pivotIndex]（仅DOUBLE模式）
+    private QuantizedDistanceTable quantizedTable; // 分桶距离表（仅压缩模式）
+    private DistanceStorageMode storageMode; // 距离表存储模式
+    private PivotBitmapIndex bitmapIndex; // 可选的位图索引，用于范围查询过滤
     private MetricFunction metric; // 距离函数
 
+    /** 压缩模式下用于确定桶边界的最少采样行数 */
+    private static final int QUANTIZATION_SAMPLE_SIZE = 4096;
+
+    /** 距离分布采样的随机种子（固定种子使近似查询结果可复现） */
+    private static final long DISTRIBUTION_SEED = 0L;
+
+    /** 采样得到的距离分布（第一次近似查询使用概率停止时建立） */
+    private volatile DistanceDistribution distanceDistribution;
+
     // 统计信息
     private long buildDistanceCalculations; // 构建时的距离计算次数
 
-    // 查询统计信息（最后一次查询）
-    private long lastQueryDistanceCalculations; // 最后一次查询的距离计算次数
-    private long lastQueryPruned; // 最后一次查询的剪枝数量
-    private long lastQueryIncluded; // 最后一次查询的直接包含数量
-    private long lastQueryVerified; // 最后一次查询的验证数量
+    // 查询统计信息（当前线程的最后一次查询）：[距离计算次数, 剪枝数量, 直接包含数量, 验证数量]
+    // 按线程保存，多个线程同时查询同一个Pivot Table时互不干扰
+    private final ThreadLocal<long[]> lastQueryStatistics =
+            ThreadLocal.withInitial(() -> new long[4]);
 
     /**
      * 构建Pivot Table
@@ -54,8 +70,27 @@ public class PivotTable {
      */
     public PivotTable(List<? extends MetricSpaceData> dataset, int numPivots, MetricFunction metric,
             PivotSelectionMethod pivotSelectionMethod, boolean verbose) {
+        this(dataset, numPivots, metric, pivotSelectionMethod, DistanceStorageMode.DOUBLE, verbose);
+    }
+
+    /**
+     * 构建Pivot Table
+     * @param dataset 数据集
+     * @param numPivots 支撑点数量
+     * @param metric 距离函数
+     * @param pivotSelectionMethod 支撑点选择方法
+     * @param storageMode 距离表存储模式
+     * @param verbose 是否打印详细信息
+     */
+    public PivotTable(List<? extends MetricSpaceData> dataset, int numPivots, MetricFunction metric,
+            PivotSelectionMethod pivotSelectionMethod, DistanceStorageMode storageMode,
+            boolean verbose) {
+        if (storageMode == null) {
+            throw new IllegalArgumentException("存储模式不能为空");
+        }
         this.dataset = new ArrayList<>(dataset);
         this.metric = metric;
+        this.storageMode = storageMode;
         this.buildDistanceCalculations = 0;
 
         if (verbose) {
@@ -63,6 +98,7 @@ public class PivotTable {
             System.out.println("数据集大小: " + dataset.size());
             System.out.println("支撑点数量: " + numPivots);
             System.out.println("选择方法: " + pivotSelectionMethod);
+            System.out.println("存储模式: " + storageMode);
         }
 
         long startTime = System.currentTimeMillis();
@@ -101,19 +137,19 @@ public class PivotTable {
         int n = dataset.size();
         int k = pivots.size();
 
-        distanceTable = new double[n][k];
-
         long startTime = System.currentTimeMillis();
 
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < k; j++) {
-                distanceTable[i][j] = metric.getDistance(dataset.get(i), pivots.get(j));
-                buildDistanceCalculations++;
-            }
-
-            // 显示进度
-            if (verbose && (i + 1) % 10000 == 0) {
-                System.out.println("  已处理: " + (i + 1) + " / " + n);
+        if (storageMode.isQuantized()) {
+            buildQuantizedTable(n, k, verbose);
+        } else {
+            distanceTable = new double[n][k];
+            for (int i = 0; i < n; i++) {
+                computeRow(i, distanceTable[i]);
+
+                // 显示进度
+                if (verbose && (i + 1) % 10000 == 0) {
+                    System.out.println("  已处理: " + (i + 1) + " / " + n);
+                }
             }
         }
 
@@ -122,11 +158,67 @@ public class PivotTable {
         if (verbose) {
             System.out.println("距离表构建完成:");
             System.out.println("  规模: " + n + " x " + k);
+            System.out.println("  存储模式: " + storageMode + "，距离表约 "
+                    + String.format("%.2f", getDistanceTableBytes() / 1024.0 / 1024.0) + " MB");
             System.out.println("  距离计算次数: " + buildDistanceCalculations);
             System.out.println("  耗时: " + (endTime - startTime) + " ms");
         }
     }
 
+    /**
+     * 构建分桶距离表
+     *
+     * 先按固定步长采样若干行计算距离，据此确定每个支撑点的桶边界，
+     * 再逐行编码；采样行的距离被缓存复用，不会重复计算。
+     */
+    private void buildQuantizedTable(int n, int k, boolean verbose) {
+        int numSamples = Math.min(n, Math.max(QUANTIZATION_SAMPLE_SIZE,
+                storageMode.getNumBuckets() * 4));
+        int stride = numSamples == 0 ? 1 : Math.max(1, n / numSamples);
+
+        double[][] sampleDistances = new double[numSamples][k];
+        for (int s = 0; s < numSamples; s++) {
+            computeRow(s * stride, sampleDistances[s]);
+        }
+        quantizedTable = new QuantizedDistanceTable(n, k, storageMode, sampleDistances);
+
+        if (verbose) {
+            System.out.println("  采样行数: " + numSamples + "（步长 " + stride + "）");
+        }
+
+        double[] row = new double[k];
+        for (int i = 0; i < n; i++) {
+            double[] distances;
+            if (i % stride == 0 && i / stride < numSamples) {
+                distances = sampleDistances[i / stride];
+            } else {
+                computeRow(i, row);
+                distances = row;
+            }
+            for (int j = 0; j < k; j++) {
+                quantizedTable.set(i, j, distances[j]);
+            }
+
+            // 显示进度
+            if (verbose && (i + 1) % 10000 == 0) {
+                System.out.println("  已处理: " + (i + 1) + " / " + n);
+            }
+        }
+    }
+
+    /**
+     * 计算一行数据到所有支撑点的距离
+     * @param dataIndex 数据索引
+     * @param out 输出数组
+     */
+    private void computeRow(int dataIndex, double[] out) {
+        MetricSpaceData data = dataset.get(dataIndex);
+        for (int j = 0; j < out.length; j++) {
+            out[j] = metric.getDistance(data, pivots.get(j));
+            buildDistanceCalculations++;
+        }
+    }
+
     /**
      * 获取数据到支撑点的距离
      * @param dataIndex 数据索引
@@ -134,9 +226,89 @@ public class PivotTable {
      * @return 距离值
      */
     public double getDistanceToPivot(int dataIndex, int pivotIndex) {
+        if (storageMode.isQuantized()) {
+            throw new IllegalStateException("压缩存储模式下不保存精确距离，请使用上下界: " + storageMode);
+        }
+        return distanceTable[dataIndex][pivotIndex];
+    }
+
+    /**
+     * 获取数据到支撑点距离的下界
+     *
+     * 精确模式下等于精确距离，压缩模式下为所在桶的左端点。
+     * @param dataIndex 数据索引
+     * @param pivotIndex 支撑点索引
+     * @return 距离下界
+     */
+    public double getDistanceLowerBound(int dataIndex, int pivotIndex) {
+        if (quantizedTable != null) {
+            return quantizedTable.getLowerBound(dataIndex, pivotIndex);
+        }
+        return distanceTable[dataIndex][pivotIndex];
+    }
+
+    /**
+     * 获取数据到支撑点距离的上界
+     *
+     * 精确模式下等于精确距离，压缩模式下为所在桶的右端点。
+     * @param dataIndex 数据索引
+     * @param pivotIndex 支撑点索引
+     * @return 距离上界
+     */
+    public double getDistanceUpperBound(int dataIndex, int pivotIndex) {
+        if (quantizedTable != null) {
+            return quantizedTable.getUpperBound(dataIndex, pivotIndex);
+        }
         return distanceTable[dataIndex][pivotIndex];
     }
 
+    /**
+     * 获取距离表存储模式
+     * @return 存储模式
+     */
+    public DistanceStorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    /**
+     * 获取距离表占用的字节数（不含对象头等额外开销）
+     * @return 字节数
+     */
+    public long getDistanceTableBytes() {
+        return (long) dataset.size() * pivots.size() * storageMode.getBits() / 8;
+    }
+
+    /**
+     * 在距离表之上构建位图索引
+     *
+     * 构建后范围查询将通过位图交并运算得到候选集，不再逐行检查距离表。
+     * @param numRanges 每个支撑点的距离区间数量
+     * @param verbose 是否打印详细信息
+     * @return 位图索引
+     */
+    public PivotBitmapIndex buildBitmapIndex(int numRanges, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        this.bitmapIndex = new PivotBitmapIndex(this, numRanges);
+        long endTime = System.currentTimeMillis();
+
+        if (verbose) {
+            System.out.println("位图索引构建完成:");
+            System.out.println("  每个支撑点区间数: " + numRanges);
+            System.out.println("  位图大小: "
+                    + String.format("%.2f", bitmapIndex.getSizeInBytes() / 1024.0 / 1024.0) + " MB");
+            System.out.println("  耗时: " + (endTime - startTime) + " ms");
+        }
+        return bitmapIndex;
+    }
+
+    /**
+     * 获取位图索引
+     * @return 位图索引，未构建时为null
+     */
+    public PivotBitmapIndex getBitmapIndex() {
+        return bitmapIndex;
+    }
+
     /**
      * 获取支撑点列表
      * @return 支撑点列表
@@ -186,41 +358,62 @@ public class PivotTable {
     }
 
     /**
-     * 设置最后一次查询的统计信息
+     * 获取采样得到的距离分布（第一次调用时从数据集采样，采样的距离计算不计入统计）
+     * @return 距离分布
+     */
+    public DistanceDistribution getDistanceDistribution() {
+        DistanceDistribution distribution = distanceDistribution;
+        if (distribution == null) {
+            synchronized (this) {
+                distribution = distanceDistribution;
+                if (distribution == null) {
+                    distribution = DistanceDistribution.sample(dataset, metric,
+                            DistanceDistribution.DEFAULT_SAMPLE_PAIRS,
+                            new Random(DISTRIBUTION_SEED));
+                    distanceDistribution = distribution;
+                }
+            }
+        }
+        return distribution;
+    }
+
+    /**
+     * 设置最后一次查询的统计信息（当前线程）
      */
     public void setLastQueryStatistics(long distanceCalculations, long pruned, long included,
             long verified) {
-        this.lastQueryDistanceCalculations = distanceCalculations;
-        this.lastQueryPruned = pruned;
-        this.lastQueryIncluded = included;
-        this.lastQueryVerified = verified;
+        long[] statistics = lastQueryStatistics.get();
+        statistics[0] = distanceCalculations;
+        statistics[1] = pruned;
+        statistics[2] = included;
+        statistics[3] = verified;
     }
 
     /**
-     * 获取最后一次查询的距离计算次数
+     * 获取当前线程最后一次查询的距离计算次数
      */
     public long getLastQueryDistanceCalculations() {
-        return lastQueryDistanceCalculations;
+        return lastQueryStatistics.get()[0];
     }
 
     /**
-     * 获取最后一次查询的剪枝数量
+     * 获取当前线程最后一次查询的剪枝数量
      */
     public long getLastQueryPruned() {
-        return lastQueryPruned;
+        return lastQueryStatistics.get()[1];
     }
 
     /**
-     * 获取最后一次查询的直接包含数量
+     * 获取当前线程最后一次查询的直接包含数量
      */
     public long getLastQueryIncluded() {
-        return lastQueryIncluded;
+        return lastQueryStatistics.get()[2];
     }
 
     /**
-     * 获取最后一次查询的验证数量
+     * 获取当前线程最后一次查询的验证数量
      */
     public long getLastQueryVerified() {
-        return lastQueryVerified;
+        return lastQueryStatistics.get()[3];
     }
 }
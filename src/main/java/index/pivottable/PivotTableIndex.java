@@ -0,0 +1,182 @@
+package index.pivottable;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import index.BoundedKnnIndex;
+import index.Index;
+import query.KNNQuery;
+import query.KNNResult;
+import query.RangeQuery;
+import query.SharedKnnBound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pivot Table的Index接口适配器
+ *
+ * 把Pivot Table及其范围查询、kNN查询包装成 {@link Index}，
+ * 使其与树状索引一样可以参与批量查询和统一的性能比较。
+ * 查询统计按线程保存在PivotTable中，累计值用LongAdder汇总，因此可以多线程同时查询。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class PivotTableIndex implements BoundedKnnIndex {
+
+    /** 支撑点数量 */
+    private final int numPivots;
+
+    /** 支撑点选择方法 */
+    private final PivotSelectionMethod selectionMethod;
+
+    /** 距离表存储模式 */
+    private final DistanceStorageMode storageMode;
+
+    /** 是否打印详细信息 */
+    private final boolean verbose;
+
+    /** 底层Pivot Table */
+    private PivotTable pivotTable;
+
+    /** 查询距离计算次数（累计） */
+    private final LongAdder distanceComputations = new LongAdder();
+
+    /** 查询次数（累计） */
+    private final LongAdder queries = new LongAdder();
+
+    /**
+     * 构造Pivot Table索引
+     * @param numPivots 支撑点数量
+     * @param selectionMethod 支撑点选择方法
+     */
+    public PivotTableIndex(int numPivots, PivotSelectionMethod selectionMethod) {
+        this(numPivots, selectionMethod, DistanceStorageMode.DOUBLE, false);
+    }
+
+    /**
+     * 构造Pivot Table索引
+     * @param numPivots 支撑点数量
+     * @param selectionMethod 支撑点选择方法
+     * @param storageMode 距离表存储模式
+     * @param verbose 是否打印详细信息
+     */
+    public PivotTableIndex(int numPivots, PivotSelectionMethod selectionMethod,
+            DistanceStorageMode storageMode, boolean verbose) {
+        if (numPivots <= 0) {
+            throw new IllegalArgumentException("支撑点数量必须大于0，当前值: " + numPivots);
+        }
+        this.numPivots = numPivots;
+        this.selectionMethod = selectionMethod;
+        this.storageMode = storageMode;
+        this.verbose = verbose;
+    }
+
+    @Override
+    public void buildIndex(List<? extends MetricSpaceData> dataset, MetricFunction metric) {
+        if (dataset == null || dataset.isEmpty()) {
+            throw new IllegalArgumentException("数据集不能为空");
+        }
+        if (metric == null) {
+            throw new IllegalArgumentException("距离函数不能为空");
+        }
+        this.pivotTable =
+                new PivotTable(dataset, numPivots, metric, selectionMethod, storageMode, verbose);
+    }
+
+    @Override
+    public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
+        List<MetricSpaceData> results = PivotTableRangeQuery.execute(getPivotTable(),
+                new RangeQuery(queryObject, radius), verbose);
+        recordLastQuery();
+        return results;
+    }
+
+    @Override
+    public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        List<KNNResult> knnResults =
+                PivotTableKNNQuery.execute(getPivotTable(), new KNNQuery(queryObject, k), verbose);
+        recordLastQuery();
+
+        List<MetricSpaceData> results = new ArrayList<>(knnResults.size());
+        for (KNNResult result : knnResults) {
+            results.add(result.getData());
+        }
+        return results;
+    }
+
+    @Override
+    public List<KNNResult> knnQuery(MetricSpaceData queryObject, int k, SharedKnnBound bound) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        List<KNNResult> results = PivotTableKNNQuery.execute(getPivotTable(),
+                new KNNQuery(queryObject, k), bound, verbose);
+        recordLastQuery();
+        return results;
+    }
+
+    /**
+     * 把当前线程最后一次查询的统计累加到总计数
+     */
+    private void recordLastQuery() {
+        queries.increment();
+        distanceComputations.add(pivotTable.getLastQueryDistanceCalculations());
+    }
+
+    @Override
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n").append("=".repeat(50)).append("\n");
+        sb.append(getIndexName()).append(" 统计信息\n");
+        sb.append("=".repeat(50)).append("\n");
+        sb.append(String.format("  数据集大小: %,d\n", getDatasetSize()));
+        sb.append(String.format("  支撑点数量: %d (%s)\n", numPivots, selectionMethod));
+        sb.append(String.format("  存储模式: %s\n", storageMode));
+        if (pivotTable != null) {
+            sb.append(String.format("  构建距离计算次数: %,d\n",
+                    pivotTable.getBuildDistanceCalculations()));
+        }
+        sb.append(String.format("  查询次数: %,d\n", queries.sum()));
+        sb.append(String.format("  查询距离计算次数: %,d\n", distanceComputations.sum()));
+        sb.append("=".repeat(50));
+        return sb.toString();
+    }
+
+    @Override
+    public String getIndexName() {
+        return "Pivot Table";
+    }
+
+    @Override
+    public void resetStatistics() {
+        queries.reset();
+        distanceComputations.reset();
+    }
+
+    @Override
+    public long getDistanceComputations() {
+        return distanceComputations.sum();
+    }
+
+    @Override
+    public int getDatasetSize() {
+        return pivotTable != null ? pivotTable.getDatasetSize() : 0;
+    }
+
+    /**
+     * 获取底层Pivot Table
+     * @return Pivot Table
+     * @throws IllegalStateException 如果索引尚未构建
+     */
+    public PivotTable getPivotTable() {
+        if (pivotTable == null) {
+            throw new IllegalStateException("索引尚未构建");
+        }
+        return pivotTable;
+    }
+}
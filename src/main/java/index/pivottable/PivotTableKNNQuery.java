@@ -2,21 +2,28 @@ package index.pivottable;
 
 import core.MetricFunction;
 import core.MetricSpaceData;
+import query.ApproximateKNNQuery;
+import query.BoundedMaxHeap;
 import query.KNNQuery;
 import query.KNNResult;
+import query.SharedKnnBound;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * 基于Pivot Table的kNN查询
  *
  * 使用动态查询半径的策略：
- * 1. 维护一个最大堆保存当前的k个最近邻
+ * 1. 维护一个定容最大堆（基本类型数组，编号为行号）保存当前的k个最近邻
  * 2. 动态更新查询半径为当前第k近邻的距离
  * 3. 利用三角不等式和动态半径进行剪枝
  *
+ * 距离表为压缩存储时，使用桶区间[lo, hi]代替精确距离：max(d(p,q) - hi, lo - d(p,q)) > r 时剪枝。
+ *
+ * 近似查询（{@link ApproximateKNNQuery}）按距离下界升序验证对象，
+ * 使预算耗尽或提前停止时已经检查过最有希望的候选。
+ *
  * @author Jixiang Ding
  * @version 1.0
  */
@@ -40,15 +47,31 @@ public class PivotTableKNNQuery {
      * @return kNN结果列表（按距离升序排列）
      */
     public static List<KNNResult> execute(PivotTable pivotTable, KNNQuery query, boolean verbose) {
+        return execute(pivotTable, query, null, verbose);
+    }
 
-        // 使用优先队列维护k个最近邻
-        PriorityQueue<KNNResult> maxHeap = new PriorityQueue<>();
-        long distanceCalculations = 0;
-        int pruned = 0;
-        int verified = 0;
+    /**
+     * 在共享上界下执行基于Pivot Table的kNN查询（分片查询时各分片并发调用）
+     *
+     * 剪枝半径取当前第k近邻距离和共享上界中较小的一个；堆满后把第k近邻距离提交给共享上界。
+     *
+     * @param pivotTable Pivot Table索引
+     * @param query 查询对象
+     * @param bound 共享的第k近邻距离上界（为null表示不共享）
+     * @param verbose 是否打印详细信息
+     * @return kNN候选列表（按距离升序排列）
+     */
+    public static List<KNNResult> execute(PivotTable pivotTable, KNNQuery query,
+            SharedKnnBound bound, boolean verbose) {
 
         MetricSpaceData queryObject = query.getQueryObject();
         int k = query.getK();
+
+        // 使用定容最大堆维护k个最近邻（编号为行号）
+        BoundedMaxHeap maxHeap = new BoundedMaxHeap(k);
+        long distanceCalculations = 0;
+        int pruned = 0;
+        int verified = 0;
         MetricFunction metric = pivotTable.getMetric();
 
         if (verbose) {
@@ -72,14 +95,16 @@ public class PivotTableKNNQuery {
         for (int i = 0; i < dataset.size(); i++) {
             MetricSpaceData data = dataset.get(i);
             boolean canPrune = false;
+            double radius = bound == null ? currentRadius : Math.min(currentRadius, bound.get());
 
             // 尝试使用支撑点剪枝
             for (int j = 0; j < numPivots; j++) {
-                double dps = pivotTable.getDistanceToPivot(i, j);
+                double lo = pivotTable.getDistanceLowerBound(i, j);
+                double hi = pivotTable.getDistanceUpperBound(i, j);
                 double dpq = queryToPivotDist[j];
 
                 // 使用当前查询半径进行剪枝
-                if (Math.abs(dpq - dps) > currentRadius) {
+                if (Math.max(dpq - hi, lo - dpq) > radius) {
                     canPrune = true;
                     pruned++;
                     break;
@@ -92,22 +117,17 @@ public class PivotTableKNNQuery {
                 distanceCalculations++;
                 verified++;
 
-                if (maxHeap.size() < k) {
-                    maxHeap.offer(new KNNResult(data, distance));
-                    if (maxHeap.size() == k) {
-                        currentRadius = maxHeap.peek().getDistance();
+                if (maxHeap.offer(distance, i) && maxHeap.isFull()) {
+                    currentRadius = maxHeap.kthDistance();
+                    if (bound != null) {
+                        bound.offer(currentRadius);
                     }
-                } else if (distance < currentRadius) {
-                    maxHeap.poll();
-                    maxHeap.offer(new KNNResult(data, distance));
-                    currentRadius = maxHeap.peek().getDistance();
                 }
             }
         }
 
-        // 转为列表并排序
-        List<KNNResult> results = new ArrayList<>(maxHeap);
-        results.sort((a, b) -> Double.compare(a.getDistance(), b.getDistance()));
+        // 转为按距离升序排列的列表
+        List<KNNResult> results = maxHeap.drainResults(dataset);
 
         // 保存统计信息到PivotTable
         pivotTable.setLastQueryStatistics(distanceCalculations, pruned, 0, verified);
@@ -128,4 +148,237 @@ public class PivotTableKNNQuery {
 
         return results;
     }
+
+    /**
+     * 执行基于Pivot Table的近似kNN查询
+     *
+     * 先用支撑点距离算出每个对象的距离下界（不需要距离计算），再按下界升序验证：
+     * 1. 下界超过 当前第k近邻距离/(1+ε) 时，其余对象全部剪枝
+     * 2. 距离计算次数（含支撑点）达到预算，或已验证的对象数达到节点访问预算时停止
+     * 3. 当前第k近邻距离不超过概率停止半径r_δ时停止
+     *
+     * 所有控制都取默认值时返回与精确查询相同的结果。
+     *
+     * @param pivotTable Pivot Table索引
+     * @param query 近似kNN查询（节点访问预算在这里表示最多验证的对象数）
+     * @param verbose 是否打印详细信息
+     * @return 近似kNN结果列表（按距离升序排列）
+     */
+    public static List<KNNResult> execute(PivotTable pivotTable, ApproximateKNNQuery query,
+            boolean verbose) {
+
+        MetricSpaceData queryObject = query.getQueryObject();
+        int k = query.getK();
+
+        BoundedMaxHeap maxHeap = new BoundedMaxHeap(k);
+        long distanceCalculations = 0;
+        int verified = 0;
+        MetricFunction metric = pivotTable.getMetric();
+        List<MetricSpaceData> dataset = pivotTable.getDataset();
+        int n = dataset.size();
+
+        long maxDistances = query.getMaxDistanceComputations() > 0
+                ? query.getMaxDistanceComputations() : Long.MAX_VALUE;
+        long maxVerified = query.getMaxNodeAccesses() > 0
+                ? query.getMaxNodeAccesses() : Long.MAX_VALUE;
+        double shrinkFactor = 1 + query.getEpsilon();
+        double stopRadius = Double.NEGATIVE_INFINITY;
+        if (query.getStopProbability() > 0 && n >= 2) {
+            stopRadius = pivotTable.getDistanceDistribution().stopRadius(n, k,
+                    query.getStopProbability());
+        }
+
+        if (verbose) {
+            System.out.println("=== Pivot Table 近似kNN查询 ===");
+            System.out.println(query);
+            System.out.println("概率停止半径: " + stopRadius);
+        }
+
+        // 预计算查询对象到所有支撑点的距离
+        int numPivots = pivotTable.getPivots().size();
+        double[] queryToPivotDist = new double[numPivots];
+        for (int j = 0; j < numPivots; j++) {
+            queryToPivotDist[j] = metric.getDistance(queryObject, pivotTable.getPivots().get(j));
+            distanceCalculations++;
+        }
+
+        // 计算每个对象的距离下界，并按下界升序排列。
+        // 排序键把向下取整的float下界放在高32位、行号放在低32位：下界非负时float的位模式
+        // 与数值同序，于是对long[]做基本类型排序即可，不需要装箱的Integer[]和比较器
+        double[] lowerBounds = new double[n];
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            double bound = 0;
+            for (int j = 0; j < numPivots; j++) {
+                double dpq = queryToPivotDist[j];
+                bound = Math.max(bound, Math.max(dpq - pivotTable.getDistanceUpperBound(i, j),
+                        pivotTable.getDistanceLowerBound(i, j) - dpq));
+            }
+            lowerBounds[i] = bound;
+            order[i] = ((long) Float.floatToIntBits(floorFloat(bound)) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        // 剪枝半径（当前第k近邻距离除以1+ε）
+        double currentRadius = Double.MAX_VALUE;
+        boolean stopped = distanceCalculations >= maxDistances;
+
+        for (int r = 0; r < n && !stopped; r++) {
+            int i = (int) order[r];
+            // 排序键不大于真实下界且按升序排列，排序键被剪枝后之后的对象都可以剪枝
+            if (Float.intBitsToFloat((int) (order[r] >>> 32)) > currentRadius) {
+                break;
+            }
+            if (lowerBounds[i] > currentRadius) {
+                continue;
+            }
+            if (verified >= maxVerified) {
+                break;
+            }
+
+            MetricSpaceData data = dataset.get(i);
+            double distance = metric.getDistance(queryObject, data);
+            distanceCalculations++;
+            verified++;
+
+            maxHeap.offer(distance, i);
+            if (maxHeap.isFull()) {
+                double kthDistance = maxHeap.kthDistance();
+                currentRadius = kthDistance / shrinkFactor;
+                stopped = kthDistance <= stopRadius;
+            }
+            stopped |= distanceCalculations >= maxDistances;
+        }
+
+        List<KNNResult> results = maxHeap.drainResults(dataset);
+
+        int pruned = n - verified;
+        pivotTable.setLastQueryStatistics(distanceCalculations, pruned, 0, verified);
+
+        if (verbose) {
+            System.out.println("\n查询统计:");
+            System.out.println("  数据集大小: " + n);
+            System.out.println("  k值: " + k);
+            System.out.println("  支撑点数量: " + numPivots);
+            System.out.println("  距离计算次数: " + distanceCalculations);
+            System.out.println("  未验证数量: " + pruned);
+            System.out.println("  验证数量: " + verified);
+            System.out.println("  返回结果数: " + results.size());
+            System.out.println("===========================\n");
+        }
+
+        return results;
+    }
+
+    /**
+     * 执行基于分块Pivot Table的kNN查询（外存模式）
+     *
+     * 逐块扫描：用当前第k近邻距离在距离块上过滤，按块内行号升序读取幸存对象；
+     * 读取后计算距离前再用收紧后的半径检查一次，减少距离计算。
+     *
+     * @param table 分块Pivot Table
+     * @param query 查询对象
+     * @param verbose 是否打印详细信息
+     * @return kNN结果列表（按距离升序排列）
+     */
+    public static List<KNNResult> execute(ChunkedPivotTable table, KNNQuery query,
+            boolean verbose) {
+
+        MetricSpaceData queryObject = query.getQueryObject();
+        int k = query.getK();
+
+        // 对象逐块读入，堆中编号是slots的槽位
+        BoundedMaxHeap maxHeap = new BoundedMaxHeap(k);
+        MetricSpaceData[] slots = new MetricSpaceData[k];
+        long[] counters = new long[3]; // 距离计算次数、剪枝数量、验证数量
+        MetricFunction metric = table.getMetric();
+
+        if (verbose) {
+            System.out.println("=== 分块Pivot Table kNN查询 ===");
+            System.out.println("k值: " + k);
+        }
+
+        // 预计算查询对象到所有支撑点的距离
+        int numPivots = table.getNumPivots();
+        double[] queryToPivotDist = new double[numPivots];
+        for (int j = 0; j < numPivots; j++) {
+            queryToPivotDist[j] = metric.getDistance(queryObject, table.getPivots().get(j));
+            counters[0]++;
+        }
+
+        // 动态查询半径（当前第k近邻的距离）
+        double[] currentRadius = {Double.MAX_VALUE};
+
+        table.scan((chunk, distances) -> {
+            int rowCount = table.getChunkRowCount(chunk);
+            int[] survivors = new int[rowCount];
+            int numSurvivors = 0;
+
+            for (int i = 0; i < rowCount; i++) {
+                if (lowerBound(distances, i, queryToPivotDist) > currentRadius[0]) {
+                    counters[1]++;
+                } else {
+                    survivors[numSurvivors++] = i;
+                }
+            }
+
+            List<MetricSpaceData> fetched = table.fetchRows(chunk, survivors, numSurvivors);
+            for (int r = 0; r < numSurvivors; r++) {
+                if (lowerBound(distances, survivors[r], queryToPivotDist) > currentRadius[0]) {
+                    counters[1]++;
+                    continue;
+                }
+
+                MetricSpaceData data = fetched.get(r);
+                double distance = metric.getDistance(queryObject, data);
+                counters[0]++;
+                counters[2]++;
+
+                int slot = maxHeap.isFull() ? maxHeap.getId(0) : maxHeap.size();
+                if (maxHeap.offer(distance, slot)) {
+                    slots[slot] = data;
+                    currentRadius[0] = maxHeap.kthDistance();
+                }
+            }
+        });
+
+        List<KNNResult> results = maxHeap.drainResults(Arrays.asList(slots));
+
+        table.setLastQueryStatistics(counters[0], counters[1], counters[2]);
+
+        if (verbose) {
+            System.out.println("\n查询统计:");
+            System.out.println("  数据集大小: " + table.getDatasetSize());
+            System.out.println("  k值: " + k);
+            System.out.println("  块数: " + table.getNumChunks());
+            System.out.println("  距离计算次数: " + counters[0]);
+            System.out.println("  剪枝数量: " + counters[1]);
+            System.out.println("  需要验证数量: " + counters[2]);
+            System.out.println("  读取字节数: " + table.getLastQueryBytesRead());
+            System.out.println("  返回结果数: " + results.size());
+            System.out.println("===========================\n");
+        }
+
+        return results;
+    }
+
+    /**
+     * 转换为不大于x的float（x非负）
+     */
+    private static float floorFloat(double x) {
+        float f = (float) x;
+        return f > x ? Math.nextDown(f) : f;
+    }
+
+    /**
+     * 计算距离块中某一行到查询对象距离的下界：max_j |d(p_j,q) - d(p_j,s)|
+     */
+    private static double lowerBound(double[] distances, int row, double[] queryToPivotDist) {
+        int base = row * queryToPivotDist.length;
+        double bound = 0;
+        for (int j = 0; j < queryToPivotDist.length; j++) {
+            bound = Math.max(bound, Math.abs(queryToPivotDist[j] - distances[base + j]));
+        }
+        return bound;
+    }
 }
@@ -2,6 +2,7 @@ package index.pivottable;
 
 import core.MetricFunction;
 import core.MetricSpaceData;
+import index.pivottable.bitmap.RoaringBitmap;
 import query.RangeQuery;
 
 import java.util.ArrayList;
@@ -14,6 +15,12 @@ import java.util.List;
  * - 排除规则: |d(p,q) - d(p,s)| > r => d(q,s) > r，可以剪枝
  * - 包含规则: d(p,q) + d(p,s) <= r => d(q,s) <= r，可以直接包含
  *
+ * 距离表为压缩存储时，d(p,s)只知道所在区间[lo, hi]，规则改为：
+ * - 排除规则: d(p,q) - hi > r 或 lo - d(p,q) > r
+ * - 包含规则: d(p,q) + hi <= r
+ *
+ * 若Pivot Table已构建位图索引，先用位图运算得到候选集，只对候选行应用上述规则。
+ *
  * @author Jixiang Ding
  * @version 1.0
  */
@@ -62,27 +69,39 @@ public class PivotTableRangeQuery {
             distanceCalculations++;
         }
 
-        // 对每个数据对象，尝试使用三角不等式剪枝
+        // 有位图索引时只检查候选行，其余行直接剪枝
         List<MetricSpaceData> dataset = pivotTable.getDataset();
-        for (int i = 0; i < dataset.size(); i++) {
+        PivotBitmapIndex bitmapIndex = pivotTable.getBitmapIndex();
+        int[] rows = null;
+        if (bitmapIndex != null) {
+            RoaringBitmap candidates = bitmapIndex.getCandidates(queryToPivotDist, radius);
+            rows = candidates.toArray();
+            pruned += dataset.size() - rows.length;
+        }
+        int numRows = rows != null ? rows.length : dataset.size();
+
+        // 对每个数据对象，尝试使用三角不等式剪枝
+        for (int r = 0; r < numRows; r++) {
+            int i = rows != null ? rows[r] : r;
             MetricSpaceData data = dataset.get(i);
             boolean canPrune = false;
             boolean canInclude = false;
 
             // 尝试使用每个支撑点进行剪枝
             for (int j = 0; j < numPivots; j++) {
-                double dps = pivotTable.getDistanceToPivot(i, j); // d(pivot, data)
+                double lo = pivotTable.getDistanceLowerBound(i, j); // d(pivot, data)下界
+                double hi = pivotTable.getDistanceUpperBound(i, j); // d(pivot, data)上界
                 double dpq = queryToPivotDist[j]; // d(pivot, query)
 
                 // 排除规则: |d(p,q) - d(p,s)| > r => d(q,s) > r
-                if (Math.abs(dpq - dps) > radius) {
+                if (dpq - hi > radius || lo - dpq > radius) {
                     canPrune = true;
                     pruned++;
                     break;
                 }
 
                 // 包含规则: d(p,q) + d(p,s) <= r => d(q,s) <= r
-                if (dpq + dps <= radius) {
+                if (dpq + hi <= radius) {
                     canInclude = true;
                     included++;
                     break;
@@ -123,4 +142,87 @@ public class PivotTableRangeQuery {
 
         return results;
     }
+
+    /**
+     * 执行基于分块Pivot Table的范围查询（外存模式）
+     *
+     * 逐块扫描：先用距离块过滤，再按块内行号升序读取幸存对象并验证。
+     * 外存模式下不使用包含规则，幸存对象都需要读取，因此直接计算实际距离。
+     *
+     * @param table 分块Pivot Table
+     * @param query 查询对象
+     * @param verbose 是否打印详细信息
+     * @return 查询结果列表
+     */
+    public static List<MetricSpaceData> execute(ChunkedPivotTable table, RangeQuery query,
+            boolean verbose) {
+
+        List<MetricSpaceData> results = new ArrayList<>();
+        long[] counters = new long[3]; // 距离计算次数、剪枝数量、验证数量
+
+        MetricSpaceData queryObject = query.getQueryObject();
+        double radius = query.getRadius();
+        MetricFunction metric = table.getMetric();
+
+        if (verbose) {
+            System.out.println("=== 分块Pivot Table范围查询 ===");
+            System.out.println("查询半径: " + radius);
+        }
+
+        // 预计算查询对象到所有支撑点的距离
+        int numPivots = table.getNumPivots();
+        double[] queryToPivotDist = new double[numPivots];
+        for (int j = 0; j < numPivots; j++) {
+            queryToPivotDist[j] = metric.getDistance(queryObject, table.getPivots().get(j));
+            counters[0]++;
+        }
+
+        table.scan((chunk, distances) -> {
+            int rowCount = table.getChunkRowCount(chunk);
+            int[] survivors = new int[rowCount];
+            int numSurvivors = 0;
+
+            // 在距离块上过滤
+            for (int i = 0; i < rowCount; i++) {
+                boolean canPrune = false;
+                int base = i * numPivots;
+                for (int j = 0; j < numPivots; j++) {
+                    if (Math.abs(queryToPivotDist[j] - distances[base + j]) > radius) {
+                        canPrune = true;
+                        break;
+                    }
+                }
+                if (canPrune) {
+                    counters[1]++;
+                } else {
+                    survivors[numSurvivors++] = i;
+                }
+            }
+
+            // 读取幸存对象并验证
+            for (MetricSpaceData data : table.fetchRows(chunk, survivors, numSurvivors)) {
+                counters[0]++;
+                counters[2]++;
+                if (metric.getDistance(queryObject, data) <= radius) {
+                    results.add(data);
+                }
+            }
+        });
+
+        table.setLastQueryStatistics(counters[0], counters[1], counters[2]);
+
+        if (verbose) {
+            System.out.println("\n查询统计:");
+            System.out.println("  数据集大小: " + table.getDatasetSize());
+            System.out.println("  块数: " + table.getNumChunks());
+            System.out.println("  距离计算次数: " + counters[0]);
+            System.out.println("  剪枝数量: " + counters[1]);
+            System.out.println("  需要验证数量: " + counters[2]);
+            System.out.println("  读取字节数: " + table.getLastQueryBytesRead());
+            System.out.println("  结果数量: " + results.size());
+            System.out.println("============================\n");
+        }
+
+        return results;
+    }
 }
@@ -0,0 +1,212 @@
+package index.pivottable;
+
+import java.util.Arrays;
+
+/**
+ * 分桶压缩距离表
+ *
+ * 将"数据对象到支撑点的距离"量化为8位或16位的桶编号进行存储：
+ * 1. 每个支撑点独立地根据观测到的距离分布（采样）选取桶边界（等深分桶，即分位数）
+ * 2. 桶b覆盖闭区间 [edges[b], edges[b+1]]，表中只保存桶编号
+ * 3. 查询时用桶区间的两端作为 d(p,s) 的下界和上界，剪枝规则依然保守正确
+ *
+ * 采样之外的距离若落在首尾桶之外，会扩展首尾边界，因此已编码的数据始终被桶区间覆盖。
+ * 以32个支撑点、5000万数据为例，double存储需12.8GB，8位存储只需1.6GB。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class QuantizedDistanceTable {
+
+    /** 存储模式（BYTE或SHORT） */
+    private final DistanceStorageMode mode;
+
+    /** 数据行数 */
+    private final int numRows;
+
+    /** 支撑点数量 */
+    private final int numPivots;
+
+    /** 8位桶编号 [row * numPivots + pivot]（仅BYTE模式） */
+    private final byte[] byteCodes;
+
+    /** 16位桶编号 [row * numPivots + pivot]（仅SHORT模式） */
+    private final short[] shortCodes;
+
+    /** 每个支撑点的桶边界 [pivot][bucket]，桶b覆盖 [edges[b], edges[b+1]] */
+    private final double[][] bucketEdges;
+
+    /**
+     * 构造分桶距离表
+     *
+     * @param numRows 数据行数
+     * @param numPivots 支撑点数量
+     * @param mode 存储模式，必须为压缩模式
+     * @param sampleDistances 采样行的距离 [sampleRow][pivot]，用于确定桶边界
+     */
+    public QuantizedDistanceTable(int numRows, int numPivots, DistanceStorageMode mode,
+            double[][] sampleDistances) {
+        if (!mode.isQuantized()) {
+            throw new IllegalArgumentException("分桶距离表只支持压缩存储模式: " + mode);
+        }
+        long cells = (long) numRows * numPivots;
+        if (cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("距离表规模超出单个数组上限: " + numRows + " x " + numPivots);
+        }
+
+        this.mode = mode;
+        this.numRows = numRows;
+        this.numPivots = numPivots;
+        this.byteCodes = mode == DistanceStorageMode.BYTE ? new byte[(int) cells] : null;
+        this.shortCodes = mode == DistanceStorageMode.SHORT ? new short[(int) cells] : null;
+
+        this.bucketEdges = new double[numPivots][];
+        for (int j = 0; j < numPivots; j++) {
+            bucketEdges[j] = computeEdges(sampleDistances, j, mode.getNumBuckets());
+        }
+    }
+
+    /**
+     * 根据采样距离的分位数计算某个支撑点的桶边界
+     *
+     * 边界去重后数量可能少于桶数（例如整数距离），此时区间更紧，不影响正确性。
+     */
+    private static double[] computeEdges(double[][] sampleDistances, int pivot, int numBuckets) {
+        int m = sampleDistances.length;
+        if (m == 0) {
+            return new double[] {0, 0};
+        }
+
+        double[] column = new double[m];
+        for (int i = 0; i < m; i++) {
+            column[i] = sampleDistances[i][pivot];
+        }
+        Arrays.sort(column);
+
+        double[] edges = new double[numBuckets + 1];
+        int count = 0;
+        for (int b = 0; b <= numBuckets; b++) {
+            double value = column[(int) ((long) b * (m - 1) / numBuckets)];
+            if (count == 0 || value > edges[count - 1]) {
+                edges[count++] = value;
+            }
+        }
+        if (count == 1) {
+            // 所有采样距离相同，构造一个退化桶
+            edges[count++] = edges[0];
+        }
+        return Arrays.copyOf(edges, count);
+    }
+
+    /**
+     * 写入一个距离（编码为桶编号）
+     *
+     * @param row 数据行
+     * @param pivot 支撑点索引
+     * @param distance 精确距离
+     */
+    public void set(int row, int pivot, double distance) {
+        double[] edges = bucketEdges[pivot];
+        int last = edges.length - 1;
+
+        // 超出采样范围时扩展首尾边界，保证区间始终覆盖真实距离
+        if (distance < edges[0]) {
+            edges[0] = distance;
+        }
+        if (distance > edges[last]) {
+            edges[last] = distance;
+        }
+
+        int bucket = Arrays.binarySearch(edges, distance);
+        if (bucket < 0) {
+            bucket = -bucket - 2;
+        }
+        bucket = Math.max(0, Math.min(bucket, last - 1));
+
+        int cell = row * numPivots + pivot;
+        if (byteCodes != null) {
+            byteCodes[cell] = (byte) bucket;
+        } else {
+            shortCodes[cell] = (short) bucket;
+        }
+    }
+
+    /**
+     * 获取桶编号
+     */
+    private int bucketOf(int row, int pivot) {
+        int cell = row * numPivots + pivot;
+        return byteCodes != null ? byteCodes[cell] & 0xFF : shortCodes[cell] & 0xFFFF;
+    }
+
+    /**
+     * 获取距离下界（所在桶的左端点）
+     *
+     * @param row 数据行
+     * @param pivot 支撑点索引
+     * @return d(p,s)的下界
+     */
+    public double getLowerBound(int row, int pivot) {
+        return bucketEdges[pivot][bucketOf(row, pivot)];
+    }
+
+    /**
+     * 获取距离上界（所在桶的右端点）
+     *
+     * @param row 数据行
+     * @param pivot 支撑点索引
+     * @return d(p,s)的上界
+     */
+    public double getUpperBound(int row, int pivot) {
+        return bucketEdges[pivot][bucketOf(row, pivot) + 1];
+    }
+
+    /**
+     * 获取某个支撑点的桶边界（副本）
+     *
+     * @param pivot 支撑点索引
+     * @return 桶边界数组
+     */
+    public double[] getBucketEdges(int pivot) {
+        return bucketEdges[pivot].clone();
+    }
+
+    /**
+     * 获取某个数据的桶编号
+     *
+     * @param row 数据行
+     * @param pivot 支撑点索引
+     * @return 桶编号
+     */
+    public int getBucket(int row, int pivot) {
+        return bucketOf(row, pivot);
+    }
+
+    /**
+     * 获取存储模式
+     */
+    public DistanceStorageMode getMode() {
+        return mode;
+    }
+
+    /**
+     * 获取数据行数
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * 获取支撑点数量
+     */
+    public int getNumPivots() {
+        return numPivots;
+    }
+
+    /**
+     * 获取编号数组占用的字节数（不含桶边界）
+     */
+    public long getSizeInBytes() {
+        return (long) numRows * numPivots * mode.getBits() / 8;
+    }
+}
@@ -0,0 +1,120 @@
+package index.pivottable.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * 数组容器：有序char数组，适合稀疏数据
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+class ArrayContainer extends Container {
+
+    /** 有序的低16位值 */
+    private char[] values;
+
+    /** 基数 */
+    private int size;
+
+    ArrayContainer() {
+        this.values = new char[4];
+        this.size = 0;
+    }
+
+    private ArrayContainer(char[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    static ArrayContainer fromWords(long[] words, int cardinality) {
+        char[] values = new char[cardinality];
+        int pos = 0;
+        for (int i = 0; i < words.length; i++) {
+            long w = words[i];
+            while (w != 0) {
+                values[pos++] = (char) ((i << 6) + Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+        return new ArrayContainer(values, cardinality);
+    }
+
+    @Override
+    int cardinality() {
+        return size;
+    }
+
+    @Override
+    boolean contains(char x) {
+        return Arrays.binarySearch(values, 0, size, x) >= 0;
+    }
+
+    @Override
+    Container add(char x) {
+        // 构建时通常按升序追加，优先走快速路径
+        int pos;
+        if (size == 0 || values[size - 1] < x) {
+            pos = size;
+        } else {
+            pos = Arrays.binarySearch(values, 0, size, x);
+            if (pos >= 0) {
+                return this;
+            }
+            pos = -pos - 1;
+        }
+
+        if (size >= ARRAY_MAX_SIZE) {
+            long[] words = toWords();
+            words[x >>> 6] |= 1L << x;
+            return new BitmapContainer(words, size + 1);
+        }
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, values.length * 2));
+        }
+        System.arraycopy(values, pos, values, pos + 1, size - pos);
+        values[pos] = x;
+        size++;
+        return this;
+    }
+
+    @Override
+    void orInto(long[] words) {
+        for (int i = 0; i < size; i++) {
+            char v = values[i];
+            words[v >>> 6] |= 1L << v;
+        }
+    }
+
+    @Override
+    int toArray(int base, int[] out, int offset) {
+        for (int i = 0; i < size; i++) {
+            out[offset + i] = base | values[i];
+        }
+        return size;
+    }
+
+    @Override
+    int getSizeInBytes() {
+        return 2 * size;
+    }
+
+    /**
+     * 过滤出同时存在于另一个容器中的值
+     */
+    ArrayContainer filter(Container other) {
+        char[] result = new char[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (other.contains(values[i])) {
+                result[count++] = values[i];
+            }
+        }
+        return new ArrayContainer(result, count);
+    }
+
+    @Override
+    Container and(Container other) {
+        return filter(other);
+    }
+}
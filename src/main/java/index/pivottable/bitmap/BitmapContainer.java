@@ -0,0 +1,72 @@
+package index.pivottable.bitmap;
+
+/**
+ * 位图容器：65536位定长位图，适合稠密数据
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+class BitmapContainer extends Container {
+
+    /** 位数组 */
+    private final long[] words;
+
+    /** 基数 */
+    private int cardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    boolean contains(char x) {
+        return (words[x >>> 6] & (1L << x)) != 0;
+    }
+
+    @Override
+    Container add(char x) {
+        long before = words[x >>> 6];
+        long after = before | (1L << x);
+        if (before != after) {
+            words[x >>> 6] = after;
+            cardinality++;
+        }
+        return this;
+    }
+
+    @Override
+    void orInto(long[] target) {
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            target[i] |= words[i];
+        }
+    }
+
+    @Override
+    long[] toWords() {
+        return words.clone();
+    }
+
+    @Override
+    int toArray(int base, int[] out, int offset) {
+        int pos = offset;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            long w = words[i];
+            while (w != 0) {
+                out[pos++] = base | ((i << 6) + Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+        return pos - offset;
+    }
+
+    @Override
+    int getSizeInBytes() {
+        return 8 * BITMAP_WORDS;
+    }
+}
@@ -0,0 +1,143 @@
+package index.pivottable.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Roaring位图的容器基类
+ *
+ * 每个容器存放同一个高16位键下的低16位整数，有三种表示：
+ * 1. 数组容器：有序char数组，适合稀疏数据（基数 <= 4096）
+ * 2. 位图容器：65536位的long[1024]，适合稠密数据
+ * 3. 行程容器：(起点, 长度)对，适合连续区间
+ *
+ * 求交、求并和压缩时的位数组使用每个线程复用的临时数组，只有结果为位图容器时才复制一份，
+ * 查询中不会为每个容器分配8KB的位数组。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+abstract class Container {
+
+    /** 位图容器的long数量 */
+    static final int BITMAP_WORDS = 1024;
+
+    /** 数组容器的最大基数，超过时转换为位图容器 */
+    static final int ARRAY_MAX_SIZE = 4096;
+
+    /** 每个线程复用的两个临时位数组 */
+    private static final ThreadLocal<long[][]> SCRATCH =
+            ThreadLocal.withInitial(() -> new long[2][BITMAP_WORDS]);
+
+    /**
+     * 获取基数
+     */
+    abstract int cardinality();
+
+    /**
+     * 判断是否包含某个低16位整数
+     */
+    abstract boolean contains(char x);
+
+    /**
+     * 添加一个整数
+     * @return 添加后的容器（可能转换了表示）
+     */
+    abstract Container add(char x);
+
+    /**
+     * 将容器中的位按位或到words中
+     * @param words 长度为1024的位数组
+     */
+    abstract void orInto(long[] words);
+
+    /**
+     * 将容器内容（加上高位base）写入out数组
+     * @return 写入的数量
+     */
+    abstract int toArray(int base, int[] out, int offset);
+
+    /**
+     * 估算占用的字节数
+     */
+    abstract int getSizeInBytes();
+
+    /**
+     * 求交集
+     * @param other 另一个容器
+     * @return 交集容器（可能为空）
+     */
+    Container and(Container other) {
+        if (other instanceof ArrayContainer) {
+            return ((ArrayContainer) other).filter(this);
+        }
+        long[] words = scratch(0);
+        long[] otherWords = scratch(1);
+        orInto(words);
+        other.orInto(otherWords);
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] &= otherWords[i];
+        }
+        return fromWords(words);
+    }
+
+    /**
+     * 获取当前线程的第i个临时位数组（已清零）
+     *
+     * 数组在下一次调用前有效，不能保存到容器中（{@link #fromWords} 会复制）。
+     */
+    static long[] scratch(int i) {
+        long[] words = SCRATCH.get()[i];
+        Arrays.fill(words, 0);
+        return words;
+    }
+
+    /**
+     * 转换为新分配的位数组（转换为位图容器时使用）
+     */
+    long[] toWords() {
+        long[] words = new long[BITMAP_WORDS];
+        orInto(words);
+        return words;
+    }
+
+    /**
+     * 选择最省空间的表示
+     */
+    Container optimize() {
+        long[] words = scratch(0);
+        orInto(words);
+        return fromWords(words);
+    }
+
+    /**
+     * 根据位数组构造最省空间的容器
+     *
+     * 数组容器占 2*基数 字节，位图容器占 8192 字节，行程容器占 4*行程数 字节。
+     *
+     * @param words 位数组（可以是临时数组：结果不引用它，位图容器保存的是副本）
+     * @return 容器
+     */
+    static Container fromWords(long[] words) {
+        int cardinality = 0;
+        int runs = 0;
+        long carry = 0;
+        for (long w : words) {
+            cardinality += Long.bitCount(w);
+            // 行程起点：该位为1且前一位为0
+            runs += Long.bitCount(w & ~((w << 1) | carry));
+            carry = w >>> 63;
+        }
+
+        int arrayBytes = 2 * cardinality;
+        int bitmapBytes = 8 * BITMAP_WORDS;
+        int runBytes = 4 * runs;
+
+        if (runBytes < Math.min(arrayBytes, bitmapBytes)) {
+            return RunContainer.fromWords(words, runs);
+        }
+        if (cardinality <= ARRAY_MAX_SIZE) {
+            return ArrayContainer.fromWords(words, cardinality);
+        }
+        return new BitmapContainer(words.clone(), cardinality);
+    }
+}
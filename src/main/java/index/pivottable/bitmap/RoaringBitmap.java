@@ -0,0 +1,245 @@
+package index.pivottable.bitmap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * 压缩位图（Roaring风格）
+ *
+ * 将32位非负整数按高16位分块，每块使用数组、位图或行程三种容器之一存储，
+ * 在稀疏、稠密和连续数据上都能保持较小的空间，并支持快速的交并运算。
+ *
+ * 本实现只覆盖索引所需的操作：添加、压缩、按块求交、多路求并和遍历。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class RoaringBitmap {
+
+    /** 高16位键（升序） */
+    private char[] keys;
+
+    /** 与键一一对应的容器 */
+    private Container[] containers;
+
+    /** 容器数量 */
+    private int size;
+
+    /**
+     * 构造空位图
+     */
+    public RoaringBitmap() {
+        this.keys = new char[4];
+        this.containers = new Container[4];
+        this.size = 0;
+    }
+
+    private RoaringBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    /**
+     * 添加一个整数
+     * @param x 非负整数
+     */
+    public void add(int x) {
+        if (x < 0) {
+            throw new IllegalArgumentException("位图只支持非负整数: " + x);
+        }
+        char high = (char) (x >>> 16);
+        char low = (char) x;
+
+        int idx;
+        if (size > 0 && keys[size - 1] == high) {
+            idx = size - 1; // 顺序添加的快速路径
+        } else {
+            idx = Arrays.binarySearch(keys, 0, size, high);
+        }
+
+        if (idx >= 0) {
+            containers[idx] = containers[idx].add(low);
+            return;
+        }
+
+        idx = -idx - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, size - idx);
+        System.arraycopy(containers, idx, containers, idx + 1, size - idx);
+        keys[idx] = high;
+        containers[idx] = new ArrayContainer().add(low);
+        size++;
+    }
+
+    /**
+     * 判断是否包含某个整数
+     * @param x 整数
+     * @return 包含返回true
+     */
+    public boolean contains(int x) {
+        if (x < 0) {
+            return false;
+        }
+        int idx = Arrays.binarySearch(keys, 0, size, (char) (x >>> 16));
+        return idx >= 0 && containers[idx].contains((char) x);
+    }
+
+    /**
+     * 为每个容器选择最省空间的表示（构建完成后调用）
+     */
+    public void runOptimize() {
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].optimize();
+        }
+    }
+
+    /**
+     * 获取基数
+     * @return 元素数量
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * 是否为空
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 估算占用的字节数
+     * @return 字节数
+     */
+    public long getSizeInBytes() {
+        long bytes = 2L * size;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].getSizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 按升序遍历所有元素
+     * @param consumer 元素处理器
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int v : toArray()) {
+            consumer.accept(v);
+        }
+    }
+
+    /**
+     * 转换为升序数组
+     * @return 元素数组
+     */
+    public int[] toArray() {
+        int[] out = new int[getCardinality()];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            pos += containers[i].toArray(keys[i] << 16, out, pos);
+        }
+        return out;
+    }
+
+    /**
+     * 求两个位图的交集
+     * @param a 位图a
+     * @param b 位图b
+     * @return 新位图
+     */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        int capacity = Math.max(1, Math.min(a.size, b.size));
+        char[] keys = new char[capacity];
+        Container[] containers = new Container[capacity];
+        int count = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) {
+                    keys[count] = a.keys[i];
+                    containers[count] = c;
+                    count++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return new RoaringBitmap(keys, containers, count);
+    }
+
+    /**
+     * 求多个位图的并集
+     *
+     * 按键升序逐块合并：同一个键下的所有容器按位或到一个复用的临时位数组中，再转换为容器，
+     * 不为每个键分配位数组，也没有两两合并产生的中间结果。
+     *
+     * @param bitmaps 位图列表
+     * @return 新位图
+     */
+    public static RoaringBitmap or(List<RoaringBitmap> bitmaps) {
+        int[] cursors = new int[bitmaps.size()];
+        int capacity = 1;
+        for (RoaringBitmap bitmap : bitmaps) {
+            capacity = Math.max(capacity, bitmap.size);
+        }
+        char[] keys = new char[capacity];
+        Container[] containers = new Container[capacity];
+        int count = 0;
+        while (true) {
+            int key = Integer.MAX_VALUE;
+            for (int b = 0; b < cursors.length; b++) {
+                RoaringBitmap bitmap = bitmaps.get(b);
+                if (cursors[b] < bitmap.size) {
+                    key = Math.min(key, bitmap.keys[cursors[b]]);
+                }
+            }
+            if (key == Integer.MAX_VALUE) {
+                break;
+            }
+            long[] words = Container.scratch(0);
+            for (int b = 0; b < cursors.length; b++) {
+                RoaringBitmap bitmap = bitmaps.get(b);
+                if (cursors[b] < bitmap.size && bitmap.keys[cursors[b]] == key) {
+                    bitmap.containers[cursors[b]].orInto(words);
+                    cursors[b]++;
+                }
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                containers = Arrays.copyOf(containers, count * 2);
+            }
+            keys[count] = (char) key;
+            containers[count] = Container.fromWords(words);
+            count++;
+        }
+        return new RoaringBitmap(keys, containers, count);
+    }
+
+    /**
+     * 复制位图（容器也一并复制，修改副本不影响原位图）
+     *
+     * @return 新位图
+     */
+    public RoaringBitmap copy() {
+        return or(Collections.singletonList(this));
+    }
+}
@@ -0,0 +1,159 @@
+package index.pivottable.bitmap;
+
+/**
+ * 行程容器：以(起点, 长度-1)对存储连续区间，适合大段连续的数据
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+class RunContainer extends Container {
+
+    /** 每个行程的起点（升序） */
+    private final char[] starts;
+
+    /** 每个行程的长度减一 */
+    private final char[] lengths;
+
+    /** 行程数量 */
+    private final int numRuns;
+
+    /** 基数 */
+    private final int cardinality;
+
+    private RunContainer(char[] starts, char[] lengths, int numRuns, int cardinality) {
+        this.starts = starts;
+        this.lengths = lengths;
+        this.numRuns = numRuns;
+        this.cardinality = cardinality;
+    }
+
+    static RunContainer fromWords(long[] words, int numRuns) {
+        char[] starts = new char[numRuns];
+        char[] lengths = new char[numRuns];
+        int cardinality = 0;
+        int run = 0;
+        int v = nextSetBit(words, 0);
+        while (v >= 0) {
+            int end = nextClearBit(words, v); // 不含
+            starts[run] = (char) v;
+            lengths[run] = (char) (end - v - 1);
+            cardinality += end - v;
+            run++;
+            v = nextSetBit(words, end);
+        }
+        return new RunContainer(starts, lengths, numRuns, cardinality);
+    }
+
+    /**
+     * 从from开始查找下一个为1的位，不存在返回-1
+     */
+    private static int nextSetBit(long[] words, int from) {
+        int w = from >>> 6;
+        if (w >= BITMAP_WORDS) {
+            return -1;
+        }
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == BITMAP_WORDS) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /**
+     * 从from开始查找下一个为0的位，不存在返回65536
+     */
+    private static int nextClearBit(long[] words, int from) {
+        int w = from >>> 6;
+        if (w >= BITMAP_WORDS) {
+            return from;
+        }
+        long word = ~words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == BITMAP_WORDS) {
+                return BITMAP_WORDS << 6;
+            }
+            word = ~words[w];
+        }
+    }
+
+    @Override
+    int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    boolean contains(char x) {
+        // 找到最后一个起点 <= x 的行程
+        int low = 0;
+        int high = numRuns - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= x) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found >= 0 && x - starts[found] <= lengths[found];
+    }
+
+    @Override
+    Container add(char x) {
+        if (contains(x)) {
+            return this;
+        }
+        // 行程容器只在构建结束后生成，修改时先转回位图容器
+        long[] words = toWords();
+        words[x >>> 6] |= 1L << x;
+        return new BitmapContainer(words, cardinality + 1);
+    }
+
+    @Override
+    void orInto(long[] words) {
+        for (int r = 0; r < numRuns; r++) {
+            int start = starts[r];
+            int end = start + lengths[r]; // 含
+            int firstWord = start >>> 6;
+            int lastWord = end >>> 6;
+            long firstMask = -1L << start;
+            long lastMask = -1L >>> (63 - (end & 63));
+            if (firstWord == lastWord) {
+                words[firstWord] |= firstMask & lastMask;
+            } else {
+                words[firstWord] |= firstMask;
+                for (int w = firstWord + 1; w < lastWord; w++) {
+                    words[w] = -1L;
+                }
+                words[lastWord] |= lastMask;
+            }
+        }
+    }
+
+    @Override
+    int toArray(int base, int[] out, int offset) {
+        int pos = offset;
+        for (int r = 0; r < numRuns; r++) {
+            int start = starts[r];
+            int end = start + lengths[r];
+            for (int v = start; v <= end; v++) {
+                out[pos++] = base | v;
+            }
+        }
+        return pos - offset;
+    }
+
+    @Override
+    int getSizeInBytes() {
+        return 4 * numRuns;
+    }
+}
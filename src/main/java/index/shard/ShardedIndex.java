@@ -0,0 +1,883 @@
+package index.shard;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import index.BatchExecutor;
+import index.BoundedKnnIndex;
+import index.pivottable.PivotSelectionConfig;
+import index.pivottable.PivotSelectionMethod;
+import index.pivottable.PivotSelector;
+import query.KNNResult;
+import query.SharedKnnBound;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * 分片索引（scatter-gather）
+ *
+ * 把数据集划分为N个分片，每个分片各自建立一个索引（树索引或Pivot Table，由工厂创建），
+ * 查询分散到各分片并发执行后合并结果：
+ * 1. 划分方式：RANDOM 随机均匀划分；CLUSTERED 在支撑点空间中聚类（对象映射为到m个支撑点的距离向量，
+ *    再做k-means），相近的对象落在同一分片
+ * 2. 聚类划分时记录每个分片到各支撑点的距离范围，查询时先算查询对象到支撑点的距离，
+ *    得到分片中对象的距离下界，下界超过查询半径的分片整个跳过
+ * 3. kNN查询时所有分片共享一个第k近邻距离上界 {@link SharedKnnBound}：
+ *    任一分片的结果堆满后，其他分片立即按这个更小的半径剪枝；合并各分片的候选取最近的k个
+ * 4. 各分片并行构建，也可以单独重建（{@link #rebuildShard}），
+ *    单独保存和载入（{@link #saveShard}、{@link #loadShard}），为以后把分片放到多个进程做准备
+ *
+ * 分片索引本身也实现了 {@link BoundedKnnIndex}，可以作为更大的分片索引中的一个分片。
+ *
+ * 每个分片的数据、距离范围和索引放在一个不可变的 {@link Shard} 中，重建和载入单个分片时整体替换；
+ * 路由支撑点、距离函数和各分片一起放在 {@link ShardTable} 中，构建和载入全部分片时整体替换。
+ * 查询开始时读取一次当前的表和各分片，之后只使用这份快照，
+ * 因此并发的重建或载入不会让查询把新的距离范围与旧的分片索引混在一起。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class ShardedIndex implements BoundedKnnIndex {
+
+    /** 划分方式 */
+    public enum Partitioning {
+        /** 随机均匀划分 */
+        RANDOM,
+        /** 支撑点空间聚类划分 */
+        CLUSTERED
+    }
+
+    /** 元数据文件名（分片数和路由支撑点） */
+    private static final String META_FILE = "shards.meta";
+
+    /** k-means的最大迭代次数 */
+    private static final int MAX_KMEANS_ITERATIONS = 20;
+
+    /** 分片数 */
+    private final int numShards;
+
+    /** 划分方式 */
+    private final Partitioning partitioning;
+
+    /** 聚类划分使用的支撑点数 */
+    private final int numPivots;
+
+    /** 分片索引工厂（参数为分片编号） */
+    private final IntFunction<? extends BoundedKnnIndex> shardFactory;
+
+    /** 构建和查询使用的执行器 */
+    private final BatchExecutor executor;
+
+    /** 随机种子 */
+    private final long randomSeed;
+
+    /** 是否打印详细信息 */
+    private final boolean verbose;
+
+    /** 当前的分片表（尚未构建时为null） */
+    private volatile ShardTable table;
+
+    /** 划分数据时的距离计算次数 */
+    private final LongAdder partitionDistanceComputations = new LongAdder();
+
+    /** 查询路由时的距离计算次数 */
+    private final LongAdder routingDistanceComputations = new LongAdder();
+
+    /** 查询次数 */
+    private final LongAdder queries = new LongAdder();
+
+    /** 被路由的距离下界跳过的分片数（不含空分片） */
+    private final LongAdder skippedShards = new LongAdder();
+
+    /** 构建时间（毫秒） */
+    private long buildTimeMs;
+
+    private ShardedIndex(Builder builder) {
+        this.numShards = builder.numShards;
+        this.partitioning = builder.partitioning;
+        this.numPivots = builder.numPivots;
+        this.shardFactory = builder.shardFactory;
+        this.executor = builder.executor != null ? builder.executor : BatchExecutor.forkJoin();
+        this.randomSeed = builder.randomSeed;
+        this.verbose = builder.verbose;
+    }
+
+    // ========== 构建 ==========
+
+    @Override
+    public void buildIndex(List<? extends MetricSpaceData> dataset, MetricFunction metric) {
+        if (dataset == null || dataset.isEmpty()) {
+            throw new IllegalArgumentException("数据集不能为空");
+        }
+        if (metric == null) {
+            throw new IllegalArgumentException("距离函数不能为空");
+        }
+        long startTime = System.currentTimeMillis();
+        partitionDistanceComputations.reset();
+        if (verbose) {
+            System.out.println("=== 开始构建分片索引 ===");
+            System.out.println("数据集大小: " + dataset.size());
+            System.out.println("分片数: " + numShards);
+            System.out.println("划分方式: " + partitioning);
+        }
+
+        Random random = new Random(randomSeed);
+        int[] assignment;
+        double[][] vectors = null;
+        List<MetricSpaceData> pivots;
+        if (partitioning == Partitioning.CLUSTERED) {
+            PivotSelectionConfig config =
+                    new PivotSelectionConfig.Builder().randomSeed(randomSeed).build();
+            pivots = new ArrayList<>(PivotSelector.selectPivots(dataset,
+                    Math.min(numPivots, dataset.size()), PivotSelectionMethod.FFT, metric, config,
+                    false));
+            vectors = pivotVectors(dataset, pivots, metric);
+            assignment = cluster(vectors, random);
+        } else {
+            pivots = Collections.emptyList();
+            assignment = new int[dataset.size()];
+            int[] order = new int[dataset.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            for (int i = 0; i < order.length; i++) {
+                assignment[order[i]] = i % numShards;
+            }
+        }
+
+        List<List<MetricSpaceData>> parts = new ArrayList<>(numShards);
+        List<List<double[]>> partVectors = new ArrayList<>(numShards);
+        for (int s = 0; s < numShards; s++) {
+            parts.add(new ArrayList<>());
+            partVectors.add(new ArrayList<>());
+        }
+        for (int i = 0; i < assignment.length; i++) {
+            parts.get(assignment[i]).add(dataset.get(i));
+            if (vectors != null) {
+                partVectors.get(assignment[i]).add(vectors[i]);
+            }
+        }
+        int routingPivots = pivots.size();
+        List<Shard> built = executor.map(numShards, s -> new Shard(parts.get(s),
+                ranges(partVectors.get(s), routingPivots), buildShard(s, parts.get(s), metric)));
+        this.table = new ShardTable(metric, pivots, built);
+        buildTimeMs = System.currentTimeMillis() - startTime;
+
+        if (verbose) {
+            System.out.println("分片索引构建完成:");
+            for (int s = 0; s < numShards; s++) {
+                System.out.printf("  分片%d: %,d 个对象%n", s, parts.get(s).size());
+            }
+            System.out.println("  划分距离计算次数: " + partitionDistanceComputations.sum());
+            System.out.println("  耗时: " + buildTimeMs + " ms");
+            System.out.println("=================================\n");
+        }
+    }
+
+    private BoundedKnnIndex buildShard(int shard, List<MetricSpaceData> data,
+            MetricFunction metric) {
+        if (data.isEmpty()) {
+            return null;
+        }
+        BoundedKnnIndex index = shardFactory.apply(shard);
+        index.buildIndex(data, metric);
+        return index;
+    }
+
+    /**
+     * 计算对象到各路由支撑点的距离向量
+     */
+    private double[][] pivotVectors(List<? extends MetricSpaceData> data,
+            List<MetricSpaceData> pivots, MetricFunction metric) {
+        List<double[]> vectors = executor.map(data.size(), i -> {
+            double[] vector = new double[pivots.size()];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = metric.getDistance(data.get(i), pivots.get(j));
+            }
+            return vector;
+        });
+        partitionDistanceComputations.add((long) data.size() * pivots.size());
+        return vectors.toArray(new double[0][]);
+    }
+
+    /**
+     * 一组距离向量在各维上的范围（没有路由支撑点时为null）
+     */
+    private static double[] ranges(List<double[]> vectors, int numPivots) {
+        if (numPivots == 0) {
+            return null;
+        }
+        double[] range = new double[2 * numPivots];
+        for (int j = 0; j < numPivots; j++) {
+            range[2 * j] = Double.POSITIVE_INFINITY;
+            range[2 * j + 1] = Double.NEGATIVE_INFINITY;
+        }
+        for (double[] vector : vectors) {
+            for (int j = 0; j < vector.length; j++) {
+                range[2 * j] = Math.min(range[2 * j], vector[j]);
+                range[2 * j + 1] = Math.max(range[2 * j + 1], vector[j]);
+            }
+        }
+        return range;
+    }
+
+    /**
+     * 在支撑点空间中做k-means聚类（k-means++初始化，欧氏距离）
+     *
+     * @return 每个对象所属的分片
+     */
+    private int[] cluster(double[][] vectors, Random random) {
+        int n = vectors.length;
+        int k = Math.min(numShards, n);
+        double[][] centers = new double[k][];
+        double[] nearest = new double[n];
+        centers[0] = vectors[random.nextInt(n)].clone();
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        for (int c = 1; c < k; c++) {
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                nearest[i] = Math.min(nearest[i], squaredDistance(vectors[i], centers[c - 1]));
+                total += nearest[i];
+            }
+            // 按到已选中心距离的平方加权抽样
+            double target = random.nextDouble() * total;
+            int chosen = n - 1;
+            for (int i = 0; i < n; i++) {
+                target -= nearest[i];
+                if (target < 0) {
+                    chosen = i;
+                    break;
+                }
+            }
+            centers[c] = vectors[chosen].clone();
+        }
+
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        for (int iteration = 0; iteration < MAX_KMEANS_ITERATIONS; iteration++) {
+            List<Integer> nearestCenter = executor.map(n, i -> {
+                int best = 0;
+                double bestDistance = squaredDistance(vectors[i], centers[0]);
+                for (int c = 1; c < k; c++) {
+                    double d = squaredDistance(vectors[i], centers[c]);
+                    if (d < bestDistance) {
+                        best = c;
+                        bestDistance = d;
+                    }
+                }
+                return best;
+            });
+            boolean changed = false;
+            for (int i = 0; i < n; i++) {
+                if (assignment[i] != nearestCenter.get(i)) {
+                    assignment[i] = nearestCenter.get(i);
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+
+            int dim = vectors[0].length;
+            double[][] sums = new double[k][dim];
+            int[] counts = new int[k];
+            for (int i = 0; i < n; i++) {
+                counts[assignment[i]]++;
+                for (int j = 0; j < dim; j++) {
+                    sums[assignment[i]][j] += vectors[i][j];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // 空簇：换成一个随机对象
+                    centers[c] = vectors[random.nextInt(n)].clone();
+                    continue;
+                }
+                for (int j = 0; j < dim; j++) {
+                    centers[c][j] = sums[c][j] / counts[c];
+                }
+            }
+        }
+        return assignment;
+    }
+
+    private static double squaredDistance(double[] a, double[] b) {
+        double sum = 0;
+        for (int j = 0; j < a.length; j++) {
+            double diff = a[j] - b[j];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    // ========== 重建 ==========
+
+    /**
+     * 用分片现有的数据重建一个分片（其他分片不受影响，重建期间的查询使用旧的分片索引）
+     *
+     * 重建期间该分片已被其他调用替换（例如 {@link #loadShard}）时，保留较新的那个分片。
+     *
+     * @param shard 分片编号
+     */
+    public void rebuildShard(int shard) {
+        ShardTable current = checkBuilt();
+        checkShard(shard);
+        Shard old = current.shards.get(shard);
+        current.shards.compareAndSet(shard, old,
+                new Shard(old.data, old.range, buildShard(shard, old.data, current.metric)));
+    }
+
+    /**
+     * 用新的数据重建一个分片（例如该分片的数据有了更新）
+     *
+     * 聚类划分时重新计算该分片到各路由支撑点的距离范围；新数据不必离这个分片的原有数据很近，
+     * 路由仍然是正确的，只是剪枝效果可能变差。
+     *
+     * @param shard 分片编号
+     * @param data 分片的新数据
+     */
+    public void rebuildShard(int shard, List<? extends MetricSpaceData> data) {
+        ShardTable current = checkBuilt();
+        checkShard(shard);
+        List<MetricSpaceData> copy = new ArrayList<>(data);
+        double[] range = current.pivots.isEmpty() ? null : ranges(Arrays.asList(
+                pivotVectors(copy, current.pivots, current.metric)), current.pivots.size());
+        current.shards.set(shard, new Shard(copy, range, buildShard(shard, copy, current.metric)));
+    }
+
+    // ========== 保存与载入 ==========
+
+    /**
+     * 把所有分片保存到目录：元数据文件（分片数和路由支撑点）和每个分片一个数据文件
+     *
+     * 分片索引本身不保存，载入时在各分片的数据上重新构建。
+     *
+     * @param directory 存储目录（不存在时自动创建）
+     * @throws IOException 如果写入失败
+     */
+    public void save(File directory) throws IOException {
+        ShardTable current = checkBuilt();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录: " + directory);
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, META_FILE))))) {
+            out.writeInt(numShards);
+            out.writeObject(new ArrayList<>(current.pivots));
+        }
+        for (int s = 0; s < numShards; s++) {
+            saveShard(s, directory);
+        }
+    }
+
+    /**
+     * 保存一个分片的数据文件（对象列表和到路由支撑点的距离范围）
+     *
+     * @param shard 分片编号
+     * @param directory 存储目录
+     * @throws IOException 如果写入失败
+     */
+    public void saveShard(int shard, File directory) throws IOException {
+        ShardTable current = checkBuilt();
+        checkShard(shard);
+        Shard saved = current.shards.get(shard);
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(shardFile(directory, shard)), 1 << 16))) {
+            out.writeObject(saved.range);
+            out.writeObject(new ArrayList<>(saved.data));
+        }
+    }
+
+    /**
+     * 从目录载入所有分片，并在各分片的数据上并行重新构建分片索引
+     *
+     * 全部分片都载入并构建成功后才替换当前的分片；任何一个分片失败时抛出异常，
+     * 索引保持载入之前的状态（尚未构建时仍然是未构建的）。
+     *
+     * @param directory 存储目录（由 {@link #save} 写入）
+     * @param metric 距离函数（须与保存时一致）
+     * @throws IOException 如果读取失败
+     */
+    @SuppressWarnings("unchecked")
+    public void load(File directory, MetricFunction metric) throws IOException {
+        if (metric == null) {
+            throw new IllegalArgumentException("距离函数不能为空");
+        }
+        long startTime = System.currentTimeMillis();
+        List<MetricSpaceData> loadedPivots;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                new FileInputStream(new File(directory, META_FILE))))) {
+            int savedShards = in.readInt();
+            if (savedShards != numShards) {
+                throw new IllegalArgumentException(String.format(
+                        "保存的分片数(%d)与当前配置(%d)不一致", savedShards, numShards));
+            }
+            loadedPivots = (List<MetricSpaceData>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("元数据格式错误: " + directory, e);
+        }
+        List<Shard> loaded;
+        try {
+            loaded = executor.map(numShards, s -> {
+                try {
+                    return readShard(s, directory, metric);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        this.table = new ShardTable(metric, loadedPivots, loaded);
+        buildTimeMs = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * 从目录载入一个分片并重新构建其索引（其他分片不受影响）
+     *
+     * @param shard 分片编号
+     * @param directory 存储目录
+     * @throws IOException 如果读取失败
+     */
+    public void loadShard(int shard, File directory) throws IOException {
+        ShardTable current = checkBuilt();
+        checkShard(shard);
+        current.shards.set(shard, readShard(shard, directory, current.metric));
+    }
+
+    /**
+     * 读取一个分片的数据文件并构建其索引（不修改当前的分片）
+     */
+    @SuppressWarnings("unchecked")
+    private Shard readShard(int shard, File directory, MetricFunction metric)
+            throws IOException {
+        List<MetricSpaceData> data;
+        double[] range;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                new FileInputStream(shardFile(directory, shard)), 1 << 16))) {
+            range = (double[]) in.readObject();
+            data = (List<MetricSpaceData>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("分片数据格式错误: " + shardFile(directory, shard), e);
+        }
+        return new Shard(data, range, buildShard(shard, data, metric));
+    }
+
+    /**
+     * 一个分片：数据、到路由支撑点的距离范围和构建好的索引（不可变，整体替换）
+     */
+    private static final class Shard {
+        /** 分片的数据 */
+        private final List<MetricSpaceData> data;
+        /** 对象到路由支撑点的距离范围 [lo0, hi0, lo1, hi1, ...]（没有路由支撑点时为null） */
+        private final double[] range;
+        /** 分片的索引（分片为空时为null） */
+        private final BoundedKnnIndex index;
+
+        Shard(List<MetricSpaceData> data, double[] range, BoundedKnnIndex index) {
+            this.data = data;
+            this.range = range;
+            this.index = index;
+        }
+    }
+
+    /**
+     * 分片表：距离函数、路由支撑点和各分片（构建或载入全部分片时整体替换）
+     */
+    private static final class ShardTable {
+        /** 距离函数 */
+        private final MetricFunction metric;
+        /** 路由支撑点（随机划分时为空） */
+        private final List<MetricSpaceData> pivots;
+        /** 各分片（单个分片重建或载入时替换其中一项） */
+        private final AtomicReferenceArray<Shard> shards;
+
+        ShardTable(MetricFunction metric, List<MetricSpaceData> pivots, List<Shard> shards) {
+            this.metric = metric;
+            this.pivots = pivots;
+            this.shards = new AtomicReferenceArray<>(shards.toArray(new Shard[0]));
+        }
+
+        /**
+         * 读取各分片的当前版本（一次查询只使用这份快照）
+         */
+        Shard[] snapshot() {
+            Shard[] current = new Shard[shards.length()];
+            for (int s = 0; s < current.length; s++) {
+                current[s] = shards.get(s);
+            }
+            return current;
+        }
+    }
+
+    private static File shardFile(File directory, int shard) {
+        return new File(directory, String.format("shard-%05d.data", shard));
+    }
+
+    // ========== 查询 ==========
+
+    /**
+     * 计算查询对象到各分片中对象的距离下界（随机划分时都为0）
+     */
+    private double[] shardLowerBounds(ShardTable current, Shard[] shards,
+            MetricSpaceData queryObject) {
+        double[] lower = new double[numShards];
+        List<MetricSpaceData> pivots = current.pivots;
+        if (pivots.isEmpty()) {
+            return lower;
+        }
+        double[] dq = new double[pivots.size()];
+        for (int j = 0; j < dq.length; j++) {
+            dq[j] = current.metric.getDistance(queryObject, pivots.get(j));
+        }
+        routingDistanceComputations.add(dq.length);
+        for (int s = 0; s < numShards; s++) {
+            double[] range = shards[s].range;
+            if (range == null) {
+                continue;
+            }
+            for (int j = 0; j < dq.length; j++) {
+                lower[s] = Math.max(lower[s],
+                        Math.max(range[2 * j] - dq[j], dq[j] - range[2 * j + 1]));
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * 按距离下界升序排列的分片编号
+     */
+    private Integer[] shardOrder(double[] lower) {
+        Integer[] order = new Integer[numShards];
+        for (int s = 0; s < numShards; s++) {
+            order[s] = s;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(lower[a], lower[b]));
+        return order;
+    }
+
+    @Override
+    public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
+        ShardTable current = checkBuilt();
+        Shard[] shards = current.snapshot();
+        queries.increment();
+        double[] lower = shardLowerBounds(current, shards, queryObject);
+        List<List<MetricSpaceData>> parts = executor.map(numShards, s -> {
+            BoundedKnnIndex shard = shards[s].index;
+            if (shard == null) {
+                return Collections.<MetricSpaceData>emptyList();
+            }
+            if (lower[s] > radius) {
+                skippedShards.increment();
+                return Collections.<MetricSpaceData>emptyList();
+            }
+            return shard.rangeQuery(queryObject, radius);
+        });
+        List<MetricSpaceData> results = new ArrayList<>();
+        for (List<MetricSpaceData> part : parts) {
+            results.addAll(part);
+        }
+        return results;
+    }
+
+    @Override
+    public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
+        List<KNNResult> neighbors = knnQuery(queryObject, k, new SharedKnnBound());
+        List<MetricSpaceData> results = new ArrayList<>(neighbors.size());
+        for (KNNResult neighbor : neighbors) {
+            results.add(neighbor.getData());
+        }
+        return results;
+    }
+
+    /**
+     * 在各分片上并发执行kNN查询，所有分片共享同一个第k近邻距离上界，合并后取最近的k个
+     *
+     * 分片按距离下界升序提交，开始搜索时下界已经超过共享上界的分片直接跳过。
+     *
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @param bound 共享的第k近邻距离上界（可以来自更外层的分片索引）
+     * @return 带距离的k近邻（按距离升序）
+     */
+    @Override
+    public List<KNNResult> knnQuery(MetricSpaceData queryObject, int k, SharedKnnBound bound) {
+        ShardTable current = checkBuilt();
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        Shard[] shards = current.snapshot();
+        queries.increment();
+        double[] lower = shardLowerBounds(current, shards, queryObject);
+        Integer[] order = shardOrder(lower);
+        List<List<KNNResult>> parts = executor.map(numShards, i -> {
+            int s = order[i];
+            BoundedKnnIndex shard = shards[s].index;
+            if (shard == null) {
+                return Collections.<KNNResult>emptyList();
+            }
+            if (lower[s] > bound.get()) {
+                skippedShards.increment();
+                return Collections.<KNNResult>emptyList();
+            }
+            return shard.knnQuery(queryObject, k, bound);
+        });
+        List<KNNResult> merged = new ArrayList<>();
+        for (List<KNNResult> part : parts) {
+            merged.addAll(part);
+        }
+        merged.sort(Comparator.comparingDouble(KNNResult::getDistance));
+        return merged.size() > k ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+
+    // ========== Index接口实现 ==========
+
+    /**
+     * @return 当前的分片表
+     * @throws IllegalStateException 尚未构建时
+     */
+    private ShardTable checkBuilt() {
+        ShardTable current = table;
+        if (current == null) {
+            throw new IllegalStateException("分片索引尚未构建，请先调用buildIndex或load");
+        }
+        return current;
+    }
+
+    private void checkShard(int shard) {
+        if (shard < 0 || shard >= numShards) {
+            throw new IllegalArgumentException("分片编号超出范围: " + shard);
+        }
+    }
+
+    @Override
+    public String getStatistics() {
+        ShardTable current = table;
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n").append("=".repeat(50)).append("\n");
+        sb.append(getIndexName()).append(" 统计信息\n");
+        sb.append("=".repeat(50)).append("\n");
+        sb.append(String.format("  数据集大小: %,d\n", getDatasetSize()));
+        sb.append(String.format("  分片数: %d (%s, 路由支撑点 %d)\n", numShards, partitioning,
+                getRoutingPivots().size()));
+        if (current != null) {
+            for (int s = 0; s < numShards; s++) {
+                sb.append(String.format("    分片%d: %,d 个对象\n", s,
+                        current.shards.get(s).data.size()));
+            }
+        }
+        sb.append(String.format("  构建时间: %d ms\n", buildTimeMs));
+        sb.append(String.format("  划分距离计算次数: %,d\n", partitionDistanceComputations.sum()));
+        sb.append(String.format("  查询次数: %,d\n", queries.sum()));
+        sb.append(String.format("  查询距离计算次数: %,d (其中路由 %,d)\n",
+                getDistanceComputations(),
+                routingDistanceComputations.sum()));
+        sb.append(String.format("  跳过的分片: %,d\n", skippedShards.sum()));
+        sb.append("=".repeat(50));
+        return sb.toString();
+    }
+
+    @Override
+    public String getIndexName() {
+        String shardName = "?";
+        ShardTable current = table;
+        if (current != null) {
+            for (Shard shard : current.snapshot()) {
+                if (shard.index != null) {
+                    shardName = shard.index.getIndexName();
+                    break;
+                }
+            }
+        }
+        return String.format("Sharded(%d x %s)", numShards, shardName);
+    }
+
+    @Override
+    public void resetStatistics() {
+        routingDistanceComputations.reset();
+        queries.reset();
+        skippedShards.reset();
+        ShardTable current = table;
+        if (current != null) {
+            for (Shard shard : current.snapshot()) {
+                if (shard.index != null) {
+                    shard.index.resetStatistics();
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询距离计算次数：各分片之和加上路由的距离计算
+     */
+    @Override
+    public long getDistanceComputations() {
+        long total = routingDistanceComputations.sum();
+        ShardTable current = table;
+        if (current != null) {
+            for (Shard shard : current.snapshot()) {
+                if (shard.index != null) {
+                    total += shard.index.getDistanceComputations();
+                }
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int getDatasetSize() {
+        ShardTable current = table;
+        if (current == null) {
+            return 0;
+        }
+        int total = 0;
+        for (Shard shard : current.snapshot()) {
+            total += shard.data.size();
+        }
+        return total;
+    }
+
+    public int getNumShards() {
+        return numShards;
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    /**
+     * 获取一个分片的索引（分片为空时为null）
+     */
+    public BoundedKnnIndex getShard(int shard) {
+        ShardTable current = checkBuilt();
+        checkShard(shard);
+        return current.shards.get(shard).index;
+    }
+
+    /**
+     * 获取一个分片的数据（只读）
+     */
+    public List<MetricSpaceData> getShardData(int shard) {
+        ShardTable current = checkBuilt();
+        checkShard(shard);
+        return Collections.unmodifiableList(current.shards.get(shard).data);
+    }
+
+    public List<MetricSpaceData> getRoutingPivots() {
+        ShardTable current = table;
+        return current != null ? current.pivots : Collections.emptyList();
+    }
+
+    public long getPartitionDistanceComputations() {
+        return partitionDistanceComputations.sum();
+    }
+
+    public long getRoutingDistanceComputations() {
+        return routingDistanceComputations.sum();
+    }
+
+    public long getSkippedShards() {
+        return skippedShards.sum();
+    }
+
+    public long getBuildTimeMs() {
+        return buildTimeMs;
+    }
+
+    /**
+     * 分片索引构建器
+     */
+    public static class Builder {
+        private final IntFunction<? extends BoundedKnnIndex> shardFactory;
+        private int numShards = Runtime.getRuntime().availableProcessors();
+        private Partitioning partitioning = Partitioning.RANDOM;
+        private int numPivots = 8;
+        private BatchExecutor executor;
+        private long randomSeed = 42;
+        private boolean verbose = false;
+
+        /**
+         * @param shardFactory 分片索引工厂，参数为分片编号，每次调用须返回一个新的未构建的索引
+         */
+        public Builder(IntFunction<? extends BoundedKnnIndex> shardFactory) {
+            if (shardFactory == null) {
+                throw new IllegalArgumentException("分片索引工厂不能为空");
+            }
+            this.shardFactory = shardFactory;
+        }
+
+        /**
+         * 设置分片数（默认为处理器数）
+         */
+        public Builder numShards(int numShards) {
+            if (numShards <= 0) {
+                throw new IllegalArgumentException("分片数必须大于0，当前值: " + numShards);
+            }
+            this.numShards = numShards;
+            return this;
+        }
+
+        /**
+         * 设置划分方式（默认RANDOM）
+         */
+        public Builder partitioning(Partitioning partitioning) {
+            this.partitioning = partitioning;
+            return this;
+        }
+
+        /**
+         * 设置聚类划分使用的路由支撑点数（默认8）
+         */
+        public Builder numPivots(int numPivots) {
+            if (numPivots <= 0) {
+                throw new IllegalArgumentException("支撑点数量必须大于0，当前值: " + numPivots);
+            }
+            this.numPivots = numPivots;
+            return this;
+        }
+
+        /**
+         * 设置构建和查询使用的执行器（默认为共享的ForkJoin执行器）
+         */
+        public Builder executor(BatchExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder randomSeed(long randomSeed) {
+            this.randomSeed = randomSeed;
+            return this;
+        }
+
+        public Builder verbose(boolean verbose) {
+            this.verbose = verbose;
+            return this;
+        }
+
+        public ShardedIndex build() {
+            return new ShardedIndex(this);
+        }
+    }
+}
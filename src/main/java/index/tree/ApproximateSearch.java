@@ -0,0 +1,115 @@
+package index.tree;
+
+import core.MetricSpaceData;
+import index.tree.common.QueryContext;
+import query.ApproximateKNNQuery;
+import query.DistanceDistribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 树的近似k近邻查询
+ *
+ * 执行 {@link TreeIndex#knnQuery(ApproximateKNNQuery)}：最佳优先遍历（{@link NearestNeighborIterator}）
+ * 加上查询上下文中的近似控制（ε收缩、距离计算和节点访问预算、概率停止半径）。
+ * 概率停止所需的距离分布也保存在这里，第一次使用时采样，树更新较多后丢弃并重新采样。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class ApproximateSearch {
+
+    /** 被查询的树 */
+    private final TreeIndex tree;
+
+    /** 采样得到的距离分布（第一次使用概率提前停止时建立，更新较多后重新采样） */
+    private volatile DistanceDistribution distanceDistribution;
+
+    /** 采样距离分布时累计的插入和删除次数 */
+    private long distributionUpdates;
+
+    ApproximateSearch(TreeIndex tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * 重新构建后丢弃距离分布
+     */
+    void reset() {
+        distanceDistribution = null;
+        distributionUpdates = 0;
+    }
+
+    /**
+     * 近似k近邻查询（见 {@link TreeIndex#knnQuery(ApproximateKNNQuery)}）
+     */
+    List<MetricSpaceData> knnQuery(ApproximateKNNQuery query) {
+        if (tree.root == null) {
+            return new ArrayList<>();
+        }
+
+        double stopRadius = Double.NEGATIVE_INFINITY;
+        if (query.getStopProbability() > 0 && tree.getDatasetSize() >= 2) {
+            stopRadius = getDistanceDistribution().stopRadius(tree.getDatasetSize(),
+                    query.getK(), query.getStopProbability());
+        }
+
+        if (tree.config.isVerbose()) {
+            System.out.println("\n" + "-".repeat(50));
+            System.out.println(tree.getIndexName() + " 近似kNN查询");
+            System.out.println("-".repeat(50));
+            System.out.println(query);
+            System.out.println("概率停止半径: " + stopRadius);
+        }
+
+        QueryContext context = tree.newKnnContext(query.getQueryObject(), query.getK())
+                .approximate(query.getEpsilon(), query.getMaxDistanceComputations(),
+                        query.getMaxNodeAccesses(), stopRadius);
+        try {
+            new NearestNeighborIterator(tree, context, null).searchKnn();
+            return tree.finishQuery(context);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 获取采样得到的距离分布（见 {@link TreeIndex#getDistanceDistribution}）
+     */
+    DistanceDistribution getDistanceDistribution() {
+        DistanceDistribution distribution = distanceDistribution;
+        if (distribution == null) {
+            synchronized (this) {
+                distribution = distanceDistribution;
+                if (distribution == null) {
+                    Random rnd = tree.config.getRandomSeed() != null
+                            ? new Random(tree.config.getRandomSeed()) : new Random();
+                    List<? extends MetricSpaceData> live = tree.dataset;
+                    if (tree.getInsertCount() + tree.getDeleteCount() > 0) {
+                        List<MetricSpaceData> objects = new ArrayList<>(tree.getDatasetSize());
+                        tree.listLive(tree.root, objects);
+                        live = objects;
+                    }
+                    distribution = DistanceDistribution.sample(live, tree.metric,
+                            DistanceDistribution.DEFAULT_SAMPLE_PAIRS, rnd);
+                    distributionUpdates = tree.getInsertCount() + tree.getDeleteCount();
+                    distanceDistribution = distribution;
+                }
+            }
+        }
+        return distribution;
+    }
+
+    /**
+     * 自采样以来的更新次数超过存活对象数的一半时丢弃距离分布
+     */
+    void discardStale() {
+        if (distanceDistribution != null
+                && tree.getInsertCount() + tree.getDeleteCount() - distributionUpdates
+                        > tree.getDatasetSize() / 2) {
+            distanceDistribution = null;
+        }
+    }
+}
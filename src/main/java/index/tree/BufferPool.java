@@ -0,0 +1,507 @@
+package index.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiFunction;
+
+/**
+ * 分页树的缓冲池
+ *
+ * 以节点为单位缓存分页文件的内容，容量按页计算（节点占用几页就计几页）：
+ * 1. 访问节点前先pin，用完后unpin；pin计数大于0的节点不会被换出
+ * 2. 容量不足时用CLOCK算法换出：每个节点有一个访问位，指针扫过时访问位为1则清零跳过，
+ *    为0且未被pin则换出。常用的上层节点访问位总是被重新置1，因此会一直留在池中
+ * 3. 读入一个子节点时，同一父节点下相邻且不在池中的兄弟节点（层序布局下它们在文件中连续）
+ *    用同一次读操作一起读入（预读）。预读的节点先只保存原始字节，第一次访问时才解码，
+ *    且访问位为0，未被访问时最先被换出
+ *
+ * 可以被多个查询线程同时使用。池的锁只保护帧表、CLOCK环和计数：未命中时先在锁内登记帧并腾出空间，
+ * 读文件在锁外进行，同时访问同一节点的其他线程在该帧的加载闩上等待；解码在帧自己的锁内完成。
+ * 所有帧都被pin住、暂时腾不出空间时，pin等待其他线程unpin，而不是报错；
+ * 只有请求的节点在扣除常驻节点后永远放不下时才报错。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public final class BufferPool implements Closeable {
+
+    /**
+     * 缓冲帧：一个节点的原始字节或解码后的节点
+     */
+    private static final class Frame {
+        final NodeRef ref;
+
+        /** 读文件完成（成功或失败）后打开 */
+        final CountDownLatch loaded = new CountDownLatch(1);
+
+        // 以下字段由池的锁保护
+        int pins;
+        boolean referenced;
+        boolean prefetched;
+        boolean loading = true;
+        IOException failure;
+
+        // 以下字段由帧自己的锁保护（raw在打开加载闩之前写入）
+        byte[] raw;
+        TreeNode node;
+
+        Frame(NodeRef ref) {
+            this.ref = ref;
+        }
+
+        /**
+         * 等待读文件完成
+         */
+        void awaitLoaded() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    loaded.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 取得解码后的节点（第一次访问时解码）
+         */
+        synchronized TreeNode decode(BiFunction<NodeRef, byte[], TreeNode> decoder) {
+            if (node == null) {
+                node = decoder.apply(ref, raw);
+                raw = null;
+            }
+            return node;
+        }
+    }
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final long capacityPages;
+    private final int readAheadPages;
+    private final BiFunction<NodeRef, byte[], TreeNode> decoder;
+
+    /** 起始页号 -> 缓冲帧 */
+    private final Map<Integer, Frame> frames = new HashMap<>();
+
+    /** CLOCK环 */
+    private final List<Frame> clock = new ArrayList<>();
+
+    /** CLOCK指针 */
+    private int hand;
+
+    /** 池中节点占用的页数 */
+    private long residentPages;
+
+    /** 常驻（打开时pin住、不再unpin）的节点占用的页数 */
+    private long pinnedResidentPages;
+
+    // 统计信息
+    private long hits;
+    private long misses;
+    private long reads;
+    private long pagesRead;
+    private long evictions;
+    private long readAheadNodes;
+    private long readAheadHits;
+
+    /**
+     * @param channel 分页文件
+     * @param pageSize 页大小
+     * @param capacityPages 容量（页数）
+     * @param readAheadPages 一次读操作最多读入的页数（不超过请求节点本身的页数时不预读）
+     * @param decoder 把节点的原始字节解码为节点
+     */
+    BufferPool(FileChannel channel, int pageSize, long capacityPages, int readAheadPages,
+            BiFunction<NodeRef, byte[], TreeNode> decoder) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.capacityPages = capacityPages;
+        this.readAheadPages = readAheadPages;
+        this.decoder = decoder;
+    }
+
+    /**
+     * 取得节点并增加其pin计数（不在池中时从文件读入）
+     *
+     * 池已满且所有节点都被pin住时等待其他线程unpin。
+     *
+     * @param ref 节点引用
+     * @param siblings 同一父节点的子节点引用（按页号升序，用于预读；可以为null）
+     * @return 节点
+     * @throws IllegalStateException 节点在扣除常驻节点后永远放不进缓冲池时
+     * @throws UncheckedIOException 读取失败时
+     */
+    TreeNode pin(NodeRef ref, List<TreeNode> siblings) {
+        Frame frame;
+        List<Frame> batch = null;
+        synchronized (this) {
+            frame = frames.get(ref.page);
+            while (frame == null) {
+                batch = reserve(ref, siblings);
+                if (batch != null) {
+                    misses++;
+                    frame = batch.get(0);
+                    break;
+                }
+                waitForUnpin();
+                frame = frames.get(ref.page);
+            }
+            if (batch == null) {
+                hits++;
+                if (frame.prefetched) {
+                    readAheadHits++;
+                    frame.prefetched = false;
+                }
+            }
+            frame.pins++;
+            frame.referenced = true;
+        }
+
+        if (batch != null) {
+            load(batch);
+        } else {
+            frame.awaitLoaded();
+        }
+        IOException failure;
+        synchronized (this) {
+            failure = frame.failure;
+            if (failure != null) {
+                frame.pins--;
+            }
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        return frame.decode(decoder);
+    }
+
+    /**
+     * 减少节点的pin计数
+     *
+     * @param ref 节点引用（须已被pin）
+     */
+    synchronized void unpin(NodeRef ref) {
+        Frame frame = frames.get(ref.page);
+        if (frame == null || frame.pins == 0) {
+            throw new IllegalStateException("节点未被pin: " + ref);
+        }
+        frame.pins--;
+        if (frame.pins == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * pin住一个常驻节点（不再unpin，直到 {@link #unpinResident}），其页数不再计入可换出的容量
+     *
+     * @param ref 节点引用
+     * @return 节点
+     */
+    TreeNode pinResident(NodeRef ref) {
+        TreeNode node = pin(ref, null);
+        synchronized (this) {
+            pinnedResidentPages += ref.pageCount;
+        }
+        return node;
+    }
+
+    /**
+     * 放开 {@link #pinResident} pin住的节点
+     *
+     * @param ref 节点引用
+     */
+    synchronized void unpinResident(NodeRef ref) {
+        unpin(ref);
+        pinnedResidentPages -= ref.pageCount;
+    }
+
+    /**
+     * 在锁内为请求的节点（以及可以顺带预读的兄弟节点）腾出空间并登记正在加载的帧
+     *
+     * @return 登记的帧（第一个是请求的节点，其余是预读的兄弟节点，按页号升序）；
+     *         暂时腾不出空间时返回null
+     * @throws IllegalStateException 节点在扣除常驻节点后永远放不下时
+     */
+    private List<Frame> reserve(NodeRef ref, List<TreeNode> siblings) {
+        if (ref.pageCount > capacityPages - pinnedResidentPages) {
+            throw new IllegalStateException(String.format(
+                    "缓冲池容量不足: 节点需要%d页，容量%d页中有%d页被常驻节点占用",
+                    ref.pageCount, capacityPages, pinnedResidentPages));
+        }
+
+        // 预读范围：两侧相邻、文件中连续且不在池中的兄弟节点，总页数不超过预读上限和容量的1/4
+        int first = siblings != null ? siblings.indexOf(ref) : -1;
+        int last = first;
+        if (first >= 0) {
+            long limit = Math.min(readAheadPages, capacityPages / 4);
+            long pages = ref.pageCount;
+            while (last + 1 < siblings.size()) {
+                NodeRef prev = (NodeRef) siblings.get(last);
+                NodeRef next = (NodeRef) siblings.get(last + 1);
+                if (next.page != prev.page + prev.pageCount || frames.containsKey(next.page)
+                        || pages + next.pageCount > limit) {
+                    break;
+                }
+                pages += next.pageCount;
+                last++;
+            }
+            while (first > 0) {
+                NodeRef prev = (NodeRef) siblings.get(first - 1);
+                NodeRef next = (NodeRef) siblings.get(first);
+                if (prev.page + prev.pageCount != next.page || frames.containsKey(prev.page)
+                        || pages + prev.pageCount > limit) {
+                    break;
+                }
+                pages += prev.pageCount;
+                first--;
+            }
+            if (first != last && !makeRoom((int) pages)) {
+                first = -1;
+                last = -1;
+            }
+        }
+
+        List<Frame> batch = new ArrayList<>();
+        if (first < 0 || first == last) {
+            if (!makeRoom(ref.pageCount)) {
+                return null;
+            }
+            batch.add(new Frame(ref));
+        } else {
+            batch.add(new Frame(ref));
+            for (int i = first; i <= last; i++) {
+                NodeRef sibling = (NodeRef) siblings.get(i);
+                if (sibling != ref) {
+                    Frame frame = new Frame(sibling);
+                    frame.prefetched = true;
+                    batch.add(frame);
+                    readAheadNodes++;
+                }
+            }
+        }
+        for (Frame frame : batch) {
+            frames.put(frame.ref.page, frame);
+            clock.add(frame);
+            residentPages += frame.ref.pageCount;
+        }
+        return batch;
+    }
+
+    /**
+     * 在锁外用一次读操作读入登记的帧，然后打开它们的加载闩
+     *
+     * 读取失败时把这些帧移出池，等待它们的线程得到同一个异常。
+     */
+    private void load(List<Frame> batch) {
+        int start = Integer.MAX_VALUE;
+        int end = 0;
+        for (Frame frame : batch) {
+            start = Math.min(start, frame.ref.page);
+            end = Math.max(end, frame.ref.page + frame.ref.pageCount);
+        }
+        byte[] run = null;
+        IOException failure = null;
+        try {
+            run = read(start, end - start);
+        } catch (IOException e) {
+            failure = e;
+        }
+        for (Frame frame : batch) {
+            if (run != null) {
+                int offset = (frame.ref.page - start) * pageSize;
+                byte[] raw = Arrays.copyOfRange(run, offset,
+                        offset + frame.ref.pageCount * pageSize);
+                synchronized (frame) {
+                    frame.raw = raw;
+                }
+            }
+        }
+        synchronized (this) {
+            if (run != null) {
+                reads++;
+                pagesRead += end - start;
+            }
+            for (Frame frame : batch) {
+                frame.loading = false;
+                if (failure != null) {
+                    frame.failure = failure;
+                    remove(frame);
+                }
+            }
+            notifyAll();
+        }
+        for (Frame frame : batch) {
+            frame.loaded.countDown();
+        }
+    }
+
+    /**
+     * 在锁内等待其他线程unpin或完成加载
+     */
+    private void waitForUnpin() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待缓冲池空间时被中断", e);
+        }
+    }
+
+    private void remove(Frame frame) {
+        int index = clock.indexOf(frame);
+        if (index >= 0) {
+            Frame tail = clock.remove(clock.size() - 1);
+            if (index < clock.size()) {
+                clock.set(index, tail);
+            }
+        }
+        frames.remove(frame.ref.page);
+        residentPages -= frame.ref.pageCount;
+    }
+
+    /**
+     * 用CLOCK算法换出未被pin且已加载完的节点，直到能再放入pages页
+     *
+     * @return 能放入时返回true
+     */
+    private boolean makeRoom(int pages) {
+        int scanned = 0;
+        while (residentPages + pages > capacityPages) {
+            if (scanned >= 2 * clock.size()) {
+                return false;
+            }
+            if (hand >= clock.size()) {
+                hand = 0;
+            }
+            Frame frame = clock.get(hand);
+            if (frame.pins > 0 || frame.loading) {
+                hand++;
+                scanned++;
+            } else if (frame.referenced) {
+                frame.referenced = false;
+                hand++;
+                scanned++;
+            } else {
+                // 用环尾的帧填补空位，指针停在原处继续检查它
+                Frame tail = clock.remove(clock.size() - 1);
+                if (hand < clock.size()) {
+                    clock.set(hand, tail);
+                }
+                frames.remove(frame.ref.page);
+                residentPages -= frame.ref.pageCount;
+                evictions++;
+                scanned = 0;
+            }
+        }
+        return true;
+    }
+
+    private byte[] read(int page, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count * pageSize);
+        long position = (long) page * pageSize;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("分页文件不完整: 第" + page + "页起的" + count + "页");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 清空统计计数（池中的内容保持不变）
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        reads = 0;
+        pagesRead = 0;
+        evictions = 0;
+        readAheadNodes = 0;
+        readAheadHits = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getCapacityPages() {
+        return capacityPages;
+    }
+
+    public synchronized long getResidentPages() {
+        return residentPages;
+    }
+
+    public synchronized int getResidentNodes() {
+        return frames.size();
+    }
+
+    /** 节点访问命中缓冲池的次数 */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** 节点访问未命中、需要读文件的次数 */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** 读文件的次数（一次读操作可能同时读入多个兄弟节点） */
+    public synchronized long getReads() {
+        return reads;
+    }
+
+    public synchronized long getPagesRead() {
+        return pagesRead;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** 预读入池的节点数 */
+    public synchronized long getReadAheadNodes() {
+        return readAheadNodes;
+    }
+
+    /** 预读的节点在换出前被访问到的次数 */
+    public synchronized long getReadAheadHits() {
+        return readAheadHits;
+    }
+
+    /**
+     * 命中率
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BufferPool[capacity=%d pages, resident=%d pages/%d nodes, "
+                + "hits=%d, misses=%d, reads=%d, evictions=%d, readAhead=%d/%d]", capacityPages,
+                residentPages, frames.size(), hits, misses, reads, evictions, readAheadHits,
+                readAheadNodes);
+    }
+}
@@ -0,0 +1,359 @@
+package index.tree;
+
+import core.MetricSpaceData;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 构建期间的数据片段
+ *
+ * 整次构建共用一个工作区：原始数据列表、一个int[]排列和一个按行存放的double[]距离暂存区
+ * （每个位置一行，列数为每个节点的支撑点数）。每个片段只是排列上的一段 [from, to)，
+ * 划分数据时在这一段内原地交换，不创建新的列表，因此构建的额外内存为O(n)。
+ *
+ * 片段本身是只读的List，可以直接交给支撑点选择器和叶子节点。
+ * 子树对应互不重叠的片段，并行构建时不同线程修改的是排列的不同部分。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public final class BuildSlice extends AbstractList<MetricSpaceData> implements RandomAccess {
+
+    /** 原始数据（按行号访问，构建期间不修改） */
+    private final List<? extends MetricSpaceData> data;
+
+    /** 位置到行号的排列 */
+    private final int[] perm;
+
+    /** 距离暂存区，位置i第c列在 dist[i * columns + c] */
+    private final double[] dist;
+
+    /** 距离暂存区的列数 */
+    private final int columns;
+
+    /** 按键分组时每个位置的键 */
+    private final int[] keys;
+
+    /** 按键分组时的临时排列 */
+    private final int[] buffer;
+
+    /** 片段在排列中的起始位置（含） */
+    private final int from;
+
+    /** 片段在排列中的结束位置（不含） */
+    private final int to;
+
+    private BuildSlice(BuildSlice parent, int from, int to) {
+        this.data = parent.data;
+        this.perm = parent.perm;
+        this.dist = parent.dist;
+        this.columns = parent.columns;
+        this.keys = parent.keys;
+        this.buffer = parent.buffer;
+        this.from = from;
+        this.to = to;
+    }
+
+    private BuildSlice(List<? extends MetricSpaceData> data, int columns) {
+        this.data = data instanceof RandomAccess ? data : new ArrayList<>(data);
+        this.columns = columns;
+        int n = data.size();
+        this.perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        this.dist = new double[n * columns];
+        this.keys = new int[n];
+        this.buffer = new int[n];
+        this.from = 0;
+        this.to = n;
+    }
+
+    /**
+     * 为一组数据建立工作区，返回覆盖全部数据的片段
+     *
+     * @param data 数据（不支持随机访问时复制一份）
+     * @param columns 距离暂存区的列数
+     * @return 片段
+     */
+    static BuildSlice over(List<? extends MetricSpaceData> data, int columns) {
+        return new BuildSlice(data, columns);
+    }
+
+    @Override
+    public MetricSpaceData get(int i) {
+        return data.get(perm[from + i]);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    /**
+     * 获取第i个对象在原始数据中的行号（路径距离表按行号定位）
+     *
+     * @param i 片段内位置
+     * @return 行号
+     */
+    public int rowOf(int i) {
+        return perm[from + i];
+    }
+
+    /**
+     * 获取第i个对象的第col列距离
+     *
+     * @param i 片段内位置
+     * @param col 列号
+     * @return 距离
+     */
+    public double distance(int i, int col) {
+        return dist[(from + i) * columns + col];
+    }
+
+    /**
+     * 设置第i个对象的第col列距离
+     *
+     * @param i 片段内位置
+     * @param col 列号
+     * @param value 距离
+     */
+    public void setDistance(int i, int col, double value) {
+        dist[(from + i) * columns + col] = value;
+    }
+
+    /**
+     * 交换两个位置的对象及其距离行
+     *
+     * @param i 片段内位置
+     * @param j 片段内位置
+     */
+    public void swap(int i, int j) {
+        if (i == j) {
+            return;
+        }
+        int a = from + i;
+        int b = from + j;
+        int row = perm[a];
+        perm[a] = perm[b];
+        perm[b] = row;
+        for (int c = 0; c < columns; c++) {
+            double t = dist[a * columns + c];
+            dist[a * columns + c] = dist[b * columns + c];
+            dist[b * columns + c] = t;
+        }
+    }
+
+    /**
+     * 把给定对象（按实例比较）依次移动到片段开头
+     *
+     * 同一实例在片段中出现多次时只移动一次出现；objects中重复出现的实例各对应一次出现。
+     *
+     * @param objects 要移动的对象（通常是节点的支撑点）
+     * @throws IllegalStateException 某个对象不在片段中
+     */
+    public void moveToFront(List<MetricSpaceData> objects) {
+        for (int k = 0; k < objects.size(); k++) {
+            MetricSpaceData obj = objects.get(k);
+            int i = k;
+            while (i < size() && get(i) != obj) {
+                i++;
+            }
+            if (i == size()) {
+                throw new IllegalStateException("支撑点不在当前数据中: " + obj);
+            }
+            swap(k, i);
+        }
+    }
+
+    /**
+     * 获取子片段 [fromIndex, toIndex)
+     *
+     * @param fromIndex 起始位置（含）
+     * @param toIndex 结束位置（不含）
+     * @return 共用工作区的子片段
+     */
+    public BuildSlice subSlice(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "子片段越界: [" + fromIndex + ", " + toIndex + "), size=" + size());
+        }
+        return new BuildSlice(this, from + fromIndex, from + toIndex);
+    }
+
+    /**
+     * 按第col列在 [lo, hi) 内选择第rank小的元素（introselect）
+     *
+     * 三数取中的快速选择，递归深度超过 2·log2(n) 时改用原地堆排序，最坏O(n log n)，
+     * 期望O(n)。完成后rank位置是该值，左侧都不大于它，右侧都不小于它。
+     *
+     * @param col 列号
+     * @param lo 起始位置（含）
+     * @param hi 结束位置（不含）
+     * @param rank 目标位置（lo <= rank < hi）
+     * @return 第rank小的距离
+     */
+    public double select(int col, int lo, int hi, int rank) {
+        int left = lo;
+        int right = hi - 1;
+        int budget = 2 * (32 - Integer.numberOfLeadingZeros(hi - lo));
+        while (left < right) {
+            if (budget-- == 0) {
+                heapSort(col, left, right + 1);
+                break;
+            }
+            int mid = (left + right) >>> 1;
+            if (distance(mid, col) < distance(left, col)) {
+                swap(mid, left);
+            }
+            if (distance(right, col) < distance(left, col)) {
+                swap(right, left);
+            }
+            if (distance(right, col) < distance(mid, col)) {
+                swap(right, mid);
+            }
+            double pivot = distance(mid, col);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (distance(i, col) < pivot) {
+                    i++;
+                }
+                while (distance(j, col) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // [left, j] <= pivot, (j, i) == pivot, [i, right] >= pivot
+            if (rank <= j) {
+                right = j;
+            } else if (rank >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return distance(rank, col);
+    }
+
+    /**
+     * 按第col列计算s分位数：依次选择第 (t+1)·n/s 小的元素（t = 0..s-2）
+     *
+     * 每次选择只在上一个分位点右侧进行，完成后片段按这些分位点分成s段。
+     *
+     * @param col 列号
+     * @param splits 分段数s
+     * @return s-1个分位数（升序）
+     */
+    public double[] quantiles(int col, int splits) {
+        int n = size();
+        double[] result = new double[splits - 1];
+        int lo = 0;
+        for (int t = 0; t < splits - 1; t++) {
+            int rank = (t + 1) * n / splits;
+            result[t] = select(col, lo, n, rank);
+            lo = rank;
+        }
+        return result;
+    }
+
+    /**
+     * 第col列在 [lo, hi) 内的最小值
+     */
+    public double min(int col, int lo, int hi) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            min = Math.min(min, distance(i, col));
+        }
+        return min;
+    }
+
+    /**
+     * 第col列在 [lo, hi) 内的最大值
+     */
+    public double max(int col, int lo, int hi) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            max = Math.max(max, distance(i, col));
+        }
+        return max;
+    }
+
+    /**
+     * 设置第i个对象的分组键（供 {@link #groupByKey(int)} 使用）
+     *
+     * @param i 片段内位置
+     * @param key 键（0 到 numKeys-1）
+     */
+    public void setKey(int i, int key) {
+        keys[from + i] = key;
+    }
+
+    /**
+     * 按键把片段稳定地分成numKeys个连续的子片段（计数排序）
+     *
+     * 只重排对象，不移动距离暂存区：分组后距离暂存区的内容不再对应各位置的对象，
+     * 调用方需要在分组前算好子节点的边界。
+     *
+     * @param numKeys 键的个数
+     * @return 各键对应的子片段（可能为空）
+     */
+    public List<BuildSlice> groupByKey(int numKeys) {
+        int[] start = new int[numKeys + 1];
+        for (int p = from; p < to; p++) {
+            start[keys[p] + 1]++;
+        }
+        for (int k = 0; k < numKeys; k++) {
+            start[k + 1] += start[k];
+        }
+        int[] next = start.clone();
+        for (int p = from; p < to; p++) {
+            buffer[from + next[keys[p]]++] = perm[p];
+        }
+        System.arraycopy(buffer, from, perm, from, to - from);
+
+        List<BuildSlice> groups = new ArrayList<>(numKeys);
+        for (int k = 0; k < numKeys; k++) {
+            groups.add(new BuildSlice(this, from + start[k], from + start[k + 1]));
+        }
+        return groups;
+    }
+
+    /**
+     * 按第col列对 [lo, hi) 原地堆排序（introselect的退化分支）
+     */
+    private void heapSort(int col, int lo, int hi) {
+        int n = hi - lo;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(col, lo, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(lo, lo + end);
+            siftDown(col, lo, 0, end);
+        }
+    }
+
+    private void siftDown(int col, int lo, int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                return;
+            }
+            if (child + 1 < n && distance(lo + child + 1, col) > distance(lo + child, col)) {
+                child++;
+            }
+            if (distance(lo + i, col) >= distance(lo + child, col)) {
+                return;
+            }
+            swap(lo + i, lo + child);
+            i = child;
+        }
+    }
+}
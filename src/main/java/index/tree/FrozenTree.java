@@ -0,0 +1,451 @@
+package index.tree;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import index.SearchIndex;
+import index.tree.common.QueryContext;
+import index.tree.common.QueryStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 冻结的树索引（数组布局）
+ *
+ * 把构建好的任意TreeIndex转换为结构数组（structure-of-arrays）布局，查询时不再访问节点对象：
+ * 1. 节点按层序编号，同一节点的子节点编号连续，用first/count两个int[]描述
+ * 2. 所有数据对象排成一个置换数组，每个叶子是其中的一段连续区间
+ * 3. 支撑点用序号（置换数组中的下标）表示，存放在int[]中；原树使用共享支撑点时，
+ *    同时保存共享支撑点序号，查询时经过备忘表，每个共享支撑点只计算一次距离
+ * 4. 子节点的剪枝边界存放在float[]中：距离范围 [lo, hi] 和delta范围
+ *    （delta_j = d(x, p0) - d(x, pj)），转换为float时向外取整，剪枝依然安全
+ *
+ * 原树中已删除但尚未回收的对象不会放入叶子区间；若它仍是支撑点，只用于剪枝，不作为结果返回。
+ * 冻结后的树是只读的，可以被多个线程同时查询；它只实现 {@link SearchIndex}，没有构建操作，
+ * 原树更新后重新冻结即可。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class FrozenTree implements SearchIndex {
+
+    /** 节点标志：叶子节点 */
+    private static final byte LEAF = 1;
+
+    /** 节点标志：支撑点需要单独作为结果检查 */
+    private static final byte PIVOT_RESULT = 2;
+
+    /** 节点标志：子节点带有到各支撑点的距离范围 */
+    private static final byte DISTANCE_BOUNDS = 4;
+
+    /** 节点标志：子节点带有delta范围 */
+    private static final byte DELTA_BOUNDS = 8;
+
+    /** 原索引名称 */
+    private final String sourceName;
+
+    /** 距离函数 */
+    private final MetricFunction metric;
+
+    /** 数据对象置换数组（叶子区间和不在子树中的支撑点） */
+    private final MetricSpaceData[] objects;
+
+    /** 节点标志 */
+    private final byte[] flags;
+
+    /** 内部节点：第一个子节点编号；叶子节点：对象区间起点 */
+    private final int[] first;
+
+    /** 内部节点：子节点数；叶子节点：对象数 */
+    private final int[] count;
+
+    /** 节点的支撑点在pivotOrdinals中的起点 */
+    private final int[] pivotStart;
+
+    /** 节点的支撑点数 */
+    private final int[] pivotCount;
+
+    /** 支撑点序号（objects中的下标） */
+    private final int[] pivotOrdinals;
+
+    /** 与pivotOrdinals对应的共享支撑点序号（-1表示节点自己的支撑点） */
+    private final int[] sharedOrdinals;
+
+    /** 原树的共享支撑点数 */
+    private final int sharedPivotCount;
+
+    /** 节点相对父节点的剪枝边界在bounds中的起点 */
+    private final int[] boundStart;
+
+    /** 剪枝边界 */
+    private final float[] bounds;
+
+    /** 冻结时已删除、但仍作为支撑点保留的对象 */
+    private final Set<MetricSpaceData> deleted;
+
+    /** 存活的对象数（叶子区间中的对象和需要作为结果检查的未删除支撑点） */
+    private final int datasetSize;
+
+    /** 查询统计 */
+    private final QueryStatistics queryStatistics = new QueryStatistics();
+
+    /**
+     * 冻结一棵构建好的树
+     *
+     * @param tree 已构建的树索引
+     */
+    public FrozenTree(TreeIndex tree) {
+        if (tree.getRoot() == null) {
+            throw new IllegalStateException("树尚未构建，无法冻结");
+        }
+        this.sourceName = tree.getIndexName();
+        this.metric = tree.getMetric();
+        this.sharedPivotCount = tree.getSharedPivots().size();
+        this.deleted = Collections.newSetFromMap(new IdentityHashMap<>());
+        deleted.addAll(tree.getTombstones());
+
+        // 第一遍：层序遍历确定节点编号，并统计边界和支撑点的总数，以便按确切长度分配数组
+        List<TreeNode> nodes = new ArrayList<>();
+        nodes.add(tree.getRoot());
+        int numBounds = 0;
+        int numPivots = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            TreeNode node = nodes.get(i);
+            if (node.isLeaf()) {
+                continue;
+            }
+            InternalNode internal = (InternalNode) node;
+            int m = internal.getPivotCount();
+            int perChild = (internal.hasDistanceBounds() ? 2 * m : 0)
+                    + (internal.hasDeltaBounds() ? 2 * (m - 1) : 0);
+            for (TreeNode child : internal.getChildren()) {
+                if (child != null) {
+                    nodes.add(child);
+                    numBounds += perChild;
+                }
+            }
+            numPivots += m;
+        }
+        int numNodes = nodes.size();
+        this.flags = new byte[numNodes];
+        this.first = new int[numNodes];
+        this.count = new int[numNodes];
+        this.pivotStart = new int[numNodes];
+        this.pivotCount = new int[numNodes];
+        this.boundStart = new int[numNodes];
+        this.bounds = new float[numBounds];
+        this.pivotOrdinals = new int[numPivots];
+        this.sharedOrdinals = new int[numPivots];
+
+        // 第二遍：子节点区间、叶子对象区间和子节点边界（子节点编号与第一遍相同）
+        List<MetricSpaceData> objectList = new ArrayList<>();
+        int nextChild = 1;
+        int boundEnd = 0;
+        for (int i = 0; i < numNodes; i++) {
+            TreeNode node = nodes.get(i);
+            if (node.isLeaf()) {
+                first[i] = objectList.size();
+                for (MetricSpaceData data : ((LeafNode) node).getData()) {
+                    if (!deleted.contains(data)) {
+                        objectList.add(data);
+                    }
+                }
+                count[i] = objectList.size() - first[i];
+                continue;
+            }
+            InternalNode internal = (InternalNode) node;
+            first[i] = nextChild;
+            double[] scratch = new double[2 * internal.getPivotCount()];
+            for (int c = 0; c < internal.getChildCount(); c++) {
+                if (internal.getChildren().get(c) == null) {
+                    continue;
+                }
+                boundStart[nextChild++] = boundEnd;
+                if (internal.getChildDistanceBounds(c, scratch)) {
+                    boundEnd = appendBounds(bounds, boundEnd, scratch, internal.getPivotCount());
+                }
+                if (internal.getChildDeltaBounds(c, scratch)) {
+                    boundEnd = appendBounds(bounds, boundEnd, scratch,
+                            internal.getPivotCount() - 1);
+                }
+            }
+            count[i] = nextChild - first[i];
+        }
+        int leafObjectCount = objectList.size();
+
+        // 第三遍：为支撑点分配序号，子树中已有的支撑点直接引用其叶子位置
+        Map<MetricSpaceData, Integer> leafPosition = new IdentityHashMap<>();
+        for (int i = 0; i < leafObjectCount; i++) {
+            leafPosition.put(objectList.get(i), i);
+        }
+        int pivotEnd = 0;
+        int pivotResults = 0;
+
+        for (int i = 0; i < numNodes; i++) {
+            TreeNode node = nodes.get(i);
+            pivotStart[i] = pivotEnd;
+            if (node.isLeaf()) {
+                flags[i] = LEAF;
+                continue;
+            }
+
+            InternalNode internal = (InternalNode) node;
+            byte nodeFlags = 0;
+            if (!internal.isPivotStoredInChildren()) {
+                nodeFlags |= PIVOT_RESULT;
+            }
+            if (count[i] > 0 && internal.hasDistanceBounds()) {
+                nodeFlags |= DISTANCE_BOUNDS;
+            }
+            if (count[i] > 0 && internal.hasDeltaBounds()) {
+                nodeFlags |= DELTA_BOUNDS;
+            }
+            flags[i] = nodeFlags;
+
+            for (int j = 0; j < internal.getPivotCount(); j++) {
+                MetricSpaceData pivot = internal.getPivots().get(j);
+                Integer position = internal.isPivotStoredInChildren()
+                        ? leafPosition.get(pivot) : null;
+                if (position == null) {
+                    position = objectList.size();
+                    objectList.add(pivot);
+                }
+                if ((nodeFlags & PIVOT_RESULT) != 0 && !deleted.contains(pivot)) {
+                    pivotResults++;
+                }
+                pivotOrdinals[pivotEnd] = position;
+                sharedOrdinals[pivotEnd++] = internal.getPivotOrdinal(j);
+            }
+            pivotCount[i] = internal.getPivotCount();
+        }
+
+        this.objects = objectList.toArray(new MetricSpaceData[0]);
+        this.datasetSize = leafObjectCount + pivotResults;
+    }
+
+    /**
+     * 把前pairs组 [lo, hi] 边界向外取整为float写入bounds的from处
+     *
+     * @return 写入后的位置
+     */
+    private static int appendBounds(float[] bounds, int from, double[] values, int pairs) {
+        for (int i = 0; i < 2 * pairs; i += 2) {
+            bounds[from++] = roundDown(values[i]);
+            bounds[from++] = roundUp(values[i + 1]);
+        }
+        return from;
+    }
+
+    private static float roundDown(double value) {
+        float f = (float) value;
+        return f > value ? Math.nextDown(f) : f;
+    }
+
+    private static float roundUp(double value) {
+        float f = (float) value;
+        return f < value ? Math.nextUp(f) : f;
+    }
+
+    /**
+     * 计算子节点中对象到查询对象的距离下界
+     *
+     * @param parent 父节点编号
+     * @param child 子节点编号
+     * @param dq 查询对象到父节点各支撑点的距离
+     * @return 距离下界
+     */
+    private double childLowerBound(int parent, int child, double[] dq) {
+        int p = pivotCount[parent];
+        int b = boundStart[child];
+        double bound = 0;
+        if ((flags[parent] & DISTANCE_BOUNDS) != 0) {
+            for (int j = 0; j < p; j++, b += 2) {
+                bound = Math.max(bound, bounds[b] - dq[j]);
+                bound = Math.max(bound, dq[j] - bounds[b + 1]);
+            }
+        }
+        if ((flags[parent] & DELTA_BOUNDS) != 0) {
+            for (int j = 1; j < p; j++, b += 2) {
+                double delta = dq[0] - dq[j];
+                bound = Math.max(bound, (delta - bounds[b + 1]) / 2);
+                bound = Math.max(bound, (bounds[b] - delta) / 2);
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * 计算查询对象到节点各支撑点的距离，必要时把支撑点作为候选结果
+     */
+    private double[] pivotDistances(int node, int depth, QueryContext context) {
+        int p = pivotCount[node];
+        double[] dq = context.getScratch(depth, p + count[node]);
+        boolean pivotResult = (flags[node] & PIVOT_RESULT) != 0;
+        for (int j = 0; j < p; j++) {
+            MetricSpaceData pivot = objects[pivotOrdinals[pivotStart[node] + j]];
+            dq[j] = context.distanceToPivot(sharedOrdinals[pivotStart[node] + j], pivot);
+            if (pivotResult) {
+                context.offer(pivot, dq[j]);
+            }
+        }
+        return dq;
+    }
+
+    // ========== 查询 ==========
+
+    @Override
+    public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
+        QueryContext context = QueryContext.forRange(queryObject, radius, metric).exclude(deleted)
+                .memoize(sharedPivotCount);
+        return finishQuery(context);
+    }
+
+    @Override
+    public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        QueryContext context = QueryContext.forKnn(queryObject, k, metric).exclude(deleted)
+                .memoize(sharedPivotCount);
+        return finishQuery(context);
+    }
+
+    private List<MetricSpaceData> finishQuery(QueryContext context) {
+        try {
+            search(context);
+            queryStatistics.record(context);
+            return context.getResults();
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 深度优先查询（范围查询和kNN查询共用）
+     *
+     * 用显式栈代替递归（节点编号、深度和下界存放在并行的基本类型数组中）：
+     * 子节点按下界降序入栈（下界相同时编号大的在下），下界最小的先出栈，
+     * 出栈时用当前剪枝半径再检查一次，访问顺序与按下界升序的递归相同。
+     */
+    private void search(QueryContext context) {
+        int[] stackNodes = new int[16];
+        int[] stackDepths = new int[16];
+        double[] stackBounds = new double[16];
+        int size = 1;
+        while (size > 0) {
+            size--;
+            int node = stackNodes[size];
+            int depth = stackDepths[size];
+            if (stackBounds[size] > context.getRadius()) {
+                continue;
+            }
+            context.visitNode();
+
+            if ((flags[node] & LEAF) != 0) {
+                for (int i = first[node], end = first[node] + count[node]; i < end; i++) {
+                    context.offer(objects[i], context.distanceTo(objects[i]));
+                }
+                continue;
+            }
+
+            double[] dq = pivotDistances(node, depth, context);
+            int numChildren = count[node];
+            if (size + numChildren > stackNodes.length) {
+                int capacity = Math.max(stackNodes.length * 2, size + numChildren);
+                stackNodes = Arrays.copyOf(stackNodes, capacity);
+                stackDepths = Arrays.copyOf(stackDepths, capacity);
+                stackBounds = Arrays.copyOf(stackBounds, capacity);
+            }
+            int base = size;
+            for (int c = numChildren - 1; c >= 0; c--) {
+                double bound = childLowerBound(node, first[node] + c, dq);
+                if (bound == Double.POSITIVE_INFINITY || bound > context.getRadius()) {
+                    continue;
+                }
+                // 插入排序，保持从base开始按下界降序（相同下界时先入栈的编号大的在下）
+                int k = size++;
+                while (k > base && stackBounds[k - 1] < bound) {
+                    stackNodes[k] = stackNodes[k - 1];
+                    stackDepths[k] = stackDepths[k - 1];
+                    stackBounds[k] = stackBounds[k - 1];
+                    k--;
+                }
+                stackNodes[k] = first[node] + c;
+                stackDepths[k] = depth + 1;
+                stackBounds[k] = bound;
+            }
+        }
+    }
+
+    // ========== SearchIndex接口实现 ==========
+
+    @Override
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n").append("=".repeat(50)).append("\n");
+        sb.append(getIndexName()).append(" 统计信息\n");
+        sb.append("=".repeat(50)).append("\n");
+        sb.append(String.format("  数据集大小: %,d\n", getDatasetSize()));
+        sb.append(String.format("  节点数: %,d\n", flags.length));
+        sb.append(String.format("  支撑点数: %,d\n", pivotOrdinals.length));
+        sb.append(String.format("  数组占用: %,d bytes\n", getArrayBytes()));
+        sb.append(String.format("  查询次数: %,d\n", queryStatistics.getQueries()));
+        sb.append(String.format("  查询距离计算次数: %,d\n",
+                queryStatistics.getDistanceComputations()));
+        sb.append(String.format("  节点访问次数: %,d\n", queryStatistics.getNodeAccesses()));
+        sb.append("=".repeat(50));
+        return sb.toString();
+    }
+
+    @Override
+    public String getIndexName() {
+        return sourceName + " (Frozen)";
+    }
+
+    @Override
+    public void resetStatistics() {
+        queryStatistics.reset();
+    }
+
+    @Override
+    public long getDistanceComputations() {
+        return queryStatistics.getDistanceComputations();
+    }
+
+    /**
+     * 存活的对象数（不含已删除、只为剪枝保留在objects中的支撑点）
+     */
+    @Override
+    public int getDatasetSize() {
+        return datasetSize;
+    }
+
+    /**
+     * 估算结构数组占用的字节数（不含数据对象本身）
+     *
+     * @return 字节数
+     */
+    public long getArrayBytes() {
+        long numNodes = flags.length;
+        return numNodes * (1 + 5 * Integer.BYTES)
+                + (long) (pivotOrdinals.length + sharedOrdinals.length) * Integer.BYTES
+                + (long) bounds.length * Float.BYTES + (long) objects.length * 8;
+    }
+
+    public int getNodeCount() {
+        return flags.length;
+    }
+
+    public long getNodeAccesses() {
+        return queryStatistics.getNodeAccesses();
+    }
+
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
+    }
+}
@@ -0,0 +1,243 @@
+package index.tree;
+
+import core.MetricSpaceData;
+import index.tree.common.QueryContext;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 多查询共享遍历
+ *
+ * 一组查询一起从根节点下降：在每个内部节点为组内仍然活跃的查询计算支撑点距离和各子节点的距离下界，
+ * 再按剪枝结果把组拆分给各子节点（下界不超过该查询当前半径的查询进入子节点）；
+ * 访问到的叶子只扫描一遍，每个对象依次与组内所有查询比较，叶子数据在缓存中只加载一次。
+ *
+ * 剪枝使用各内部节点的 {@link InternalNode#getChildLowerBound} 和
+ * {@link InternalNode#isChildContained}，与单查询遍历使用相同的规则，结果相同。
+ * kNN查询时每个查询仍按自己的下界从小到大访问子节点（见 {@link #proceedKnn}）。
+ *
+ * 每个查询有自己的查询上下文，路径距离过滤所需的各层查询距离保存在各自的临时数组中；
+ * 遍历是深度优先的，同一时刻组内查询都位于同一条路径上。拆分出的子组和kNN的每轮选择
+ * 保存在按深度复用的整数数组中（与查询上下文的 getScratch 相同），遍历中不再为每个内部节点分配数组，
+ * 因此一个实例同一时刻只能由一个线程使用。不同的组用各自的实例，可以在不同线程上同时遍历。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class GroupTraversal {
+
+    /** 被查询的树 */
+    private final TreeIndex tree;
+
+    /** 每个查询的上下文（组用下标引用） */
+    private final QueryContext[] contexts;
+
+    /** 按深度复用的临时数组：前count位是子组，之后count位是kNN每轮的选择 */
+    private int[][] scratch = new int[8][];
+
+    GroupTraversal(TreeIndex tree, QueryContext[] contexts) {
+        this.tree = tree;
+        this.contexts = contexts;
+    }
+
+    /**
+     * 从节点开始遍历一组查询
+     *
+     * @param node 节点
+     * @param group 查询下标（前count个有效，遍历期间不修改）
+     * @param count 组大小
+     */
+    void visit(TreeNode node, int[] group, int count) {
+        enter(node, group, count);
+        proceed(node, group, count);
+    }
+
+    /**
+     * 访问节点：计数，并为内部节点计算组内每个查询的支撑点距离和子节点下界
+     *
+     * 本层临时数组：前m位是到各支撑点的距离，之后依次是各子节点的距离下界（空子节点为正无穷）。
+     * 支撑点不在子树中时，同时把支撑点作为候选对象提交给各查询。
+     */
+    void enter(TreeNode node, int[] group, int count) {
+        for (int g = 0; g < count; g++) {
+            contexts[group[g]].visitNode();
+        }
+        if (node.isLeaf()) {
+            return;
+        }
+        InternalNode internal = (InternalNode) node;
+        List<MetricSpaceData> pivots = internal.getPivots();
+        List<TreeNode> children = internal.getChildren();
+        int numPivots = pivots.size();
+        int numChildren = children.size();
+        boolean offerPivots = !internal.isPivotStoredInChildren();
+        for (int g = 0; g < count; g++) {
+            QueryContext context = contexts[group[g]];
+            double[] dq = context.getScratch(internal.getDepth(), numPivots + numChildren);
+            for (int j = 0; j < numPivots; j++) {
+                dq[j] = internal.queryDistance(j, context);
+                if (offerPivots) {
+                    context.offer(pivots.get(j), dq[j]);
+                }
+            }
+            for (int i = 0; i < numChildren; i++) {
+                dq[numPivots + i] = children.get(i) != null
+                        ? internal.getChildLowerBound(i, dq) : Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * 在 {@link #enter} 之后继续：扫描叶子，或把组按剪枝结果拆分给各子节点
+     */
+    void proceed(TreeNode node, int[] group, int count) {
+        if (node.isLeaf()) {
+            scanLeaf((LeafNode) node, group, count);
+            return;
+        }
+        InternalNode internal = (InternalNode) node;
+        // 各子节点依次复用本层的子组数组：子节点遍历不修改传入的组，只使用更深层的临时数组
+        int[] subgroup = getScratch(internal.getDepth(), 2 * count);
+        if (contexts[group[0]].isKnn()) {
+            proceedKnn(internal, group, count, subgroup);
+            return;
+        }
+        int numPivots = internal.getPivotCount();
+        int numChildren = internal.getChildCount();
+        for (int i = 0; i < numChildren; i++) {
+            TreeNode child = internal.getChildren().get(i);
+            int size = 0;
+            for (int g = 0; g < count; g++) {
+                QueryContext context = contexts[group[g]];
+                if (context.isStopped()) {
+                    continue;
+                }
+                double[] dq = context.getScratch(internal.getDepth(), numPivots + numChildren);
+                if (internal.isChildContained(i, dq, context.getRadius())) {
+                    tree.addSubtree(child, context);
+                } else if (dq[numPivots + i] <= context.getRadius()) {
+                    subgroup[size++] = group[g];
+                }
+            }
+            if (size > 0) {
+                visit(child, subgroup, size);
+            }
+        }
+    }
+
+    /**
+     * kNN查询按轮次拆分组：每一轮每个查询选出自己下界最小且未剪枝的子节点，
+     * 选中同一子节点的查询一起下降。每个查询访问子节点的顺序与单查询遍历相同，
+     * 一轮中每个查询只进入一个子节点，因此做选择时的半径就是访问时的半径。
+     *
+     * @param subgroup 本层临时数组：前count位存放子组，第count + g位存放第g个查询本轮选择的子节点
+     */
+    private void proceedKnn(InternalNode internal, int[] group, int count, int[] subgroup) {
+        int numPivots = internal.getPivotCount();
+        int numChildren = internal.getChildCount();
+        while (true) {
+            boolean active = false;
+            for (int g = 0; g < count; g++) {
+                QueryContext context = contexts[group[g]];
+                subgroup[count + g] = -1;
+                if (context.isStopped()) {
+                    continue;
+                }
+                double[] bounds = context.getScratch(internal.getDepth(), numPivots + numChildren);
+                int next = -1;
+                for (int i = 0; i < numChildren; i++) {
+                    double bound = bounds[numPivots + i];
+                    if (bound <= context.getRadius()
+                            && (next < 0 || bound < bounds[numPivots + next])) {
+                        next = i;
+                    }
+                }
+                if (next >= 0) {
+                    bounds[numPivots + next] = Double.POSITIVE_INFINITY;
+                    subgroup[count + g] = next;
+                    active = true;
+                }
+            }
+            if (!active) {
+                return;
+            }
+            for (int i = 0; i < numChildren; i++) {
+                int size = 0;
+                for (int g = 0; g < count; g++) {
+                    if (subgroup[count + g] == i) {
+                        subgroup[size++] = group[g];
+                    }
+                }
+                if (size > 0) {
+                    visit(internal.getChildren().get(i), subgroup, size);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取某一深度的临时数组（长度不小于length，内容未定义）
+     */
+    private int[] getScratch(int depth, int length) {
+        if (depth >= scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(depth + 1, 2 * scratch.length));
+        }
+        int[] buffer = scratch[depth];
+        if (buffer == null || buffer.length < length) {
+            buffer = new int[length];
+            scratch[depth] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * 按查询到根节点第一个支撑点的距离排序（相邻的查询大多走相同的路径）
+     *
+     * 须在对全部查询调用 {@link #enter} 之后调用；根节点是叶子时保持原顺序。
+     *
+     * @param root 根节点
+     * @return 排序后的查询下标
+     */
+    int[] sortByRootDistance(TreeNode root) {
+        Integer[] order = new Integer[contexts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (!root.isLeaf()) {
+            int depth = root.getDepth();
+            double[] key = new double[contexts.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = contexts[i].getScratch(depth, 1)[0];
+            }
+            Arrays.sort(order, Comparator.comparingDouble(i -> key[i]));
+        }
+        int[] sorted = new int[order.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = order[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * 扫描叶子一次：每个对象依次与组内所有查询比较
+     */
+    private void scanLeaf(LeafNode leaf, int[] group, int count) {
+        List<MetricSpaceData> data = leaf.getData();
+        boolean filter = leaf.hasPathDistances();
+        for (int i = 0; i < data.size(); i++) {
+            MetricSpaceData obj = data.get(i);
+            for (int g = 0; g < count; g++) {
+                QueryContext context = contexts[group[g]];
+                if (filter && leaf.isPathPruned(i, context)) {
+                    continue;
+                }
+                if (context.isStopped() || context.isDeleted(obj)) {
+                    continue;
+                }
+                context.offer(obj, context.distanceTo(obj));
+            }
+        }
+    }
+}
@@ -1,81 +1,74 @@
 package index.tree;
 
-import core.MetricSpaceData;
-import java.util.List;
-
 /**
  * 内部节点抽象类
  *
- * 树状索引的内部节点，包含子节点和支撑点(pivot)信息。
+ * 树状索引的内部节点，包含子节点和支撑点(pivot)信息（见 {@link PivotNode}），
+ * 并支持动态插入删除所需的修改操作：按划分规则选择子节点、扩展子节点边界、替换子节点。
  * GH树和VP树的内部节点都继承自此类。
  *
  * @author Jixiang Ding
  * @version 1.0
  */
-public abstract class InternalNode implements TreeNode {
-
-    /** 支撑点列表 */
-    protected List<MetricSpaceData> pivots;
-
-    /** 子节点列表 */
-    protected List<TreeNode> children;
-
-    /** 节点深度 */
-    protected int depth;
+public abstract class InternalNode extends PivotNode {
 
-    @Override
-    public boolean isLeaf() {
-        return false;
-    }
+    /** 子树中已删除但尚未回收的对象数 */
+    private int tombstones;
 
-    @Override
-    public int size() {
-        int total = 0;
-        for (TreeNode child : children) {
-            total += child.size();
-        }
-        return total;
-    }
+    /** 自节点构建以来经过该节点的插入和删除次数 */
+    private int updates;
 
-    @Override
-    public int getDepth() {
-        return depth;
-    }
+    /** 子树到祖先支撑点的距离范围（未启用路径距离表时为null） */
+    private PathRings pathRings;
 
     /**
-     * 获取支撑点列表
+     * 按划分规则为新对象选择子节点（动态插入时使用）
      *
-     * @return 支撑点列表
+     * @param pivotDistances 对象到本节点各支撑点的距离
+     * @return 子节点索引
      */
-    public List<MetricSpaceData> getPivots() {
-        return pivots;
-    }
+    public abstract int chooseChild(double[] pivotDistances);
 
     /**
-     * 获取子节点列表
+     * 扩展子节点保存的边界，使其包含一个新插入的对象
+     *
+     * 子节点为null（空区域）时边界直接设为该对象的值。
      *
-     * @return 子节点列表
+     * @param childIdx 子节点索引
+     * @param pivotDistances 对象到本节点各支撑点的距离
      */
-    public List<TreeNode> getChildren() {
-        return children;
-    }
+    public abstract void extendChildBounds(int childIdx, double[] pivotDistances);
 
     /**
-     * 获取子节点数量
-     *
-     * @return 子节点数量
+     * 替换子节点（局部重建或插入新叶子后调用）
      */
-    public int getChildCount() {
-        return children != null ? children.size() : 0;
+    void setChild(int childIdx, TreeNode child) {
+        children.set(childIdx, child);
+        invalidateSize();
     }
 
-    /**
-     * 获取支撑点数量
-     *
-     * @return 支撑点数量
-     */
-    public int getPivotCount() {
-        return pivots != null ? pivots.size() : 0;
+    int getTombstones() {
+        return tombstones;
+    }
+
+    void addTombstones(int count) {
+        tombstones += count;
+    }
+
+    int getUpdates() {
+        return updates;
+    }
+
+    void recordUpdate() {
+        updates++;
+    }
+
+    PathRings getPathRings() {
+        return pathRings;
+    }
+
+    void setPathRings(PathRings rings) {
+        pathRings = rings;
     }
 
     @Override
@@ -83,10 +76,4 @@ public abstract class InternalNode implements TreeNode {
         return String.format("InternalNode[depth=%d, pivots=%d, children=%d, size=%d]", depth,
                 getPivotCount(), getChildCount(), size());
     }
-
-    @Override
-    public String toString() {
-        return getNodeInfo();
-    }
 }
-
@@ -1,7 +1,10 @@
 package index.tree;
 
 import core.MetricSpaceData;
+import index.tree.common.QueryContext;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -10,6 +13,11 @@ import java.util.List;
  * 树状索引的叶子节点，存储实际的数据对象。
  * 叶子节点是树的最底层节点，不包含子节点。
  *
+ * 启用路径距离表时（TreeConfig.pathPivotLevels > 0），叶子还保存每个对象到
+ * 最近若干层祖先支撑点的距离（float，按对象、层、支撑点连续存放）。查询沿路径下降时
+ * 已经算出查询对象到这些支撑点的距离，于是可以先用三角不等式 |d(q,p) - d(o,p)| > r
+ * 排除对象，省去它的真实距离计算。
+ *
  * @author Jixiang Ding
  * @version 1.0
  */
@@ -21,6 +29,24 @@ public class LeafNode implements TreeNode {
     /** 节点深度 */
     private int depth;
 
+    /** 各对象到祖先支撑点的距离（未启用时为null） */
+    private float[] pathDistances;
+
+    /** 路径距离表中最浅的祖先层 */
+    private int firstPathLevel;
+
+    /** 每层祖先的支撑点数 */
+    private int pivotsPerLevel;
+
+    /** 叶子中对象到祖先支撑点的距离范围（未启用路径距离表时为null） */
+    private PathRings pathRings;
+
+    /** 叶子中已删除但尚未回收的对象数 */
+    private int tombstones;
+
+    /** 上次尝试分裂却无法划分时的对象数（0表示没有尝试过） */
+    private int failedSplitSize;
+
     /**
      * 构造叶子节点
      *
@@ -56,6 +82,110 @@ public class LeafNode implements TreeNode {
         return data;
     }
 
+    /**
+     * 设置路径距离表（由 {@link TreeIndex} 在构建叶子时调用）
+     *
+     * @param distances 距离表，第i个对象第l层第j个支撑点位于
+     *                  (i * 层数 + l) * pivotsPerLevel + j
+     * @param firstLevel 最浅的祖先层（层数为 depth - firstLevel）
+     * @param pivotsPerLevel 每层的支撑点数
+     */
+    void setPathDistances(float[] distances, int firstLevel, int pivotsPerLevel) {
+        this.pathDistances = distances;
+        this.firstPathLevel = firstLevel;
+        this.pivotsPerLevel = pivotsPerLevel;
+    }
+
+    /**
+     * 追加一个动态插入的对象
+     *
+     * 若叶子保存了路径距离表，则同时追加该对象到各层祖先支撑点的距离。
+     *
+     * @param obj 数据对象
+     * @param ancestorDistances 第l个元素为对象到第l层祖先各支撑点的距离（l = 0..depth-1）
+     */
+    void add(MetricSpaceData obj, List<double[]> ancestorDistances) {
+        data.add(obj);
+        if (pathDistances == null) {
+            return;
+        }
+        int rowLength = (depth - firstPathLevel) * pivotsPerLevel;
+        float[] grown = Arrays.copyOf(pathDistances, pathDistances.length + rowLength);
+        int offset = pathDistances.length;
+        for (int l = firstPathLevel; l < depth; l++) {
+            double[] dist = ancestorDistances.get(l);
+            for (int j = 0; j < pivotsPerLevel; j++) {
+                grown[offset++] = (float) dist[j];
+            }
+        }
+        pathDistances = grown;
+    }
+
+    PathRings getPathRings() {
+        return pathRings;
+    }
+
+    void setPathRings(PathRings rings) {
+        pathRings = rings;
+    }
+
+    int getTombstones() {
+        return tombstones;
+    }
+
+    void addTombstones(int count) {
+        tombstones += count;
+    }
+
+    int getFailedSplitSize() {
+        return failedSplitSize;
+    }
+
+    void setFailedSplitSize(int size) {
+        failedSplitSize = size;
+    }
+
+    /**
+     * 是否保存了路径距离表
+     */
+    public boolean hasPathDistances() {
+        return pathDistances != null;
+    }
+
+    /**
+     * 判断第i个对象能否由祖先支撑点直接排除
+     *
+     * 查询对象到第l层祖先支撑点的距离须已写入 context.getScratch(l, pivotsPerLevel)。
+     * 表中的float距离按其舍入误差区间 [nextDown(f), nextUp(f)] 使用，因此过滤是精确的。
+     *
+     * @param i 对象下标
+     * @param context 查询上下文（提供当前剪枝半径和各层的查询距离）
+     * @return 若该对象到查询对象的距离一定大于剪枝半径则返回true
+     */
+    public boolean isPathPruned(int i, QueryContext context) {
+        double radius = context.getRadius();
+        int levels = depth - firstPathLevel;
+        int offset = i * levels * pivotsPerLevel;
+        for (int l = 0; l < levels; l++) {
+            double[] dq = context.getScratch(firstPathLevel + l, pivotsPerLevel);
+            for (int j = 0; j < pivotsPerLevel; j++) {
+                float stored = pathDistances[offset++];
+                if (dq[j] - Math.nextUp(stored) > radius
+                        || Math.nextDown(stored) - dq[j] > radius) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取路径距离表占用的字节数
+     */
+    public long getPathDistanceBytes() {
+        return pathDistances != null ? 4L * pathDistances.length : 0;
+    }
+
     @Override
     public String getNodeInfo() {
         return String.format("LeafNode[depth=%d, size=%d]", depth, data.size());
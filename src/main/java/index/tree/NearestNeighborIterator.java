@@ -0,0 +1,234 @@
+package index.tree;
+
+import core.MetricSpaceData;
+import index.tree.common.QueryContext;
+import index.tree.common.QueryStatistics;
+import query.KNNResult;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 最佳优先的增量最近邻迭代器（Hjaltason–Samet算法）
+ *
+ * 用一个全局优先队列同时存放树节点和数据对象：
+ * - 节点的键是该子树中任意对象到查询对象距离的下界
+ * - 对象的键是它到查询对象的实际距离
+ *
+ * 每次取出键最小的元素：若是对象，则它一定是剩余对象中最近的，直接返回；
+ * 若是节点，则由树展开该节点，把支撑点（作为对象）和子节点（带下界）放回队列。
+ * 调用方不需要事先确定k，可以在任意时刻停止；只有真正需要的节点才会被访问。
+ *
+ * 迭代器不是线程安全的，每个查询线程应使用自己的迭代器。
+ *
+ * 近似kNN查询也使用同一遍历顺序（见 {@link #searchKnn()}）：对象直接交给kNN上下文，
+ * 队列中只保留节点，预算耗尽时已经访问过的总是下界最小的那些节点。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class NearestNeighborIterator implements Iterator<KNNResult> {
+
+    /** 所属的树 */
+    private final TreeIndex tree;
+
+    /** 本次查询的上下文（距离计算和节点访问计数） */
+    private final QueryContext context;
+
+    /** 树的查询统计汇总（为null时由调用方汇总） */
+    private final QueryStatistics statistics;
+
+    /** 节点与对象的全局优先队列 */
+    private final PriorityQueue<Entry> queue;
+
+    /** 已汇总到统计中的距离计算次数 */
+    private long recordedDistances;
+
+    /** 已汇总到统计中的节点访问次数 */
+    private long recordedAccesses;
+
+    /** 已返回的对象数 */
+    private int returned;
+
+    /**
+     * 队列元素：节点（data为null）或对象（node为null）
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final double key;
+        final TreeNode node;
+        final MetricSpaceData data;
+
+        Entry(double key, TreeNode node, MetricSpaceData data) {
+            this.key = key;
+            this.node = node;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int cmp = Double.compare(key, other.key);
+            if (cmp != 0) {
+                return cmp;
+            }
+            // 键相同时对象优先，尽早返回结果
+            return Boolean.compare(node != null, other.node != null);
+        }
+    }
+
+    /**
+     * 创建迭代器（由 {@link TreeIndex#nearestNeighbors(MetricSpaceData)} 调用）
+     */
+    NearestNeighborIterator(TreeIndex tree, QueryContext context, QueryStatistics statistics) {
+        this.tree = tree;
+        this.context = context;
+        this.statistics = statistics;
+        this.queue = new PriorityQueue<>();
+        if (tree.getRoot() != null) {
+            queue.add(new Entry(0, tree.getRoot(), null));
+        }
+        if (statistics != null) {
+            statistics.record(1, 0, 0);
+        }
+    }
+
+    /**
+     * 把一个子节点加入队列（供TreeIndex子类展开节点时调用）
+     *
+     * @param child 子节点（为null时忽略）
+     * @param lowerBound 子树中对象到查询对象的距离下界
+     */
+    public void addNode(TreeNode child, double lowerBound) {
+        if (child != null) {
+            queue.add(new Entry(lowerBound, child, null));
+        }
+    }
+
+    /**
+     * 把一个已算出距离的对象加入队列（供TreeIndex子类展开节点时调用）
+     *
+     * @param data 数据对象
+     * @param distance 到查询对象的距离
+     */
+    public void addObject(MetricSpaceData data, double distance) {
+        if (context.isDeleted(data)) {
+            return;
+        }
+        if (context.isKnn()) {
+            context.offer(data, distance);
+            return;
+        }
+        queue.add(new Entry(distance, null, data));
+    }
+
+    /**
+     * 获取本次查询的上下文（子类用它计算距离，计数自动累加）
+     */
+    public QueryContext getContext() {
+        return context;
+    }
+
+    @Override
+    public boolean hasNext() {
+        advance();
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public KNNResult next() {
+        advance();
+        Entry entry = queue.poll();
+        if (entry == null) {
+            throw new NoSuchElementException("没有更多的近邻");
+        }
+        returned++;
+        return new KNNResult(entry.data, entry.key);
+    }
+
+    /**
+     * 以最佳优先顺序执行kNN查询，结果保存在kNN上下文中（由 {@link TreeIndex} 的近似kNN查询调用）
+     *
+     * 队首节点的下界超过上下文的剪枝半径时，其余节点都可以剪枝；
+     * 上下文进入停止状态（预算耗尽或满足概率停止条件）时立即结束。
+     */
+    void searchKnn() {
+        while (!queue.isEmpty() && !context.isStopped()) {
+            Entry entry = queue.poll();
+            if (entry.key > context.getRadius()) {
+                break;
+            }
+            context.visitNode();
+            TreeNode node = entry.node;
+            if (node.isLeaf()) {
+                for (MetricSpaceData data : ((LeafNode) node).getData()) {
+                    if (context.isStopped()) {
+                        break;
+                    }
+                    if (!context.isDeleted(data)) {
+                        addObject(data, context.distanceTo(data));
+                    }
+                }
+            } else {
+                tree.expandNode((InternalNode) node, entry.key, this);
+            }
+        }
+    }
+
+    /**
+     * 展开队首的节点，直到队首是对象或队列为空
+     */
+    private void advance() {
+        while (!queue.isEmpty() && queue.peek().node != null) {
+            Entry entry = queue.poll();
+            context.visitNode();
+            TreeNode node = entry.node;
+            if (node.isLeaf()) {
+                for (MetricSpaceData data : ((LeafNode) node).getData()) {
+                    if (!context.isDeleted(data)) {
+                        addObject(data, context.distanceTo(data));
+                    }
+                }
+            } else {
+                tree.expandNode((InternalNode) node, entry.key, this);
+            }
+        }
+        flushStatistics();
+    }
+
+    /**
+     * 把新增的计数汇总到树的查询统计
+     */
+    private void flushStatistics() {
+        if (statistics == null) {
+            return;
+        }
+        long distances = context.getDistanceComputations();
+        long accesses = context.getNodeAccesses();
+        if (distances != recordedDistances || accesses != recordedAccesses) {
+            statistics.record(0, distances - recordedDistances, accesses - recordedAccesses);
+            recordedDistances = distances;
+            recordedAccesses = accesses;
+        }
+    }
+
+    /**
+     * 获取已返回的近邻数
+     */
+    public int getReturnedCount() {
+        return returned;
+    }
+
+    /**
+     * 获取到目前为止的距离计算次数
+     */
+    public long getDistanceComputations() {
+        return context.getDistanceComputations();
+    }
+
+    /**
+     * 获取到目前为止的节点访问次数
+     */
+    public long getNodeAccesses() {
+        return context.getNodeAccesses();
+    }
+}
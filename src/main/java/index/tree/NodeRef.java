@@ -0,0 +1,57 @@
+package index.tree;
+
+/**
+ * 分页树中的节点引用
+ *
+ * 节点存放在分页文件中从page开始的pageCount个连续页里，引用只记录页号和节点的基本信息，
+ * 访问节点内容时通过 {@link BufferPool} 读入。内部节点的子节点列表由这种引用组成。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class NodeRef implements TreeNode {
+
+    /** 节点的起始页号 */
+    final int page;
+
+    /** 节点占用的页数 */
+    final int pageCount;
+
+    private final boolean leaf;
+    private final int size;
+    private final int depth;
+
+    NodeRef(int page, int pageCount, boolean leaf, int size, int depth) {
+        this.page = page;
+        this.pageCount = pageCount;
+        this.leaf = leaf;
+        this.size = size;
+        this.depth = depth;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String getNodeInfo() {
+        return String.format("NodeRef[page=%d, pages=%d, %s, depth=%d, size=%d]", page, pageCount,
+                leaf ? "leaf" : "internal", depth, size);
+    }
+
+    @Override
+    public String toString() {
+        return getNodeInfo();
+    }
+}
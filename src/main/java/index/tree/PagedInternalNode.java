@@ -0,0 +1,103 @@
+package index.tree;
+
+import core.MetricSpaceData;
+
+import java.util.List;
+
+/**
+ * 从分页文件读入的内部节点
+ *
+ * 写入分页文件时，各类内部节点（VP、GH、MVP、CGH、线性划分）都按 {@link InternalNode} 的通用形式保存：
+ * 支撑点、每个子节点的距离范围（{@link #getDistanceLower}）和delta范围（{@link #getDeltaLower}）。
+ * 读回后剪枝仍由 {@link PivotNode} 中基于这两种边界的下界和包含规则完成，与原节点类型的剪枝条件相同。
+ * 分页树是只读的，因此节点只继承只读的PivotNode，没有插入所需的修改操作。
+ * 子节点是 {@link NodeRef}，原树中为null的子节点不写入。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class PagedInternalNode extends PivotNode {
+
+    /** 支撑点是否也在子树中 */
+    private final boolean pivotStoredInChildren;
+
+    /** 支撑点是否需要作为结果检查（不在子树中且未删除） */
+    private final boolean[] pivotResults;
+
+    /** 每个子节点的距离范围（该类节点不使用时为null） */
+    private final double[][] distanceBounds;
+
+    /** 每个子节点的delta范围（该类节点不使用时为null） */
+    private final double[][] deltaBounds;
+
+    PagedInternalNode(List<MetricSpaceData> pivots, boolean pivotStoredInChildren,
+            boolean[] pivotResults, List<TreeNode> children, double[][] distanceBounds,
+            double[][] deltaBounds, int depth) {
+        this.pivots = pivots;
+        this.pivotStoredInChildren = pivotStoredInChildren;
+        this.pivotResults = pivotResults;
+        this.children = children;
+        this.distanceBounds = distanceBounds;
+        this.deltaBounds = deltaBounds;
+        this.depth = depth;
+    }
+
+    /**
+     * 第j个支撑点是否需要作为候选结果
+     */
+    boolean isPivotResult(int j) {
+        return pivotResults[j];
+    }
+
+    @Override
+    public boolean isPivotStoredInChildren() {
+        return pivotStoredInChildren;
+    }
+
+    @Override
+    public int size() {
+        int total = super.size();
+        for (boolean result : pivotResults) {
+            if (result) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public boolean hasDistanceBounds() {
+        return distanceBounds != null;
+    }
+
+    @Override
+    public double getDistanceLower(int childIdx, int j) {
+        return distanceBounds[childIdx][2 * j];
+    }
+
+    @Override
+    public double getDistanceUpper(int childIdx, int j) {
+        return distanceBounds[childIdx][2 * j + 1];
+    }
+
+    @Override
+    public boolean hasDeltaBounds() {
+        return deltaBounds != null;
+    }
+
+    @Override
+    public double getDeltaLower(int childIdx, int j) {
+        return deltaBounds[childIdx][2 * j - 2];
+    }
+
+    @Override
+    public double getDeltaUpper(int childIdx, int j) {
+        return deltaBounds[childIdx][2 * j - 1];
+    }
+
+    @Override
+    public String getNodeInfo() {
+        return String.format("PagedInternalNode[depth=%d, pivots=%d, children=%d, size=%d]",
+                depth, getPivotCount(), getChildCount(), size());
+    }
+}
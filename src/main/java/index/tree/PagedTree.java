@@ -0,0 +1,734 @@
+package index.tree;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import index.SearchIndex;
+import index.tree.common.QueryContext;
+import index.tree.common.QueryStatistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 存放在磁盘上的分页树索引
+ *
+ * 把构建好的任意TreeIndex写入一个分页文件，查询时只有经常访问的上层节点留在内存中：
+ * 1. 文件由固定大小的页组成，第0页是文件头，之后每个节点占用一段连续的页（节点用起始页号引用）
+ * 2. 节点按层序写入，上层节点集中在文件开头，同一节点的子节点在文件中相邻
+ * 3. 查询通过 {@link BufferPool} 访问节点：按页计算容量，CLOCK换出，访问期间pin住节点，
+ *    读入子节点时顺带预读相邻的兄弟节点；打开时可以把最上面几层常驻在池中
+ * 4. 内部节点保存支撑点和各子节点的距离范围、delta范围（见 {@link PagedInternalNode}），
+ *    剪枝与原树的节点类型相同；叶子保存其中的数据对象（Java序列化）
+ *
+ * 原树中已删除但尚未回收的对象不写入叶子；若它是不在子树中的支撑点，只用于剪枝，不作为结果返回。
+ * 查询方式与 {@link FrozenTree} 相同：子节点按下界升序访问，访问前用当前剪枝半径再检查一次。
+ * 分页树是只读的，可以被多个线程同时查询，用完后需要 {@link #close()}。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class PagedTree implements SearchIndex, Closeable {
+
+    /** 默认页大小 */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /** 最小页大小（文件头须放得下） */
+    public static final int MIN_PAGE_SIZE = 512;
+
+    /** 默认一次读操作最多读入的页数 */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /** 文件标识 "PGTR" */
+    private static final int MAGIC = 0x50475452;
+
+    private static final int VERSION = 3;
+
+    /** 子节点引用的字节数（页号、页数、是否叶子、对象数、深度） */
+    private static final int REF_BYTES = 4 * Integer.BYTES + 1;
+
+    /** 节点类型：叶子 */
+    private static final byte LEAF = 1;
+
+    /** 节点类型：内部节点 */
+    private static final byte INTERNAL = 2;
+
+    /** 分页文件 */
+    private final File file;
+
+    /** 原索引名称 */
+    private final String sourceName;
+
+    /** 距离函数 */
+    private final MetricFunction metric;
+
+    /** 缓冲池 */
+    private final BufferPool pool;
+
+    /** 根节点引用 */
+    private final NodeRef root;
+
+    /** 文件页数（含文件头） */
+    private final int pageCount;
+
+    /** 节点数 */
+    private final int nodeCount;
+
+    /** 对象数 */
+    private final int datasetSize;
+
+    /** 常驻缓冲池的层数 */
+    private final int residentLevels;
+
+    /** 查询统计 */
+    private final QueryStatistics queryStatistics = new QueryStatistics();
+
+    private PagedTree(File file, String sourceName, MetricFunction metric, BufferPool pool,
+            NodeRef root, int pageCount, int nodeCount, int datasetSize, int residentLevels) {
+        this.file = file;
+        this.sourceName = sourceName;
+        this.metric = metric;
+        this.pool = pool;
+        this.root = root;
+        this.pageCount = pageCount;
+        this.nodeCount = nodeCount;
+        this.datasetSize = datasetSize;
+        this.residentLevels = residentLevels;
+    }
+
+    // ========== 写入 ==========
+
+    /**
+     * 把构建好的树写入分页文件（已存在的文件被覆盖）
+     *
+     * 节点逐个序列化并直接写入文件，同一时刻只有一条记录在缓冲区中；额外的内存只有层序节点表
+     * 和每个节点的几个int。但源树本身须完整地在堆中（写入是从内存中的树导出，不支持边构建边写入），
+     * 放不进堆的数据集需要先分成多棵树（例如按分片）再分别写入。
+     *
+     * @param tree 已构建的树索引
+     * @param file 分页文件
+     * @param pageSize 页大小（字节，>= {@link #MIN_PAGE_SIZE}）
+     * @return 写入的页数（含文件头）
+     * @throws IOException 如果写入失败
+     */
+    public static int write(TreeIndex tree, File file, int pageSize) throws IOException {
+        if (tree.getRoot() == null) {
+            throw new IllegalStateException("树尚未构建，无法写入分页文件");
+        }
+        if (pageSize < MIN_PAGE_SIZE) {
+            throw new IllegalArgumentException("页大小不能小于" + MIN_PAGE_SIZE + ": " + pageSize);
+        }
+        Set<MetricSpaceData> deleted = tree.getTombstones();
+
+        // 第一遍：层序遍历，同一节点的子节点编号连续（跳过null子节点）
+        List<TreeNode> nodes = new ArrayList<>();
+        List<int[]> childIndices = new ArrayList<>(); // 非null子节点在原节点中的下标
+        List<Integer> firstChild = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        nodes.add(tree.getRoot());
+        depths.add(0);
+        for (int i = 0; i < nodes.size(); i++) {
+            TreeNode node = nodes.get(i);
+            firstChild.add(nodes.size());
+            if (node.isLeaf()) {
+                childIndices.add(new int[0]);
+                continue;
+            }
+            List<TreeNode> children = ((InternalNode) node).getChildren();
+            int[] indices = new int[children.size()];
+            int count = 0;
+            for (int c = 0; c < children.size(); c++) {
+                if (children.get(c) != null) {
+                    indices[count++] = c;
+                    nodes.add(children.get(c));
+                    depths.add(depths.get(i) + 1);
+                }
+            }
+            childIndices.add(Arrays.copyOf(indices, count));
+        }
+        int numNodes = nodes.size();
+
+        // 第二遍（自底向上）：子树中存活的对象数
+        int[] sizes = new int[numNodes];
+        for (int i = numNodes - 1; i >= 0; i--) {
+            TreeNode node = nodes.get(i);
+            if (node.isLeaf()) {
+                sizes[i] = liveItems((LeafNode) node, deleted).length;
+                continue;
+            }
+            InternalNode internal = (InternalNode) node;
+            for (int c = 0; c < childIndices.get(i).length; c++) {
+                sizes[i] += sizes[firstChild.get(i) + c];
+            }
+            if (!internal.isPivotStoredInChildren()) {
+                for (MetricSpaceData pivot : internal.getPivots()) {
+                    sizes[i] += deleted.contains(pivot) ? 0 : 1;
+                }
+            }
+        }
+
+        // 第三遍：逐个节点序列化到同一个缓冲区（每个节点只序列化一次），按记录长度分配页并顺序写入；
+        // 子节点引用是记录末尾的定长字段，子节点的页还没有分配，先写0，第四遍回填
+        int[] refOffsets = new int[numNodes];
+        NodeRef[] refs = new NodeRef[numNodes];
+        int nextPage = 1;
+        int maxNodePages = 0;
+        RecordBuffer buffer = new RecordBuffer();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < numNodes; i++) {
+                buffer.reset();
+                refOffsets[i] = encode(nodes.get(i), childIndices.get(i), deleted, buffer);
+                int pages = buffer.padToPages(pageSize);
+                refs[i] = new NodeRef(nextPage, pages, nodes.get(i).isLeaf(), sizes[i],
+                        depths.get(i));
+                buffer.writeAt(channel, (long) nextPage * pageSize);
+                nextPage += pages;
+                maxNodePages = Math.max(maxNodePages, pages);
+            }
+
+            // 第四遍：回填内部节点的子节点引用
+            for (int i = 0; i < numNodes; i++) {
+                int numChildren = childIndices.get(i).length;
+                if (numChildren == 0) {
+                    continue;
+                }
+                buffer.reset();
+                DataOutputStream data = new DataOutputStream(buffer);
+                for (int c = 0; c < numChildren; c++) {
+                    writeRef(data, refs[firstChild.get(i) + c]);
+                }
+                buffer.writeAt(channel, (long) refs[i].page * pageSize + refOffsets[i]);
+            }
+
+            // 文件头最后写入（需要页数和最大节点页数）
+            buffer.reset();
+            DataOutputStream data = new DataOutputStream(buffer);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(pageSize);
+            data.writeInt(nextPage);
+            data.writeInt(numNodes);
+            data.writeInt(sizes[0]);
+            data.writeInt(maxNodePages);
+            writeRef(data, refs[0]);
+            data.writeUTF(tree.getIndexName());
+            if (buffer.size() > pageSize) {
+                throw new IllegalStateException("文件头超过一页: " + buffer.size() + "字节");
+            }
+            buffer.padToPages(pageSize);
+            buffer.writeAt(channel, 0);
+        }
+        return nextPage;
+    }
+
+    /**
+     * 写文件时复用的记录缓冲区
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        RecordBuffer() {
+            super(1 << 12);
+        }
+
+        /**
+         * 在offset处写入一个int（覆盖已写入的占位字节）
+         */
+        void putInt(int offset, int value) {
+            ByteBuffer.wrap(buf, offset, Integer.BYTES).putInt(value);
+        }
+
+        /**
+         * 补0到整页
+         *
+         * @return 占用的页数
+         */
+        int padToPages(int pageSize) {
+            int pages = Math.max(1, (count + pageSize - 1) / pageSize);
+            int length = pages * pageSize;
+            if (buf.length < length) {
+                buf = Arrays.copyOf(buf, length);
+            }
+            Arrays.fill(buf, count, length, (byte) 0);
+            count = length;
+            return pages;
+        }
+
+        /**
+         * 把缓冲区内容写到文件的position处
+         */
+        void writeAt(FileChannel channel, long position) throws IOException {
+            ByteBuffer bytes = ByteBuffer.wrap(buf, 0, count);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, position + bytes.position());
+            }
+        }
+    }
+
+    private static void writeRef(DataOutput out, NodeRef ref) throws IOException {
+        out.writeInt(ref.page);
+        out.writeInt(ref.pageCount);
+        out.writeBoolean(ref.isLeaf());
+        out.writeInt(ref.size());
+        out.writeInt(ref.getDepth());
+    }
+
+    private static NodeRef readRef(DataInput in) throws IOException {
+        return new NodeRef(in.readInt(), in.readInt(), in.readBoolean(), in.readInt(),
+                in.readInt());
+    }
+
+    private static MetricSpaceData[] liveItems(LeafNode leaf, Set<MetricSpaceData> deleted) {
+        List<MetricSpaceData> live = new ArrayList<>(leaf.size());
+        for (MetricSpaceData data : leaf.getData()) {
+            if (!deleted.contains(data)) {
+                live.add(data);
+            }
+        }
+        return live.toArray(new MetricSpaceData[0]);
+    }
+
+    /**
+     * 把一个节点的记录写入缓冲区
+     *
+     * 记录格式：正文长度、正文（Java序列化）；内部节点在正文之后还有子节点数和
+     * 定长的子节点引用（页号、页数、是否叶子、对象数、深度），引用先写0，由调用方回填。
+     * 叶子正文：类型、存活对象数组。
+     * 内部节点正文：类型、支撑点是否在子树中、支撑点数组、各支撑点是否作为结果、
+     * 各子节点的距离范围和delta范围。
+     *
+     * @return 子节点引用在记录中的偏移（叶子为记录长度）
+     */
+    private static int encode(TreeNode node, int[] childIndices, Set<MetricSpaceData> deleted,
+            RecordBuffer buffer) throws IOException {
+        DataOutputStream data = new DataOutputStream(buffer);
+        data.writeInt(0);
+        ObjectOutputStream out = new ObjectOutputStream(buffer);
+        if (node.isLeaf()) {
+            out.writeByte(LEAF);
+            out.writeObject(liveItems((LeafNode) node, deleted));
+            out.flush();
+            buffer.putInt(0, buffer.size() - Integer.BYTES);
+            return buffer.size();
+        }
+        InternalNode internal = (InternalNode) node;
+        MetricSpaceData[] pivots = internal.getPivots().toArray(new MetricSpaceData[0]);
+        boolean[] pivotResults = new boolean[pivots.length];
+        for (int j = 0; j < pivots.length; j++) {
+            pivotResults[j] = !internal.isPivotStoredInChildren()
+                    && !deleted.contains(pivots[j]);
+        }
+        int numChildren = childIndices.length;
+        double[][] distanceBounds = internal.hasDistanceBounds()
+                ? new double[numChildren][2 * pivots.length] : null;
+        double[][] deltaBounds = internal.hasDeltaBounds()
+                ? new double[numChildren][2 * (pivots.length - 1)] : null;
+        for (int c = 0; c < numChildren; c++) {
+            if (distanceBounds != null) {
+                internal.getChildDistanceBounds(childIndices[c], distanceBounds[c]);
+            }
+            if (deltaBounds != null) {
+                internal.getChildDeltaBounds(childIndices[c], deltaBounds[c]);
+            }
+        }
+        out.writeByte(INTERNAL);
+        out.writeBoolean(internal.isPivotStoredInChildren());
+        out.writeObject(pivots);
+        out.writeObject(pivotResults);
+        out.writeObject(distanceBounds);
+        out.writeObject(deltaBounds);
+        out.flush();
+        buffer.putInt(0, buffer.size() - Integer.BYTES);
+        data.writeInt(numChildren);
+        int refOffset = buffer.size();
+        data.write(new byte[REF_BYTES * numChildren]);
+        return refOffset;
+    }
+
+    /**
+     * 把节点的原始字节解码为节点（由缓冲池调用）
+     */
+    private static TreeNode decode(NodeRef ref, byte[] raw) {
+        int length = ByteBuffer.wrap(raw).getInt();
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(raw, Integer.BYTES, length))) {
+            DataInputStream refs = new DataInputStream(new ByteArrayInputStream(raw,
+                    Integer.BYTES + length, raw.length - Integer.BYTES - length));
+            byte type = in.readByte();
+            if (type == LEAF) {
+                return new LeafNode(Arrays.asList((MetricSpaceData[]) in.readObject()),
+                        ref.getDepth());
+            }
+            if (type != INTERNAL) {
+                throw new IOException("未知的节点类型: " + type);
+            }
+            boolean pivotStoredInChildren = in.readBoolean();
+            MetricSpaceData[] pivots = (MetricSpaceData[]) in.readObject();
+            boolean[] pivotResults = (boolean[]) in.readObject();
+            double[][] distanceBounds = (double[][]) in.readObject();
+            double[][] deltaBounds = (double[][]) in.readObject();
+            int numChildren = refs.readInt();
+            List<TreeNode> children = new ArrayList<>(numChildren);
+            for (int c = 0; c < numChildren; c++) {
+                children.add(readRef(refs));
+            }
+            return new PagedInternalNode(Arrays.asList(pivots), pivotStoredInChildren,
+                    pivotResults, children, distanceBounds, deltaBounds, ref.getDepth());
+        } catch (IOException e) {
+            throw new UncheckedIOException("分页文件节点读取失败: " + ref, e);
+        } catch (ClassNotFoundException e) {
+            throw new UncheckedIOException(new IOException("节点格式错误: " + ref, e));
+        }
+    }
+
+    // ========== 打开 ==========
+
+    /**
+     * 打开分页文件（不常驻上层节点，使用默认的预读页数）
+     *
+     * @param file 分页文件
+     * @param metric 距离函数（须与构建时一致）
+     * @param bufferBytes 缓冲池的内存预算（字节，至少一页）
+     * @return 分页树
+     * @throws IOException 如果读取失败
+     */
+    public static PagedTree open(File file, MetricFunction metric, long bufferBytes)
+            throws IOException {
+        return open(file, metric, bufferBytes, 0, DEFAULT_READ_AHEAD_PAGES);
+    }
+
+    /**
+     * 打开分页文件
+     *
+     * @param file 分页文件
+     * @param metric 距离函数（须与构建时一致）
+     * @param bufferBytes 缓冲池的内存预算（字节，至少一页）
+     * @param residentLevels 打开时读入并常驻缓冲池的层数（0表示不常驻）
+     * @param readAheadPages 一次读操作最多读入的页数（<= 1 表示不预读兄弟节点）
+     * @return 分页树
+     * @throws IOException 如果读取失败
+     * @throws IllegalArgumentException 缓冲池放不下文件中最大的节点时
+     * @throws IllegalStateException 常驻的层加上查询所需的一个最大节点放不进缓冲池时
+     *         （在pin住任何节点之前检查）
+     */
+    public static PagedTree open(File file, MetricFunction metric, long bufferBytes,
+            int residentLevels, int readAheadPages) throws IOException {
+        if (residentLevels < 0) {
+            throw new IllegalArgumentException("常驻层数不能为负数: " + residentLevels);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer prefix = ByteBuffer.allocate(3 * Integer.BYTES);
+            channel.read(prefix, 0);
+            prefix.flip();
+            if (prefix.remaining() < prefix.capacity() || prefix.getInt() != MAGIC) {
+                throw new IOException("不是分页树文件: " + file);
+            }
+            int version = prefix.getInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的分页文件版本: " + version);
+            }
+            int pageSize = prefix.getInt();
+            if (bufferBytes < pageSize) {
+                throw new IllegalArgumentException(String.format(
+                        "缓冲池预算(%d字节)不能小于一页(%d字节)", bufferBytes, pageSize));
+            }
+
+            ByteBuffer headerPage = ByteBuffer.allocate(pageSize);
+            channel.read(headerPage, 0);
+            DataInputStream header = new DataInputStream(
+                    new ByteArrayInputStream(headerPage.array(), 3 * Integer.BYTES, pageSize));
+            int pageCount = header.readInt();
+            int nodeCount = header.readInt();
+            int datasetSize = header.readInt();
+            int maxNodePages = header.readInt();
+            NodeRef root = readRef(header);
+            String sourceName = header.readUTF();
+            if (channel.size() < (long) pageCount * pageSize) {
+                throw new IOException("分页文件不完整: " + file);
+            }
+
+            long capacityPages = bufferBytes / pageSize;
+            if (capacityPages < maxNodePages) {
+                throw new IllegalArgumentException(String.format(
+                        "缓冲池预算(%d页)放不下文件中最大的节点(%d页)", capacityPages, maxNodePages));
+            }
+
+            BufferPool pool = new BufferPool(channel, pageSize, capacityPages,
+                    Math.max(1, readAheadPages), PagedTree::decode);
+            pinResidentLevels(pool, root, residentLevels, capacityPages - maxNodePages);
+            return new PagedTree(file, sourceName, metric, pool, root, pageCount, nodeCount,
+                    datasetSize, residentLevels);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读入最上面levels层并保持pin住（不再unpin）
+     *
+     * 先逐层收集各层的节点引用并累计页数（只需临时读入上面levels-1层），
+     * 超出预算时在pin住任何节点之前报错；pin的过程中出错时放开已经pin住的节点。
+     *
+     * @param pool 缓冲池
+     * @param root 根节点引用
+     * @param levels 常驻层数
+     * @param budgetPages 常驻层可以占用的页数（容量减去查询时需要的一个最大节点）
+     * @throws IllegalStateException 常驻的层超出预算时
+     */
+    private static void pinResidentLevels(BufferPool pool, NodeRef root, int levels,
+            long budgetPages) {
+        List<NodeRef> resident = new ArrayList<>();
+        List<NodeRef> level = new ArrayList<>();
+        level.add(root);
+        long pages = 0;
+        for (int d = 0; d < levels && !level.isEmpty(); d++) {
+            for (NodeRef ref : level) {
+                pages += ref.pageCount;
+            }
+            if (pages > budgetPages) {
+                throw new IllegalStateException(String.format(
+                        "常驻%d层至少需要%d页，缓冲池在保留查询所需的页之后只剩%d页，请减少常驻层数或增大缓冲池",
+                        levels, pages, budgetPages));
+            }
+            resident.addAll(level);
+            List<NodeRef> next = new ArrayList<>();
+            if (d + 1 < levels) {
+                for (NodeRef ref : level) {
+                    if (ref.isLeaf()) {
+                        continue;
+                    }
+                    TreeNode node = pool.pin(ref, null);
+                    try {
+                        for (TreeNode child : ((PagedInternalNode) node).getChildren()) {
+                            next.add((NodeRef) child);
+                        }
+                    } finally {
+                        pool.unpin(ref);
+                    }
+                }
+            }
+            level = next;
+        }
+
+        int pinned = 0;
+        try {
+            for (; pinned < resident.size(); pinned++) {
+                pool.pinResident(resident.get(pinned));
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < pinned; i++) {
+                pool.unpinResident(resident.get(i));
+            }
+            throw e;
+        }
+    }
+
+    // ========== 查询 ==========
+
+    @Override
+    public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
+        return finishQuery(QueryContext.forRange(queryObject, radius, metric));
+    }
+
+    @Override
+    public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        return finishQuery(QueryContext.forKnn(queryObject, k, metric));
+    }
+
+    private List<MetricSpaceData> finishQuery(QueryContext context) {
+        try {
+            search(context);
+            queryStatistics.record(context);
+            return context.getResults();
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 深度优先查询（范围查询和kNN查询共用）
+     *
+     * 用显式栈代替递归：子节点引用连同其兄弟列表（用于预读）和下界按下界降序入栈，
+     * 下界最小的先出栈，出栈时用当前剪枝半径再检查一次，访问顺序与按下界升序的递归相同。
+     * 节点只在处理期间pin住，子节点入栈前就unpin，同时pin住的页不超过一个（加上常驻层）。
+     */
+    private void search(QueryContext context) {
+        NodeRef[] stackRefs = new NodeRef[16];
+        List<?>[] stackSiblings = new List<?>[16];
+        double[] stackBounds = new double[16];
+        stackRefs[0] = root;
+        int size = 1;
+        while (size > 0) {
+            size--;
+            NodeRef ref = stackRefs[size];
+            @SuppressWarnings("unchecked")
+            List<TreeNode> siblings = (List<TreeNode>) stackSiblings[size];
+            stackRefs[size] = null;
+            stackSiblings[size] = null;
+            if (stackBounds[size] > context.getRadius()) {
+                continue;
+            }
+            TreeNode node = pool.pin(ref, siblings);
+            List<TreeNode> children;
+            double[] dq;
+            int p;
+            try {
+                context.visitNode();
+                if (node.isLeaf()) {
+                    for (MetricSpaceData obj : ((LeafNode) node).getData()) {
+                        context.offer(obj, context.distanceTo(obj));
+                    }
+                    continue;
+                }
+
+                PagedInternalNode internal = (PagedInternalNode) node;
+                List<MetricSpaceData> pivots = internal.getPivots();
+                children = internal.getChildren();
+                p = pivots.size();
+                dq = context.getScratch(internal.getDepth(), p + children.size());
+                for (int j = 0; j < p; j++) {
+                    dq[j] = context.distanceTo(pivots.get(j));
+                    if (internal.isPivotResult(j)) {
+                        context.offer(pivots.get(j), dq[j]);
+                    }
+                }
+                for (int c = 0; c < children.size(); c++) {
+                    dq[p + c] = internal.getChildLowerBound(c, dq);
+                }
+            } finally {
+                pool.unpin(ref);
+            }
+
+            int numChildren = children.size();
+            if (size + numChildren > stackRefs.length) {
+                int capacity = Math.max(stackRefs.length * 2, size + numChildren);
+                stackRefs = Arrays.copyOf(stackRefs, capacity);
+                stackSiblings = Arrays.copyOf(stackSiblings, capacity);
+                stackBounds = Arrays.copyOf(stackBounds, capacity);
+            }
+            int base = size;
+            for (int c = numChildren - 1; c >= 0; c--) {
+                double bound = dq[p + c];
+                if (bound == Double.POSITIVE_INFINITY || bound > context.getRadius()) {
+                    continue;
+                }
+                // 插入排序，保持从base开始按下界降序（相同下界时下标大的在下）
+                int k = size++;
+                while (k > base && stackBounds[k - 1] < bound) {
+                    stackRefs[k] = stackRefs[k - 1];
+                    stackSiblings[k] = stackSiblings[k - 1];
+                    stackBounds[k] = stackBounds[k - 1];
+                    k--;
+                }
+                stackRefs[k] = (NodeRef) children.get(c);
+                stackSiblings[k] = children;
+                stackBounds[k] = bound;
+            }
+        }
+    }
+
+    // ========== SearchIndex接口实现 ==========
+
+    /**
+     * 关闭分页文件
+     */
+    @Override
+    public void close() throws IOException {
+        pool.close();
+    }
+
+    @Override
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n").append("=".repeat(50)).append("\n");
+        sb.append(getIndexName()).append(" 统计信息\n");
+        sb.append("=".repeat(50)).append("\n");
+        sb.append(String.format("  数据集大小: %,d\n", datasetSize));
+        sb.append(String.format("  节点数: %,d\n", nodeCount));
+        sb.append(String.format("  文件: %s (%,d 页 x %,d bytes)\n", file, pageCount,
+                pool.getPageSize()));
+        sb.append(String.format("  缓冲池: %,d / %,d 页 (常驻 %d 层)\n", pool.getResidentPages(),
+                pool.getCapacityPages(), residentLevels));
+        sb.append(String.format("  命中率: %.2f%% (命中 %,d, 未命中 %,d)\n",
+                pool.getHitRate() * 100, pool.getHits(), pool.getMisses()));
+        sb.append(String.format("  读操作: %,d (%,d 页), 换出: %,d\n", pool.getReads(),
+                pool.getPagesRead(), pool.getEvictions()));
+        sb.append(String.format("  预读: %,d 个节点, 其中被访问 %,d\n", pool.getReadAheadNodes(),
+                pool.getReadAheadHits()));
+        sb.append(String.format("  查询次数: %,d\n", queryStatistics.getQueries()));
+        sb.append(String.format("  查询距离计算次数: %,d\n",
+                queryStatistics.getDistanceComputations()));
+        sb.append(String.format("  节点访问次数: %,d\n", queryStatistics.getNodeAccesses()));
+        sb.append("=".repeat(50));
+        return sb.toString();
+    }
+
+    @Override
+    public String getIndexName() {
+        return sourceName + " (Paged)";
+    }
+
+    /**
+     * 清空查询统计和缓冲池统计（缓冲池的内容保持不变）
+     */
+    @Override
+    public void resetStatistics() {
+        queryStatistics.reset();
+        pool.resetStatistics();
+    }
+
+    @Override
+    public long getDistanceComputations() {
+        return queryStatistics.getDistanceComputations();
+    }
+
+    @Override
+    public int getDatasetSize() {
+        return datasetSize;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getResidentLevels() {
+        return residentLevels;
+    }
+
+    public BufferPool getBufferPool() {
+        return pool;
+    }
+
+    public long getNodeAccesses() {
+        return queryStatistics.getNodeAccesses();
+    }
+
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
+    }
+}
@@ -0,0 +1,106 @@
+package index.tree;
+
+import index.tree.common.QueryContext;
+
+import java.util.List;
+
+/**
+ * 子树到祖先支撑点的距离范围（超环）
+ *
+ * 与PM-tree的hyper-ring相同：对最近h层祖先的每个支撑点p，记录子树中所有对象到p的
+ * 距离范围 [lo, hi]（float）。查询沿路径下降时已经算出 d(q,p)，
+ * 若某个支撑点满足 d(q,p) < lo - r 或 d(q,p) > hi + r，整棵子树都在查询球之外，
+ * 不必进入。范围按构建时记录的路径距离计算，与叶子的路径距离表使用同一组祖先层；
+ * 动态插入会扩大范围，删除不会缩小范围，因此范围始终是保守的。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class PathRings {
+
+    /** 第l层第j个支撑点的范围位于 2 * (l * pivotsPerLevel + j) 和其后一个位置 */
+    private final float[] ranges;
+
+    /** 最浅的祖先层 */
+    private final int firstLevel;
+
+    /** 层数 */
+    private final int levels;
+
+    /** 每层的支撑点数 */
+    private final int pivotsPerLevel;
+
+    /**
+     * 构造空范围（之后用 {@link #include} 和 {@link #extend} 加入对象）
+     *
+     * @param firstLevel 最浅的祖先层
+     * @param levels 层数
+     * @param pivotsPerLevel 每层的支撑点数
+     */
+    PathRings(int firstLevel, int levels, int pivotsPerLevel) {
+        this.ranges = new float[2 * levels * pivotsPerLevel];
+        this.firstLevel = firstLevel;
+        this.levels = levels;
+        this.pivotsPerLevel = pivotsPerLevel;
+        for (int k = 0; k < ranges.length; k += 2) {
+            ranges[k] = Float.POSITIVE_INFINITY;
+            ranges[k + 1] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * 把一个对象到第level层祖先各支撑点的距离并入范围
+     *
+     * @param level 祖先层（firstLevel ≤ level < firstLevel + 层数）
+     * @param distances 距离数组，第j个支撑点位于 offset + j
+     * @param offset 起始位置
+     */
+    void include(int level, float[] distances, int offset) {
+        int base = 2 * (level - firstLevel) * pivotsPerLevel;
+        for (int j = 0; j < pivotsPerLevel; j++) {
+            float d = distances[offset + j];
+            int k = base + 2 * j;
+            ranges[k] = Math.min(ranges[k], d);
+            ranges[k + 1] = Math.max(ranges[k + 1], d);
+        }
+    }
+
+    /**
+     * 把一个动态插入的对象并入范围
+     *
+     * @param ancestorDistances 第l个元素为对象到第l层祖先各支撑点的距离
+     */
+    void extend(List<double[]> ancestorDistances) {
+        for (int l = 0; l < levels; l++) {
+            double[] dist = ancestorDistances.get(firstLevel + l);
+            for (int j = 0; j < pivotsPerLevel; j++) {
+                float d = (float) dist[j];
+                int k = 2 * (l * pivotsPerLevel + j);
+                ranges[k] = Math.min(ranges[k], d);
+                ranges[k + 1] = Math.max(ranges[k + 1], d);
+            }
+        }
+    }
+
+    /**
+     * 计算查询对象到子树中任一对象距离的下界
+     *
+     * 查询对象到第l层祖先支撑点的距离须已写入 context.getScratch(l, pivotsPerLevel)。
+     * float边界按舍入误差向外放宽一个ulp，因此下界是精确的。
+     *
+     * @param context 查询上下文
+     * @return 距离下界
+     */
+    double lowerBound(QueryContext context) {
+        double bound = 0;
+        for (int l = 0; l < levels; l++) {
+            double[] dq = context.getScratch(firstLevel + l, pivotsPerLevel);
+            for (int j = 0; j < pivotsPerLevel; j++) {
+                int k = 2 * (l * pivotsPerLevel + j);
+                bound = Math.max(bound, Math.max(Math.nextDown(ranges[k]) - dq[j],
+                        dq[j] - Math.nextUp(ranges[k + 1])));
+            }
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,322 @@
+package index.tree;
+
+import core.MetricSpaceData;
+import index.tree.common.QueryContext;
+
+import java.util.List;
+
+/**
+ * 带支撑点的内部节点（只读部分）
+ *
+ * 包含支撑点、子节点和基于子节点距离范围、delta范围的剪枝规则，查询只需要这些操作。
+ * 可以动态插入的树节点继承 {@link InternalNode}，它再加上按划分规则选择子节点、扩展边界等修改操作；
+ * 从分页文件读入的只读节点 {@link PagedInternalNode} 直接继承本类。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public abstract class PivotNode implements TreeNode {
+
+    /** 支撑点列表 */
+    protected List<MetricSpaceData> pivots;
+
+    /** 子节点列表 */
+    protected List<TreeNode> children;
+
+    /** 节点深度 */
+    protected int depth;
+
+    /** 支撑点在树的共享支撑点集合中的序号（LOCAL模式下为null） */
+    private int[] pivotOrdinals;
+
+    /** 子树中对象数的缓存（-1表示需要重新计算） */
+    private int childrenSize = -1;
+
+    @Override
+    public boolean isLeaf() {
+        return false;
+    }
+
+    /**
+     * 子树中的对象数（缓存，动态更新后由 {@link TreeIndex} 沿路径清除缓存）
+     *
+     * 支撑点不在子树中的节点由子类再加上支撑点数。
+     */
+    @Override
+    public int size() {
+        if (childrenSize < 0) {
+            int total = 0;
+            for (TreeNode child : children) {
+                if (child != null) {
+                    total += child.size();
+                }
+            }
+            childrenSize = total;
+        }
+        return childrenSize;
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * 获取支撑点列表
+     *
+     * @return 支撑点列表
+     */
+    public List<MetricSpaceData> getPivots() {
+        return pivots;
+    }
+
+    /**
+     * 获取子节点列表
+     *
+     * @return 子节点列表
+     */
+    public List<TreeNode> getChildren() {
+        return children;
+    }
+
+    /**
+     * 获取子节点数量
+     *
+     * @return 子节点数量
+     */
+    public int getChildCount() {
+        return children != null ? children.size() : 0;
+    }
+
+    /**
+     * 获取支撑点数量
+     *
+     * @return 支撑点数量
+     */
+    public int getPivotCount() {
+        return pivots != null ? pivots.size() : 0;
+    }
+
+    /**
+     * 支撑点是否同时存储在子树中
+     *
+     * GH树的支撑点参与数据划分，会出现在子树中；其他树的支撑点不在子树中，需要单独作为结果检查。
+     * 使用共享支撑点的节点不从数据中取出支撑点，支撑点总是留在（某个节点的）子树中。
+     *
+     * @return true表示支撑点也在子树中
+     */
+    public boolean isPivotStoredInChildren() {
+        return pivotOrdinals != null;
+    }
+
+    /**
+     * 获取支撑点在共享支撑点集合中的序号
+     *
+     * @param j 支撑点在本节点中的序号
+     * @return 共享支撑点序号，节点自己选出的支撑点返回-1
+     */
+    public int getPivotOrdinal(int j) {
+        return pivotOrdinals != null ? pivotOrdinals[j] : -1;
+    }
+
+    /**
+     * 计算查询对象到本节点第j个支撑点的距离（共享支撑点经过上下文的备忘表）
+     *
+     * @param j 支撑点序号
+     * @param context 查询上下文
+     * @return 距离
+     */
+    public double queryDistance(int j, QueryContext context) {
+        return context.distanceToPivot(getPivotOrdinal(j), pivots.get(j));
+    }
+
+    /**
+     * 设置支撑点的共享序号（由 {@link TreeIndex} 在GLOBAL/MIX模式下构建节点后调用）
+     */
+    void setPivotOrdinals(int[] ordinals) {
+        this.pivotOrdinals = ordinals;
+    }
+
+    /**
+     * 判断子节点的边界是否允许包含某个对象（动态删除时定位对象）
+     *
+     * 按 {@link #getDistanceLower} 等边界访问方法给出的闭区间判断。
+     *
+     * @param childIdx 子节点索引
+     * @param pivotDistances 对象到本节点各支撑点的距离
+     * @return 对象可能在该子树中时返回true
+     */
+    public boolean childMayContain(int childIdx, double[] pivotDistances) {
+        if (children.get(childIdx) == null) {
+            return false;
+        }
+        if (hasDistanceBounds()) {
+            for (int j = 0; j < pivotDistances.length; j++) {
+                if (pivotDistances[j] < getDistanceLower(childIdx, j)
+                        || pivotDistances[j] > getDistanceUpper(childIdx, j)) {
+                    return false;
+                }
+            }
+        }
+        if (hasDeltaBounds()) {
+            for (int j = 1; j < pivotDistances.length; j++) {
+                double delta = pivotDistances[0] - pivotDistances[j];
+                if (delta < getDeltaLower(childIdx, j) || delta > getDeltaUpper(childIdx, j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断子树是否整个落在查询球内（包含规则）
+     *
+     * 若存在支撑点p使 d(q,p) + 子树到p的距离上界 <= r，则子树中所有对象都是结果。
+     * 没有距离范围约束的节点（只用超平面划分）无法判断，返回false。
+     *
+     * @param childIdx 子节点索引
+     * @param dq 查询对象到本节点各支撑点的距离
+     * @param radius 查询半径
+     * @return 子树整个落在查询球内时返回true
+     */
+    public boolean isChildContained(int childIdx, double[] dq, double radius) {
+        if (children.get(childIdx) == null) {
+            return false;
+        }
+        if (!hasDistanceBounds()) {
+            return false;
+        }
+        for (int j = 0; j < getPivotCount(); j++) {
+            if (dq[j] + getDistanceUpper(childIdx, j) <= radius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 计算子树中对象到查询对象的距离下界
+     *
+     * 默认由 {@link #getDistanceLower} 等边界访问方法推出（不分配数组）：
+     * d(q,pj) 超出距离范围的部分，以及 delta_j(q) 超出delta范围的部分的一半。
+     * 子节点为null时调用方应直接跳过该子节点。
+     *
+     * @param childIdx 子节点索引
+     * @param dq 查询对象到本节点各支撑点的距离
+     * @return 距离下界（大于查询半径时该子树可以剪枝）
+     */
+    public double getChildLowerBound(int childIdx, double[] dq) {
+        double bound = 0;
+        if (hasDistanceBounds()) {
+            for (int j = 0; j < getPivotCount(); j++) {
+                bound = Math.max(bound, getDistanceLower(childIdx, j) - dq[j]);
+                bound = Math.max(bound, dq[j] - getDistanceUpper(childIdx, j));
+            }
+        }
+        if (hasDeltaBounds()) {
+            for (int j = 1; j < getPivotCount(); j++) {
+                double delta = dq[0] - dq[j];
+                bound = Math.max(bound, (getDeltaLower(childIdx, j) - delta) / 2);
+                bound = Math.max(bound, (delta - getDeltaUpper(childIdx, j)) / 2);
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * 清除子树对象数的缓存
+     */
+    void invalidateSize() {
+        childrenSize = -1;
+    }
+
+    // ========== 子节点边界 ==========
+    //
+    // 剪枝在查询的热循环中逐个读取边界，因此边界按元素访问，不为每次调用分配数组；
+    // 没有约束的边界为 [-∞, +∞]。
+
+    /**
+     * 子节点是否有到本节点各支撑点的距离范围约束
+     */
+    public boolean hasDistanceBounds() {
+        return false;
+    }
+
+    /**
+     * 子节点中对象到第j个支撑点距离的下界
+     */
+    public double getDistanceLower(int childIdx, int j) {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * 子节点中对象到第j个支撑点距离的上界
+     */
+    public double getDistanceUpper(int childIdx, int j) {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * 子节点是否有delta约束，delta_j = d(x, p0) - d(x, pj)，j = 1..支撑点数-1
+     */
+    public boolean hasDeltaBounds() {
+        return false;
+    }
+
+    /**
+     * 子节点中对象delta_j的下界（j = 1..支撑点数-1）
+     */
+    public double getDeltaLower(int childIdx, int j) {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * 子节点中对象delta_j的上界（j = 1..支撑点数-1）
+     */
+    public double getDeltaUpper(int childIdx, int j) {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * 把子节点中对象到本节点各支撑点的距离范围写入调用方提供的数组
+     *
+     * @param childIdx 子节点索引
+     * @param bounds 输出：[lo0, hi0, lo1, hi1, ...]，长度至少为 2 * 支撑点数
+     * @return 该类节点不使用距离范围约束时返回false（不写入）
+     */
+    public boolean getChildDistanceBounds(int childIdx, double[] bounds) {
+        if (!hasDistanceBounds()) {
+            return false;
+        }
+        for (int j = 0; j < getPivotCount(); j++) {
+            bounds[2 * j] = getDistanceLower(childIdx, j);
+            bounds[2 * j + 1] = getDistanceUpper(childIdx, j);
+        }
+        return true;
+    }
+
+    /**
+     * 把子节点中对象的delta范围写入调用方提供的数组
+     *
+     * @param childIdx 子节点索引
+     * @param bounds 输出：[lo1, hi1, lo2, hi2, ...]，长度至少为 2 * (支撑点数 - 1)
+     * @return 该类节点不使用delta约束时返回false（不写入）
+     */
+    public boolean getChildDeltaBounds(int childIdx, double[] bounds) {
+        if (!hasDeltaBounds()) {
+            return false;
+        }
+        for (int j = 1; j < getPivotCount(); j++) {
+            bounds[2 * j - 2] = getDeltaLower(childIdx, j);
+            bounds[2 * j - 1] = getDeltaUpper(childIdx, j);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return getNodeInfo();
+    }
+}
+
@@ -0,0 +1,506 @@
+package index.tree;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import index.tree.common.PairSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于树索引的相似性连接
+ *
+ * 找出所有距离不超过r的对象对：自连接在一棵树内进行，R–S连接在两棵树之间进行。
+ * 不对每个对象做一次范围查询，而是成对处理子树（双树遍历）：
+ * 1. 连接开始时为树的每个节点建立一个覆盖球（中心c，半径R）：叶子取第一个对象为中心，
+ *    内部节点沿用最大子树的中心，半径由子树的球和中心距离按三角不等式向上推出，共O(n)次距离计算；
+ *    节点记录了子节点到支撑点的距离范围（VP/MVP/线性划分树）时，也以第一个支撑点为中心、
+ *    距离上界为半径，取两者中较小的球；支撑点不在子树中的节点，支撑点作为一个额外的叶子参与连接
+ * 2. 两个球的中心距离为d时：d - R1 - R2 > r 则整对剪枝；d + R1 + R2 <= r 则所有对象对都是结果，
+ *    不计算距离直接输出；否则拆开半径较大的一侧继续处理
+ * 3. 两个叶子之间逐对比较前，先用各对象到本叶子中心的距离判断：
+ *    d - da - db > r 的对剪枝，d + da + db <= r 的对直接输出
+ *
+ * 建立覆盖球、成对处理和收集对象都用显式栈，不使用Java递归，很深的树也不会栈溢出。
+ * 子树对在ForkJoin线程池中并行处理：对象对数足够多的子树对拆分为独立任务。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class SimilarityJoin {
+
+    /** 显式栈的初始容量 */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** 对象对数不少于该值的子树对拆分为并行任务 */
+    private static final long PARALLEL_PAIRS = 1L << 14;
+
+    /** 距离函数 */
+    private final MetricFunction metric;
+
+    /** 连接半径 */
+    private final double radius;
+
+    /** 结果回调 */
+    private final PairSink sink;
+
+    /** 结果对数 */
+    private final LongAdder pairs = new LongAdder();
+
+    /** 距离计算次数（包括建立覆盖球） */
+    private final LongAdder distanceComputations = new LongAdder();
+
+    /** 其中建立覆盖球的距离计算次数 */
+    private final LongAdder coverDistanceComputations = new LongAdder();
+
+    SimilarityJoin(MetricFunction metric, double radius, PairSink sink) {
+        this.metric = metric;
+        this.radius = radius;
+        this.sink = sink;
+    }
+
+    /**
+     * 覆盖球：子树中所有（未删除的）对象到中心的距离不超过半径
+     */
+    static final class Ball {
+        final MetricSpaceData center;
+        final double radius;
+        /** 叶子中的对象（内部节点为null） */
+        final MetricSpaceData[] items;
+        /** 叶子中各对象到中心的距离 */
+        final double[] itemDistances;
+        /** 子树的球（叶子为null） */
+        final Ball[] children;
+        /** 子树中的对象数 */
+        final long size;
+
+        private Ball(MetricSpaceData center, double radius, MetricSpaceData[] items,
+                double[] itemDistances, Ball[] children, long size) {
+            this.center = center;
+            this.radius = radius;
+            this.items = items;
+            this.itemDistances = itemDistances;
+            this.children = children;
+            this.size = size;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    /**
+     * 为树的一棵子树建立覆盖球（跳过已删除的对象）
+     *
+     * 用显式栈按后序处理节点：节点第一次出栈时把自己（标记为已展开）和子节点压回栈中，
+     * 第二次出栈时它的子节点都已完成，各子树的球按子节点顺序留在结果栈顶部。
+     *
+     * @param tree 树
+     * @param node 子树根节点
+     * @return 覆盖球；子树中没有未删除的对象时返回null
+     */
+    Ball cover(TreeIndex tree, TreeNode node) {
+        if (node == null) {
+            return null;
+        }
+        TreeNode[] nodes = new TreeNode[INITIAL_CAPACITY];
+        boolean[] expanded = new boolean[INITIAL_CAPACITY];
+        Ball[] done = new Ball[INITIAL_CAPACITY];
+        int size = 0;
+        int doneSize = 0;
+        nodes[size++] = node;
+        while (size > 0) {
+            TreeNode current = nodes[--size];
+            boolean ready = expanded[size];
+            nodes[size] = null;
+            if (done.length == doneSize) {
+                done = Arrays.copyOf(done, doneSize * 2);
+            }
+            if (current == null) {
+                done[doneSize++] = null;
+                continue;
+            }
+            if (current.isLeaf()) {
+                done[doneSize++] = leafBall(tree, ((LeafNode) current).getData());
+                continue;
+            }
+            InternalNode internal = (InternalNode) current;
+            int childCount = internal.getChildCount();
+            if (ready) {
+                doneSize -= childCount;
+                Ball ball = internalBall(tree, internal, done, doneSize);
+                Arrays.fill(done, doneSize, doneSize + childCount, null);
+                done[doneSize++] = ball;
+                continue;
+            }
+            if (size + childCount + 1 > nodes.length) {
+                int capacity = Math.max(nodes.length * 2, size + childCount + 1);
+                nodes = Arrays.copyOf(nodes, capacity);
+                expanded = Arrays.copyOf(expanded, capacity);
+            }
+            nodes[size] = internal;
+            expanded[size++] = true;
+            // 逆序入栈，子树的球按子节点顺序完成
+            List<TreeNode> children = internal.getChildren();
+            for (int c = childCount - 1; c >= 0; c--) {
+                nodes[size] = children.get(c);
+                expanded[size++] = false;
+            }
+        }
+        return done[0];
+    }
+
+    /**
+     * 由子树的球合成内部节点的球
+     *
+     * 候选中心有两个：最大子树的中心（半径按中心距离和子树半径推出），以及第一个支撑点
+     * （节点记录了子节点到支撑点的距离范围时，半径直接取各子节点的距离上界，不计算距离）。
+     * 取半径较小的一个。
+     *
+     * @param tree 树
+     * @param internal 内部节点
+     * @param done 结果栈，from起依次是各子节点的球（子树为空时为null）
+     * @param from 第一个子节点的球在结果栈中的位置
+     * @return 覆盖球；子树中没有未删除的对象时返回null
+     */
+    private Ball internalBall(TreeIndex tree, InternalNode internal, Ball[] done, int from) {
+        int childCount = internal.getChildCount();
+        List<Ball> balls = new ArrayList<>(childCount + 1);
+        for (int c = 0; c < childCount; c++) {
+            if (done[from + c] != null) {
+                balls.add(done[from + c]);
+            }
+        }
+        Ball pivotBall = null;
+        if (!internal.isPivotStoredInChildren()) {
+            pivotBall = leafBall(tree, internal.getPivots());
+            if (pivotBall != null) {
+                balls.add(pivotBall);
+            }
+        }
+        if (balls.size() <= 1) {
+            return balls.isEmpty() ? null : balls.get(0);
+        }
+
+        Ball largest = balls.get(0);
+        long size = 0;
+        for (Ball ball : balls) {
+            size += ball.size;
+            if (ball.size > largest.size) {
+                largest = ball;
+            }
+        }
+        MetricSpaceData center = largest.center;
+        double r = 0;
+        for (Ball ball : balls) {
+            double d = ball.center == center ? 0 : coverDistance(center, ball.center);
+            r = Math.max(r, d + ball.radius);
+        }
+
+        if (internal.hasDistanceBounds()) {
+            MetricSpaceData pivot = internal.getPivots().get(0);
+            double pivotRadius = 0;
+            for (int c = 0; c < childCount; c++) {
+                if (done[from + c] != null) {
+                    pivotRadius = Math.max(pivotRadius, internal.getDistanceUpper(c, 0));
+                }
+            }
+            if (pivotBall != null && pivotRadius < r) {
+                double d = pivotBall.center == pivot ? 0
+                        : coverDistance(pivot, pivotBall.center);
+                pivotRadius = Math.max(pivotRadius, d + pivotBall.radius);
+            }
+            if (pivotRadius < r) {
+                center = pivot;
+                r = pivotRadius;
+            }
+        }
+        return new Ball(center, r, null, null, balls.toArray(new Ball[0]), size);
+    }
+
+    private Ball leafBall(TreeIndex tree, List<MetricSpaceData> data) {
+        List<MetricSpaceData> live = new ArrayList<>(data.size());
+        for (MetricSpaceData obj : data) {
+            if (!tree.isDeleted(obj)) {
+                live.add(obj);
+            }
+        }
+        if (live.isEmpty()) {
+            return null;
+        }
+        MetricSpaceData[] items = live.toArray(new MetricSpaceData[0]);
+        double[] itemDistances = new double[items.length];
+        double r = 0;
+        for (int i = 1; i < items.length; i++) {
+            itemDistances[i] = coverDistance(items[0], items[i]);
+            r = Math.max(r, itemDistances[i]);
+        }
+        return new Ball(items[0], r, items, itemDistances, null, items.length);
+    }
+
+    /**
+     * 自连接：输出子树内所有距离不超过半径的无序对象对（每对一次）
+     */
+    void selfJoin(Ball node) {
+        join(node, null, Double.NaN);
+    }
+
+    /**
+     * 两棵子树之间的连接：输出左侧对象与右侧对象之间距离不超过半径的对
+     */
+    void crossJoin(Ball left, Ball right) {
+        join(left, right, Double.NaN);
+    }
+
+    /**
+     * 用显式栈处理一组子树对
+     *
+     * 栈元素是（左，右，中心距离）：右侧为null表示左侧子树的自连接，中心距离为NaN表示尚未计算
+     * （出栈时再算，剪掉的对不会被提前计算）。对象对数足够多的子树对作为独立任务分出
+     * （fork），本线程处理完自己的栈后等待它们完成。
+     *
+     * @param left 左侧子树
+     * @param right 右侧子树（自连接时为null）
+     * @param centerDistance 两个中心之间的距离（未知时为NaN）
+     */
+    private void join(Ball left, Ball right, double centerDistance) {
+        PairStack stack = new PairStack();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        stack.push(left, right, centerDistance);
+        while (stack.size > 0) {
+            stack.pop();
+            Ball a = stack.left;
+            Ball b = stack.right;
+            if (b == null) {
+                expandSelf(a, stack, tasks);
+            } else {
+                double d = Double.isNaN(stack.distance) ? distance(a.center, b.center)
+                        : stack.distance;
+                expandCross(a, b, d, stack, tasks);
+            }
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    private void expandSelf(Ball node, PairStack stack, List<ForkJoinTask<?>> tasks) {
+        if (node.isLeaf()) {
+            leafSelfJoin(node);
+            return;
+        }
+        if (2 * node.radius <= radius) {
+            emitAll(node);
+            return;
+        }
+        Ball[] children = node.children;
+        for (int i = children.length - 1; i >= 0; i--) {
+            for (int j = children.length - 1; j > i; j--) {
+                schedule(children[i], children[j], Double.NaN, stack, tasks);
+            }
+            schedule(children[i], null, Double.NaN, stack, tasks);
+        }
+    }
+
+    private void expandCross(Ball left, Ball right, double centerDistance, PairStack stack,
+            List<ForkJoinTask<?>> tasks) {
+        if (centerDistance - left.radius - right.radius > radius) {
+            return;
+        }
+        if (centerDistance + left.radius + right.radius <= radius) {
+            emitAll(left, right);
+            return;
+        }
+        if (left.isLeaf() && right.isLeaf()) {
+            leafCrossJoin(left, right, centerDistance);
+            return;
+        }
+        boolean splitLeft = right.isLeaf() || (!left.isLeaf() && left.radius >= right.radius);
+        Ball split = splitLeft ? left : right;
+        Ball other = splitLeft ? right : left;
+        for (int c = split.children.length - 1; c >= 0; c--) {
+            Ball child = split.children[c];
+            // 沿用父节点中心的子树不需要重新计算中心距离
+            double d = child.center == split.center ? centerDistance : Double.NaN;
+            if (splitLeft) {
+                schedule(child, other, d, stack, tasks);
+            } else {
+                schedule(other, child, d, stack, tasks);
+            }
+        }
+    }
+
+    /**
+     * 对象对数足够多的子树对分出为并行任务，其余压入本线程的栈
+     */
+    private void schedule(Ball left, Ball right, double centerDistance, PairStack stack,
+            List<ForkJoinTask<?>> tasks) {
+        if (isLarge(left, right == null ? left : right)) {
+            tasks.add(ForkJoinTask.adapt(() -> join(left, right, centerDistance)).fork());
+        } else {
+            stack.push(left, right, centerDistance);
+        }
+    }
+
+    /**
+     * 待处理子树对的栈（三个并行数组）
+     */
+    private static final class PairStack {
+        Ball[] lefts = new Ball[INITIAL_CAPACITY];
+        Ball[] rights = new Ball[INITIAL_CAPACITY];
+        double[] distances = new double[INITIAL_CAPACITY];
+        int size;
+        /** 最近一次出栈的元素 */
+        Ball left;
+        Ball right;
+        double distance;
+
+        void push(Ball a, Ball b, double d) {
+            if (size == lefts.length) {
+                lefts = Arrays.copyOf(lefts, size * 2);
+                rights = Arrays.copyOf(rights, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            lefts[size] = a;
+            rights[size] = b;
+            distances[size++] = d;
+        }
+
+        void pop() {
+            size--;
+            left = lefts[size];
+            right = rights[size];
+            distance = distances[size];
+            lefts[size] = null;
+            rights[size] = null;
+        }
+    }
+
+    private void leafSelfJoin(Ball leaf) {
+        MetricSpaceData[] items = leaf.items;
+        double[] dist = leaf.itemDistances;
+        for (int i = 0; i < items.length; i++) {
+            for (int j = i + 1; j < items.length; j++) {
+                if (Math.abs(dist[i] - dist[j]) > radius) {
+                    continue;
+                }
+                if (dist[i] + dist[j] <= radius) {
+                    emit(items[i], items[j], PairSink.UNKNOWN_DISTANCE);
+                    continue;
+                }
+                double d = distance(items[i], items[j]);
+                if (d <= radius) {
+                    emit(items[i], items[j], d);
+                }
+            }
+        }
+    }
+
+    private void leafCrossJoin(Ball left, Ball right, double centerDistance) {
+        for (int i = 0; i < left.items.length; i++) {
+            double da = left.itemDistances[i];
+            if (centerDistance - da - right.radius > radius) {
+                continue;
+            }
+            for (int j = 0; j < right.items.length; j++) {
+                double db = right.itemDistances[j];
+                if (centerDistance - da - db > radius) {
+                    continue;
+                }
+                if (centerDistance + da + db <= radius) {
+                    emit(left.items[i], right.items[j], PairSink.UNKNOWN_DISTANCE);
+                    continue;
+                }
+                double d = distance(left.items[i], right.items[j]);
+                if (d <= radius) {
+                    emit(left.items[i], right.items[j], d);
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出子树内的所有无序对象对（不计算距离）
+     */
+    private void emitAll(Ball node) {
+        List<MetricSpaceData> items = new ArrayList<>();
+        collect(node, items);
+        for (int i = 0; i < items.size(); i++) {
+            for (int j = i + 1; j < items.size(); j++) {
+                emit(items.get(i), items.get(j), PairSink.UNKNOWN_DISTANCE);
+            }
+        }
+    }
+
+    /**
+     * 输出两棵子树之间的所有对象对（不计算距离）
+     */
+    private void emitAll(Ball left, Ball right) {
+        List<MetricSpaceData> leftItems = new ArrayList<>();
+        List<MetricSpaceData> rightItems = new ArrayList<>();
+        collect(left, leftItems);
+        collect(right, rightItems);
+        for (MetricSpaceData a : leftItems) {
+            for (MetricSpaceData b : rightItems) {
+                emit(a, b, PairSink.UNKNOWN_DISTANCE);
+            }
+        }
+    }
+
+    private static void collect(Ball node, List<MetricSpaceData> items) {
+        Ball[] stack = new Ball[INITIAL_CAPACITY];
+        int size = 0;
+        stack[size++] = node;
+        while (size > 0) {
+            Ball current = stack[--size];
+            stack[size] = null;
+            if (current.isLeaf()) {
+                for (MetricSpaceData item : current.items) {
+                    items.add(item);
+                }
+                continue;
+            }
+            Ball[] children = current.children;
+            if (size + children.length > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + children.length));
+            }
+            for (int c = children.length - 1; c >= 0; c--) {
+                stack[size++] = children[c];
+            }
+        }
+    }
+
+    private boolean isLarge(Ball a, Ball b) {
+        return a.size * b.size >= PARALLEL_PAIRS && ForkJoinTask.inForkJoinPool();
+    }
+
+    private void emit(MetricSpaceData a, MetricSpaceData b, double distance) {
+        pairs.increment();
+        sink.accept(a.getDataId(), b.getDataId(), distance);
+    }
+
+    private double distance(MetricSpaceData a, MetricSpaceData b) {
+        distanceComputations.increment();
+        return metric.getDistance(a, b);
+    }
+
+    private double coverDistance(MetricSpaceData a, MetricSpaceData b) {
+        coverDistanceComputations.increment();
+        return distance(a, b);
+    }
+
+    long getPairs() {
+        return pairs.sum();
+    }
+
+    long getDistanceComputations() {
+        return distanceComputations.sum();
+    }
+
+    long getCoverDistanceComputations() {
+        return coverDistanceComputations.sum();
+    }
+}
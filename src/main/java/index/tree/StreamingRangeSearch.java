@@ -0,0 +1,72 @@
+package index.tree;
+
+import core.MetricSpaceData;
+import index.tree.common.QueryContext;
+import index.tree.common.RangeVisitor;
+
+import java.util.List;
+
+/**
+ * 树的流式范围查询、计数与结果数上限
+ *
+ * 执行 {@link TreeIndex#rangeQuery(MetricSpaceData, double, RangeVisitor)}、
+ * {@link TreeIndex#rangeCount(MetricSpaceData, double)} 以及它们带limit的版本：
+ * 查询上下文按回调、只计数或结果数上限配置好后，仍由 {@link TreeIndex#search} 遍历，
+ * 达到上限时上下文进入停止状态，遍历立即结束；整棵落在查询球内的子树在只计数时
+ * 直接加上子树大小（见 {@link TreeIndex#addSubtree}）。limit为 Long.MAX_VALUE 表示不限。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class StreamingRangeSearch {
+
+    /** 被查询的树 */
+    private final TreeIndex tree;
+
+    StreamingRangeSearch(TreeIndex tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * 收集结果的范围查询，找到limit个结果后结束
+     */
+    List<MetricSpaceData> collect(MetricSpaceData queryObject, double radius, long limit) {
+        QueryContext context = tree.newRangeContext(queryObject, radius).limit(limit);
+        run(context);
+        return context.getResults();
+    }
+
+    /**
+     * 把结果交给回调的范围查询，回调limit次后结束
+     */
+    long stream(MetricSpaceData queryObject, double radius, RangeVisitor visitor, long limit) {
+        return run(tree.newRangeContext(queryObject, radius).stream(visitor).limit(limit));
+    }
+
+    /**
+     * 只计数的范围查询，数到limit即结束
+     */
+    long count(MetricSpaceData queryObject, double radius, long limit) {
+        return run(tree.newRangeContext(queryObject, radius).countOnly().limit(limit));
+    }
+
+    private long run(QueryContext context) {
+        if (tree.config.isVerbose()) {
+            System.out.println("\n" + "-".repeat(50));
+            System.out.println(tree.getIndexName() + " 范围查询"
+                    + (context.isCountOnly() ? "（只计数）" : ""));
+            System.out.println("-".repeat(50));
+            System.out.println("查询对象: " + context.getQueryObject());
+            System.out.println("查询半径: " + context.getRadius());
+        }
+        try {
+            if (tree.root != null) {
+                tree.search(context);
+            }
+            tree.recordQuery(context);
+            return context.getResultCount();
+        } finally {
+            context.release();
+        }
+    }
+}
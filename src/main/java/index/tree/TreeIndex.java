@@ -2,13 +2,35 @@ package index.tree;
 
 import core.MetricSpaceData;
 import core.MetricFunction;
-import index.Index;
+import index.BatchExecutor;
+import index.BatchQueryResult;
+import index.BoundedKnnIndex;
+import index.tree.common.MultiPivotSelector;
+import index.tree.common.NeighborSink;
+import index.tree.common.PairSink;
+import index.tree.common.QueryContext;
+import index.tree.common.QueryStatistics;
+import index.tree.common.RangeVisitor;
 import index.tree.common.TreeConfig;
 import index.tree.common.TreeHeightController;
+import query.ApproximateKNNQuery;
+import query.DistanceDistribution;
+import query.KNNResult;
+import query.SharedKnnBound;
+
+import java.io.File;
+import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
 
 /**
  * 树状索引抽象基类
@@ -16,10 +38,26 @@ import java.util.Random;
  * 定义了树状索引的公共结构和方法，是GH树和VP树的父类。
  * 提供了树的构建、统计信息收集、可视化等公共功能。
  *
+ * 构建后可以用 {@link #insert} 和 {@link #delete} 动态更新，不必整体重建：
+ * 插入沿划分规则下降并扩展路径上的边界；删除只做墓碑标记，查询时跳过。
+ * 叶子溢出、子树失衡或已删除对象过多时，只重建该子树（替罪羊树方式）。
+ * 更新的状态和过程在 {@link TreeUpdater} 中，树只提供子树的构建。
+ *
+ * 线程安全：构建好的树可以被多个线程同时查询，但更新是单写者的——同一时刻只能有一个线程调用
+ * insert/delete（包括其中触发的局部重建），且更新期间不能有任何查询在执行，
+ * 包括挂起的 {@link TreeTraversal} 和未用完的 {@link NearestNeighborIterator}。
+ * 树本身不加锁；需要边更新边查询时由调用方在外面加读写锁，或者查询 {@link #freeze()} 得到的只读副本。
+ *
  * @author Jixiang Ding
  * @version 1.0
  */
-public abstract class TreeIndex implements Index {
+public abstract class TreeIndex implements BoundedKnnIndex {
+
+    /** 分组批量查询的默认组大小 */
+    public static final int DEFAULT_QUERY_GROUP_SIZE = 64;
+
+    /** 分组批量查询每个窗口的组数（同一时刻只有一个窗口的查询上下文存在） */
+    private static final int GROUP_WINDOW = 256;
 
     /** 根节点 */
     protected TreeNode root;
@@ -30,7 +68,7 @@ public abstract class TreeIndex implements Index {
     /** 距离函数 */
     protected MetricFunction metric;
 
-    /** 原始数据集 */
+    /** 构建时数据集的快照（不随调用方之后对列表的修改而变化） */
     protected List<? extends MetricSpaceData> dataset;
 
     /** 树高控制器 */
@@ -41,14 +79,11 @@ public abstract class TreeIndex implements Index {
 
     // ========== 统计信息 ==========
 
-    /** 构建时的距离计算次数 */
-    protected int buildDistanceComputations = 0;
-
-    /** 查询时的距离计算次数 */
-    protected int queryDistanceComputations = 0;
+    /** 构建时的距离计算次数（并行构建时多个线程同时累加） */
+    protected final LongAdder buildDistanceComputations = new LongAdder();
 
-    /** 查询时的节点访问次数 */
-    protected int nodeAccesses = 0;
+    /** 查询统计（多个查询线程同时汇总，每次查询的计数保存在各自的QueryContext中） */
+    protected final QueryStatistics queryStatistics = new QueryStatistics();
 
     /** 树高度 */
     protected int treeHeight = 0;
@@ -65,6 +100,40 @@ public abstract class TreeIndex implements Index {
     /** 构建时间（毫秒） */
     protected long buildTimeMs = 0;
 
+    // ========== 路径距离表（仅构建期间使用） ==========
+
+    /** 单个数组的最大长度（部分JVM保留数组头，留出余量） */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /** 每个对象一行（按构建数据中的位置），保存到祖先支撑点的距离；按深度循环使用 h+1 组槽位 */
+    private float[] pathTable;
+
+    // ========== 共享支撑点（GLOBAL/MIX模式） ==========
+
+    /** MIX模式下评价候选支撑点时从节点数据中抽取的样本数 */
+    private static final int MIX_SAMPLE_SIZE = 32;
+
+    /** 共享支撑点集合（LOCAL模式下为空） */
+    private List<MetricSpaceData> sharedPivots = Collections.emptyList();
+
+    // ========== 动态更新 ==========
+
+    /** 插入、删除与局部重建 */
+    private final TreeUpdater updater = new TreeUpdater(this);
+
+    /** 树结构统计是否需要重新计算 */
+    private boolean statisticsStale;
+
+    // ========== 近似查询 ==========
+
+    /** 近似kNN查询与概率停止所需的距离分布 */
+    private final ApproximateSearch approximateSearch = new ApproximateSearch(this);
+
+    // ========== 流式范围查询 ==========
+
+    /** 带结果数上限、回调和只计数的范围查询 */
+    private final StreamingRangeSearch streamingSearch = new StreamingRangeSearch(this);
+
     /**
      * 构造函数
      *
@@ -100,22 +169,43 @@ public abstract class TreeIndex implements Index {
         if (metric == null) {
             throw new IllegalArgumentException("距离函数不能为空");
         }
+        if (config.getHierarchicalPivotMode() != TreeConfig.HierarchicalPivotMode.LOCAL
+                && config.getSharedPivotCount() < getPivotsPerNode()) {
+            throw new IllegalArgumentException(String.format(
+                    "共享支撑点数(%d)不能少于每个节点的支撑点数(%d)", config.getSharedPivotCount(),
+                    getPivotsPerNode()));
+        }
 
-        this.dataset = dataset;
+        this.dataset = Collections.unmodifiableList(new ArrayList<>(dataset));
         this.metric = metric;
-        this.buildDistanceComputations = 0;
+        this.buildDistanceComputations.reset();
+        this.updater.reset(this.dataset.size());
+        this.approximateSearch.reset();
 
         if (config.isVerbose()) {
             System.out.println("\n" + "=".repeat(60));
             System.out.println("开始构建 " + getIndexName());
             System.out.println("=".repeat(60));
-            System.out.println("数据集大小: " + dataset.size());
+            System.out.println("数据集大小: " + this.dataset.size());
             System.out.println("配置: " + config);
         }
 
-        // 构建树
+        // 构建树（并行模式下在ForkJoin线程池中执行，子树按阈值拆分为独立任务）；
+        // 之后只读快照，调用方在构建期间修改自己的列表不影响构建
         long startTime = System.currentTimeMillis();
-        this.root = buildTreeRecursive(new ArrayList<>(dataset), 0);
+        this.sharedPivots = selectSharedPivotSet(this.dataset);
+        BuildSlice data = BuildSlice.over(this.dataset, getPivotsPerNode());
+        preparePathTable(data.size());
+        try {
+            if (config.isParallelBuild()) {
+                this.root = ForkJoinPool.commonPool().invoke(
+                        ForkJoinTask.adapt(() -> buildTreeRecursive(data, 0, random)));
+            } else {
+                this.root = buildTreeRecursive(data, 0, random);
+            }
+        } finally {
+            pathTable = null;
+        }
         this.buildTimeMs = System.currentTimeMillis() - startTime;
 
         // 计算统计信息
@@ -137,21 +227,1166 @@ public abstract class TreeIndex implements Index {
     /**
      * 递归构建树（由子类实现）
      *
+     * 子类在data内原地划分（选择、交换、按键分组），子节点的数据是data的子片段，
+     * 不需要为每个节点创建新的列表。
+     *
      * @param data 当前节点的数据
      * @param depth 当前深度
+     * @param rnd 当前子树专用的随机数生成器（由父节点派生，保证并行构建结果可重复）
      * @return 构建的树节点
      */
-    protected abstract TreeNode buildTreeRecursive(List<MetricSpaceData> data, int depth);
+    protected abstract TreeNode buildTreeRecursive(BuildSlice data, int depth, Random rnd);
+
+    /**
+     * 构建一组子树
+     *
+     * 每个子树先按顺序从rnd派生出自己的随机数生成器，因此串行和并行构建得到完全相同的树。
+     * 并行模式下，数据量不小于并行阈值的子树作为ForkJoin任务异步构建，其余子树在当前线程构建。
+     * 启用路径距离表时，先按各片段的路径距离计算子树的距离范围（{@link PathRings}），
+     * 再构建子树（子树会覆盖路径距离表中较浅层的槽位）。
+     *
+     * @param partitions 各子节点的数据，null或空片段表示该子节点为空
+     * @param depth 子节点深度
+     * @param rnd 当前节点的随机数生成器
+     * @return 子树列表（与partitions一一对应，空子节点为null）
+     */
+    protected List<TreeNode> buildChildren(List<BuildSlice> partitions, int depth, Random rnd) {
+        int numChildren = partitions.size();
+        Random[] childRandoms = new Random[numChildren];
+        for (int i = 0; i < numChildren; i++) {
+            childRandoms[i] = new Random(rnd.nextLong());
+        }
+
+        PathRings[] rings = new PathRings[numChildren];
+        for (int i = 0; i < numChildren; i++) {
+            BuildSlice part = partitions.get(i);
+            if (part != null && !part.isEmpty()) {
+                rings[i] = computePathRings(part, depth);
+            }
+        }
+
+        TreeNode[] children = new TreeNode[numChildren];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        boolean parallel = config.isParallelBuild() && ForkJoinTask.inForkJoinPool();
+
+        for (int i = 0; i < numChildren; i++) {
+            BuildSlice part = partitions.get(i);
+            if (part == null || part.isEmpty()) {
+                continue;
+            }
+            if (parallel && part.size() >= config.getParallelThreshold()) {
+                final int idx = i;
+                tasks.add(ForkJoinTask.adapt(
+                        () -> children[idx] = buildTreeRecursive(part, depth, childRandoms[idx]))
+                        .fork());
+            }
+        }
+
+        for (int i = 0; i < numChildren; i++) {
+            BuildSlice part = partitions.get(i);
+            if (part == null || part.isEmpty()) {
+                continue;
+            }
+            if (!(parallel && part.size() >= config.getParallelThreshold())) {
+                children[i] = buildTreeRecursive(part, depth, childRandoms[i]);
+            }
+        }
+
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+
+        List<TreeNode> result = new ArrayList<>(numChildren);
+        for (int i = 0; i < numChildren; i++) {
+            setPathRings(children[i], rings[i]);
+            result.add(children[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 每个内部节点的支撑点数（路径距离表中每层的列数），默认1个
+     *
+     * @return 支撑点数
+     */
+    protected int getPivotsPerNode() {
+        return 1;
+    }
+
+    /**
+     * GLOBAL/MIX模式下从整个数据集中用最远优先遍历选出共享支撑点集合
+     *
+     * @param data 数据集
+     * @return 共享支撑点集合（LOCAL模式下为空）
+     */
+    private List<MetricSpaceData> selectSharedPivotSet(List<? extends MetricSpaceData> data) {
+        if (config.getHierarchicalPivotMode() == TreeConfig.HierarchicalPivotMode.LOCAL) {
+            return Collections.emptyList();
+        }
+        MultiPivotSelector selector =
+                new MultiPivotSelector(MultiPivotSelector.SelectionStrategy.FFT);
+        List<MetricSpaceData> pivots = selector.selectPivots(data, metric,
+                config.getSharedPivotCount(), new Random(random.nextLong()));
+        buildDistanceComputations.add(selector.getDistanceComputations());
+        if (config.isVerbose()) {
+            System.out.printf("共享支撑点 (%s): %d 个%n", config.getHierarchicalPivotMode(),
+                    pivots.size());
+        }
+        return Collections.unmodifiableList(new ArrayList<>(pivots));
+    }
+
+    /**
+     * 是否使用共享支撑点（GLOBAL或MIX模式）
+     *
+     * 使用共享支撑点时，子类不从节点数据中取出支撑点，而是用 {@link #selectSharedPivots}
+     * 选出支撑点序号，划分全部数据，并用 {@link #withPivotOrdinals} 把序号记录到节点中。
+     *
+     * @return 使用共享支撑点时返回true
+     */
+    protected boolean usesSharedPivots() {
+        return !sharedPivots.isEmpty();
+    }
+
+    /**
+     * 为内部节点选择共享支撑点
+     *
+     * GLOBAL模式：深度为depth的节点使用第 depth*count+j 个共享支撑点（对共享支撑点数取模），
+     * 同一层的节点共用相同的支撑点，不计算距离。
+     * MIX模式：从节点数据中抽取一份样本作为评价集（所有候选共用），选出到样本的距离方差最大的count个候选
+     * （与祖先重复的支撑点在子树中距离集中，方差小，自然不会被选中）。
+     *
+     * @param data 节点数据
+     * @param depth 节点深度
+     * @param count 需要的支撑点数
+     * @param rnd 当前子树的随机数生成器
+     * @return 支撑点在共享支撑点集合中的序号
+     */
+    protected int[] selectSharedPivots(BuildSlice data, int depth, int count, Random rnd) {
+        int numShared = sharedPivots.size();
+        int[] ordinals = new int[count];
+        if (config.getHierarchicalPivotMode() == TreeConfig.HierarchicalPivotMode.GLOBAL) {
+            for (int j = 0; j < count; j++) {
+                ordinals[j] = (int) (((long) depth * count + j) % numShared);
+            }
+            return ordinals;
+        }
+
+        // 整个节点只抽一次样本，所有候选在同一评价集上比较方差
+        int sampleSize = Math.min(MIX_SAMPLE_SIZE, data.size());
+        MetricSpaceData[] sample = new MetricSpaceData[sampleSize];
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = sampleSize == data.size() ? data.get(i)
+                    : data.get(rnd.nextInt(data.size()));
+        }
+        double[] variance = new double[numShared];
+        for (int c = 0; c < numShared; c++) {
+            MetricSpaceData candidate = sharedPivots.get(c);
+            double sum = 0;
+            double sumSquares = 0;
+            for (MetricSpaceData obj : sample) {
+                double d = metric.getDistance(obj, candidate);
+                sum += d;
+                sumSquares += d * d;
+            }
+            double mean = sum / sampleSize;
+            variance[c] = sumSquares / sampleSize - mean * mean;
+        }
+        buildDistanceComputations.add((long) numShared * sampleSize);
+
+        // 按方差从大到小取count个（候选不足时循环使用）
+        boolean[] taken = new boolean[numShared];
+        for (int j = 0; j < count; j++) {
+            int best = -1;
+            for (int c = 0; c < numShared; c++) {
+                if (!taken[c] && (best < 0 || variance[c] > variance[best])) {
+                    best = c;
+                }
+            }
+            if (best < 0) {
+                ordinals[j] = ordinals[j - numShared];
+                continue;
+            }
+            taken[best] = true;
+            ordinals[j] = best;
+        }
+        return ordinals;
+    }
+
+    /**
+     * 获取共享支撑点
+     *
+     * @param ordinal 共享支撑点序号
+     * @return 支撑点
+     */
+    protected MetricSpaceData getSharedPivot(int ordinal) {
+        return sharedPivots.get(ordinal);
+    }
+
+    /**
+     * 获取一组共享支撑点
+     *
+     * @param ordinals 共享支撑点序号
+     * @return 支撑点列表
+     */
+    protected List<MetricSpaceData> getSharedPivots(int[] ordinals) {
+        List<MetricSpaceData> pivots = new ArrayList<>(ordinals.length);
+        for (int ordinal : ordinals) {
+            pivots.add(sharedPivots.get(ordinal));
+        }
+        return pivots;
+    }
+
+    /**
+     * 把共享支撑点序号记录到新建的内部节点中
+     *
+     * @param node 内部节点
+     * @param ordinals 共享支撑点序号（为null表示节点使用自己的支撑点）
+     * @return 同一个节点
+     */
+    protected <N extends InternalNode> N withPivotOrdinals(N node, int[] ordinals) {
+        if (ordinals != null) {
+            node.setPivotOrdinals(ordinals);
+        }
+        return node;
+    }
+
+    /**
+     * 判断共享支撑点的划分是否没有进展
+     *
+     * 共享支撑点不从数据中取出，若所有对象都落在同一个子节点，继续划分不会缩小数据，
+     * 调用方应改为创建叶子节点。
+     *
+     * @param partitions 各子节点的数据
+     * @param size 节点的对象数
+     * @return 某个子节点得到了全部对象时返回true
+     */
+    protected static boolean isDegenerate(List<BuildSlice> partitions, int size) {
+        for (BuildSlice part : partitions) {
+            if (part != null && part.size() == size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取共享支撑点集合（LOCAL模式下为空）
+     *
+     * @return 共享支撑点集合（只读）
+     */
+    public List<MetricSpaceData> getSharedPivots() {
+        return sharedPivots;
+    }
+
+    /**
+     * 生成支撑点列表的描述（详细模式输出用），如 "p1=..., p2=..."
+     *
+     * @param pivots 支撑点列表
+     * @return 描述字符串
+     */
+    protected static String describePivots(List<MetricSpaceData> pivots) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pivots.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('p').append(i + 1).append('=').append(pivots.get(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 为路径距离表分配构建期间的临时表
+     *
+     * @param rows 构建数据的对象数（每个对象一行）
+     * @throws IllegalArgumentException 表的长度超过单个数组的上限时
+     */
+    private void preparePathTable(int rows) {
+        int levels = config.getPathPivotLevels();
+        if (levels <= 0) {
+            return;
+        }
+        long width = (long) (levels + 1) * getPivotsPerNode();
+        long length = rows * width;
+        if (length > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "路径距离表过大: %d个对象 x %d个槽位 = %d项，超过单个数组的上限%d，"
+                            + "请减少路径支撑点层数或把数据分片",
+                    rows, width, length, MAX_ARRAY_LENGTH));
+        }
+        this.pathTable = new float[(int) length];
+    }
+
+    /**
+     * 记录一个对象到某层支撑点的距离（子类在划分数据时调用）
+     *
+     * 未启用路径距离表时不做任何事。同一对象只会出现在一棵子树中，
+     * 因此并行构建时不同线程写入的是不同的行。
+     *
+     * @param row 对象的行号（{@link BuildSlice#rowOf(int)}）
+     * @param depth 支撑点所在节点的深度
+     * @param pivotIndex 支撑点在节点中的序号
+     * @param distance 对象到支撑点的距离
+     */
+    protected void recordPathDistance(int row, int depth, int pivotIndex, double distance) {
+        if (pathTable == null) {
+            return;
+        }
+        int pivots = getPivotsPerNode();
+        int slots = config.getPathPivotLevels() + 1;
+        int offset = row * slots * pivots + (depth % slots) * pivots + pivotIndex;
+        pathTable[offset] = (float) distance;
+    }
+
+    /**
+     * 按片段中各对象的路径距离计算子树到最近h层祖先支撑点的距离范围
+     *
+     * 须在构建子树之前调用：此时路径距离表中第depth-h层到第depth-1层的槽位都是这些对象的距离。
+     *
+     * @param data 子树的数据
+     * @param depth 子树根的深度
+     * @return 距离范围，未启用路径距离表或depth为0时返回null
+     */
+    private PathRings computePathRings(BuildSlice data, int depth) {
+        if (pathTable == null || depth == 0) {
+            return null;
+        }
+        int pivots = getPivotsPerNode();
+        int slots = config.getPathPivotLevels() + 1;
+        int firstLevel = Math.max(0, depth - config.getPathPivotLevels());
+        int levels = depth - firstLevel;
+        PathRings rings = new PathRings(firstLevel, levels, pivots);
+        for (int i = 0; i < data.size(); i++) {
+            int row = data.rowOf(i) * slots * pivots;
+            for (int l = 0; l < levels; l++) {
+                int level = firstLevel + l;
+                rings.include(level, pathTable, row + (level % slots) * pivots);
+            }
+        }
+        return rings;
+    }
+
+    /**
+     * 获取节点保存的距离范围（没有时返回null）
+     */
+    static PathRings getPathRings(TreeNode node) {
+        if (node.isLeaf()) {
+            return ((LeafNode) node).getPathRings();
+        }
+        return node instanceof InternalNode ? ((InternalNode) node).getPathRings() : null;
+    }
+
+    private static void setPathRings(TreeNode node, PathRings rings) {
+        if (node == null || rings == null) {
+            return;
+        }
+        if (node.isLeaf()) {
+            ((LeafNode) node).setPathRings(rings);
+        } else {
+            ((InternalNode) node).setPathRings(rings);
+        }
+    }
+
+    /**
+     * 创建叶子节点
+     *
+     * 启用路径距离表时，把叶子中每个对象到最近h层祖先支撑点的距离复制到叶子里。
+     * 循环槽位有h+1组，所以当前层（强制叶子可能已经记录了本层距离）不会覆盖第depth-h层。
+     *
+     * @param data 叶子数据
+     * @param depth 叶子深度
+     * @return 叶子节点
+     */
+    protected LeafNode createLeaf(BuildSlice data, int depth) {
+        LeafNode leaf = new LeafNode(data, depth);
+        if (pathTable == null || depth == 0) {
+            return leaf;
+        }
+        int pivots = getPivotsPerNode();
+        int slots = config.getPathPivotLevels() + 1;
+        int firstLevel = Math.max(0, depth - config.getPathPivotLevels());
+        int levels = depth - firstLevel;
+        float[] distances = new float[data.size() * levels * pivots];
+        for (int i = 0; i < data.size(); i++) {
+            int row = data.rowOf(i) * slots * pivots;
+            for (int l = 0; l < levels; l++) {
+                System.arraycopy(pathTable, row + ((firstLevel + l) % slots) * pivots,
+                        distances, (i * levels + l) * pivots, pivots);
+            }
+        }
+        leaf.setPathDistances(distances, firstLevel, pivots);
+        return leaf;
+    }
+
+    /**
+     * 扫描叶子节点：先用路径距离表过滤，再计算剩余对象的距离
+     *
+     * 调用前，查询对象到每层祖先支撑点的距离须已写入 context.getScratch(深度, 支撑点数)。
+     *
+     * @param leaf 叶子节点
+     * @param context 查询上下文
+     */
+    protected void scanLeaf(LeafNode leaf, QueryContext context) {
+        List<MetricSpaceData> data = leaf.getData();
+        boolean filter = leaf.hasPathDistances();
+        for (int i = 0; i < data.size(); i++) {
+            if (filter && leaf.isPathPruned(i, context)) {
+                continue;
+            }
+            if (context.isStopped()) {
+                return;
+            }
+            MetricSpaceData obj = data.get(i);
+            if (context.isDeleted(obj)) {
+                continue;
+            }
+            context.offer(obj, context.distanceTo(obj));
+        }
+    }
+
+    /**
+     * 创建范围查询上下文（跳过已删除的对象）
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @return 查询上下文
+     */
+    protected QueryContext newRangeContext(MetricSpaceData queryObject, double radius) {
+        return QueryContext.forRange(queryObject, radius, metric).exclude(updater.getTombstoneSet())
+                .memoize(sharedPivots.size());
+    }
+
+    /**
+     * 创建kNN查询上下文（跳过已删除的对象）
+     *
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @return 查询上下文
+     */
+    protected QueryContext newKnnContext(MetricSpaceData queryObject, int k) {
+        return QueryContext.forKnn(queryObject, k, metric).exclude(updater.getTombstoneSet())
+                .memoize(sharedPivots.size());
+    }
+
+    /**
+     * 结束一次查询：汇总统计并在详细模式下打印本次查询的计数
+     *
+     * @param context 已完成的查询上下文
+     * @return 查询结果
+     */
+    protected List<MetricSpaceData> finishQuery(QueryContext context) {
+        recordQuery(context);
+        List<MetricSpaceData> results = context.getResults();
+        context.release();
+        return results;
+    }
+
+    /**
+     * 在查询上下文上从根节点执行查询并结束查询
+     *
+     * 查询中途抛出异常时同样归还上下文借用的缓冲区。
+     *
+     * @param context 新建的查询上下文
+     * @return 查询结果
+     */
+    protected List<MetricSpaceData> executeQuery(QueryContext context) {
+        try {
+            if (root != null) {
+                search(context);
+            }
+            return finishQuery(context);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 汇总一次查询的统计，并在详细模式下打印本次查询的计数
+     */
+    void recordQuery(QueryContext context) {
+        queryStatistics.record(context);
+
+        if (config.isVerbose()) {
+            System.out.println("查询结果数量: " + context.getResultCount());
+            System.out.println("距离计算次数: " + context.getDistanceComputations());
+            System.out.println("节点访问次数: " + context.getNodeAccesses());
+            System.out.println("-".repeat(50));
+        }
+    }
+
+    // ========== 流式范围查询与计数 ==========
+
+    /**
+     * 范围查询，最多返回limit个结果（找到limit个结果后立即结束遍历）
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @param limit 结果数上限（> 0）
+     * @return 查询结果（按访问顺序，不一定是最近的limit个）
+     */
+    public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius,
+            long limit) {
+        return streamingSearch.collect(queryObject, radius, limit);
+    }
+
+    /**
+     * 流式范围查询：每找到一个结果就回调一次，不收集结果列表
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @param visitor 结果回调（整棵子树在查询球内时距离为 {@link RangeVisitor#UNKNOWN_DISTANCE}）
+     * @return 结果数
+     */
+    public long rangeQuery(MetricSpaceData queryObject, double radius, RangeVisitor visitor) {
+        return streamingSearch.stream(queryObject, radius, visitor, Long.MAX_VALUE);
+    }
+
+    /**
+     * 流式范围查询，回调limit次后立即结束遍历
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @param visitor 结果回调
+     * @param limit 结果数上限（> 0）
+     * @return 结果数（不超过limit）
+     */
+    public long rangeQuery(MetricSpaceData queryObject, double radius, RangeVisitor visitor,
+            long limit) {
+        return streamingSearch.stream(queryObject, radius, visitor, limit);
+    }
+
+    /**
+     * 统计查询球内的对象数
+     *
+     * 整棵落在查询球内的子树直接加上缓存的子树大小（扣除其中的已删除对象），不访问子树。
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @return 结果数
+     */
+    public long rangeCount(MetricSpaceData queryObject, double radius) {
+        return streamingSearch.count(queryObject, radius, Long.MAX_VALUE);
+    }
+
+    /**
+     * 统计查询球内的对象数，数到limit即结束（例如limit=1用于判断是否存在）
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @param limit 计数上限（> 0）
+     * @return min(结果数, limit)
+     */
+    public long rangeCount(MetricSpaceData queryObject, double radius, long limit) {
+        return streamingSearch.count(queryObject, radius, limit);
+    }
+
+    /**
+     * 在查询上下文上从根节点执行范围查询或kNN查询
+     *
+     * 用显式栈深度优先遍历（见 {@link TreeTraversal}），剪枝只依赖内部节点的
+     * {@link InternalNode#getChildLowerBound} 和 {@link InternalNode#isChildContained}，
+     * 各种树共用；查询停止（结果数达到上限或近似查询预算耗尽）时立即结束。
+     *
+     * @param context 查询上下文（根节点非空）
+     */
+    protected void search(QueryContext context) {
+        new TreeTraversal(this, context, root, false).run();
+    }
+
+    // ========== 可挂起的遍历 ==========
+
+    /**
+     * 创建可挂起的范围查询遍历
+     *
+     * 调用方用 {@link TreeTraversal#advance(long)} 分批推进（例如每批之间检查是否取消），
+     * 最后用 {@link TreeTraversal#finish()} 取出结果。遍历不借用线程的缓冲区，可以在任意时刻放弃。
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @return 尚未开始的遍历
+     */
+    public TreeTraversal rangeTraversal(MetricSpaceData queryObject, double radius) {
+        return traversal(QueryContext.forDetachedRange(queryObject, radius, metric));
+    }
+
+    /**
+     * 创建可挂起的流式范围查询遍历：每推进一批，这一批找到的结果就交给回调
+     *
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @param visitor 结果回调（整棵子树在查询球内时距离为 {@link RangeVisitor#UNKNOWN_DISTANCE}）
+     * @return 尚未开始的遍历
+     */
+    public TreeTraversal rangeTraversal(MetricSpaceData queryObject, double radius,
+            RangeVisitor visitor) {
+        return traversal(
+                QueryContext.forDetachedRange(queryObject, radius, metric).stream(visitor));
+    }
+
+    /**
+     * 创建可挂起的kNN查询遍历（提前结束时返回已访问部分中最近的k个对象）
+     *
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @return 尚未开始的遍历
+     * @throws IllegalArgumentException k <= 0 时
+     */
+    public TreeTraversal knnTraversal(MetricSpaceData queryObject, int k) {
+        return traversal(QueryContext.forDetachedKnn(queryObject, k, metric));
+    }
+
+    private TreeTraversal traversal(QueryContext context) {
+        context.exclude(updater.getTombstoneSet()).memoize(sharedPivots.size());
+        return new TreeTraversal(this, context, root, false);
+    }
+
+    /**
+     * 把整棵落在查询球内的子树加入结果（不计算距离）
+     *
+     * 只计数时直接加上子树中的存活对象数（缓存的子树大小减去已删除对象数），不访问子树；
+     * 否则用显式栈遍历子树，把叶子中的对象和不在子树中的支撑点依次加入结果。
+     *
+     * @param node 子树根节点（可以为null）
+     * @param context 范围查询上下文
+     */
+    protected void addSubtree(TreeNode node, QueryContext context) {
+        if (node == null || context.isStopped()) {
+            return;
+        }
+        if (context.isCountOnly()) {
+            context.addCount(node.size() - TreeUpdater.getTombstones(node));
+            return;
+        }
+        new TreeTraversal(this, context, node, true).run();
+    }
+
+    // ========== 多查询共享遍历 ==========
+
+    /**
+     * 分组批量范围查询（默认组大小，默认ForkJoin执行器）
+     *
+     * @param queries 查询对象列表
+     * @param radius 查询半径
+     * @return 每个查询的结果及汇总统计
+     */
+    public BatchQueryResult groupRangeQuery(List<? extends MetricSpaceData> queries,
+            double radius) {
+        return groupRangeQuery(queries, radius, DEFAULT_QUERY_GROUP_SIZE,
+                BatchExecutor.forkJoin());
+    }
+
+    /**
+     * 分组批量范围查询
+     *
+     * 与 {@link #batchRangeQuery} 结果相同，但每组查询只遍历一次树（见 {@link GroupTraversal}）：
+     * 查询按顺序分成若干窗口（每个窗口最多 256 * groupSize 个查询），窗口内先为全部查询计算根节点的
+     * 支撑点距离，按到第一个支撑点的距离排序后每groupSize个分为一组，各组在执行器上并行遍历。
+     * 同一时刻只有一个窗口的查询上下文存在，查询很多时也不会一次创建全部上下文。
+     *
+     * @param queries 查询对象列表
+     * @param radius 查询半径
+     * @param groupSize 每组的查询数
+     * @param executor 执行器
+     * @return 每个查询的结果及汇总统计
+     */
+    public BatchQueryResult groupRangeQuery(List<? extends MetricSpaceData> queries,
+            double radius, int groupSize, BatchExecutor executor) {
+        return runGroups(queries.size(), i -> newRangeContext(queries.get(i), radius), groupSize,
+                executor);
+    }
+
+    /**
+     * 分组批量k近邻查询（默认组大小，默认ForkJoin执行器）
+     *
+     * @param queries 查询对象列表
+     * @param k 近邻数量
+     * @return 每个查询的结果及汇总统计
+     */
+    public BatchQueryResult groupKnnQuery(List<? extends MetricSpaceData> queries, int k) {
+        return groupKnnQuery(queries, k, DEFAULT_QUERY_GROUP_SIZE, BatchExecutor.forkJoin());
+    }
+
+    /**
+     * 分组批量k近邻查询
+     *
+     * 分组方式同 {@link #groupRangeQuery(List, double, int, BatchExecutor)}，
+     * 每个查询按自己的第k近邻距离剪枝，结果与逐个查询相同。
+     *
+     * @param queries 查询对象列表
+     * @param k 近邻数量
+     * @param groupSize 每组的查询数
+     * @param executor 执行器
+     * @return 每个查询的结果及汇总统计
+     */
+    public BatchQueryResult groupKnnQuery(List<? extends MetricSpaceData> queries, int k,
+            int groupSize, BatchExecutor executor) {
+        if (k <= 0) {
+            List<List<MetricSpaceData>> empty = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                empty.add(new ArrayList<>());
+            }
+            return new BatchQueryResult(empty, 0, 0, executor.getName());
+        }
+        return runGroups(queries.size(), i -> newKnnContext(queries.get(i), k), groupSize,
+                executor);
+    }
+
+    /**
+     * 按窗口执行分组查询
+     *
+     * @param n 查询数
+     * @param newContext 为第i个查询创建上下文
+     * @param groupSize 每组的查询数
+     * @param executor 执行器
+     * @return 每个查询的结果及汇总统计
+     */
+    private BatchQueryResult runGroups(int n, IntFunction<QueryContext> newContext,
+            int groupSize, BatchExecutor executor) {
+        if (groupSize <= 0) {
+            throw new IllegalArgumentException("查询组大小必须大于0，当前值: " + groupSize);
+        }
+        long startTime = System.currentTimeMillis();
+        int numGroups = (int) ((n + (long) groupSize - 1) / groupSize);
+        int window = (int) Math.min(n, (long) GROUP_WINDOW * groupSize);
+        List<List<MetricSpaceData>> results = new ArrayList<>(n);
+        long distanceComputations = 0;
+        for (int start = 0; start < n; start += window) {
+            QueryContext[] contexts = new QueryContext[Math.min(window, n - start)];
+            try {
+                for (int i = 0; i < contexts.length; i++) {
+                    contexts[i] = newContext.apply(start + i);
+                }
+                runWindow(contexts, groupSize, executor);
+                for (QueryContext context : contexts) {
+                    queryStatistics.record(context);
+                    distanceComputations += context.getDistanceComputations();
+                    results.add(context.getResults());
+                    context.release();
+                }
+            } finally {
+                for (QueryContext context : contexts) {
+                    if (context != null) {
+                        context.release();
+                    }
+                }
+            }
+        }
+        long elapsedMs = System.currentTimeMillis() - startTime;
+
+        if (config.isVerbose()) {
+            System.out.println("\n" + "-".repeat(50));
+            System.out.println(getIndexName() + " 分组批量查询");
+            System.out.println("-".repeat(50));
+            System.out.println("查询数: " + n + ", 组数: " + numGroups);
+            System.out.println("距离计算次数: " + distanceComputations);
+            System.out.println("耗时: " + elapsedMs + " ms");
+        }
+        return new BatchQueryResult(results, distanceComputations, elapsedMs,
+                executor.getName());
+    }
+
+    /**
+     * 遍历一个窗口的查询：为全部查询进入根节点，排序后分组，各组用自己的 {@link GroupTraversal}
+     */
+    private void runWindow(QueryContext[] contexts, int groupSize, BatchExecutor executor) {
+        if (root == null) {
+            return;
+        }
+        int n = contexts.length;
+        GroupTraversal rootTraversal = new GroupTraversal(this, contexts);
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            all[i] = i;
+        }
+        rootTraversal.enter(root, all, n);
+        int[] order = rootTraversal.sortByRootDistance(root);
+        executor.map((int) ((n + (long) groupSize - 1) / groupSize), g -> {
+            int from = g * groupSize;
+            int count = Math.min(groupSize, n - from);
+            new GroupTraversal(this, contexts).proceed(root,
+                    Arrays.copyOfRange(order, from, from + count), count);
+            return null;
+        });
+    }
+
+    /**
+     * 全kNN查询：求树中每个（未删除的）对象的k个近邻，不含对象自身
+     *
+     * 按深度优先顺序列出所有对象，同一子树中的对象相邻；每groupSize个连续对象作为一组，
+     * 用 {@link GroupTraversal} 共享一次遍历（每个对象查询k+1个近邻再去掉自身），各组在执行器上并行。
+     *
+     * @param k 近邻数量
+     * @param groupSize 每组的查询数
+     * @param executor 执行器
+     * @param sink 结果回调（执行器并行时需要线程安全）
+     * @return 查询的距离计算次数
+     */
+    public long allKnnQuery(int k, int groupSize, BatchExecutor executor, NeighborSink sink) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必须大于0");
+        }
+        if (groupSize <= 0) {
+            throw new IllegalArgumentException("查询组大小必须大于0，当前值: " + groupSize);
+        }
+        if (root == null) {
+            return 0;
+        }
+        List<MetricSpaceData> objects = new ArrayList<>(updater.getLiveCount());
+        listLive(root, objects);
+        int n = objects.size();
+        int numGroups = (n + groupSize - 1) / groupSize;
+        List<Long> computations = executor.map(numGroups, g -> {
+            int from = g * groupSize;
+            int count = Math.min(groupSize, n - from);
+            QueryContext[] contexts = new QueryContext[count];
+            int[] group = new int[count];
+            for (int i = 0; i < count; i++) {
+                contexts[i] = newKnnContext(objects.get(from + i), k + 1);
+                group[i] = i;
+            }
+            try {
+                new GroupTraversal(this, contexts).visit(root, group, count);
+
+                MetricSpaceData[] neighbors = new MetricSpaceData[k + 1];
+                double[] distances = new double[k + 1];
+                long total = 0;
+                for (QueryContext context : contexts) {
+                    queryStatistics.record(context);
+                    total += context.getDistanceComputations();
+                    int size = context.drainNeighbors(neighbors, distances);
+                    context.release();
+                    // 去掉对象自身（按实例比较）；自身不在前k+1个中时（大量重复对象）只保留前k个
+                    int kept = 0;
+                    for (int j = 0; j < size && kept < k; j++) {
+                        if (neighbors[j] != context.getQueryObject()) {
+                            neighbors[kept] = neighbors[j];
+                            distances[kept] = distances[j];
+                            kept++;
+                        }
+                    }
+                    sink.accept(context.getQueryObject(), kept, neighbors, distances);
+                }
+                return total;
+            } finally {
+                for (QueryContext context : contexts) {
+                    context.release();
+                }
+            }
+        });
+        long total = 0;
+        for (long c : computations) {
+            total += c;
+        }
+        return total;
+    }
+
+    /**
+     * 按深度优先顺序列出子树中的存活对象（包括不在子树中的支撑点）
+     */
+    void listLive(TreeNode node, List<MetricSpaceData> live) {
+        updater.collectObjects(node, live, false);
+    }
+
+    // ========== 相似性连接 ==========
+
+    /**
+     * 相似性自连接：找出树中所有距离不超过radius的无序对象对（每对回调一次）
+     *
+     * 成对处理子树而不是对每个对象做一次范围查询（见 {@link SimilarityJoin}），
+     * 在ForkJoin公共线程池中并行执行，sink会在多个线程上同时被回调。
+     *
+     * @param radius 连接半径
+     * @param sink 结果回调（需要线程安全）
+     * @return 结果对数
+     */
+    public long similarityJoin(double radius, PairSink sink) {
+        SimilarityJoin join = newJoin(radius, sink);
+        if (root != null) {
+            SimilarityJoin.Ball ball = join.cover(this, root);
+            if (ball != null) {
+                ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> join.selfJoin(ball)));
+            }
+        }
+        return finishJoin(join, "自连接");
+    }
+
+    /**
+     * 相似性R–S连接：找出本树对象与另一棵树对象之间所有距离不超过radius的对
+     *
+     * 回调的左侧是本树的对象，右侧是other的对象。两棵树按本树的距离函数比较。
+     *
+     * @param other 另一棵树
+     * @param radius 连接半径
+     * @param sink 结果回调（需要线程安全）
+     * @return 结果对数
+     */
+    public long similarityJoin(TreeIndex other, double radius, PairSink sink) {
+        if (other == null) {
+            throw new IllegalArgumentException("连接的另一棵树不能为空");
+        }
+        SimilarityJoin join = newJoin(radius, sink);
+        if (root != null && other.root != null) {
+            SimilarityJoin.Ball left = join.cover(this, root);
+            SimilarityJoin.Ball right = join.cover(other, other.root);
+            if (left != null && right != null) {
+                ForkJoinPool.commonPool().invoke(
+                        ForkJoinTask.adapt(() -> join.crossJoin(left, right)));
+            }
+        }
+        return finishJoin(join, "R–S连接");
+    }
+
+    private SimilarityJoin newJoin(double radius, PairSink sink) {
+        if (!(radius >= 0)) {
+            throw new IllegalArgumentException("连接半径必须是非负数: " + radius);
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("结果回调不能为空");
+        }
+        return new SimilarityJoin(metric, radius, sink);
+    }
+
+    private long finishJoin(SimilarityJoin join, String kind) {
+        if (config.isVerbose()) {
+            System.out.println("\n" + "-".repeat(50));
+            System.out.println(getIndexName() + " 相似性" + kind);
+            System.out.println("-".repeat(50));
+            System.out.println("结果对数: " + join.getPairs());
+            System.out.println("距离计算次数: " + join.getDistanceComputations());
+            System.out.println("其中建立覆盖球: " + join.getCoverDistanceComputations());
+        }
+        return join.getPairs();
+    }
+
+    /**
+     * 近似k近邻查询
+     *
+     * 按最佳优先顺序访问节点（与 {@link #nearestNeighbors} 相同，由 {@link #expandNode} 展开），
+     * 使预算耗尽时已经检查过下界最小、最有希望的子树。剪枝半径按1+ε收缩，
+     * 并在计算预算耗尽或满足概率停止条件时立即返回当前的k个对象。
+     * 概率停止所需的距离分布在第一次使用时从存活对象中采样（采样的距离计算不计入查询统计）。
+     *
+     * @param query 近似kNN查询
+     * @return 近似的k个近邻（按距离升序）
+     */
+    public List<MetricSpaceData> knnQuery(ApproximateKNNQuery query) {
+        return approximateSearch.knnQuery(query);
+    }
+
+    /**
+     * 在共享上界下执行kNN查询（分片查询时各分片并发调用）
+     *
+     * 按最佳优先顺序遍历，剪枝半径取本地第k近邻距离和共享上界中较小的一个。
+     *
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @param bound 共享的第k近邻距离上界
+     * @return 带距离的候选列表（按距离升序）
+     */
+    @Override
+    public List<KNNResult> knnQuery(MetricSpaceData queryObject, int k, SharedKnnBound bound) {
+        if (root == null || k <= 0) {
+            return new ArrayList<>();
+        }
+        QueryContext context = newKnnContext(queryObject, k).share(bound);
+        MetricSpaceData[] neighbors = new MetricSpaceData[k];
+        double[] distances = new double[k];
+        int count;
+        try {
+            new NearestNeighborIterator(this, context, null).searchKnn();
+            recordQuery(context);
+            count = context.drainNeighbors(neighbors, distances);
+        } finally {
+            context.release();
+        }
+        List<KNNResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new KNNResult(neighbors[i], distances[i]));
+        }
+        return results;
+    }
+
+    /**
+     * 获取采样得到的距离分布（第一次调用时从存活对象中采样）
+     *
+     * 没有更新过的树直接从构建时的数据集快照采样；更新过的树先列出当前存活的对象
+     * （不含已删除的对象，包含插入的对象）。自上次采样以来的插入和删除次数超过存活对象数的一半时，
+     * 更新操作丢弃旧的分布，下次使用时重新采样。
+     *
+     * @return 距离分布
+     * @throws IllegalArgumentException 存活对象少于2个时
+     */
+    public DistanceDistribution getDistanceDistribution() {
+        return approximateSearch.getDistanceDistribution();
+    }
+
+    /**
+     * 创建增量最近邻迭代器
+     *
+     * 按距离升序逐个返回近邻（最佳优先遍历），调用方可以在任意时刻停止，
+     * 例如取到满足某个条件的近邻为止，而不必事先确定k。
+     *
+     * @param queryObject 查询对象
+     * @return 近邻迭代器
+     */
+    public NearestNeighborIterator nearestNeighbors(MetricSpaceData queryObject) {
+        return new NearestNeighborIterator(this,
+                QueryContext.forIncremental(queryObject, metric).exclude(updater.getTombstoneSet())
+                        .memoize(sharedPivots.size()),
+                queryStatistics);
+    }
+
+    /**
+     * 在最佳优先遍历中展开一个内部节点（由子类实现）
+     *
+     * 子类通过 iterator.getContext() 计算查询对象到支撑点的距离，
+     * 把不在子树中的支撑点用 addObject 加入队列，把每个子节点连同其距离下界用 addNode 加入队列。
+     * 子节点的下界应不小于nodeLowerBound。
+     *
+     * @param node 内部节点
+     * @param nodeLowerBound 该节点的距离下界
+     * @param iterator 当前的近邻迭代器
+     */
+    protected abstract void expandNode(InternalNode node, double nodeLowerBound,
+            NearestNeighborIterator iterator);
+
+    // ========== 动态插入与删除 ==========
+
+    /**
+     * 插入一个对象
+     *
+     * 从根开始按每个内部节点的划分规则选择子节点，同时扩展沿途子节点的边界，
+     * 最后追加到叶子中。之后若路径上有节点需要重建（叶子溢出或子树失衡），只重建最高的那个子树。
+     *
+     * 不是线程安全的，不能与其他更新或查询并发执行（见类说明）。
+     *
+     * @param data 数据对象（数据ID不能与现有对象重复）
+     * @throws IllegalStateException 索引尚未构建
+     * @throws IllegalArgumentException 对象为null或数据ID已存在
+     */
+    public void insert(MetricSpaceData data) {
+        updater.insert(data);
+    }
+
+    /**
+     * 按数据ID删除一个对象
+     *
+     * 对象只被标记为已删除（墓碑），仍留在树中参与剪枝，但不会再出现在查询结果里。
+     * 当某个子树中已删除对象的比例超过 tombstoneRatio 时，重建该子树回收这些对象。
+     * 先在树中定位到对象，再修改任何状态；定位失败时索引保持不变。
+     * 不是线程安全的，不能与其他更新或查询并发执行（见类说明）。
+     *
+     * @param dataId 数据ID
+     * @return 找到并删除时返回true，不存在该ID时返回false
+     * @throws IllegalStateException 索引尚未构建，或索引结构中找不到该对象（索引不变）
+     */
+    public boolean delete(int dataId) {
+        return updater.delete(dataId);
+    }
+
+    /**
+     * 对象是否已被删除（尚未回收）
+     */
+    boolean isDeleted(MetricSpaceData data) {
+        return updater.isDeleted(data);
+    }
+
+    /**
+     * 插入或删除之后调用：树结构统计需要重新计算，距离分布可能需要重新采样
+     */
+    void onUpdate() {
+        statisticsStale = true;
+        approximateSearch.discardStale();
+    }
+
+    /**
+     * 在给定深度构建一棵子树
+     *
+     * 启用路径距离表时，先补算对象到路径上祖先支撑点的距离，使新叶子同样可以用祖先支撑点过滤。
+     *
+     * @param data 子树数据
+     * @param depth 子树根的深度
+     * @param ancestors 从根到父节点的路径（第l个元素深度为l）
+     * @return 子树根，数据为空时返回null
+     */
+    TreeNode buildSubtree(List<MetricSpaceData> data, int depth,
+            List<TreeNode> ancestors) {
+        if (data.isEmpty()) {
+            return null;
+        }
+        preparePathTable(data.size());
+        try {
+            if (pathTable != null) {
+                for (int l = Math.max(0, depth - config.getPathPivotLevels()); l < depth; l++) {
+                    List<MetricSpaceData> pivots = ((InternalNode) ancestors.get(l)).getPivots();
+                    for (int i = 0; i < data.size(); i++) {
+                        for (int j = 0; j < pivots.size(); j++) {
+                            recordPathDistance(i, l, j,
+                                    metric.getDistance(data.get(i), pivots.get(j)));
+                        }
+                    }
+                    buildDistanceComputations.add((long) data.size() * pivots.size());
+                }
+            }
+            BuildSlice slice = BuildSlice.over(data, getPivotsPerNode());
+            PathRings rings = computePathRings(slice, depth);
+            TreeNode subtree = buildTreeRecursive(slice, depth, new Random(random.nextLong()));
+            setPathRings(subtree, rings);
+            return subtree;
+        } finally {
+            pathTable = null;
+        }
+    }
+
+    /**
+     * 冻结为数组布局
+     *
+     * 返回的FrozenTree与本树结构相同，但节点、边界和叶子数据都存放在连续数组中，
+     * 查询时没有指针跳转，适合节点数很多的树。本树之后的修改不会反映到冻结结果中。
+     *
+     * @return 冻结的树
+     */
+    public FrozenTree freeze() {
+        return new FrozenTree(this);
+    }
+
+    /**
+     * 写入分页文件，之后用 {@link PagedTree#open} 打开，查询时只有常用的节点留在内存中
+     *
+     * @param file 分页文件（已存在时被覆盖）
+     * @param pageSize 页大小（字节）
+     * @return 写入的页数
+     * @throws IOException 如果写入失败
+     */
+    public int writePaged(File file, int pageSize) throws IOException {
+        return PagedTree.write(this, file, pageSize);
+    }
 
     /**
      * 计算统计信息
      */
     protected void calculateStatistics() {
+        statisticsStale = false;
         if (root != null) {
-            treeHeight = calculateHeight(root);
-            totalNodes = countNodes(root);
-            leafNodes = countLeafNodes(root);
+            int[] shape = measure(root);
+            treeHeight = shape[0];
+            totalNodes = shape[1];
+            leafNodes = shape[2];
             internalNodes = totalNodes - leafNodes;
+        } else {
+            treeHeight = 0;
+            totalNodes = 0;
+            leafNodes = 0;
+            internalNodes = 0;
+        }
+    }
+
+    /**
+     * 动态更新后按需重新计算树结构统计
+     */
+    private void refreshStatistics() {
+        if (statisticsStale) {
+            calculateStatistics();
         }
     }
 
@@ -162,16 +1397,7 @@ public abstract class TreeIndex implements Index {
      * @return 以该节点为根的子树高度
      */
     protected int calculateHeight(TreeNode node) {
-        if (node == null || node.isLeaf()) {
-            return 0;
-        }
-
-        InternalNode internal = (InternalNode) node;
-        int maxChildHeight = 0;
-        for (TreeNode child : internal.getChildren()) {
-            maxChildHeight = Math.max(maxChildHeight, calculateHeight(child));
-        }
-        return 1 + maxChildHeight;
+        return measure(node)[0];
     }
 
     /**
@@ -181,16 +1407,7 @@ public abstract class TreeIndex implements Index {
      * @return 以该节点为根的子树节点数
      */
     protected int countNodes(TreeNode node) {
-        if (node == null)
-            return 0;
-        if (node.isLeaf())
-            return 1;
-
-        int count = 1;
-        for (TreeNode child : ((InternalNode) node).getChildren()) {
-            count += countNodes(child);
-        }
-        return count;
+        return measure(node)[1];
     }
 
     /**
@@ -200,16 +1417,48 @@ public abstract class TreeIndex implements Index {
      * @return 以该节点为根的子树叶子节点数
      */
     protected int countLeafNodes(TreeNode node) {
-        if (node == null)
-            return 0;
-        if (node.isLeaf())
-            return 1;
+        return measure(node)[2];
+    }
 
-        int count = 0;
-        for (TreeNode child : ((InternalNode) node).getChildren()) {
-            count += countLeafNodes(child);
+    /**
+     * 用显式栈遍历子树一次，得到高度、节点数和叶子数
+     *
+     * @param node 子树根（可以为null）
+     * @return {高度, 节点数, 叶子数}
+     */
+    private static int[] measure(TreeNode node) {
+        int[] shape = new int[3];
+        if (node == null) {
+            return shape;
+        }
+        TreeNode[] stack = new TreeNode[16];
+        int[] levels = new int[16];
+        int size = 0;
+        stack[size] = node;
+        levels[size++] = 0;
+        while (size > 0) {
+            TreeNode current = stack[--size];
+            int level = levels[size];
+            stack[size] = null;
+            shape[1]++;
+            if (current.isLeaf()) {
+                shape[2]++;
+                continue;
+            }
+            shape[0] = Math.max(shape[0], level + 1);
+            for (TreeNode child : ((InternalNode) current).getChildren()) {
+                if (child == null) {
+                    continue;
+                }
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, size * 2);
+                    levels = Arrays.copyOf(levels, size * 2);
+                }
+                stack[size] = child;
+                levels[size++] = level + 1;
+            }
         }
-        return count;
+        return shape;
     }
 
     /**
@@ -267,27 +1516,48 @@ public abstract class TreeIndex implements Index {
 
     @Override
     public String getStatistics() {
+        refreshStatistics();
         StringBuilder sb = new StringBuilder();
         sb.append("\n").append("=".repeat(50)).append("\n");
         sb.append(getIndexName()).append(" 统计信息\n");
         sb.append("=".repeat(50)).append("\n");
 
         sb.append("【数据信息】\n");
-        sb.append(String.format("  数据集大小: %,d\n", dataset != null ? dataset.size() : 0));
+        sb.append(String.format("  数据集大小: %,d\n", getDatasetSize()));
 
         sb.append("【树结构】\n");
         sb.append(String.format("  树高度: %d\n", treeHeight));
         sb.append(String.format("  总节点数: %,d\n", totalNodes));
         sb.append(String.format("  内部节点数: %,d\n", internalNodes));
         sb.append(String.format("  叶子节点数: %,d\n", leafNodes));
+        if (usesSharedPivots()) {
+            sb.append(String.format("  共享支撑点: %d (%s)\n", sharedPivots.size(),
+                    config.getHierarchicalPivotMode()));
+        }
 
         sb.append("【构建性能】\n");
         sb.append(String.format("  构建时间: %,d ms\n", buildTimeMs));
-        sb.append(String.format("  构建距离计算次数: %,d\n", buildDistanceComputations));
+        sb.append(String.format("  构建距离计算次数: %,d\n", buildDistanceComputations.sum()));
+
+        if (getInsertCount() + getDeleteCount() > 0) {
+            sb.append("【动态更新】\n");
+            sb.append(String.format("  插入次数: %,d\n", getInsertCount()));
+            sb.append(String.format("  删除次数: %,d\n", getDeleteCount()));
+            sb.append(String.format("  未回收的已删除对象: %,d\n", getTombstoneCount()));
+            sb.append(String.format("  局部重建次数: %,d\n", getRebuildCount()));
+            sb.append(String.format("  定位距离计算次数: %,d\n",
+                    updater.getUpdateDistanceComputations()));
+        }
 
         sb.append("【查询性能（累计）】\n");
-        sb.append(String.format("  查询距离计算次数: %,d\n", queryDistanceComputations));
-        sb.append(String.format("  节点访问次数: %,d\n", nodeAccesses));
+        sb.append(String.format("  查询次数: %,d\n", queryStatistics.getQueries()));
+        sb.append(String.format("  查询距离计算次数: %,d\n",
+                queryStatistics.getDistanceComputations()));
+        sb.append(String.format("  节点访问次数: %,d\n", queryStatistics.getNodeAccesses()));
+        if (usesSharedPivots()) {
+            sb.append(String.format("  备忘表省去的距离计算次数: %,d\n",
+                    queryStatistics.getMemoHits()));
+        }
 
         sb.append("=".repeat(50));
         return sb.toString();
@@ -295,18 +1565,17 @@ public abstract class TreeIndex implements Index {
 
     @Override
     public void resetStatistics() {
-        queryDistanceComputations = 0;
-        nodeAccesses = 0;
+        queryStatistics.reset();
     }
 
     @Override
-    public int getDistanceComputations() {
-        return queryDistanceComputations;
+    public long getDistanceComputations() {
+        return queryStatistics.getDistanceComputations();
     }
 
     @Override
     public int getDatasetSize() {
-        return dataset != null ? dataset.size() : 0;
+        return dataset != null ? updater.getLiveCount() : 0;
     }
 
     // ========== Getters ==========
@@ -324,31 +1593,64 @@ public abstract class TreeIndex implements Index {
     }
 
     public int getTreeHeight() {
+        refreshStatistics();
         return treeHeight;
     }
 
     public int getTotalNodes() {
+        refreshStatistics();
         return totalNodes;
     }
 
     public int getLeafNodes() {
+        refreshStatistics();
         return leafNodes;
     }
 
     public int getInternalNodes() {
+        refreshStatistics();
         return internalNodes;
     }
 
-    public int getBuildDistanceComputations() {
-        return buildDistanceComputations;
+    public long getBuildDistanceComputations() {
+        return buildDistanceComputations.sum();
     }
 
     public long getBuildTimeMs() {
         return buildTimeMs;
     }
 
-    public int getNodeAccesses() {
-        return nodeAccesses;
+    public long getNodeAccesses() {
+        return queryStatistics.getNodeAccesses();
+    }
+
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
     }
-}
 
+    public long getInsertCount() {
+        return updater.getInsertCount();
+    }
+
+    public long getDeleteCount() {
+        return updater.getDeleteCount();
+    }
+
+    public long getRebuildCount() {
+        return updater.getRebuildCount();
+    }
+
+    /**
+     * 获取已删除但尚未回收的对象数
+     */
+    public int getTombstoneCount() {
+        return updater.getTombstoneSet().size();
+    }
+
+    /**
+     * 已删除但尚未回收的对象（只读，按实例比较）
+     */
+    Set<MetricSpaceData> getTombstones() {
+        return Collections.unmodifiableSet(updater.getTombstoneSet());
+    }
+}
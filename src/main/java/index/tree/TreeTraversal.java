@@ -0,0 +1,303 @@
+package index.tree;
+
+import core.MetricSpaceData;
+import index.tree.common.QueryContext;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 显式栈深度优先遍历
+ *
+ * 五种树的范围查询和kNN查询都由这里执行，不使用Java递归：待访问的节点和它们的距离下界保存在
+ * 两个并行的数组栈中（节点数组和double数组），遍历深度只受堆内存限制，
+ * 很深的树（例如按顺序插入、没有平衡重建的树）上查询也不会栈溢出。
+ * 动态更新中的定位与回收、树结构统计以及 {@link FrozenTree} 和 {@link PagedTree} 的查询同样用显式栈；
+ * 批量构建（buildTreeRecursive）、多查询共享遍历和printTree仍是递归的，递归深度就是构建出的树高。
+ * 剪枝使用内部节点的 {@link InternalNode#getChildLowerBound} 和 {@link InternalNode#isChildContained}，
+ * 启用路径距离表时还用子树到祖先支撑点的距离范围（{@link PathRings}）收紧子节点的下界
+ * （{@link GroupTraversal}、冻结树和分页树不使用距离范围）：
+ * 1. 范围查询：子节点按下标逆序入栈，出栈顺序与按下标递归的顺序相同；
+ *    整棵落在查询球内的子树带“包含”标记入栈，出栈时不计算距离，直接加入结果
+ * 2. kNN查询：子节点按下界降序入栈（下界相同时下标大的在下），下界最小的先出栈；
+ *    出栈时再用当前剪枝半径检查一次下界，因此访问顺序和距离计算次数与按下界升序的递归相同
+ *
+ * 子节点在栈中等待时，父节点所在深度的临时数组不会被覆盖（其间出栈的节点都在父节点的子树中），
+ * 叶子的路径距离过滤仍然可以读取各层祖先的查询距离。
+ *
+ * 两个栈借用查询上下文缓冲区中的数组（{@link QueryContext#claimStack()}），同一线程上的后续查询
+ * 复用它们，不为每次查询分配栈；同一上下文上已有遍历时，新的遍历自己分配。
+ *
+ * 遍历的全部状态都在栈和查询上下文中，因此可以挂起：{@link #advance(long)} 处理给定数量的栈元素后返回，
+ * 之后可以继续（也可以换一个线程继续），{@link #cancel()} 放弃剩余的节点。
+ * 由 {@link TreeIndex#rangeTraversal} 等方法创建的遍历不借用线程的缓冲区，放弃时不需要归还；
+ * 遍历挂起期间不能修改树。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public final class TreeTraversal {
+
+    /** 栈的初始容量 */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** 整棵子树落在查询球内的栈元素使用的下界标记 */
+    private static final double CONTAINED = -1;
+
+    /** 被遍历的树 */
+    private final TreeIndex tree;
+
+    /** 查询上下文 */
+    private final QueryContext context;
+
+    /** 待访问的节点（元素为TreeNode） */
+    private Object[] nodes;
+
+    /** 对应节点的距离下界（或CONTAINED） */
+    private double[] bounds;
+
+    /** 栈是否借自查询上下文的缓冲区 */
+    private final boolean pooledStack;
+
+    /** 栈中元素数 */
+    private int size;
+
+    /** 遍历过程中栈的最大深度 */
+    private int maxSize;
+
+    /** 是否已经取出结果 */
+    private boolean closed;
+
+    /**
+     * @param tree 被遍历的树
+     * @param context 查询上下文
+     * @param start 起始节点（为null时遍历为空）
+     * @param contained 起始子树是否整棵落在查询球内（只用于范围查询）
+     */
+    TreeTraversal(TreeIndex tree, QueryContext context, TreeNode start, boolean contained) {
+        this.tree = tree;
+        this.context = context;
+        this.pooledStack = context.claimStack();
+        this.nodes = pooledStack ? context.getNodeStack(INITIAL_CAPACITY)
+                : new Object[INITIAL_CAPACITY];
+        this.bounds = pooledStack ? context.getBoundStack(INITIAL_CAPACITY)
+                : new double[INITIAL_CAPACITY];
+        if (start != null) {
+            push(start, contained ? CONTAINED : 0);
+        }
+    }
+
+    /**
+     * 继续遍历，最多处理maxSteps个栈元素后挂起
+     *
+     * @param maxSteps 本次最多处理的栈元素数（> 0）
+     * @return 还有未处理的节点时返回true
+     * @throws IllegalStateException 已经调用过 {@link #finish()} 时
+     */
+    public boolean advance(long maxSteps) {
+        checkOpen();
+        for (long i = 0; i < maxSteps && !isFinished(); i++) {
+            step();
+        }
+        return !isFinished();
+    }
+
+    /**
+     * 遍历到结束
+     *
+     * @throws IllegalStateException 已经调用过 {@link #finish()} 时
+     */
+    public void run() {
+        checkOpen();
+        while (!isFinished()) {
+            step();
+        }
+    }
+
+    /**
+     * 遍历是否已经结束（栈为空，或查询已停止，例如范围查询达到结果数上限）
+     */
+    public boolean isFinished() {
+        return size == 0 || context.isStopped();
+    }
+
+    /**
+     * 放弃剩余的节点（之后 {@link #finish()} 返回已经找到的结果）
+     */
+    public void cancel() {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * 结束遍历：汇总统计并取出结果（未遍历完时先放弃剩余的节点）
+     *
+     * kNN查询返回已访问部分中最近的k个对象，遍历完时即为精确结果；
+     * 范围查询按访问顺序返回，使用回调时为空列表。只能调用一次。
+     *
+     * @return 查询结果
+     * @throws IllegalStateException 已经调用过时
+     */
+    public List<MetricSpaceData> finish() {
+        checkOpen();
+        cancel();
+        closed = true;
+        return tree.finishQuery(context);
+    }
+
+    /**
+     * 获取查询上下文（可以读取目前的距离计算次数、结果数等）
+     */
+    public QueryContext getContext() {
+        return context;
+    }
+
+    /**
+     * 栈中等待访问的节点数
+     */
+    public int getPendingNodes() {
+        return size;
+    }
+
+    /**
+     * 遍历过程中栈的最大深度
+     */
+    public int getMaxStackDepth() {
+        return maxSize;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("遍历已结束，结果已经取出");
+        }
+    }
+
+    /**
+     * 弹出并处理一个栈元素
+     */
+    private void step() {
+        size--;
+        TreeNode node = (TreeNode) nodes[size];
+        double bound = bounds[size];
+        nodes[size] = null;
+        if (bound == CONTAINED) {
+            addContained(node);
+        } else if (bound <= context.getRadius()) {
+            visit(node);
+        }
+    }
+
+    /**
+     * 访问节点：扫描叶子，或计算内部节点的支撑点距离并把未剪枝的子节点入栈
+     */
+    private void visit(TreeNode node) {
+        context.visitNode();
+        if (node.isLeaf()) {
+            tree.scanLeaf((LeafNode) node, context);
+            return;
+        }
+        InternalNode internal = (InternalNode) node;
+        List<MetricSpaceData> pivots = internal.getPivots();
+        List<TreeNode> children = internal.getChildren();
+        int numPivots = pivots.size();
+        boolean offerPivots = !internal.isPivotStoredInChildren();
+        double[] dq = context.getScratch(internal.getDepth(), numPivots);
+        for (int j = 0; j < numPivots; j++) {
+            dq[j] = internal.queryDistance(j, context);
+            if (offerPivots) {
+                context.offer(pivots.get(j), dq[j]);
+            }
+        }
+
+        boolean knn = context.isKnn();
+        double radius = context.getRadius();
+        int base = size;
+        for (int i = children.size() - 1; i >= 0; i--) {
+            TreeNode child = children.get(i);
+            if (child == null) {
+                continue;
+            }
+            if (!knn && internal.isChildContained(i, dq, radius)) {
+                push(child, CONTAINED);
+                continue;
+            }
+            double bound = internal.getChildLowerBound(i, dq);
+            PathRings rings = TreeIndex.getPathRings(child);
+            if (bound <= radius && rings != null) {
+                bound = Math.max(bound, rings.lowerBound(context));
+            }
+            if (bound <= radius) {
+                push(child, bound);
+            }
+        }
+        if (knn) {
+            sortByBoundDescending(base);
+        }
+    }
+
+    /**
+     * 把整棵落在查询球内的子树加入结果（不计算距离）
+     *
+     * 只计数时由 {@link TreeIndex#addSubtree} 直接加上子树中的存活对象数；
+     * 否则加入叶子中的对象和不在子树中的支撑点，子节点带“包含”标记按下标逆序入栈。
+     */
+    private void addContained(TreeNode node) {
+        if (context.isCountOnly()) {
+            tree.addSubtree(node, context);
+            return;
+        }
+        if (node.isLeaf()) {
+            for (MetricSpaceData data : ((LeafNode) node).getData()) {
+                if (context.isStopped()) {
+                    return;
+                }
+                context.addResult(data);
+            }
+            return;
+        }
+        InternalNode internal = (InternalNode) node;
+        if (!internal.isPivotStoredInChildren()) {
+            for (MetricSpaceData pivot : internal.getPivots()) {
+                context.addResult(pivot);
+            }
+        }
+        List<TreeNode> children = internal.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (children.get(i) != null) {
+                push(children.get(i), CONTAINED);
+            }
+        }
+    }
+
+    /**
+     * 把栈中从base开始的元素按下界降序稳定排序（子节点很少，插入排序即可）
+     *
+     * 入栈时下标大的在下，稳定排序后下界相同的子节点仍然是下标小的先出栈。
+     */
+    private void sortByBoundDescending(int base) {
+        for (int i = base + 1; i < size; i++) {
+            Object node = nodes[i];
+            double bound = bounds[i];
+            int j = i - 1;
+            while (j >= base && bounds[j] < bound) {
+                nodes[j + 1] = nodes[j];
+                bounds[j + 1] = bounds[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            bounds[j + 1] = bound;
+        }
+    }
+
+    private void push(TreeNode node, double bound) {
+        if (size == nodes.length) {
+            nodes = pooledStack ? context.getNodeStack(size * 2) : Arrays.copyOf(nodes, size * 2);
+            bounds = pooledStack ? context.getBoundStack(size * 2)
+                    : Arrays.copyOf(bounds, size * 2);
+        }
+        nodes[size] = node;
+        bounds[size] = bound;
+        size++;
+        maxSize = Math.max(maxSize, size);
+    }
+}
@@ -0,0 +1,459 @@
+package index.tree;
+
+import core.MetricSpaceData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 树的动态插入与删除
+ *
+ * 保存更新相关的状态（墓碑集合、按ID索引的存活对象和更新计数），执行 {@link TreeIndex#insert} 和
+ * {@link TreeIndex#delete}：插入沿划分规则下降并扩展路径上的边界，删除先定位再做墓碑标记，
+ * 之后检查更新路径，只重建最高的需要重建的子树（替罪羊树方式）。
+ * 子树的构建仍由树完成（{@link TreeIndex#buildSubtree}），更新后通过 {@link TreeIndex#onUpdate}
+ * 通知树结构统计和距离分布已经过期。
+ *
+ * 与树相同，更新是单写者的，不能与查询并发执行。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class TreeUpdater {
+
+    /** 被更新的树 */
+    private final TreeIndex tree;
+
+    /** 已删除但尚未回收的对象（按实例比较） */
+    private final Set<MetricSpaceData> tombstones =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** 按数据ID查找存活对象（第一次更新时建立） */
+    private Map<Integer, MetricSpaceData> liveById;
+
+    /** 存活对象数 */
+    private int liveCount;
+
+    /** 插入次数 */
+    private long insertCount;
+
+    /** 删除次数 */
+    private long deleteCount;
+
+    /** 局部重建次数 */
+    private long rebuildCount;
+
+    /** 插入和删除定位对象时的距离计算次数 */
+    private long updateDistanceComputations;
+
+    TreeUpdater(TreeIndex tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * 重新构建后清空更新状态
+     *
+     * @param size 构建时的对象数
+     */
+    void reset(int size) {
+        tombstones.clear();
+        liveById = null;
+        liveCount = size;
+        insertCount = 0;
+        deleteCount = 0;
+        rebuildCount = 0;
+        updateDistanceComputations = 0;
+    }
+
+    /**
+     * 插入一个对象（见 {@link TreeIndex#insert}）
+     */
+    void insert(MetricSpaceData data) {
+        checkUpdatable();
+        if (data == null) {
+            throw new IllegalArgumentException("插入的对象不能为空");
+        }
+        Map<Integer, MetricSpaceData> live = getLiveObjects();
+        if (live.containsKey(data.getDataId())) {
+            throw new IllegalArgumentException("数据ID已存在: " + data.getDataId());
+        }
+
+        List<TreeNode> path = new ArrayList<>();
+        if (tombstones.contains(data)) {
+            // 同一实例删除后尚未回收，撤销墓碑即可
+            locate(tree.root, data, path);
+            tombstones.remove(data);
+            for (TreeNode node : path) {
+                addTombstones(node, -1);
+            }
+        } else if (tree.root == null) {
+            tree.root = tree.buildSubtree(new ArrayList<>(List.of(data)), 0, path);
+        } else {
+            descendAndInsert(data, path);
+        }
+
+        live.put(data.getDataId(), data);
+        liveCount++;
+        insertCount++;
+        tree.onUpdate();
+        rebuildIfNeeded(path);
+    }
+
+    /**
+     * 按数据ID删除一个对象（见 {@link TreeIndex#delete}）
+     */
+    boolean delete(int dataId) {
+        checkUpdatable();
+        Map<Integer, MetricSpaceData> live = getLiveObjects();
+        MetricSpaceData data = live.get(dataId);
+        if (data == null) {
+            return false;
+        }
+
+        List<TreeNode> path = new ArrayList<>();
+        if (!locate(tree.root, data, path)) {
+            throw new IllegalStateException("索引结构中找不到数据ID为" + dataId + "的对象");
+        }
+        live.remove(dataId);
+        tombstones.add(data);
+        for (TreeNode node : path) {
+            addTombstones(node, 1);
+            if (!node.isLeaf()) {
+                ((InternalNode) node).recordUpdate();
+            }
+        }
+
+        liveCount--;
+        deleteCount++;
+        tree.onUpdate();
+        rebuildIfNeeded(path);
+        return true;
+    }
+
+    private void checkUpdatable() {
+        if (tree.getMetric() == null) {
+            throw new IllegalStateException("索引尚未构建，请先调用buildIndex");
+        }
+    }
+
+    /**
+     * 获取按ID索引的存活对象（第一次更新时由构建时的数据集快照建立）
+     */
+    private Map<Integer, MetricSpaceData> getLiveObjects() {
+        if (liveById == null) {
+            liveById = new HashMap<>(tree.dataset.size() * 2);
+            for (MetricSpaceData data : tree.dataset) {
+                liveById.put(data.getDataId(), data);
+            }
+        }
+        return liveById;
+    }
+
+    /**
+     * 计算对象到内部节点各支撑点的距离
+     */
+    private double[] pivotDistances(MetricSpaceData data, InternalNode node) {
+        List<MetricSpaceData> pivots = node.getPivots();
+        double[] dist = new double[pivots.size()];
+        for (int j = 0; j < dist.length; j++) {
+            dist[j] = tree.metric.getDistance(data, pivots.get(j));
+        }
+        updateDistanceComputations += dist.length;
+        return dist;
+    }
+
+    /**
+     * 沿划分规则下降到叶子并追加对象
+     *
+     * @param data 数据对象
+     * @param path 输出：从根到叶子的路径
+     */
+    private void descendAndInsert(MetricSpaceData data, List<TreeNode> path) {
+        List<double[]> ancestorDistances = new ArrayList<>();
+        TreeNode node = tree.root;
+        while (!node.isLeaf()) {
+            InternalNode internal = (InternalNode) node;
+            path.add(internal);
+            internal.recordUpdate();
+            internal.invalidateSize();
+
+            double[] dist = pivotDistances(data, internal);
+            ancestorDistances.add(dist);
+            int childIdx = internal.chooseChild(dist);
+            internal.extendChildBounds(childIdx, dist);
+            TreeNode child = internal.getChildren().get(childIdx);
+            if (child == null) {
+                child = new LeafNode(new ArrayList<>(), internal.getDepth() + 1);
+                internal.setChild(childIdx, child);
+            } else if (TreeIndex.getPathRings(child) != null) {
+                TreeIndex.getPathRings(child).extend(ancestorDistances);
+            }
+            node = child;
+        }
+        path.add(node);
+        ((LeafNode) node).add(data, ancestorDistances);
+    }
+
+    /**
+     * 查找对象所在的节点（不在子树中的支撑点所在的内部节点，或包含它的叶子）
+     *
+     * 只进入边界允许包含该对象的子节点。深度优先回溯搜索用显式栈完成：
+     * path本身就是当前路径，另外记录路径上各内部节点到支撑点的距离和下一个要检查的子节点。
+     *
+     * @param node 起始节点
+     * @param data 数据对象（按实例比较）
+     * @param path 输出：找到时为从node到所在节点的路径（调用时为空）
+     * @return 是否找到
+     */
+    private boolean locate(TreeNode node, MetricSpaceData data, List<TreeNode> path) {
+        if (node == null) {
+            return false;
+        }
+        List<double[]> distances = new ArrayList<>();
+        int[] next = new int[16];
+        path.add(node);
+        if (holds(node, data)) {
+            return true;
+        }
+        distances.add(node.isLeaf() ? null : pivotDistances(data, (InternalNode) node));
+        while (!path.isEmpty()) {
+            int top = path.size() - 1;
+            TreeNode child = null;
+            if (!path.get(top).isLeaf()) {
+                InternalNode internal = (InternalNode) path.get(top);
+                while (child == null && next[top] < internal.getChildCount()) {
+                    int i = next[top]++;
+                    if (internal.childMayContain(i, distances.get(top))) {
+                        child = internal.getChildren().get(i);
+                    }
+                }
+            }
+            if (child == null) {
+                path.remove(top);
+                distances.remove(top);
+                continue;
+            }
+            path.add(child);
+            if (holds(child, data)) {
+                return true;
+            }
+            if (top + 1 == next.length) {
+                next = Arrays.copyOf(next, next.length * 2);
+            }
+            next[top + 1] = 0;
+            distances.add(child.isLeaf() ? null : pivotDistances(data, (InternalNode) child));
+        }
+        return false;
+    }
+
+    /**
+     * 对象是否直接存放在节点中（叶子中的对象，或不在子树中的支撑点；按实例比较）
+     */
+    private static boolean holds(TreeNode node, MetricSpaceData data) {
+        List<MetricSpaceData> objects;
+        if (node.isLeaf()) {
+            objects = ((LeafNode) node).getData();
+        } else {
+            InternalNode internal = (InternalNode) node;
+            if (internal.isPivotStoredInChildren()) {
+                return false;
+            }
+            objects = internal.getPivots();
+        }
+        for (MetricSpaceData obj : objects) {
+            if (obj == data) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 对象是否已被删除（尚未回收）
+     */
+    boolean isDeleted(MetricSpaceData data) {
+        return tombstones.contains(data);
+    }
+
+    static int getTombstones(TreeNode node) {
+        return node.isLeaf() ? ((LeafNode) node).getTombstones()
+                : ((InternalNode) node).getTombstones();
+    }
+
+    private static void addTombstones(TreeNode node, int count) {
+        if (node.isLeaf()) {
+            ((LeafNode) node).addTombstones(count);
+        } else {
+            ((InternalNode) node).addTombstones(count);
+        }
+    }
+
+    /**
+     * 从根开始检查更新路径，重建第一个（最高的）需要重建的子树
+     *
+     * @param path 从根开始的更新路径
+     */
+    private void rebuildIfNeeded(List<TreeNode> path) {
+        for (int i = 0; i < path.size(); i++) {
+            if (needsRebuild(path.get(i))) {
+                rebuildSubtree(path, i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 判断子树是否需要局部重建
+     *
+     * 1. 已删除对象超过子树对象数的 tombstoneRatio 倍
+     * 2. 叶子：对象数超过maxLeafSize（上次无法分裂时，要等对象数翻倍后再尝试）
+     * 3. 内部节点：最大子树超过节点对象数的 rebuildBalance(α) 倍，
+     *    且自构建以来至少经历了 (1-α) 倍对象数的更新（保证重建代价可以分摊，
+     *    也避免对本身就无法均匀划分的数据反复重建）
+     */
+    private boolean needsRebuild(TreeNode node) {
+        int size = node.size();
+        int dead = getTombstones(node);
+        if (dead > 0 && dead >= tree.config.getTombstoneRatio() * size) {
+            return true;
+        }
+        if (node.isLeaf()) {
+            int failed = ((LeafNode) node).getFailedSplitSize();
+            return size > tree.config.getMaxLeafSize() && size >= 2 * failed;
+        }
+        InternalNode internal = (InternalNode) node;
+        double alpha = tree.config.getRebuildBalance();
+        if (internal.getUpdates() < (1 - alpha) * size) {
+            return false;
+        }
+        for (TreeNode child : internal.getChildren()) {
+            if (child != null && child.size() > alpha * size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 用子树中的存活对象重建path.get(index)，并回收其中的已删除对象
+     *
+     * @param path 从根开始的路径
+     * @param index 要重建的节点在路径中的位置
+     */
+    private void rebuildSubtree(List<TreeNode> path, int index) {
+        TreeNode node = path.get(index);
+        List<MetricSpaceData> live = new ArrayList<>(node.size());
+        int dropped = collectLive(node, live);
+        List<TreeNode> ancestors = path.subList(0, index);
+
+        TreeNode rebuilt = tree.buildSubtree(live, node.getDepth(), ancestors);
+        if (rebuilt == null && index > 0) {
+            rebuilt = new LeafNode(new ArrayList<>(), node.getDepth());
+        }
+        if (rebuilt != null && rebuilt.isLeaf() && live.size() > tree.config.getMaxLeafSize()) {
+            ((LeafNode) rebuilt).setFailedSplitSize(live.size());
+        }
+
+        if (index == 0) {
+            tree.root = rebuilt;
+        } else {
+            InternalNode parent = (InternalNode) path.get(index - 1);
+            parent.setChild(parent.getChildren().indexOf(node), rebuilt);
+        }
+        for (TreeNode ancestor : ancestors) {
+            addTombstones(ancestor, -dropped);
+            ((InternalNode) ancestor).invalidateSize();
+        }
+        rebuildCount++;
+
+        if (tree.config.isVerbose()) {
+            System.out.printf("  局部重建深度%d的子树: 存活对象=%d, 回收已删除对象=%d%n",
+                    node.getDepth(), live.size(), dropped);
+        }
+    }
+
+    /**
+     * 收集子树中的存活对象，已删除对象从墓碑集合中移除（回收）
+     *
+     * @param node 子树根
+     * @param live 输出：存活对象
+     * @return 回收的已删除对象数
+     */
+    private int collectLive(TreeNode node, List<MetricSpaceData> live) {
+        return collectObjects(node, live, true);
+    }
+
+    /**
+     * 按深度优先（先序）顺序收集子树中的对象，用显式栈遍历
+     *
+     * @param node 子树根（可以为null）
+     * @param live 输出：未删除的对象（包括不在子树中的支撑点）
+     * @param reclaim 是否把遇到的已删除对象从墓碑集合中移除
+     * @return 遇到的已删除对象数
+     */
+    int collectObjects(TreeNode node, List<MetricSpaceData> live, boolean reclaim) {
+        int dead = 0;
+        List<TreeNode> stack = new ArrayList<>();
+        if (node != null) {
+            stack.add(node);
+        }
+        while (!stack.isEmpty()) {
+            TreeNode current = stack.remove(stack.size() - 1);
+            List<MetricSpaceData> objects;
+            if (current.isLeaf()) {
+                objects = ((LeafNode) current).getData();
+            } else {
+                InternalNode internal = (InternalNode) current;
+                objects = internal.isPivotStoredInChildren()
+                        ? Collections.emptyList() : internal.getPivots();
+                List<TreeNode> children = internal.getChildren();
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    if (children.get(i) != null) {
+                        stack.add(children.get(i));
+                    }
+                }
+            }
+            for (MetricSpaceData obj : objects) {
+                if (reclaim ? tombstones.remove(obj) : tombstones.contains(obj)) {
+                    dead++;
+                } else {
+                    live.add(obj);
+                }
+            }
+        }
+        return dead;
+    }
+
+    /**
+     * 已删除但尚未回收的对象（查询时用于排除，调用方不能修改）
+     */
+    Set<MetricSpaceData> getTombstoneSet() {
+        return tombstones;
+    }
+
+    int getLiveCount() {
+        return liveCount;
+    }
+
+    long getInsertCount() {
+        return insertCount;
+    }
+
+    long getDeleteCount() {
+        return deleteCount;
+    }
+
+    long getRebuildCount() {
+        return rebuildCount;
+    }
+
+    long getUpdateDistanceComputations() {
+        return updateDistanceComputations;
+    }
+}
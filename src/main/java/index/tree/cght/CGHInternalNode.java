@@ -10,13 +10,13 @@ import java.util.List;
 /**
  * CGHT内部节点（Complete Generalized Hyperplane Tree）
  *
- * 使用3个pivot进行完全超平面划分。
+ * 使用k个pivot进行完全超平面划分。
  *
- * 划分策略基于距离差值：
- * - delta12 = d(x, p1) - d(x, p2)
- * - delta13 = d(x, p1) - d(x, p3)
+ * 划分策略基于第1个pivot与其余各pivot的距离差值：
+ * - delta_j = d(x, p1) - d(x, pj)，j = 2..k
  *
- * 使用(delta12, delta13)的符号组合划分为4个主区域：
+ * 每个delta按阈值划分为s段，共s^(k-1)个子区域，编号为以s为基数的(k-1)位数。
+ * s=2时阈值为0，即按delta的符号划分（广义超平面）；默认k=3时为4个主区域：
  * - 区域0: delta12 < 0, delta13 < 0
  * - 区域1: delta12 >= 0, delta13 < 0
  * - 区域2: delta12 < 0, delta13 >= 0
@@ -27,109 +27,137 @@ import java.util.List;
  */
 public class CGHInternalNode extends InternalNode {
 
-    /** pivot数量 */
-    public static final int NUM_PIVOTS = 3;
+    /** 各delta的划分阈值 [k-1][s-1]（升序） */
+    private double[][] deltaThreshold;
 
-    /** 子节点数量（4路划分） */
-    public static final int NUM_CHILDREN = 4;
+    /** 每个子树各delta的下界 [s^(k-1)][k-1] */
+    private double[][] deltaLower;
 
-    /** 每个子树的delta12范围 [min, max] */
-    private double[][] delta12Range;
-
-    /** 每个子树的delta13范围 [min, max] */
-    private double[][] delta13Range;
-
-    /** 每个子树的数据量 */
-    private int[] childSizes;
+    /** 每个子树各delta的上界 [s^(k-1)][k-1] */
+    private double[][] deltaUpper;
 
     /**
      * 构造CGHT内部节点
      *
-     * @param pivot1 第一个支撑点
-     * @param pivot2 第二个支撑点
-     * @param pivot3 第三个支撑点
-     * @param children 4个子节点
-     * @param delta12Range delta12范围矩阵 [4][2]
-     * @param delta13Range delta13范围矩阵 [4][2]
+     * @param pivots k个支撑点
+     * @param children s^(k-1)个子节点
+     * @param deltaThreshold delta划分阈值矩阵 [k-1][s-1]
+     * @param deltaLower delta下界矩阵 [s^(k-1)][k-1]
+     * @param deltaUpper delta上界矩阵 [s^(k-1)][k-1]
      * @param depth 节点深度
      */
-    public CGHInternalNode(MetricSpaceData pivot1, MetricSpaceData pivot2, MetricSpaceData pivot3,
-            List<TreeNode> children, double[][] delta12Range, double[][] delta13Range, int depth) {
-        this.pivots = new ArrayList<>();
-        this.pivots.add(pivot1);
-        this.pivots.add(pivot2);
-        this.pivots.add(pivot3);
+    public CGHInternalNode(List<MetricSpaceData> pivots, List<TreeNode> children,
+            double[][] deltaThreshold, double[][] deltaLower, double[][] deltaUpper, int depth) {
+        this.pivots = new ArrayList<>(pivots);
         this.children = new ArrayList<>(children);
-        this.delta12Range = deepCopy(delta12Range);
-        this.delta13Range = deepCopy(delta13Range);
+        this.deltaThreshold = deepCopy(deltaThreshold);
+        this.deltaLower = deepCopy(deltaLower);
+        this.deltaUpper = deepCopy(deltaUpper);
         this.depth = depth;
+    }
+
+    /**
+     * 获取子节点索引（基于距离差所在段的划分）
+     *
+     * @param dist 到k个pivot的距离
+     * @return 子节点索引（0 到 s^(k-1)-1）
+     */
+    public int getChildIndex(double[] dist) {
+        return computeChildIndex(dist, deltaThreshold);
+    }
 
-        // 计算子树大小
-        this.childSizes = new int[NUM_CHILDREN];
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            if (children.get(i) != null) {
-                childSizes[i] = children.get(i).size();
+    /**
+     * 按delta划分阈值计算子节点索引（构建时节点尚未创建，也使用此方法）
+     *
+     * @param dist 到k个pivot的距离
+     * @param deltaThreshold delta划分阈值矩阵 [k-1][s-1]
+     * @return 子节点索引（0 到 s^(k-1)-1）
+     */
+    public static int computeChildIndex(double[] dist, double[][] deltaThreshold) {
+        int idx = 0;
+        int weight = 1;
+        for (int j = 0; j < deltaThreshold.length; j++) {
+            double delta = dist[0] - dist[j + 1];
+            int segment = 0;
+            while (segment < deltaThreshold[j].length && delta >= deltaThreshold[j][segment]) {
+                segment++;
             }
+            idx += segment * weight;
+            weight *= deltaThreshold[j].length + 1;
         }
+        return idx;
     }
 
     /**
-     * 获取子节点索引（基于距离差符号的4路划分）
+     * 按已算好的距离差计算子节点索引（与 {@link #computeChildIndex} 的划分相同）
      *
-     * @param d1 到pivot1的距离
-     * @param d2 到pivot2的距离
-     * @param d3 到pivot3的距离
-     * @return 子节点索引（0-3）
+     * @param delta 距离差 delta_j = d(x, p1) - d(x, p(j+1))，共k-1个
+     * @param deltaThreshold delta划分阈值矩阵 [k-1][s-1]
+     * @return 子节点索引（0 到 s^(k-1)-1）
      */
-    public int getChildIndex(double d1, double d2, double d3) {
-        double delta12 = d1 - d2;
-        double delta13 = d1 - d3;
-
+    public static int computeDeltaChildIndex(double[] delta, double[][] deltaThreshold) {
         int idx = 0;
-        if (delta12 >= 0)
-            idx |= 1; // bit 0
-        if (delta13 >= 0)
-            idx |= 2; // bit 1
+        int weight = 1;
+        for (int j = 0; j < deltaThreshold.length; j++) {
+            int segment = 0;
+            while (segment < deltaThreshold[j].length
+                    && delta[j] >= deltaThreshold[j][segment]) {
+                segment++;
+            }
+            idx += segment * weight;
+            weight *= deltaThreshold[j].length + 1;
+        }
         return idx;
     }
 
     /**
      * 判断是否需要访问某个子节点
      *
-     * 基于GH树剪枝规则的扩展：
-     * 若 delta12 - 2r > delta12Range[i][1]，排除
-     * 若 delta12 + 2r < delta12Range[i][0]，排除
-     * 类似地检查delta13
+     * 基于GH树剪枝规则的扩展，对每个delta_j：
+     * 若 delta_j - 2r > 子树delta_j上界，排除
+     * 若 delta_j + 2r < 子树delta_j下界，排除
      *
      * @param childIdx 子节点索引
-     * @param d1 查询对象到pivot1的距离
-     * @param d2 查询对象到pivot2的距离
-     * @param d3 查询对象到pivot3的距离
+     * @param dq 查询对象到各pivot的距离
      * @param r 查询半径
      * @return 是否需要访问
      */
-    public boolean shouldVisitChild(int childIdx, double d1, double d2, double d3, double r) {
+    public boolean shouldVisitChild(int childIdx, double[] dq, double r) {
         if (children.get(childIdx) == null) {
             return false;
         }
 
-        double delta12 = d1 - d2;
-        double delta13 = d1 - d3;
-
-        double[] range12 = delta12Range[childIdx];
-        double[] range13 = delta13Range[childIdx];
-
-        // 剪枝条件
-        if (delta12 - 2 * r > range12[1] || delta12 + 2 * r < range12[0]) {
-            return false;
-        }
-        if (delta13 - 2 * r > range13[1] || delta13 + 2 * r < range13[0]) {
-            return false;
+        for (int j = 0; j < deltaThreshold.length; j++) {
+            double delta = dq[0] - dq[j + 1];
+            // 剪枝条件
+            if (delta - 2 * r > deltaUpper[childIdx][j]
+                    || delta + 2 * r < deltaLower[childIdx][j]) {
+                return false;
+            }
         }
-
         return true;
     }
 
+    /**
+     * 计算子树中对象到查询对象的距离下界
+     *
+     * 由 |delta_j(x) - delta_j(q)| <= 2d(q, x)，delta_j超出子树范围的部分的一半即为下界。
+     *
+     * @param childIdx 子节点索引
+     * @param dq 查询对象到各pivot的距离
+     * @return 距离下界
+     */
+    @Override
+    public double getChildLowerBound(int childIdx, double[] dq) {
+        double bound = 0;
+        for (int j = 0; j < deltaThreshold.length; j++) {
+            double delta = dq[0] - dq[j + 1];
+            bound = Math.max(bound, (delta - deltaUpper[childIdx][j]) / 2);
+            bound = Math.max(bound, (deltaLower[childIdx][j] - delta) / 2);
+        }
+        return bound;
+    }
+
     /**
      * 获取第一个支撑点
      */
@@ -144,13 +172,6 @@ public class CGHInternalNode extends InternalNode {
         return pivots.get(1);
     }
 
-    /**
-     * 获取第三个支撑点
-     */
-    public MetricSpaceData getPivot3() {
-        return pivots.get(2);
-    }
-
     /**
      * 获取第i个pivot
      */
@@ -159,43 +180,54 @@ public class CGHInternalNode extends InternalNode {
     }
 
     /**
-     * 获取第i个子节点
+     * 获取pivot数量k
      */
-    public TreeNode getChild(int i) {
-        return children.get(i);
+    public int getNumPivots() {
+        return pivots.size();
     }
 
     /**
-     * 获取子节点的delta12范围
+     * 获取子节点数量 s^(k-1)
      */
-    public double[] getDelta12Range(int childIdx) {
-        return delta12Range[childIdx].clone();
+    public int getNumChildren() {
+        return children.size();
     }
 
     /**
-     * 获取子节点的delta13范围
+     * 获取第i个子节点
      */
-    public double[] getDelta13Range(int childIdx) {
-        return delta13Range[childIdx].clone();
+    public TreeNode getChild(int i) {
+        return children.get(i);
     }
 
     /**
      * 获取第i个子节点的数据量
      */
     public int getChildSize(int i) {
-        return childSizes[i];
+        return children.get(i) != null ? children.get(i).size() : 0;
     }
 
     /**
-     * 重写size方法，包含pivot本身
+     * 重写size方法，包含pivot本身（共享支撑点已在子树中，不重复计数）
      */
     @Override
     public int size() {
-        int total = NUM_PIVOTS; // 3个pivot
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            total += childSizes[i];
+        return super.size() + (isPivotStoredInChildren() ? 0 : pivots.size());
+    }
+
+    @Override
+    public int chooseChild(double[] pivotDistances) {
+        return getChildIndex(pivotDistances);
+    }
+
+    @Override
+    public void extendChildBounds(int childIdx, double[] pivotDistances) {
+        boolean empty = children.get(childIdx) == null;
+        for (int j = 0; j < deltaThreshold.length; j++) {
+            double delta = pivotDistances[0] - pivotDistances[j + 1];
+            deltaLower[childIdx][j] = empty ? delta : Math.min(deltaLower[childIdx][j], delta);
+            deltaUpper[childIdx][j] = empty ? delta : Math.max(deltaUpper[childIdx][j], delta);
         }
-        return total;
     }
 
     /**
@@ -211,11 +243,43 @@ public class CGHInternalNode extends InternalNode {
         return dst;
     }
 
+    @Override
+    public boolean hasDeltaBounds() {
+        return true;
+    }
+
+    /**
+     * 子节点的delta_j下界（j = 1对应 d(x,p1) - d(x,p2)）
+     */
+    @Override
+    public double getDeltaLower(int childIdx, int j) {
+        return deltaLower[childIdx][j - 1];
+    }
+
+    /**
+     * 子节点的delta_j上界（j = 1对应 d(x,p1) - d(x,p2)）
+     */
+    @Override
+    public double getDeltaUpper(int childIdx, int j) {
+        return deltaUpper[childIdx][j - 1];
+    }
+
     @Override
     public String getNodeInfo() {
-        return String.format(
-                "CGHInternalNode[depth=%d, pivots=[ID%d,ID%d,ID%d], children=[%d,%d,%d,%d]]", depth,
-                pivots.get(0).getDataId(), pivots.get(1).getDataId(), pivots.get(2).getDataId(),
-                childSizes[0], childSizes[1], childSizes[2], childSizes[3]);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("CGHInternalNode[depth=%d, pivots=[", depth));
+        for (int i = 0; i < pivots.size(); i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append("ID").append(pivots.get(i).getDataId());
+        }
+        sb.append("], children=[");
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append(getChildSize(i));
+        }
+        sb.append("]]");
+        return sb.toString();
     }
 }
@@ -5,19 +5,19 @@ import core.MetricFunction;
 import index.tree.*;
 import index.tree.common.TreeConfig;
 import index.tree.common.MultiPivotSelector;
-import query.KNNResult;
 
 import java.util.*;
 
 /**
- * 3-pivot CGHT（Complete Generalized Hyperplane Tree，完全广义超平面树）
+ * k-pivot CGHT（Complete Generalized Hyperplane Tree，完全广义超平面树）
  *
- * CGHT是GH树的多pivot扩展，使用3个支撑点进行完全超平面划分。
+ * CGHT是GH树的多pivot扩展，使用k个支撑点（TreeConfig.numPivots，默认3）进行完全超平面划分。
  * 核心思想是充分利用pivot对之间的距离差信息进行划分。
  *
  * 划分规则：
- * - 计算距离差 delta12 = d(x, p1) - d(x, p2), delta13 = d(x, p1) - d(x, p3)
- * - 根据距离差的符号划分为4个区域
+ * - 计算距离差 delta_j = d(x, p1) - d(x, pj)，j = 2..k
+ * - 每个delta按s-1个阈值划分为s段（TreeConfig.splitsPerPivot），共s^(k-1)个区域
+ * - s=2时阈值为0，即按距离差的符号划分（k=3时为4个区域）
  *
  * 剪枝规则：
  * - 基于GH树剪枝规则的扩展
@@ -28,12 +28,6 @@ import java.util.*;
  */
 public class CGHTree extends TreeIndex {
 
-    /** pivot数量 */
-    private static final int NUM_PIVOTS = 3;
-
-    /** 子节点数量 */
-    private static final int NUM_CHILDREN = 4;
-
     /** 多pivot选择器 */
     private MultiPivotSelector pivotSelector;
 
@@ -42,6 +36,7 @@ public class CGHTree extends TreeIndex {
      */
     public CGHTree(TreeConfig config, MultiPivotSelector pivotSelector) {
         super(config);
+        checkNumPivots(config);
         this.pivotSelector = pivotSelector;
     }
 
@@ -58,6 +53,7 @@ public class CGHTree extends TreeIndex {
      */
     public CGHTree(TreeConfig config) {
         super(config);
+        checkNumPivots(config);
         MultiPivotSelector.SelectionStrategy strategy;
         switch (config.getPivotStrategy()) {
             case FFT:
@@ -76,146 +72,156 @@ public class CGHTree extends TreeIndex {
                 : new MultiPivotSelector(strategy);
     }
 
+    /**
+     * CGHT按距离差划分，至少需要2个pivot
+     */
+    private static void checkNumPivots(TreeConfig config) {
+        if (config.getNumPivots() < 2) {
+            throw new IllegalArgumentException("CGH树至少需要2个支撑点");
+        }
+    }
+
     @Override
     public String getIndexName() {
-        return "3-pivot CGH-Tree (完全广义超平面树)";
+        return config.getNumPivots() + "-pivot CGH-Tree (完全广义超平面树)";
     }
 
     @Override
-    protected TreeNode buildTreeRecursive(List<MetricSpaceData> data, int depth) {
+    protected int getPivotsPerNode() {
+        return config.getNumPivots();
+    }
+
+    @Override
+    protected TreeNode buildTreeRecursive(BuildSlice data, int depth, Random rnd) {
+        int numPivots = config.getNumPivots();
+        int splits = config.getSplitsPerPivot();
+        int numDeltas = numPivots - 1;
+        int numChildren = config.getFanout(numDeltas);
+
         // 判断是否创建叶子节点
         if (heightController.canCreateLeaf(depth, data.size())) {
             if (config.isVerbose()) {
                 System.out.printf("  深度%d: 创建叶子节点，数据量=%d%n", depth, data.size());
             }
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
-        // 数据不足以选择3个pivot
-        if (data.size() < NUM_PIVOTS + 1) {
-            return new LeafNode(data, depth);
+        // 数据不足以选择k个pivot
+        if (data.size() < numPivots + 1) {
+            return createLeaf(data, depth);
         }
 
-        // 选择3个pivot
-        List<MetricSpaceData> nodePivots = pivotSelector.selectPivots(data, metric, NUM_PIVOTS);
-        buildDistanceComputations += pivotSelector.getDistanceComputations();
-
-        MetricSpaceData p1 = nodePivots.get(0);
-        MetricSpaceData p2 = nodePivots.get(1);
-        MetricSpaceData p3 = nodePivots.get(2);
+        // 选择k个pivot（共享支撑点模式下从共享支撑点集合中选）
+        int[] ordinals = null;
+        List<MetricSpaceData> nodePivots;
+        if (usesSharedPivots()) {
+            ordinals = selectSharedPivots(data, depth, numPivots, rnd);
+            nodePivots = getSharedPivots(ordinals);
+        } else {
+            nodePivots = pivotSelector.selectPivots(data, metric, numPivots, rnd);
+            buildDistanceComputations.add(pivotSelector.getDistanceComputations());
+        }
 
         if (config.isVerbose()) {
-            System.out.printf("  深度%d: 选择支撑点 p1=%s, p2=%s, p3=%s%n", depth, p1, p2, p3);
+            System.out.printf("  深度%d: 选择支撑点 %s%n", depth, describePivots(nodePivots));
         }
 
-        // 从数据中移除pivot
-        Set<Integer> pivotIds = new HashSet<>();
-        pivotIds.add(p1.getDataId());
-        pivotIds.add(p2.getDataId());
-        pivotIds.add(p3.getDataId());
-
-        List<MetricSpaceData> remainingData = new ArrayList<>();
-        for (MetricSpaceData d : data) {
-            if (!pivotIds.contains(d.getDataId())) {
-                remainingData.add(d);
-            }
+        // 把pivot移到片段开头（共享支撑点留在数据中，划分全部对象）
+        BuildSlice remainingData = data;
+        if (ordinals == null) {
+            data.moveToFront(nodePivots);
+            remainingData = data.subSlice(numPivots, data.size());
         }
 
         if (remainingData.isEmpty()) {
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
-        // 计算距离差并分配到子集
-        @SuppressWarnings("unchecked")
-        List<MetricSpaceData>[] partitions = new ArrayList[NUM_CHILDREN];
-        @SuppressWarnings("unchecked")
-        List<double[]>[] partitionDeltas = new ArrayList[NUM_CHILDREN];
-
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            partitions[i] = new ArrayList<>();
-            partitionDeltas[i] = new ArrayList<>();
+        // 计算距离和距离差 delta_j = d(x, p1) - d(x, p(j+1))，
+        // 距离暂存区第0列存d(x, p1)，第j+1列存delta_j
+        double[] dist = new double[numPivots];
+        for (int i = 0; i < remainingData.size(); i++) {
+            MetricSpaceData d = remainingData.get(i);
+            for (int j = 0; j < numPivots; j++) {
+                dist[j] = metric.getDistance(d, nodePivots.get(j));
+                recordPathDistance(remainingData.rowOf(i), depth, j, dist[j]);
+            }
+            buildDistanceComputations.add(numPivots);
+            remainingData.setDistance(i, 0, dist[0]);
+            for (int j = 0; j < numDeltas; j++) {
+                remainingData.setDistance(i, j + 1, dist[0] - dist[j + 1]);
+            }
         }
 
-        for (MetricSpaceData d : remainingData) {
-            double d1 = metric.getDistance(d, p1);
-            double d2 = metric.getDistance(d, p2);
-            double d3 = metric.getDistance(d, p3);
-            buildDistanceComputations += 3;
+        // 划分阈值：s=2时为0（按符号划分），否则为各delta的s分位数（逐列快速选择）
+        double[][] deltaThreshold = new double[numDeltas][splits - 1];
+        if (splits > 2) {
+            for (int j = 0; j < numDeltas; j++) {
+                deltaThreshold[j] = remainingData.quantiles(j + 1, splits);
+            }
+        }
 
-            double delta12 = d1 - d2;
-            double delta13 = d1 - d3;
+        // 确定每个对象所属的子集，同时计算每个子集的delta范围
+        double[][] deltaLower = new double[numChildren][numDeltas];
+        double[][] deltaUpper = new double[numChildren][numDeltas];
+        for (int i = 0; i < numChildren; i++) {
+            Arrays.fill(deltaLower[i], Double.POSITIVE_INFINITY);
+            Arrays.fill(deltaUpper[i], Double.NEGATIVE_INFINITY);
+        }
 
-            int childIdx = 0;
-            if (delta12 >= 0)
-                childIdx |= 1;
-            if (delta13 >= 0)
-                childIdx |= 2;
+        double[] delta = new double[numDeltas];
+        for (int i = 0; i < remainingData.size(); i++) {
+            for (int j = 0; j < numDeltas; j++) {
+                delta[j] = remainingData.distance(i, j + 1);
+            }
+            int childIdx = CGHInternalNode.computeDeltaChildIndex(delta, deltaThreshold);
+            remainingData.setKey(i, childIdx);
+            for (int j = 0; j < numDeltas; j++) {
+                deltaLower[childIdx][j] = Math.min(deltaLower[childIdx][j], delta[j]);
+                deltaUpper[childIdx][j] = Math.max(deltaUpper[childIdx][j], delta[j]);
+            }
+        }
 
-            partitions[childIdx].add(d);
-            partitionDeltas[childIdx].add(new double[] {delta12, delta13});
+        // 按子集原地分组为s^(k-1)个连续片段
+        List<BuildSlice> partitions = remainingData.groupByKey(numChildren);
+        if (ordinals != null && isDegenerate(partitions, data.size())) {
+            return createLeaf(data, depth);
         }
 
         if (config.isVerbose()) {
             StringBuilder sb = new StringBuilder();
             sb.append(String.format("  深度%d: 数据划分完成，分布=[", depth));
-            for (int i = 0; i < NUM_CHILDREN; i++) {
+            for (int i = 0; i < numChildren; i++) {
                 if (i > 0)
                     sb.append(", ");
-                sb.append(partitions[i].size());
+                sb.append(partitions.get(i).size());
             }
             sb.append("]");
             System.out.println(sb.toString());
         }
 
-        // 计算每个子集的delta范围
-        double[][] delta12Range = new double[NUM_CHILDREN][2];
-        double[][] delta13Range = new double[NUM_CHILDREN][2];
-
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            if (partitionDeltas[i].isEmpty()) {
-                delta12Range[i][0] = 0;
-                delta12Range[i][1] = 0;
-                delta13Range[i][0] = 0;
-                delta13Range[i][1] = 0;
-            } else {
-                double minD12 = Double.MAX_VALUE, maxD12 = Double.MIN_VALUE;
-                double minD13 = Double.MAX_VALUE, maxD13 = Double.MIN_VALUE;
-
-                for (double[] deltas : partitionDeltas[i]) {
-                    minD12 = Math.min(minD12, deltas[0]);
-                    maxD12 = Math.max(maxD12, deltas[0]);
-                    minD13 = Math.min(minD13, deltas[1]);
-                    maxD13 = Math.max(maxD13, deltas[1]);
-                }
-
-                delta12Range[i][0] = minD12;
-                delta12Range[i][1] = maxD12;
-                delta13Range[i][0] = minD13;
-                delta13Range[i][1] = maxD13;
+        // 空子集的delta范围为[0, 0]
+        for (int i = 0; i < numChildren; i++) {
+            if (partitions.get(i).isEmpty()) {
+                Arrays.fill(deltaLower[i], 0);
+                Arrays.fill(deltaUpper[i], 0);
             }
         }
 
-        // 递归构建子树
-        List<TreeNode> childNodes = new ArrayList<>();
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            if (partitions[i].isEmpty()) {
-                childNodes.add(null);
-            } else {
-                childNodes.add(buildTreeRecursive(partitions[i], depth + 1));
-            }
-        }
+        // 递归构建子树（空子集对应null子节点）
+        List<TreeNode> childNodes = buildChildren(partitions, depth + 1, rnd);
 
-        return new CGHInternalNode(p1, p2, p3, childNodes, delta12Range, delta13Range, depth);
+        CGHInternalNode node = new CGHInternalNode(nodePivots, childNodes, deltaThreshold,
+                deltaLower, deltaUpper, depth);
+        return withPivotOrdinals(node, ordinals);
     }
 
     // ========== 范围查询实现 ==========
 
     @Override
     public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
-        List<MetricSpaceData> results = new ArrayList<>();
-
         if (root == null) {
-            return results;
+            return new ArrayList<>();
         }
 
         if (config.isVerbose()) {
@@ -226,69 +232,13 @@ public class CGHTree extends TreeIndex {
             System.out.println("查询半径: " + radius);
         }
 
-        rangeQueryRecursive(root, queryObject, radius, results);
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
-    }
-
-    private void rangeQueryRecursive(TreeNode node, MetricSpaceData queryObject, double radius,
-            List<MetricSpaceData> results) {
-        nodeAccesses++;
-
-        if (node == null) {
-            return;
-        }
-
-        if (node.isLeaf()) {
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                if (dist <= radius) {
-                    results.add(data);
-                }
-            }
-        } else {
-            CGHInternalNode internal = (CGHInternalNode) node;
-
-            // 计算查询对象到各pivot的距离
-            double d1 = metric.getDistance(queryObject, internal.getPivot1());
-            double d2 = metric.getDistance(queryObject, internal.getPivot2());
-            double d3 = metric.getDistance(queryObject, internal.getPivot3());
-            queryDistanceComputations += 3;
-
-            // 检查pivot是否在查询范围内
-            if (d1 <= radius)
-                results.add(internal.getPivot1());
-            if (d2 <= radius)
-                results.add(internal.getPivot2());
-            if (d3 <= radius)
-                results.add(internal.getPivot3());
-
-            // 检查每个子树
-            for (int i = 0; i < NUM_CHILDREN; i++) {
-                if (internal.shouldVisitChild(i, d1, d2, d3, radius)) {
-                    rangeQueryRecursive(internal.getChild(i), queryObject, radius, results);
-                }
-            }
-        }
+        return executeQuery(newRangeContext(queryObject, radius));
     }
 
     // ========== kNN查询实现 ==========
 
     @Override
     public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
-        PriorityQueue<KNNResult> knnHeap =
-                new PriorityQueue<>((a, b) -> Double.compare(b.getDistance(), a.getDistance()));
-
         if (root == null || k <= 0) {
             return new ArrayList<>();
         }
@@ -301,77 +251,31 @@ public class CGHTree extends TreeIndex {
             System.out.println("k = " + k);
         }
 
-        double[] currentRadius = {Double.MAX_VALUE};
-
-        knnQueryRecursive(root, queryObject, k, knnHeap, currentRadius);
-
-        List<MetricSpaceData> results = new ArrayList<>();
-        List<KNNResult> tempList = new ArrayList<>(knnHeap);
-        tempList.sort(Comparator.comparingDouble(KNNResult::getDistance));
-
-        for (KNNResult result : tempList) {
-            results.add(result.getData());
-        }
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
+        return executeQuery(newKnnContext(queryObject, k));
     }
 
-    private void knnQueryRecursive(TreeNode node, MetricSpaceData queryObject, int k,
-            PriorityQueue<KNNResult> knnHeap, double[] currentRadius) {
-        nodeAccesses++;
-
-        if (node == null) {
-            return;
-        }
-
-        if (node.isLeaf()) {
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                updateKNNHeap(knnHeap, data, dist, k, currentRadius);
-            }
-        } else {
-            CGHInternalNode internal = (CGHInternalNode) node;
-
-            double d1 = metric.getDistance(queryObject, internal.getPivot1());
-            double d2 = metric.getDistance(queryObject, internal.getPivot2());
-            double d3 = metric.getDistance(queryObject, internal.getPivot3());
-            queryDistanceComputations += 3;
-
-            // 检查pivot
-            updateKNNHeap(knnHeap, internal.getPivot1(), d1, k, currentRadius);
-            updateKNNHeap(knnHeap, internal.getPivot2(), d2, k, currentRadius);
-            updateKNNHeap(knnHeap, internal.getPivot3(), d3, k, currentRadius);
+    // ========== 增量最近邻（最佳优先）==========
 
-            // 访问子树
-            for (int i = 0; i < NUM_CHILDREN; i++) {
-                if (internal.shouldVisitChild(i, d1, d2, d3, currentRadius[0])) {
-                    knnQueryRecursive(internal.getChild(i), queryObject, k, knnHeap, currentRadius);
-                }
+    /**
+     * 展开CGH树内部节点：支撑点作为对象入队，子节点以delta范围给出的下界入队
+     */
+    @Override
+    protected void expandNode(InternalNode node, double nodeLowerBound,
+            NearestNeighborIterator iterator) {
+        CGHInternalNode internal = (CGHInternalNode) node;
+        double[] dq = new double[internal.getNumPivots()];
+        for (int i = 0; i < dq.length; i++) {
+            dq[i] = internal.queryDistance(i, iterator.getContext());
+            if (!internal.isPivotStoredInChildren()) {
+                iterator.addObject(internal.getPivot(i), dq[i]);
             }
         }
-    }
 
-    private void updateKNNHeap(PriorityQueue<KNNResult> knnHeap, MetricSpaceData data, double dist,
-            int k, double[] currentRadius) {
-        if (knnHeap.size() < k) {
-            knnHeap.offer(new KNNResult(data, dist));
-            if (knnHeap.size() == k) {
-                currentRadius[0] = knnHeap.peek().getDistance();
+        for (int i = 0; i < internal.getNumChildren(); i++) {
+            if (internal.getChild(i) != null) {
+                iterator.addNode(internal.getChild(i),
+                        Math.max(nodeLowerBound, internal.getChildLowerBound(i, dq)));
             }
-        } else if (dist < currentRadius[0]) {
-            knnHeap.poll();
-            knnHeap.offer(new KNNResult(data, dist));
-            currentRadius[0] = knnHeap.peek().getDistance();
         }
     }
 
@@ -384,10 +288,21 @@ public class CGHTree extends TreeIndex {
             return String.format("叶子节点 [数据量=%d]", node.size());
         } else {
             CGHInternalNode internal = (CGHInternalNode) node;
-            return String.format("CGH内部节点 [pivots=ID%d,ID%d,ID%d, sizes=[%d,%d,%d,%d]]",
-                    internal.getPivot1().getDataId(), internal.getPivot2().getDataId(),
-                    internal.getPivot3().getDataId(), internal.getChildSize(0),
-                    internal.getChildSize(1), internal.getChildSize(2), internal.getChildSize(3));
+            StringBuilder sb = new StringBuilder();
+            sb.append("CGH内部节点 [pivots=");
+            for (int i = 0; i < internal.getNumPivots(); i++) {
+                if (i > 0)
+                    sb.append(",");
+                sb.append("ID").append(internal.getPivot(i).getDataId());
+            }
+            sb.append(", sizes=[");
+            for (int i = 0; i < internal.getNumChildren(); i++) {
+                if (i > 0)
+                    sb.append(",");
+                sb.append(internal.getChildSize(i));
+            }
+            sb.append("]]");
+            return sb.toString();
         }
     }
 
@@ -403,13 +318,13 @@ public class CGHTree extends TreeIndex {
         if (!node.isLeaf()) {
             CGHInternalNode internal = (CGHInternalNode) node;
             int nonNullCount = 0;
-            for (int i = 0; i < NUM_CHILDREN; i++) {
+            for (int i = 0; i < internal.getNumChildren(); i++) {
                 if (internal.getChild(i) != null)
                     nonNullCount++;
             }
 
             int printed = 0;
-            for (int i = 0; i < NUM_CHILDREN; i++) {
+            for (int i = 0; i < internal.getNumChildren(); i++) {
                 TreeNode child = internal.getChild(i);
                 if (child != null) {
                     printed++;
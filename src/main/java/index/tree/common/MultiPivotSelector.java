@@ -36,8 +36,9 @@ public class MultiPivotSelector {
     /** 随机数生成器 */
     private Random random;
 
-    /** 距离计算次数统计 */
-    private int distanceComputations = 0;
+    /** 距离计算次数统计（按线程记录，并行构建时多个线程共享同一个选择器） */
+    private final ThreadLocal<int[]> distanceComputations =
+            ThreadLocal.withInitial(() -> new int[1]);
 
     /**
      * 构造函数
@@ -70,6 +71,22 @@ public class MultiPivotSelector {
      */
     public List<MetricSpaceData> selectPivots(List<? extends MetricSpaceData> data,
             MetricFunction metric, int k) {
+        return selectPivots(data, metric, k, random);
+    }
+
+    /**
+     * 使用指定的随机数生成器选择k个pivot
+     *
+     * 选择器本身不保存可变状态，多个线程可以各自传入随机数生成器并发调用。
+     *
+     * @param data 数据集
+     * @param metric 距离函数
+     * @param k pivot数量
+     * @param random 随机数生成器
+     * @return pivot列表
+     */
+    public List<MetricSpaceData> selectPivots(List<? extends MetricSpaceData> data,
+            MetricFunction metric, int k, Random random) {
 
         if (data == null || data.isEmpty()) {
             throw new IllegalArgumentException("数据集不能为空");
@@ -81,19 +98,19 @@ public class MultiPivotSelector {
             k = data.size();
         }
 
-        distanceComputations = 0;
+        distanceComputations.get()[0] = 0;
 
         switch (strategy) {
             case RANDOM:
-                return randomSelect(data, k);
+                return randomSelect(data, k, random);
             case FFT:
-                return fftSelect(data, metric, k);
+                return fftSelect(data, metric, k, random);
             case MAX_SPREAD:
-                return maxSpreadSelect(data, metric, k);
+                return maxSpreadSelect(data, metric, k, random);
             case INCREMENTAL:
-                return incrementalSelect(data, metric, k);
+                return incrementalSelect(data, metric, k, random);
             default:
-                return randomSelect(data, k);
+                return randomSelect(data, k, random);
         }
     }
 
@@ -102,7 +119,8 @@ public class MultiPivotSelector {
      *
      * 随机选择k个不同的数据点作为pivot
      */
-    private List<MetricSpaceData> randomSelect(List<? extends MetricSpaceData> data, int k) {
+    private List<MetricSpaceData> randomSelect(List<? extends MetricSpaceData> data, int k,
+            Random random) {
         List<MetricSpaceData> pivots = new ArrayList<>();
         Set<Integer> selected = new HashSet<>();
 
@@ -125,7 +143,7 @@ public class MultiPivotSelector {
      * 2. 对于后续每个pivot，选择离已选点集最远的点
      */
     private List<MetricSpaceData> fftSelect(List<? extends MetricSpaceData> data,
-            MetricFunction metric, int k) {
+            MetricFunction metric, int k, Random random) {
 
         List<MetricSpaceData> pivots = new ArrayList<>();
         Set<Integer> selectedIds = new HashSet<>();
@@ -154,7 +172,7 @@ public class MultiPivotSelector {
 
                 // 计算到最新pivot的距离，更新最小距离
                 double dist = metric.getDistance(candidate, lastPivot);
-                distanceComputations++;
+                distanceComputations.get()[0]++;
 
                 minDistToPivots[i] = Math.min(minDistToPivots[i], dist);
 
@@ -180,11 +198,11 @@ public class MultiPivotSelector {
      * 通过采样找到使两两距离之和最大化的点集
      */
     private List<MetricSpaceData> maxSpreadSelect(List<? extends MetricSpaceData> data,
-            MetricFunction metric, int k) {
+            MetricFunction metric, int k, Random random) {
 
         // 采样以减少计算量
         int sampleSize = Math.min(100, data.size());
-        List<MetricSpaceData> sample = sampleData(data, sampleSize);
+        List<MetricSpaceData> sample = sampleData(data, sampleSize, random);
 
         // 如果采样后点数不足k，直接返回采样结果
         if (sample.size() <= k) {
@@ -196,7 +214,7 @@ public class MultiPivotSelector {
         for (int i = 0; i < sample.size(); i++) {
             for (int j = i + 1; j < sample.size(); j++) {
                 double dist = metric.getDistance(sample.get(i), sample.get(j));
-                distanceComputations++;
+                distanceComputations.get()[0]++;
                 distMatrix[i][j] = dist;
                 distMatrix[j][i] = dist;
             }
@@ -259,15 +277,16 @@ public class MultiPivotSelector {
      * 类似FFT，但考虑数据分布的均匀性
      */
     private List<MetricSpaceData> incrementalSelect(List<? extends MetricSpaceData> data,
-            MetricFunction metric, int k) {
+            MetricFunction metric, int k, Random random) {
         // 使用FFT作为基础实现
-        return fftSelect(data, metric, k);
+        return fftSelect(data, metric, k, random);
     }
 
     /**
      * 数据采样
      */
-    private List<MetricSpaceData> sampleData(List<? extends MetricSpaceData> data, int sampleSize) {
+    private List<MetricSpaceData> sampleData(List<? extends MetricSpaceData> data, int sampleSize,
+            Random random) {
         if (data.size() <= sampleSize) {
             return new ArrayList<>(data);
         }
@@ -285,10 +304,10 @@ public class MultiPivotSelector {
     }
 
     /**
-     * 获取距离计算次数
+     * 获取当前线程最近一次选择的距离计算次数
      */
     public int getDistanceComputations() {
-        return distanceComputations;
+        return distanceComputations.get()[0];
     }
 
     /**
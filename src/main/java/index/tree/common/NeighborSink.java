@@ -0,0 +1,27 @@
+package index.tree.common;
+
+import core.MetricSpaceData;
+
+/**
+ * 全kNN查询结果的回调接口
+ *
+ * 每个对象的k个近邻求出后回调一次。数组在回调返回后会被复用，需要保存时应复制其中的内容。
+ * 并行查询时会在多个线程上同时回调，实现需要是线程安全的。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface NeighborSink {
+
+    /**
+     * 处理一个对象的近邻
+     *
+     * @param object 查询对象（树中的一个对象）
+     * @param count 近邻数（对象数不足k+1时小于k）
+     * @param neighbors 近邻，按距离升序，前count个有效（不含对象自身）
+     * @param distances 对应的距离
+     */
+    void accept(MetricSpaceData object, int count, MetricSpaceData[] neighbors,
+            double[] distances);
+}
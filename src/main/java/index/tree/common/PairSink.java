@@ -0,0 +1,27 @@
+package index.tree.common;
+
+/**
+ * 相似性连接结果的回调接口
+ *
+ * 连接在遍历过程中每找到一对距离不超过半径的对象就回调一次，只传对象ID，不创建结果对象。
+ * 两棵子树的所有对象两两都在半径内时，这些对象对不计算距离直接回调，距离为 {@link #UNKNOWN_DISTANCE}。
+ * 并行连接时会在多个线程上同时回调，实现需要是线程安全的。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface PairSink {
+
+    /** 未计算距离时传入的距离值（用 Double.isNaN 判断） */
+    double UNKNOWN_DISTANCE = Double.NaN;
+
+    /**
+     * 处理一个结果对象对
+     *
+     * @param leftId 左侧对象的ID（自连接时两侧的顺序不固定）
+     * @param rightId 右侧对象的ID
+     * @param distance 两个对象的距离；未计算时为 {@link #UNKNOWN_DISTANCE}
+     */
+    void accept(int leftId, int rightId, double distance);
+}
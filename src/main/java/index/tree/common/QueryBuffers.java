@@ -0,0 +1,191 @@
+package index.tree.common;
+
+import core.MetricSpaceData;
+import query.BoundedMaxHeap;
+
+import java.util.Arrays;
+
+/**
+ * 按线程复用的查询缓冲区
+ *
+ * 每份缓冲区包含按深度的临时数组、kNN结果堆、堆中对象的槽位和显式栈遍历的节点栈。
+ * 查询上下文创建时借出，查询结束时归还，同一线程上的后续查询不再分配这些数组。
+ * 每个线程保留一个空闲缓冲区的列表：同一线程同时借出多份时（范围查询的回调中再查询，
+ * 或分组批量查询的一个窗口中的全部查询），各自使用列表中的一份，归还后留给之后的查询，
+ * 因此批量查询的窗口之间同样不再分配结果堆。只在借出的线程上归还的缓冲区回到列表，
+ * 列表最多保留 {@link #MAX_FREE} 份。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+final class QueryBuffers {
+
+    /** 每个线程最多保留的空闲缓冲区数（足够容纳默认组大小下一个分组窗口的全部查询） */
+    static final int MAX_FREE = 1 << 14;
+
+    /** 每个线程的空闲缓冲区 */
+    private static final ThreadLocal<Pool> POOL = ThreadLocal.withInitial(Pool::new);
+
+    /** 所属线程的空闲列表（单独创建的缓冲区为null，归还时不做任何事） */
+    private final Pool pool;
+
+    /** 节点栈（元素为树节点，放在通用包中因此用Object） */
+    private Object[] nodeStack;
+
+    /** 与节点栈并行的下界栈 */
+    private double[] boundStack;
+
+    /** 节点栈是否已被某个遍历使用 */
+    private boolean stackInUse;
+
+    /** 按深度复用的临时数组 */
+    private double[][] scratch = new double[16][];
+
+    /** kNN结果堆 */
+    private BoundedMaxHeap heap;
+
+    /** 堆中各槽位对应的对象 */
+    private MetricSpaceData[] slots;
+
+    /** 共享支撑点的距离备忘表 */
+    private double[] memo;
+
+    private QueryBuffers(Pool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 从当前线程的空闲列表借出一份缓冲区（列表为空时新建）
+     */
+    static QueryBuffers acquire() {
+        Pool pool = POOL.get();
+        if (pool.size > 0) {
+            QueryBuffers buffers = pool.free[--pool.size];
+            pool.free[pool.size] = null;
+            return buffers;
+        }
+        return new QueryBuffers(pool);
+    }
+
+    /**
+     * 创建不归还的缓冲区（用于生命周期由调用方决定的查询，如增量最近邻迭代器）
+     */
+    static QueryBuffers unpooled() {
+        return new QueryBuffers(null);
+    }
+
+    /**
+     * 归还缓冲区，并清除槽位和节点栈中的对象引用
+     *
+     * 在借出线程以外的线程上归还时不放回列表（空闲列表不是线程安全的）。
+     */
+    void release() {
+        if (slots != null) {
+            Arrays.fill(slots, null);
+        }
+        if (nodeStack != null) {
+            Arrays.fill(nodeStack, null);
+        }
+        stackInUse = false;
+        if (pool != null && pool.owner == Thread.currentThread() && pool.size < MAX_FREE) {
+            if (pool.size == pool.free.length) {
+                pool.free = Arrays.copyOf(pool.free, pool.size * 2);
+            }
+            pool.free[pool.size++] = this;
+        }
+    }
+
+    /**
+     * 借出节点栈和下界栈给一次遍历（已被另一个遍历使用时返回false，调用方自己分配）
+     */
+    boolean claimStack() {
+        if (stackInUse) {
+            return false;
+        }
+        stackInUse = true;
+        return true;
+    }
+
+    /**
+     * 获取长度至少为length的节点栈（扩容时保留原有内容）
+     */
+    Object[] nodeStack(int length) {
+        if (nodeStack == null || nodeStack.length < length) {
+            nodeStack = nodeStack == null ? new Object[length] : Arrays.copyOf(nodeStack, length);
+        }
+        return nodeStack;
+    }
+
+    /**
+     * 获取长度至少为length的下界栈（扩容时保留原有内容）
+     */
+    double[] boundStack(int length) {
+        if (boundStack == null || boundStack.length < length) {
+            boundStack = boundStack == null ? new double[length]
+                    : Arrays.copyOf(boundStack, length);
+        }
+        return boundStack;
+    }
+
+    /**
+     * 获取清空的容量为k的结果堆
+     */
+    BoundedMaxHeap heap(int k) {
+        if (heap == null || heap.getCapacity() != k) {
+            heap = new BoundedMaxHeap(k);
+        } else {
+            heap.clear();
+        }
+        return heap;
+    }
+
+    /**
+     * 获取至少k个槽位的对象数组
+     */
+    MetricSpaceData[] slots(int k) {
+        if (slots == null || slots.length < k) {
+            slots = new MetricSpaceData[k];
+        }
+        return slots;
+    }
+
+    /**
+     * 获取长度至少为length、前length个元素为NaN（未计算）的备忘表
+     */
+    double[] memo(int length) {
+        if (memo == null || memo.length < length) {
+            memo = new double[length];
+        }
+        Arrays.fill(memo, 0, length, Double.NaN);
+        return memo;
+    }
+
+    /**
+     * 获取某一深度长度至少为length的临时数组（内容未初始化）
+     */
+    double[] scratch(int depth, int length) {
+        if (depth >= scratch.length) {
+            double[][] grown = new double[Math.max(depth + 1, scratch.length * 2)][];
+            System.arraycopy(scratch, 0, grown, 0, scratch.length);
+            scratch = grown;
+        }
+        double[] buffer = scratch[depth];
+        if (buffer == null || buffer.length < length) {
+            buffer = new double[length];
+            scratch[depth] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * 一个线程的空闲缓冲区列表
+     */
+    private static final class Pool {
+        /** 所属线程 */
+        private final Thread owner = Thread.currentThread();
+        /** 空闲的缓冲区 */
+        private QueryBuffers[] free = new QueryBuffers[4];
+        /** 空闲缓冲区数 */
+        private int size;
+    }
+}
@@ -0,0 +1,608 @@
+package index.tree.common;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import query.BoundedMaxHeap;
+import query.SharedKnnBound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 单次查询的执行上下文
+ *
+ * 一次范围查询或kNN查询的全部可变状态都保存在这里，而不是保存在索引对象中：
+ * 1. 本次查询的距离计算次数和节点访问次数
+ * 2. 结果集：范围查询为结果列表（或回调、只计数），kNN查询为容量为k的最大堆
+ * 3. 当前剪枝半径：范围查询固定为查询半径，kNN查询随堆顶收缩
+ * 4. 按树深度复用的临时数组（存放查询对象到节点各支撑点的距离）
+ * 5. 需要跳过的已删除对象（动态删除的墓碑）
+ * 6. 近似kNN查询的控制：近似因子ε、计算预算和概率停止半径，以及是否已经停止
+ * 7. 范围查询的结果数上限（达到上限后同样进入停止状态）
+ * 8. kNN查询与其他并发搜索共享的第k近邻距离上界（分片查询时使用）
+ * 9. 共享支撑点（GLOBAL/MIX模式）的距离备忘表：同一支撑点在多个节点出现时只计算一次距离
+ *
+ * 上下文只被一个线程使用，因此构建好的树可以同时服务多个查询线程。
+ * 查询结束后由索引把计数汇总到线程安全的 {@link QueryStatistics}。
+ *
+ * kNN结果堆是基本类型的定容最大堆，临时数组和结果堆都从按线程复用的缓冲区借出，
+ * 查询过程中不分配对象；结果只在 {@link #getResults()} 时转换一次。
+ * 查询结束后调用 {@link #release()} 归还缓冲区；查询中途抛出异常（例如回调抛出）时也要归还，
+ * 因此调用方在finally中调用它，重复调用没有影响。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class QueryContext {
+
+    /** 查询对象 */
+    private final MetricSpaceData queryObject;
+
+    /** 距离函数 */
+    private final MetricFunction metric;
+
+    /** 近邻数量（范围查询为0） */
+    private final int k;
+
+    /** 当前剪枝半径 */
+    private double radius;
+
+    /** 当前第k近邻距离（kNN查询中堆满之前为Double.MAX_VALUE） */
+    private double kthDistance;
+
+    /** 范围查询结果（回调或只计数时为null） */
+    private List<MetricSpaceData> rangeResults;
+
+    /** 范围查询结果回调（为null时收集到列表或只计数） */
+    private RangeVisitor visitor;
+
+    /** 范围查询是否只计数 */
+    private boolean countOnly;
+
+    /** 范围查询已产生的结果数 */
+    private long resultCount;
+
+    /** 范围查询结果数上限 */
+    private long limit = Long.MAX_VALUE;
+
+    /** kNN结果堆（最大堆，堆顶为当前第k近邻；编号是knnSlots中的槽位） */
+    private final BoundedMaxHeap knnHeap;
+
+    /** 结果堆中各槽位对应的对象 */
+    private final MetricSpaceData[] knnSlots;
+
+    /** 本次查询的距离计算次数 */
+    private long distanceComputations;
+
+    /** 本次查询的节点访问次数 */
+    private long nodeAccesses;
+
+    /** 临时数组和结果堆所在的缓冲区 */
+    private final QueryBuffers buffers;
+
+    /** 是否已经归还缓冲区 */
+    private boolean released;
+
+    /** 已删除对象（为null表示没有需要跳过的对象） */
+    private Set<MetricSpaceData> deleted;
+
+    /** 剪枝半径的收缩因子 1+ε（精确查询为1） */
+    private double shrinkFactor = 1;
+
+    /** 距离计算预算 */
+    private long maxDistanceComputations = Long.MAX_VALUE;
+
+    /** 节点访问预算 */
+    private long maxNodeAccesses = Long.MAX_VALUE;
+
+    /** 概率停止半径：第k近邻距离不超过它时停止 */
+    private double stopRadius = Double.NEGATIVE_INFINITY;
+
+    /** 近似查询是否已经停止 */
+    private boolean stopped;
+
+    /** 与其他搜索共享的第k近邻距离上界（为null表示不共享） */
+    private SharedKnnBound sharedBound;
+
+    /** 按共享支撑点序号保存的距离（NaN表示尚未计算，为null表示不备忘） */
+    private double[] pivotMemo;
+
+    /** 命中备忘表、省去的距离计算次数 */
+    private long memoHits;
+
+    private QueryContext(MetricSpaceData queryObject, MetricFunction metric, int k,
+            double radius, QueryBuffers buffers) {
+        this.queryObject = queryObject;
+        this.metric = metric;
+        this.k = k;
+        this.radius = radius;
+        this.kthDistance = radius;
+        this.rangeResults = k == 0 ? new ArrayList<>() : null;
+        this.buffers = buffers;
+        this.knnHeap = k == 0 ? null : buffers.heap(k);
+        this.knnSlots = k == 0 ? null : buffers.slots(k);
+    }
+
+    /**
+     * 创建范围查询上下文
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @param metric 距离函数
+     * @return 查询上下文
+     */
+    public static QueryContext forRange(MetricSpaceData queryObject, double radius,
+            MetricFunction metric) {
+        return new QueryContext(queryObject, metric, 0, radius, QueryBuffers.acquire());
+    }
+
+    /**
+     * 创建kNN查询上下文
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @param metric 距离函数
+     * @return 查询上下文
+     */
+    public static QueryContext forKnn(MetricSpaceData queryObject, int k, MetricFunction metric) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必须大于0");
+        }
+        return new QueryContext(queryObject, metric, k, Double.MAX_VALUE, QueryBuffers.acquire());
+    }
+
+    /**
+     * 创建不借用线程缓冲区的范围查询上下文（用于可挂起的遍历，它可能被放弃或换一个线程继续）
+     * @param queryObject 查询对象
+     * @param radius 查询半径
+     * @param metric 距离函数
+     * @return 查询上下文
+     */
+    public static QueryContext forDetachedRange(MetricSpaceData queryObject, double radius,
+            MetricFunction metric) {
+        return new QueryContext(queryObject, metric, 0, radius, QueryBuffers.unpooled());
+    }
+
+    /**
+     * 创建不借用线程缓冲区的kNN查询上下文（用于可挂起的遍历）
+     * @param queryObject 查询对象
+     * @param k 近邻数量
+     * @param metric 距离函数
+     * @return 查询上下文
+     */
+    public static QueryContext forDetachedKnn(MetricSpaceData queryObject, int k,
+            MetricFunction metric) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必须大于0");
+        }
+        return new QueryContext(queryObject, metric, k, Double.MAX_VALUE,
+                QueryBuffers.unpooled());
+    }
+
+    /**
+     * 创建增量最近邻查询上下文（只使用计数和距离计算，不保存结果）
+     *
+     * 迭代器可能在任意时刻被放弃，因此不借用线程的缓冲区。
+     *
+     * @param queryObject 查询对象
+     * @param metric 距离函数
+     * @return 查询上下文
+     */
+    public static QueryContext forIncremental(MetricSpaceData queryObject,
+            MetricFunction metric) {
+        return new QueryContext(queryObject, metric, 0, Double.POSITIVE_INFINITY,
+                QueryBuffers.unpooled());
+    }
+
+    /**
+     * 设置需要跳过的已删除对象
+     *
+     * 这些对象仍然保存在树中（可能仍作为支撑点参与剪枝），但不会出现在结果里。
+     *
+     * @param deleted 已删除对象集合（按实例比较），为null或空表示没有
+     * @return 本上下文
+     */
+    public QueryContext exclude(Set<MetricSpaceData> deleted) {
+        this.deleted = deleted == null || deleted.isEmpty() ? null : deleted;
+        return this;
+    }
+
+    /**
+     * 让范围查询把结果交给回调，而不是收集到列表
+     *
+     * @param visitor 结果回调
+     * @return 本上下文
+     */
+    public QueryContext stream(RangeVisitor visitor) {
+        checkRange();
+        this.visitor = visitor;
+        this.rangeResults = null;
+        return this;
+    }
+
+    /**
+     * 让范围查询只统计结果数
+     *
+     * 此时整棵落在查询球内的子树可以直接用 {@link #addCount} 加上其对象数，不必访问。
+     *
+     * @return 本上下文
+     */
+    public QueryContext countOnly() {
+        checkRange();
+        this.countOnly = true;
+        this.rangeResults = null;
+        return this;
+    }
+
+    /**
+     * 设置范围查询的结果数上限：产生limit个结果后进入停止状态，遍历应尽快返回
+     *
+     * @param limit 结果数上限（> 0）
+     * @return 本上下文
+     */
+    public QueryContext limit(long limit) {
+        checkRange();
+        if (limit <= 0) {
+            throw new IllegalArgumentException("结果数上限必须大于0: " + limit);
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    private void checkRange() {
+        if (knnHeap != null) {
+            throw new IllegalStateException("只有范围查询可以使用回调、计数和结果数上限");
+        }
+    }
+
+    /**
+     * 把kNN上下文设为近似模式
+     *
+     * 剪枝半径取当前第k近邻距离的 1/(1+ε)；距离计算或节点访问次数达到预算、
+     * 或第k近邻距离不超过概率停止半径时，上下文进入停止状态：剪枝半径变为-1，
+     * {@link #isStopped()} 返回true，遍历应尽快返回。正在处理的节点仍可能多算几个支撑点距离，
+     * 因此实际距离计算次数最多超出预算一个节点的支撑点数。
+     *
+     * @param epsilon 近似因子ε（>= 0）
+     * @param maxDistances 距离计算预算（0表示不限）
+     * @param maxNodes 节点访问预算（0表示不限）
+     * @param stopRadius 概率停止半径（负无穷表示关闭）
+     * @return 本上下文
+     */
+    public QueryContext approximate(double epsilon, long maxDistances, long maxNodes,
+            double stopRadius) {
+        if (knnHeap == null) {
+            throw new IllegalStateException("只有kNN查询可以使用近似模式");
+        }
+        this.shrinkFactor = 1 + epsilon;
+        this.maxDistanceComputations = maxDistances > 0 ? maxDistances : Long.MAX_VALUE;
+        this.maxNodeAccesses = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        this.stopRadius = stopRadius;
+        return this;
+    }
+
+    /**
+     * 让kNN查询与其他并发搜索共享第k近邻距离上界
+     *
+     * 剪枝半径取本地第k近邻距离和共享上界中较小的一个（近似模式下同样除以1+ε），
+     * 本地结果堆满或堆顶变小时把第k近邻距离提交给共享上界。
+     *
+     * @param bound 共享上界
+     * @return 本上下文
+     */
+    public QueryContext share(SharedKnnBound bound) {
+        if (knnHeap == null) {
+            throw new IllegalStateException("只有kNN查询可以共享第k近邻距离上界");
+        }
+        this.sharedBound = bound;
+        return this;
+    }
+
+    /**
+     * 为共享支撑点启用距离备忘表（备忘表随缓冲区复用）
+     *
+     * @param sharedPivots 共享支撑点数
+     * @return 本上下文
+     */
+    public QueryContext memoize(int sharedPivots) {
+        this.pivotMemo = sharedPivots > 0 ? buffers.memo(sharedPivots) : null;
+        return this;
+    }
+
+    /**
+     * 查询是否已经停止（近似kNN预算耗尽或满足概率停止条件，或范围查询达到结果数上限）
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * 进入停止状态：之后任何子树都会被剪枝
+     */
+    private void stop() {
+        stopped = true;
+        radius = -1;
+    }
+
+    /**
+     * 判断对象是否已被删除
+     * @param data 数据对象
+     * @return 已删除时返回true
+     */
+    public boolean isDeleted(MetricSpaceData data) {
+        return deleted != null && deleted.contains(data);
+    }
+
+    /**
+     * 计算查询对象到某个数据对象的距离并计数
+     * @param data 数据对象
+     * @return 距离
+     */
+    public double distanceTo(MetricSpaceData data) {
+        if (++distanceComputations >= maxDistanceComputations) {
+            stop();
+        }
+        return metric.getDistance(queryObject, data);
+    }
+
+    /**
+     * 计算查询对象到支撑点的距离：共享支撑点先查备忘表，本次查询中只计算一次
+     *
+     * @param ordinal 支撑点在共享支撑点集合中的序号（-1表示节点自己的支撑点，不备忘）
+     * @param pivot 支撑点
+     * @return 距离
+     */
+    public double distanceToPivot(int ordinal, MetricSpaceData pivot) {
+        if (ordinal < 0 || pivotMemo == null) {
+            return distanceTo(pivot);
+        }
+        double distance = pivotMemo[ordinal];
+        if (Double.isNaN(distance)) {
+            distance = distanceTo(pivot);
+            pivotMemo[ordinal] = distance;
+        } else {
+            memoHits++;
+        }
+        return distance;
+    }
+
+    /**
+     * 记录一次节点访问
+     */
+    public void visitNode() {
+        if (++nodeAccesses >= maxNodeAccesses) {
+            stop();
+        }
+    }
+
+    /**
+     * 获取当前剪枝半径
+     *
+     * 范围查询为查询半径；kNN查询在堆满之前为Double.MAX_VALUE，之后为堆顶距离
+     * （近似模式下再除以1+ε，停止后为-1）。共享上界时取两者中较小的一个。
+     *
+     * @return 剪枝半径
+     */
+    public double getRadius() {
+        if (sharedBound == null || stopped) {
+            return radius;
+        }
+        return Math.min(radius, sharedBound.get() / shrinkFactor);
+    }
+
+    /**
+     * 处理一个已算出距离的候选对象
+     *
+     * 范围查询中距离不超过半径即加入结果；kNN查询中按最大堆规则更新并收缩剪枝半径。
+     * 近似模式停止后仍接受候选对象（与当前第k近邻距离比较），只是不再扩展搜索。
+     *
+     * @param data 数据对象
+     * @param distance 查询对象到该对象的距离
+     */
+    public void offer(MetricSpaceData data, double distance) {
+        if (isDeleted(data)) {
+            return;
+        }
+        if (knnHeap == null) {
+            if (distance <= radius) {
+                emit(data, distance);
+            }
+            return;
+        }
+        // 堆满时新对象替换堆顶，沿用堆顶的槽位
+        int slot = knnHeap.isFull() ? knnHeap.getId(0) : knnHeap.size();
+        if (knnHeap.offer(distance, slot)) {
+            knnSlots[slot] = data;
+            if (knnHeap.isFull()) {
+                shrinkRadius();
+            }
+        }
+    }
+
+    /**
+     * 堆顶变化后更新第k近邻距离和剪枝半径
+     */
+    private void shrinkRadius() {
+        kthDistance = knnHeap.kthDistance();
+        if (sharedBound != null) {
+            sharedBound.offer(kthDistance);
+        }
+        if (kthDistance <= stopRadius) {
+            stop();
+        }
+        if (!stopped) {
+            radius = kthDistance / shrinkFactor;
+        }
+    }
+
+    /**
+     * 直接加入范围查询结果（用于整棵子树都落在查询球内的情况）
+     * @param data 数据对象
+     */
+    public void addResult(MetricSpaceData data) {
+        if (isDeleted(data)) {
+            return;
+        }
+        emit(data, RangeVisitor.UNKNOWN_DISTANCE);
+    }
+
+    /**
+     * 只计数时直接加上一批结果（整棵子树都在查询球内，且已扣除其中的已删除对象）
+     *
+     * @param count 结果数
+     */
+    public void addCount(long count) {
+        if (stopped || count <= 0) {
+            return;
+        }
+        resultCount = Math.min(limit, resultCount + count);
+        if (resultCount >= limit) {
+            stop();
+        }
+    }
+
+    /**
+     * 产生一个范围查询结果
+     */
+    private void emit(MetricSpaceData data, double distance) {
+        if (stopped) {
+            return;
+        }
+        resultCount++;
+        if (visitor != null) {
+            visitor.visit(data, distance);
+        } else if (rangeResults != null) {
+            rangeResults.add(data);
+        }
+        if (resultCount >= limit) {
+            stop();
+        }
+    }
+
+    /**
+     * 获取查询结果
+     *
+     * 范围查询按访问顺序返回（回调或只计数时为空列表）；kNN查询按距离升序返回，
+     * 取出后结果堆被清空，因此只能调用一次。
+     *
+     * @return 结果列表
+     */
+    public List<MetricSpaceData> getResults() {
+        if (knnHeap == null) {
+            return rangeResults != null ? rangeResults : new ArrayList<>();
+        }
+        int[] sorted = knnHeap.drainSorted(null);
+        List<MetricSpaceData> results = new ArrayList<>(sorted.length);
+        for (int slot : sorted) {
+            results.add(knnSlots[slot]);
+        }
+        return results;
+    }
+
+    /**
+     * 按距离升序取出kNN结果及其距离（与 {@link #getResults()} 一样只能调用一次）
+     *
+     * @param neighbors 输出：结果对象，长度至少为k
+     * @param distances 输出：对应的距离，长度至少为k
+     * @return 结果数
+     */
+    public int drainNeighbors(MetricSpaceData[] neighbors, double[] distances) {
+        int[] sorted = knnHeap.drainSorted(distances);
+        for (int i = 0; i < sorted.length; i++) {
+            neighbors[i] = knnSlots[sorted[i]];
+        }
+        return sorted.length;
+    }
+
+    /**
+     * 归还临时数组和结果堆（查询结束、取出结果之后调用）
+     *
+     * 归还后不能再使用本上下文；范围查询的结果列表不属于缓冲区，仍然可以读取。
+     * 只有第一次调用归还缓冲区，之后的调用没有影响。
+     */
+    public void release() {
+        if (!released) {
+            released = true;
+            buffers.release();
+        }
+    }
+
+    /**
+     * 获取某一深度的临时数组
+     *
+     * 深度优先遍历中，同一深度不会同时被两个节点使用，因此按深度复用是安全的。
+     *
+     * @param depth 节点深度
+     * @param length 所需长度
+     * @return 长度至少为length的数组（内容未初始化）
+     */
+    public double[] getScratch(int depth, int length) {
+        return buffers.scratch(depth, length);
+    }
+
+    /**
+     * 为一次显式栈遍历借出缓冲区中的节点栈和下界栈
+     *
+     * 同一上下文上已有遍历在使用时返回false，新的遍历应自己分配栈。
+     * 借出的栈在上下文归还时一并归还。
+     *
+     * @return 是否借到
+     */
+    public boolean claimStack() {
+        return buffers.claimStack();
+    }
+
+    /**
+     * 获取长度至少为length的节点栈（扩容时保留原有内容；须先 {@link #claimStack()}）
+     */
+    public Object[] getNodeStack(int length) {
+        return buffers.nodeStack(length);
+    }
+
+    /**
+     * 获取长度至少为length的下界栈（扩容时保留原有内容；须先 {@link #claimStack()}）
+     */
+    public double[] getBoundStack(int length) {
+        return buffers.boundStack(length);
+    }
+
+    /**
+     * 获取已产生的结果数（kNN查询为堆中的对象数）
+     */
+    public long getResultCount() {
+        return knnHeap != null ? knnHeap.size() : resultCount;
+    }
+
+    /**
+     * 范围查询是否只计数
+     */
+    public boolean isCountOnly() {
+        return countOnly;
+    }
+
+    /**
+     * 是否为kNN查询
+     */
+    public boolean isKnn() {
+        return knnHeap != null;
+    }
+
+    public MetricSpaceData getQueryObject() {
+        return queryObject;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public long getMemoHits() {
+        return memoHits;
+    }
+
+    public long getDistanceComputations() {
+        return distanceComputations;
+    }
+
+    public long getNodeAccesses() {
+        return nodeAccesses;
+    }
+}
@@ -0,0 +1,80 @@
+package index.tree.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 查询统计汇总（线程安全）
+ *
+ * 每次查询结束后把 {@link QueryContext} 中的计数累加进来。
+ * 多个线程同时查询同一个索引时，累计值等于各次查询计数之和。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class QueryStatistics {
+
+    /** 查询次数 */
+    private final LongAdder queries = new LongAdder();
+
+    /** 距离计算次数 */
+    private final LongAdder distanceComputations = new LongAdder();
+
+    /** 节点访问次数 */
+    private final LongAdder nodeAccesses = new LongAdder();
+
+    /** 命中共享支撑点备忘表、省去的距离计算次数 */
+    private final LongAdder memoHits = new LongAdder();
+
+    /**
+     * 汇总一次查询的计数
+     * @param context 已完成的查询上下文
+     */
+    public void record(QueryContext context) {
+        record(1, context.getDistanceComputations(), context.getNodeAccesses());
+        memoHits.add(context.getMemoHits());
+    }
+
+    /**
+     * 累加计数（用于增量汇总尚未结束的查询）
+     * @param numQueries 查询次数
+     * @param numDistances 距离计算次数
+     * @param numAccesses 节点访问次数
+     */
+    public void record(long numQueries, long numDistances, long numAccesses) {
+        queries.add(numQueries);
+        distanceComputations.add(numDistances);
+        nodeAccesses.add(numAccesses);
+    }
+
+    /**
+     * 清空所有计数
+     */
+    public void reset() {
+        queries.reset();
+        distanceComputations.reset();
+        nodeAccesses.reset();
+        memoHits.reset();
+    }
+
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    public long getDistanceComputations() {
+        return distanceComputations.sum();
+    }
+
+    public long getNodeAccesses() {
+        return nodeAccesses.sum();
+    }
+
+    public long getMemoHits() {
+        return memoHits.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryStatistics[queries=%d, distanceComputations=%d, "
+                + "nodeAccesses=%d]", getQueries(), getDistanceComputations(), getNodeAccesses());
+    }
+}
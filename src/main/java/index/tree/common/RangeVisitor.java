@@ -0,0 +1,27 @@
+package index.tree.common;
+
+import core.MetricSpaceData;
+
+/**
+ * 范围查询结果的回调接口
+ *
+ * 树在遍历过程中每找到一个结果就回调一次，不需要先把结果收集到列表中。
+ * 整棵子树都落在查询球内时，其中的对象不计算距离直接回调，距离为 {@link #UNKNOWN_DISTANCE}。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface RangeVisitor {
+
+    /** 未计算距离时传入的距离值（用 Double.isNaN 判断） */
+    double UNKNOWN_DISTANCE = Double.NaN;
+
+    /**
+     * 处理一个查询结果
+     *
+     * @param data 结果对象
+     * @param distance 到查询对象的距离；未计算时为 {@link #UNKNOWN_DISTANCE}
+     */
+    void visit(MetricSpaceData data, double distance);
+}
@@ -26,6 +26,42 @@ public class TreeConfig {
     /** 随机种子（用于可重复实验） */
     private Long randomSeed;
 
+    /** 是否使用ForkJoin并行构建 */
+    private boolean parallelBuild;
+
+    /** 并行构建阈值：数据量小于该值的子树在当前线程串行构建（默认10000） */
+    private int parallelThreshold;
+
+    /** 保存到祖先支撑点距离的层数（PM-tree风格的叶子过滤和子树距离范围，0表示不保存） */
+    private int pathPivotLevels;
+
+    /** VP树每个节点的最大分支数（默认2，即二叉VP树） */
+    private int vpArity;
+
+    /** VP树是否按每个节点的距离分布自适应选择分支数（不超过vpArity） */
+    private boolean adaptiveArity;
+
+    /** 多支撑点树（MVP、CGH、线性划分树）每个节点的支撑点数k（默认3） */
+    private int numPivots;
+
+    /** 多支撑点树每个支撑点（或距离差）划分的段数s（默认2） */
+    private int splitsPerPivot;
+
+    /** 动态插入时的平衡阈值α：最大子树超过节点对象数的α倍时局部重建（默认0.75，1表示不检查） */
+    private double rebuildBalance;
+
+    /** 动态删除时的回收阈值：子树中已删除对象超过该比例时局部重建（默认0.25） */
+    private double tombstoneRatio;
+
+    /** 层次支撑点选择模式（默认LOCAL） */
+    private HierarchicalPivotMode hierarchicalPivotMode;
+
+    /** GLOBAL模式的全局支撑点数 / MIX模式的候选支撑点数（默认16） */
+    private int sharedPivotCount;
+
+    /** 多支撑点树单个节点允许的最大子节点数 */
+    public static final int MAX_FANOUT = 4096;
+
     /**
      * 支撑点选择策略枚举
      */
@@ -38,6 +74,27 @@ public class TreeConfig {
         MAX_SPREAD
     }
 
+    /**
+     * 层次支撑点选择模式枚举
+     *
+     * 树的构建是递归的过程，三种模式的区别在于每个内部节点从哪里取支撑点：
+     * LOCAL 从节点自己的数据中选，支撑点从子树中取出；
+     * GLOBAL 构建前从整个数据集选出一组全局支撑点，深度为d的节点依次使用其中的第 d*c..d*c+c-1 个
+     * （c为每个节点的支撑点数，序号对全局支撑点数取模），同一层的节点共用相同的支撑点；
+     * MIX 构建前从整个数据集选出一组候选支撑点，每个节点以自己的数据为评价集，
+     * 从候选中选出距离分布最分散的c个。
+     * 后两种模式下支撑点只是参照物，仍留在数据中参与划分；查询时每个共享支撑点的距离只计算一次，
+     * 因此一次查询的支撑点距离计算不超过共享支撑点数。
+     */
+    public enum HierarchicalPivotMode {
+        /** 局部选点 */
+        LOCAL,
+        /** 全局选点 */
+        GLOBAL,
+        /** 混合选点 */
+        MIX
+    }
+
     /**
      * 默认构造函数
      * 使用默认配置参数
@@ -48,6 +105,17 @@ public class TreeConfig {
         this.pivotStrategy = PivotSelectionStrategy.FFT;
         this.verbose = false;
         this.randomSeed = null;
+        this.parallelBuild = false;
+        this.parallelThreshold = 10000;
+        this.pathPivotLevels = 0;
+        this.vpArity = 2;
+        this.adaptiveArity = false;
+        this.numPivots = 3;
+        this.splitsPerPivot = 2;
+        this.rebuildBalance = 0.75;
+        this.tombstoneRatio = 0.25;
+        this.hierarchicalPivotMode = HierarchicalPivotMode.LOCAL;
+        this.sharedPivotCount = 16;
     }
 
     /**
@@ -106,6 +174,146 @@ public class TreeConfig {
             return this;
         }
 
+        /**
+         * 设置是否并行构建
+         * @param parallel 是否并行
+         * @return Builder实例
+         */
+        public Builder parallelBuild(boolean parallel) {
+            config.parallelBuild = parallel;
+            return this;
+        }
+
+        /**
+         * 设置并行构建阈值
+         * @param threshold 子树数据量阈值
+         * @return Builder实例
+         */
+        public Builder parallelThreshold(int threshold) {
+            config.parallelThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 设置叶子中保存的祖先支撑点层数
+         *
+         * 大于0时，每个叶子对象保存它到最近h层祖先支撑点的距离，
+         * 查询时先用三角不等式过滤，再计算剩余对象的真实距离；
+         * 每个子树还保存其对象到这些支撑点的距离范围（超环），可以在进入子树之前剪枝。
+         *
+         * @param levels 层数h（0表示不保存）
+         * @return Builder实例
+         */
+        public Builder pathPivotLevels(int levels) {
+            config.pathPivotLevels = levels;
+            return this;
+        }
+
+        /**
+         * 设置VP树的分支数
+         *
+         * 每个节点按到支撑点距离的分位数划分为m个球壳。分支越多，树越浅，
+         * 查询时需要计算的支撑点距离越少。
+         *
+         * @param arity 分支数m（至少为2）
+         * @return Builder实例
+         */
+        public Builder vpArity(int arity) {
+            config.vpArity = arity;
+            return this;
+        }
+
+        /**
+         * 设置VP树是否自适应选择分支数
+         *
+         * 开启后每个节点的分支数不超过vpArity，同时不超过距离的不同取值个数
+         * 和能填满叶子容量的球壳数（离散距离或小节点自动减少分支）。
+         *
+         * @param adaptive 是否自适应
+         * @return Builder实例
+         */
+        public Builder adaptiveArity(boolean adaptive) {
+            config.adaptiveArity = adaptive;
+            return this;
+        }
+
+        /**
+         * 设置多支撑点树每个节点的支撑点数
+         *
+         * MVP树和线性划分树有 s^k 个子节点，CGH树有 s^(k-1) 个子节点。
+         * 数据的内在维度越高，通常需要越多的支撑点。
+         *
+         * @param count 支撑点数k（至少为1，CGH树至少为2）
+         * @return Builder实例
+         */
+        public Builder numPivots(int count) {
+            config.numPivots = count;
+            return this;
+        }
+
+        /**
+         * 设置多支撑点树每个支撑点的划分段数
+         *
+         * @param splits 段数s（至少为2）
+         * @return Builder实例
+         */
+        public Builder splitsPerPivot(int splits) {
+            config.splitsPerPivot = splits;
+            return this;
+        }
+
+        /**
+         * 设置动态插入的平衡阈值
+         *
+         * 插入后若路径上某个节点的最大子树超过该节点对象数的α倍，
+         * 并且该节点自构建以来至少经历了 (1-α) 倍对象数的更新，就局部重建该子树（替罪羊树方式）。
+         *
+         * @param alpha 平衡阈值α（大于0.5且不超过1，1表示不检查平衡）
+         * @return Builder实例
+         */
+        public Builder rebuildBalance(double alpha) {
+            config.rebuildBalance = alpha;
+            return this;
+        }
+
+        /**
+         * 设置动态删除的回收阈值
+         *
+         * 删除只做墓碑标记，当某个子树中已删除对象的比例超过该值时局部重建子树，回收这些对象。
+         *
+         * @param ratio 已删除对象比例（大于0且不超过1，1表示只在子树全部删除时回收）
+         * @return Builder实例
+         */
+        public Builder tombstoneRatio(double ratio) {
+            config.tombstoneRatio = ratio;
+            return this;
+        }
+
+        /**
+         * 设置层次支撑点选择模式
+         *
+         * GLOBAL和MIX模式下各节点的支撑点取自一个共享的支撑点集合，查询时用备忘表保证
+         * 每个共享支撑点的距离只计算一次，适合距离计算代价很高的度量。
+         *
+         * @param mode 层次支撑点选择模式
+         * @return Builder实例
+         */
+        public Builder hierarchicalPivotMode(HierarchicalPivotMode mode) {
+            config.hierarchicalPivotMode = mode;
+            return this;
+        }
+
+        /**
+         * 设置共享支撑点数（GLOBAL模式的全局支撑点数，MIX模式的候选支撑点数）
+         *
+         * @param count 共享支撑点数（不少于每个节点的支撑点数）
+         * @return Builder实例
+         */
+        public Builder sharedPivotCount(int count) {
+            config.sharedPivotCount = count;
+            return this;
+        }
+
         /**
          * 构建TreeConfig对象
          * @return 配置好的TreeConfig
@@ -127,6 +335,44 @@ public class TreeConfig {
                 throw new IllegalArgumentException(
                         "minTreeHeight不能为负数，当前值: " + config.minTreeHeight);
             }
+            if (config.parallelThreshold <= 0) {
+                throw new IllegalArgumentException(
+                        "parallelThreshold必须大于0，当前值: " + config.parallelThreshold);
+            }
+            if (config.pathPivotLevels < 0) {
+                throw new IllegalArgumentException(
+                        "pathPivotLevels不能为负数，当前值: " + config.pathPivotLevels);
+            }
+            if (config.vpArity < 2) {
+                throw new IllegalArgumentException("vpArity至少为2，当前值: " + config.vpArity);
+            }
+            if (config.numPivots < 1) {
+                throw new IllegalArgumentException("numPivots至少为1，当前值: " + config.numPivots);
+            }
+            if (config.splitsPerPivot < 2) {
+                throw new IllegalArgumentException(
+                        "splitsPerPivot至少为2，当前值: " + config.splitsPerPivot);
+            }
+            if (!(config.rebuildBalance > 0.5 && config.rebuildBalance <= 1)) {
+                throw new IllegalArgumentException(
+                        "rebuildBalance必须在(0.5, 1]之间，当前值: " + config.rebuildBalance);
+            }
+            if (!(config.tombstoneRatio > 0 && config.tombstoneRatio <= 1)) {
+                throw new IllegalArgumentException(
+                        "tombstoneRatio必须在(0, 1]之间，当前值: " + config.tombstoneRatio);
+            }
+            if (config.hierarchicalPivotMode == null) {
+                throw new IllegalArgumentException("hierarchicalPivotMode不能为空");
+            }
+            if (config.sharedPivotCount < 1) {
+                throw new IllegalArgumentException(
+                        "sharedPivotCount至少为1，当前值: " + config.sharedPivotCount);
+            }
+            if (Math.pow(config.splitsPerPivot, config.numPivots) > MAX_FANOUT) {
+                throw new IllegalArgumentException(String.format(
+                        "子节点数%d^%d超过上限%d", config.splitsPerPivot, config.numPivots,
+                        MAX_FANOUT));
+            }
         }
     }
 
@@ -152,6 +398,64 @@ public class TreeConfig {
         return randomSeed;
     }
 
+    public boolean isParallelBuild() {
+        return parallelBuild;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public int getPathPivotLevels() {
+        return pathPivotLevels;
+    }
+
+    public int getVpArity() {
+        return vpArity;
+    }
+
+    public boolean isAdaptiveArity() {
+        return adaptiveArity;
+    }
+
+    public int getNumPivots() {
+        return numPivots;
+    }
+
+    public int getSplitsPerPivot() {
+        return splitsPerPivot;
+    }
+
+    public double getRebuildBalance() {
+        return rebuildBalance;
+    }
+
+    public double getTombstoneRatio() {
+        return tombstoneRatio;
+    }
+
+    public HierarchicalPivotMode getHierarchicalPivotMode() {
+        return hierarchicalPivotMode;
+    }
+
+    public int getSharedPivotCount() {
+        return sharedPivotCount;
+    }
+
+    /**
+     * 计算 splitsPerPivot^exponent（多支撑点树的子节点数）
+     *
+     * @param exponent 参与划分的维数
+     * @return 子节点数
+     */
+    public int getFanout(int exponent) {
+        int fanout = 1;
+        for (int i = 0; i < exponent; i++) {
+            fanout *= splitsPerPivot;
+        }
+        return fanout;
+    }
+
     // Setters
 
     public void setMaxLeafSize(int maxLeafSize) {
@@ -174,12 +478,64 @@ public class TreeConfig {
         this.randomSeed = randomSeed;
     }
 
+    public void setParallelBuild(boolean parallelBuild) {
+        this.parallelBuild = parallelBuild;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public void setPathPivotLevels(int pathPivotLevels) {
+        this.pathPivotLevels = pathPivotLevels;
+    }
+
+    public void setVpArity(int vpArity) {
+        this.vpArity = vpArity;
+    }
+
+    public void setAdaptiveArity(boolean adaptiveArity) {
+        this.adaptiveArity = adaptiveArity;
+    }
+
+    public void setNumPivots(int numPivots) {
+        this.numPivots = numPivots;
+    }
+
+    public void setSplitsPerPivot(int splitsPerPivot) {
+        this.splitsPerPivot = splitsPerPivot;
+    }
+
+    public void setRebuildBalance(double rebuildBalance) {
+        this.rebuildBalance = rebuildBalance;
+    }
+
+    public void setTombstoneRatio(double tombstoneRatio) {
+        this.tombstoneRatio = tombstoneRatio;
+    }
+
+    public void setHierarchicalPivotMode(HierarchicalPivotMode hierarchicalPivotMode) {
+        this.hierarchicalPivotMode = hierarchicalPivotMode;
+    }
+
+    public void setSharedPivotCount(int sharedPivotCount) {
+        this.sharedPivotCount = sharedPivotCount;
+    }
+
     @Override
     public String toString() {
         return String.format(
-                "TreeConfig[maxLeafSize=%d, minTreeHeight=%d, pivotStrategy=%s, verbose=%s, seed=%s]",
+                "TreeConfig[maxLeafSize=%d, minTreeHeight=%d, pivotStrategy=%s, verbose=%s, "
+                        + "seed=%s, parallelBuild=%s, pathPivotLevels=%d, vpArity=%s, "
+                        + "numPivots=%d, splitsPerPivot=%d, rebuildBalance=%.2f, "
+                        + "tombstoneRatio=%.2f, pivotMode=%s]",
                 maxLeafSize, minTreeHeight, pivotStrategy, verbose,
-                randomSeed != null ? randomSeed : "auto");
+                randomSeed != null ? randomSeed : "auto",
+                parallelBuild ? "threshold=" + parallelThreshold : "off", pathPivotLevels,
+                adaptiveArity ? "adaptive<=" + vpArity : String.valueOf(vpArity), numPivots,
+                splitsPerPivot, rebuildBalance, tombstoneRatio,
+                hierarchicalPivotMode == HierarchicalPivotMode.LOCAL ? "LOCAL"
+                        : hierarchicalPivotMode + "(" + sharedPivotCount + ")");
     }
 }
 
@@ -92,6 +92,53 @@ public class GHInternalNode extends InternalNode {
         return children.get(1).size();
     }
 
+    @Override
+    public boolean isPivotStoredInChildren() {
+        return true;
+    }
+
+    /**
+     * 与构建时的划分规则相同：d(x,p1) < d(x,p2) 进入左子树
+     */
+    @Override
+    public int chooseChild(double[] pivotDistances) {
+        return pivotDistances[0] < pivotDistances[1] ? 0 : 1;
+    }
+
+    /**
+     * GH树只按超平面剪枝，子树没有需要扩展的边界
+     */
+    @Override
+    public void extendChildBounds(int childIdx, double[] pivotDistances) {
+    }
+
+    /**
+     * 超平面下界：查询对象在另一侧时，到超平面另一侧对象的距离不小于 |d(q,p1) - d(q,p2)| / 2
+     */
+    @Override
+    public double getChildLowerBound(int childIdx, double[] dq) {
+        double delta = dq[0] - dq[1];
+        return Math.max(0, childIdx == 0 ? delta / 2 : -delta / 2);
+    }
+
+    /**
+     * 左子树中 d(x,p1) < d(x,p2)，即delta < 0；右子树中delta >= 0
+     */
+    @Override
+    public boolean hasDeltaBounds() {
+        return true;
+    }
+
+    @Override
+    public double getDeltaLower(int childIdx, int j) {
+        return childIdx == 0 ? Double.NEGATIVE_INFINITY : 0;
+    }
+
+    @Override
+    public double getDeltaUpper(int childIdx, int j) {
+        return childIdx == 0 ? 0 : Double.POSITIVE_INFINITY;
+    }
+
     @Override
     public String getNodeInfo() {
         return String.format("GHInternalNode[depth=%d, left=%d, right=%d, p1=%s, p2=%s]", depth,
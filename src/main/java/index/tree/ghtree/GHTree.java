@@ -4,7 +4,6 @@ import core.MetricSpaceData;
 import core.MetricFunction;
 import index.tree.*;
 import index.tree.common.TreeConfig;
-import query.KNNResult;
 
 import java.util.*;
 
@@ -27,6 +26,9 @@ import java.util.*;
  */
 public class GHTree extends TreeIndex {
 
+    /** pivot数量 */
+    private static final int NUM_PIVOTS = 2;
+
     /**
      * 构造GH树
      *
@@ -58,17 +60,21 @@ public class GHTree extends TreeIndex {
      * 4. 递归构建左右子树
      */
     @Override
-    protected TreeNode buildTreeRecursive(List<MetricSpaceData> data, int depth) {
+    protected TreeNode buildTreeRecursive(BuildSlice data, int depth, Random rnd) {
         // 判断是否创建叶子节点
         if (heightController.canCreateLeaf(depth, data.size())) {
             if (config.isVerbose()) {
                 System.out.printf("  深度%d: 创建叶子节点，数据量=%d%n", depth, data.size());
             }
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
-        // 选择两个支撑点
-        MetricSpaceData[] pivots = selectTwoPivots(data);
+        // 选择两个支撑点（GH树的支撑点本来就留在数据中，共享支撑点同样参与划分）
+        int[] ordinals = usesSharedPivots() ? selectSharedPivots(data, depth, NUM_PIVOTS, rnd)
+                : null;
+        MetricSpaceData[] pivots = ordinals != null
+                ? getSharedPivots(ordinals).toArray(new MetricSpaceData[0])
+                : selectTwoPivots(data, rnd);
         MetricSpaceData pivot1 = pivots[0];
         MetricSpaceData pivot2 = pivots[1];
 
@@ -77,21 +83,22 @@ public class GHTree extends TreeIndex {
                     pivot2.toString());
         }
 
-        // 划分数据
-        List<MetricSpaceData> leftData = new ArrayList<>();
-        List<MetricSpaceData> rightData = new ArrayList<>();
-
-        for (MetricSpaceData obj : data) {
+        // 划分数据：d1 < d2 的对象原地交换到片段左侧
+        int split = 0;
+        for (int i = 0; i < data.size(); i++) {
+            MetricSpaceData obj = data.get(i);
             double d1 = metric.getDistance(obj, pivot1);
             double d2 = metric.getDistance(obj, pivot2);
-            buildDistanceComputations += 2;
+            buildDistanceComputations.add(2);
+            recordPathDistance(data.rowOf(i), depth, 0, d1);
+            recordPathDistance(data.rowOf(i), depth, 1, d2);
 
             if (d1 < d2) {
-                leftData.add(obj);
-            } else {
-                rightData.add(obj);
+                data.swap(i, split++);
             }
         }
+        BuildSlice leftData = data.subSlice(0, split);
+        BuildSlice rightData = data.subSlice(split, data.size());
 
         if (config.isVerbose()) {
             System.out.printf("  深度%d: 数据划分完成，左=%d，右=%d%n", depth, leftData.size(),
@@ -103,14 +110,22 @@ public class GHTree extends TreeIndex {
             if (config.isVerbose()) {
                 System.out.printf("  警告：深度%d处数据划分不均，强制创建叶子节点%n", depth);
             }
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
         // 递归构建子树
-        TreeNode leftChild = buildTreeRecursive(leftData, depth + 1);
-        TreeNode rightChild = buildTreeRecursive(rightData, depth + 1);
+        List<TreeNode> children =
+                buildChildren(Arrays.asList(leftData, rightData), depth + 1, rnd);
+        TreeNode leftChild = children.get(0);
+        TreeNode rightChild = children.get(1);
 
-        return new GHInternalNode(pivot1, pivot2, leftChild, rightChild, depth);
+        return withPivotOrdinals(
+                new GHInternalNode(pivot1, pivot2, leftChild, rightChild, depth), ordinals);
+    }
+
+    @Override
+    protected int getPivotsPerNode() {
+        return NUM_PIVOTS;
     }
 
     /**
@@ -124,26 +139,26 @@ public class GHTree extends TreeIndex {
      * @param data 数据集
      * @return 包含两个支撑点的数组
      */
-    private MetricSpaceData[] selectTwoPivots(List<MetricSpaceData> data) {
+    private MetricSpaceData[] selectTwoPivots(List<MetricSpaceData> data, Random rnd) {
         switch (config.getPivotStrategy()) {
             case FFT:
-                return selectFFTPivots(data);
+                return selectFFTPivots(data, rnd);
             case MAX_SPREAD:
-                return selectMaxSpreadPivots(data);
+                return selectMaxSpreadPivots(data, rnd);
             case RANDOM:
             default:
-                return selectRandomPivots(data);
+                return selectRandomPivots(data, rnd);
         }
     }
 
     /**
      * 随机选择策略
      */
-    private MetricSpaceData[] selectRandomPivots(List<MetricSpaceData> data) {
-        int idx1 = random.nextInt(data.size());
+    private MetricSpaceData[] selectRandomPivots(List<MetricSpaceData> data, Random rnd) {
+        int idx1 = rnd.nextInt(data.size());
         int idx2;
         do {
-            idx2 = random.nextInt(data.size());
+            idx2 = rnd.nextInt(data.size());
         } while (idx2 == idx1 && data.size() > 1);
 
         return new MetricSpaceData[] {data.get(idx1), data.get(idx2)};
@@ -155,9 +170,9 @@ public class GHTree extends TreeIndex {
      * 1. 随机选择第一个pivot
      * 2. 选择离第一个pivot最远的点作为第二个pivot
      */
-    private MetricSpaceData[] selectFFTPivots(List<MetricSpaceData> data) {
+    private MetricSpaceData[] selectFFTPivots(List<MetricSpaceData> data, Random rnd) {
         // 随机选择第一个pivot
-        MetricSpaceData pivot1 = data.get(random.nextInt(data.size()));
+        MetricSpaceData pivot1 = data.get(rnd.nextInt(data.size()));
 
         // 找到离pivot1最远的点作为pivot2
         MetricSpaceData pivot2 = null;
@@ -165,7 +180,7 @@ public class GHTree extends TreeIndex {
 
         for (MetricSpaceData obj : data) {
             double dist = metric.getDistance(pivot1, obj);
-            buildDistanceComputations++;
+            buildDistanceComputations.increment();
 
             if (dist > maxDist) {
                 maxDist = dist;
@@ -181,10 +196,10 @@ public class GHTree extends TreeIndex {
      *
      * 通过采样找到数据集中距离最远的两个点
      */
-    private MetricSpaceData[] selectMaxSpreadPivots(List<MetricSpaceData> data) {
+    private MetricSpaceData[] selectMaxSpreadPivots(List<MetricSpaceData> data, Random rnd) {
         // 采样以减少计算量
         int sampleSize = Math.min(50, data.size());
-        List<MetricSpaceData> sample = sampleData(data, sampleSize);
+        List<MetricSpaceData> sample = sampleData(data, sampleSize, rnd);
 
         MetricSpaceData pivot1 = null;
         MetricSpaceData pivot2 = null;
@@ -193,7 +208,7 @@ public class GHTree extends TreeIndex {
         for (int i = 0; i < sample.size(); i++) {
             for (int j = i + 1; j < sample.size(); j++) {
                 double dist = metric.getDistance(sample.get(i), sample.get(j));
-                buildDistanceComputations++;
+                buildDistanceComputations.increment();
 
                 if (dist > maxDist) {
                     maxDist = dist;
@@ -209,14 +224,15 @@ public class GHTree extends TreeIndex {
     /**
      * 数据采样
      */
-    private List<MetricSpaceData> sampleData(List<MetricSpaceData> data, int sampleSize) {
+    private List<MetricSpaceData> sampleData(List<MetricSpaceData> data, int sampleSize,
+            Random rnd) {
         if (data.size() <= sampleSize) {
             return data;
         }
 
         Set<Integer> indices = new HashSet<>();
         while (indices.size() < sampleSize) {
-            indices.add(random.nextInt(data.size()));
+            indices.add(rnd.nextInt(data.size()));
         }
 
         List<MetricSpaceData> sample = new ArrayList<>();
@@ -236,10 +252,8 @@ public class GHTree extends TreeIndex {
      */
     @Override
     public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
-        List<MetricSpaceData> results = new ArrayList<>();
-
         if (root == null) {
-            return results;
+            return new ArrayList<>();
         }
 
         if (config.isVerbose()) {
@@ -250,66 +264,7 @@ public class GHTree extends TreeIndex {
             System.out.println("查询半径: " + radius);
         }
 
-        rangeQueryRecursive(root, queryObject, radius, results);
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
-    }
-
-    /**
-     * 递归执行范围查询
-     *
-     * GH树剪枝规则：
-     * - 如果 d(q, p1) - d(q, p2) > 2r，可以跳过左子树
-     * - 如果 d(q, p2) - d(q, p1) > 2r，可以跳过右子树
-     */
-    private void rangeQueryRecursive(TreeNode node, MetricSpaceData queryObject, double radius,
-            List<MetricSpaceData> results) {
-        nodeAccesses++;
-
-        if (node.isLeaf()) {
-            // 叶子节点：检查所有数据
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                if (dist <= radius) {
-                    results.add(data);
-                }
-            }
-        } else {
-            // 内部节点：应用剪枝规则
-            GHInternalNode internal = (GHInternalNode) node;
-            MetricSpaceData p1 = internal.getPivot1();
-            MetricSpaceData p2 = internal.getPivot2();
-
-            double d1 = metric.getDistance(queryObject, p1);
-            double d2 = metric.getDistance(queryObject, p2);
-            queryDistanceComputations += 2;
-
-            // 检查是否需要访问左子树
-            // 剪枝条件：d1 - d2 > 2r
-            if (!(d1 - d2 > 2 * radius)) {
-                rangeQueryRecursive(internal.getLeftChild(), queryObject, radius, results);
-            } else if (config.isVerbose()) {
-                System.out.printf("    剪枝左子树 (d1-d2=%.3f > 2r=%.3f)%n", d1 - d2, 2 * radius);
-            }
-
-            // 检查是否需要访问右子树
-            // 剪枝条件：d2 - d1 > 2r
-            if (!(d2 - d1 > 2 * radius)) {
-                rangeQueryRecursive(internal.getRightChild(), queryObject, radius, results);
-            } else if (config.isVerbose()) {
-                System.out.printf("    剪枝右子树 (d2-d1=%.3f > 2r=%.3f)%n", d2 - d1, 2 * radius);
-            }
-        }
+        return executeQuery(newRangeContext(queryObject, radius));
     }
 
     // ========== kNN查询实现 ==========
@@ -318,14 +273,10 @@ public class GHTree extends TreeIndex {
      * k近邻查询
      *
      * 找出与查询对象最近的k个数据对象。
-     * 使用优先队列维护当前k个最近邻，动态更新查询半径。
+     * 查询上下文维护当前k个最近邻，动态收缩查询半径。
      */
     @Override
     public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
-        // 使用最大堆维护k个最近邻
-        PriorityQueue<KNNResult> knnHeap =
-                new PriorityQueue<>((a, b) -> Double.compare(b.getDistance(), a.getDistance()));
-
         if (root == null || k <= 0) {
             return new ArrayList<>();
         }
@@ -338,92 +289,25 @@ public class GHTree extends TreeIndex {
             System.out.println("k = " + k);
         }
 
-        // 初始查询半径为无穷大
-        double[] currentRadius = {Double.MAX_VALUE};
-
-        knnQueryRecursive(root, queryObject, k, knnHeap, currentRadius);
-
-        // 提取结果
-        List<MetricSpaceData> results = new ArrayList<>();
-        List<KNNResult> tempList = new ArrayList<>(knnHeap);
-        tempList.sort(Comparator.comparingDouble(KNNResult::getDistance));
-
-        for (KNNResult result : tempList) {
-            results.add(result.getData());
-        }
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
+        return executeQuery(newKnnContext(queryObject, k));
     }
 
+    // ========== 增量最近邻（最佳优先）==========
+
     /**
-     * 递归执行kNN查询
+     * 展开GH树内部节点
+     *
+     * 左子树中的对象离p1更近，因此到查询对象的距离不小于 (d(q,p1) - d(q,p2)) / 2；右子树对称。
      */
-    private void knnQueryRecursive(TreeNode node, MetricSpaceData queryObject, int k,
-            PriorityQueue<KNNResult> knnHeap, double[] currentRadius) {
-        nodeAccesses++;
-
-        if (node.isLeaf()) {
-            // 叶子节点：检查所有数据
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                if (knnHeap.size() < k) {
-                    knnHeap.offer(new KNNResult(data, dist));
-                    if (knnHeap.size() == k) {
-                        currentRadius[0] = knnHeap.peek().getDistance();
-                    }
-                } else if (dist < currentRadius[0]) {
-                    knnHeap.poll();
-                    knnHeap.offer(new KNNResult(data, dist));
-                    currentRadius[0] = knnHeap.peek().getDistance();
-                }
-            }
-        } else {
-            // 内部节点：应用剪枝规则
-            GHInternalNode internal = (GHInternalNode) node;
-            MetricSpaceData p1 = internal.getPivot1();
-            MetricSpaceData p2 = internal.getPivot2();
-
-            double d1 = metric.getDistance(queryObject, p1);
-            double d2 = metric.getDistance(queryObject, p2);
-            queryDistanceComputations += 2;
-
-            // 决定访问顺序：优先访问更可能包含近邻的子树
-            boolean leftFirst = d1 <= d2;
-
-            if (leftFirst) {
-                // 先访问左子树
-                if (!(d1 - d2 > 2 * currentRadius[0])) {
-                    knnQueryRecursive(internal.getLeftChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-                // 再访问右子树
-                if (!(d2 - d1 > 2 * currentRadius[0])) {
-                    knnQueryRecursive(internal.getRightChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-            } else {
-                // 先访问右子树
-                if (!(d2 - d1 > 2 * currentRadius[0])) {
-                    knnQueryRecursive(internal.getRightChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-                // 再访问左子树
-                if (!(d1 - d2 > 2 * currentRadius[0])) {
-                    knnQueryRecursive(internal.getLeftChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-            }
-        }
+    @Override
+    protected void expandNode(InternalNode node, double nodeLowerBound,
+            NearestNeighborIterator iterator) {
+        GHInternalNode internal = (GHInternalNode) node;
+        double d1 = internal.queryDistance(0, iterator.getContext());
+        double d2 = internal.queryDistance(1, iterator.getContext());
+
+        iterator.addNode(internal.getLeftChild(), Math.max(nodeLowerBound, (d1 - d2) / 2));
+        iterator.addNode(internal.getRightChild(), Math.max(nodeLowerBound, (d2 - d1) / 2));
     }
 
     @Override
@@ -10,89 +10,85 @@ import java.util.List;
 /**
  * 完全线性划分树内部节点
  * 
- * 在3维支撑点空间中使用线性超平面划分。
+ * 在k维支撑点空间中使用线性超平面划分。
  *
- * 支撑点空间坐标：(d1, d2, d3) = (d(x,p1), d(x,p2), d(x,p3))
+ * 支撑点空间坐标：(d1, ..., dk) = (d(x,p1), ..., d(x,pk))
  *
  * 划分方式（正交划分）：
- * - 按d1的中位数划分为2部分
- * - 按d2的中位数划分为2部分
- * - 按d3的中位数划分为2部分
- * 总共2^3=8个子区域
+ * - 每个维度按分位数划分为s段（s=2时即按中位数划分为2部分）
+ * - 总共s^k个子区域，编号为以s为基数的k位数，第j位是第j维所在的段
+ * 默认k=3、s=2时即2^3=8个子区域
  *
  * @author Jixiang Ding
  * @version 1.0
  */
 public class LinearPartitionInternalNode extends InternalNode {
 
-    /** pivot数量 */
-    public static final int NUM_PIVOTS = 3;
+    /** 划分阈值 [k][s-1]（每个维度的分位数，升序） */
+    private double[][] splitThreshold;
 
-    /** 子节点数量 */
-    public static final int NUM_CHILDREN = 8;
-
-    /** 划分阈值（每个维度的中位数） */
-    private double[] splitThreshold;
-
-    /** 每个子树在每个维度的距离下界 */
+    /** 每个子树在每个维度的距离下界 [s^k][k] */
     private double[][] lowerBound;
 
-    /** 每个子树在每个维度的距离上界 */
+    /** 每个子树在每个维度的距离上界 [s^k][k] */
     private double[][] upperBound;
 
-    /** 每个子树的数据量 */
-    private int[] childSizes;
-
     /**
      * 构造线性划分内部节点
      *
-     * @param pivots 3个支撑点
-     * @param children 8个子节点
-     * @param splitThreshold 3个划分阈值
-     * @param lowerBound 下界矩阵 [8][3]
-     * @param upperBound 上界矩阵 [8][3]
+     * @param pivots k个支撑点
+     * @param children s^k个子节点
+     * @param splitThreshold 划分阈值矩阵 [k][s-1]
+     * @param lowerBound 下界矩阵 [s^k][k]
+     * @param upperBound 上界矩阵 [s^k][k]
      * @param depth 节点深度
      */
     public LinearPartitionInternalNode(List<MetricSpaceData> pivots, List<TreeNode> children,
-            double[] splitThreshold, double[][] lowerBound, double[][] upperBound, int depth) {
+            double[][] splitThreshold, double[][] lowerBound, double[][] upperBound, int depth) {
         this.pivots = new ArrayList<>(pivots);
         this.children = new ArrayList<>(children);
-        this.splitThreshold = splitThreshold.clone();
+        this.splitThreshold = deepCopy(splitThreshold);
         this.lowerBound = deepCopy(lowerBound);
         this.upperBound = deepCopy(upperBound);
         this.depth = depth;
-
-        this.childSizes = new int[NUM_CHILDREN];
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            if (children.get(i) != null) {
-                childSizes[i] = children.get(i).size();
-            }
-        }
     }
 
     /**
      * 获取子节点索引
      *
-     * @param d1 到pivot1的距离
-     * @param d2 到pivot2的距离
-     * @param d3 到pivot3的距离
-     * @return 子节点索引（0-7）
+     * @param coords 支撑点空间坐标（到k个pivot的距离）
+     * @return 子节点索引（0 到 s^k-1）
+     */
+    public int getChildIndex(double[] coords) {
+        return computeChildIndex(coords, splitThreshold);
+    }
+
+    /**
+     * 按划分阈值计算子节点索引（构建时节点尚未创建，也使用此方法）
+     *
+     * @param coords 支撑点空间坐标
+     * @param splitThreshold 划分阈值矩阵 [k][s-1]
+     * @return 子节点索引（0 到 s^k-1）
      */
-    public int getChildIndex(double d1, double d2, double d3) {
+    public static int computeChildIndex(double[] coords, double[][] splitThreshold) {
         int idx = 0;
-        if (d1 > splitThreshold[0])
-            idx |= 1;
-        if (d2 > splitThreshold[1])
-            idx |= 2;
-        if (d3 > splitThreshold[2])
-            idx |= 4;
+        int weight = 1;
+        for (int dim = 0; dim < splitThreshold.length; dim++) {
+            int segment = 0;
+            while (segment < splitThreshold[dim].length
+                    && coords[dim] > splitThreshold[dim][segment]) {
+                segment++;
+            }
+            idx += segment * weight;
+            weight *= splitThreshold[dim].length + 1;
+        }
         return idx;
     }
 
     /**
      * 判断是否需要访问子节点
      *
-     * 在支撑点空间中，查询区域是一个以(dq1, dq2, dq3)为中心的边长2r的立方体。
+     * 在支撑点空间中，查询区域是一个以(dq1, ..., dqk)为中心的边长2r的超立方体。
      * 若子区域与查询立方体不相交，则可排除。
      *
      * @param childIdx 子节点索引
@@ -105,7 +101,7 @@ public class LinearPartitionInternalNode extends InternalNode {
             return false;
         }
 
-        for (int dim = 0; dim < NUM_PIVOTS; dim++) {
+        for (int dim = 0; dim < pivots.size(); dim++) {
             double L = lowerBound[childIdx][dim];
             double U = upperBound[childIdx][dim];
 
@@ -118,6 +114,25 @@ public class LinearPartitionInternalNode extends InternalNode {
         return true;
     }
 
+    /**
+     * 计算子树中对象到查询对象的距离下界
+     *
+     * 与shouldVisitChild一致：对任意半径r，shouldVisitChild(i, dq, r)成立当且仅当r不小于该下界。
+     *
+     * @param childIdx 子节点索引
+     * @param dq 查询对象到各pivot的距离
+     * @return 距离下界
+     */
+    @Override
+    public double getChildLowerBound(int childIdx, double[] dq) {
+        double bound = 0;
+        for (int p = 0; p < pivots.size(); p++) {
+            bound = Math.max(bound, lowerBound[childIdx][p] - dq[p]);
+            bound = Math.max(bound, dq[p] - upperBound[childIdx][p]);
+        }
+        return bound;
+    }
+
     /**
      * 判断子节点是否完全包含在查询范围内
      *
@@ -130,7 +145,7 @@ public class LinearPartitionInternalNode extends InternalNode {
      * @return 是否完全包含
      */
     public boolean isChildFullyContained(int childIdx, double[] dq, double radius) {
-        for (int dim = 0; dim < NUM_PIVOTS; dim++) {
+        for (int dim = 0; dim < pivots.size(); dim++) {
             double L = lowerBound[childIdx][dim];
             double U = upperBound[childIdx][dim];
 
@@ -142,6 +157,22 @@ public class LinearPartitionInternalNode extends InternalNode {
         return true;
     }
 
+    /**
+     * 度量空间中的包含规则：存在支撑点p使 d(q,p) + 子区域到p的距离上界 <= r
+     */
+    @Override
+    public boolean isChildContained(int childIdx, double[] dq, double radius) {
+        if (children.get(childIdx) == null) {
+            return false;
+        }
+        for (int p = 0; p < pivots.size(); p++) {
+            if (dq[p] + upperBound[childIdx][p] <= radius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 获取第i个pivot
      */
@@ -150,17 +181,31 @@ public class LinearPartitionInternalNode extends InternalNode {
     }
 
     /**
-     * 获取第i个划分阈值
+     * 获取第i维的中间划分阈值（s=2时即中位数）
      */
     public double getSplitThreshold(int i) {
-        return splitThreshold[i];
+        return splitThreshold[i][(splitThreshold[i].length - 1) / 2];
+    }
+
+    /**
+     * 获取第i维的全部划分阈值（升序）
+     */
+    public double[] getSplitThresholds(int i) {
+        return splitThreshold[i].clone();
     }
 
     /**
-     * 获取所有划分阈值
+     * 获取pivot数量k
      */
-    public double[] getSplitThresholds() {
-        return splitThreshold.clone();
+    public int getNumPivots() {
+        return pivots.size();
+    }
+
+    /**
+     * 获取子节点数量 s^k
+     */
+    public int getNumChildren() {
+        return children.size();
     }
 
     /**
@@ -188,7 +233,7 @@ public class LinearPartitionInternalNode extends InternalNode {
      * 获取第i个子节点的数据量
      */
     public int getChildSize(int i) {
-        return childSizes[i];
+        return children.get(i) != null ? children.get(i).size() : 0;
     }
 
     /**
@@ -196,11 +241,22 @@ public class LinearPartitionInternalNode extends InternalNode {
      */
     @Override
     public int size() {
-        int total = NUM_PIVOTS;
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            total += childSizes[i];
+        return super.size() + (isPivotStoredInChildren() ? 0 : pivots.size());
+    }
+
+    @Override
+    public int chooseChild(double[] pivotDistances) {
+        return getChildIndex(pivotDistances);
+    }
+
+    @Override
+    public void extendChildBounds(int childIdx, double[] pivotDistances) {
+        boolean empty = children.get(childIdx) == null;
+        for (int p = 0; p < pivots.size(); p++) {
+            double d = pivotDistances[p];
+            lowerBound[childIdx][p] = empty ? d : Math.min(lowerBound[childIdx][p], d);
+            upperBound[childIdx][p] = empty ? d : Math.max(upperBound[childIdx][p], d);
         }
-        return total;
     }
 
     private double[][] deepCopy(double[][] src) {
@@ -213,20 +269,35 @@ public class LinearPartitionInternalNode extends InternalNode {
         return dst;
     }
 
+    @Override
+    public boolean hasDistanceBounds() {
+        return true;
+    }
+
+    @Override
+    public double getDistanceLower(int childIdx, int j) {
+        return lowerBound[childIdx][j];
+    }
+
+    @Override
+    public double getDistanceUpper(int childIdx, int j) {
+        return upperBound[childIdx][j];
+    }
+
     @Override
     public String getNodeInfo() {
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("LinearPartitionInternalNode[depth=%d, pivots=[", depth));
-        for (int i = 0; i < NUM_PIVOTS; i++) {
+        for (int i = 0; i < pivots.size(); i++) {
             if (i > 0)
                 sb.append(",");
             sb.append("ID").append(pivots.get(i).getDataId());
         }
         sb.append("], children=[");
-        for (int i = 0; i < NUM_CHILDREN; i++) {
+        for (int i = 0; i < children.size(); i++) {
             if (i > 0)
                 sb.append(",");
-            sb.append(childSizes[i]);
+            sb.append(getChildSize(i));
         }
         sb.append("]]");
         return sb.toString();
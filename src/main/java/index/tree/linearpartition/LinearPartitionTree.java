@@ -5,20 +5,19 @@ import core.MetricFunction;
 import index.tree.*;
 import index.tree.common.TreeConfig;
 import index.tree.common.MultiPivotSelector;
-import query.KNNResult;
 
 import java.util.*;
 
 /**
- * 3-pivot 完全线性划分树
+ * k-pivot 完全线性划分树
  *
- * 在3维支撑点空间中使用线性超平面进行划分。
- * 数据被映射到支撑点空间：(d1, d2, d3) = (d(x,p1), d(x,p2), d(x,p3))
- * 使用正交划分策略，按各维度中位数划分，产生8个子区域。
+ * 在k维支撑点空间中使用线性超平面进行划分（默认k=3）。
+ * 数据被映射到支撑点空间：(d1, ..., dk) = (d(x,p1), ..., d(x,pk))
+ * 使用正交划分策略，每个维度按分位数划分为s段（默认s=2，即中位数），产生s^k个子区域。
  *
  * 划分规则：
  * - 计算数据到各pivot的距离，作为支撑点空间坐标
- * - 按各维度中位数进行正交划分
+ * - 按各维度分位数进行正交划分
  *
  * 剪枝规则：
  * - 查询区域在支撑点空间中是边长2r的立方体
@@ -29,9 +28,6 @@ import java.util.*;
  */
 public class LinearPartitionTree extends TreeIndex {
 
-    private static final int NUM_PIVOTS = 3;
-    private static final int NUM_CHILDREN = 8;
-
     private MultiPivotSelector pivotSelector;
 
     public LinearPartitionTree(TreeConfig config, MultiPivotSelector pivotSelector) {
@@ -66,147 +62,133 @@ public class LinearPartitionTree extends TreeIndex {
 
     @Override
     public String getIndexName() {
-        return "3-pivot Linear-Partition-Tree (完全线性划分树)";
+        return config.getNumPivots() + "-pivot Linear-Partition-Tree (完全线性划分树)";
+    }
+
+    @Override
+    protected int getPivotsPerNode() {
+        return config.getNumPivots();
     }
 
     @Override
-    protected TreeNode buildTreeRecursive(List<MetricSpaceData> data, int depth) {
+    protected TreeNode buildTreeRecursive(BuildSlice data, int depth, Random rnd) {
+        int numPivots = config.getNumPivots();
+        int splits = config.getSplitsPerPivot();
+        int numChildren = config.getFanout(numPivots);
+
         if (heightController.canCreateLeaf(depth, data.size())) {
             if (config.isVerbose()) {
                 System.out.printf("  深度%d: 创建叶子节点，数据量=%d%n", depth, data.size());
             }
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
-        if (data.size() < NUM_PIVOTS + 1) {
-            return new LeafNode(data, depth);
+        if (data.size() < numPivots + 1) {
+            return createLeaf(data, depth);
         }
 
-        // 选择3个pivot
-        List<MetricSpaceData> nodePivots = pivotSelector.selectPivots(data, metric, NUM_PIVOTS);
-        buildDistanceComputations += pivotSelector.getDistanceComputations();
-
-        if (config.isVerbose()) {
-            System.out.printf("  深度%d: 选择支撑点 p1=%s, p2=%s, p3=%s%n", depth, nodePivots.get(0),
-                    nodePivots.get(1), nodePivots.get(2));
+        // 选择k个pivot（共享支撑点模式下从共享支撑点集合中选）
+        int[] ordinals = null;
+        List<MetricSpaceData> nodePivots;
+        if (usesSharedPivots()) {
+            ordinals = selectSharedPivots(data, depth, numPivots, rnd);
+            nodePivots = getSharedPivots(ordinals);
+        } else {
+            nodePivots = pivotSelector.selectPivots(data, metric, numPivots, rnd);
+            buildDistanceComputations.add(pivotSelector.getDistanceComputations());
         }
 
-        // 移除pivot
-        Set<Integer> pivotIds = new HashSet<>();
-        for (MetricSpaceData p : nodePivots) {
-            pivotIds.add(p.getDataId());
+        if (config.isVerbose()) {
+            System.out.printf("  深度%d: 选择支撑点 %s%n", depth, describePivots(nodePivots));
         }
 
-        List<MetricSpaceData> remainingData = new ArrayList<>();
-        for (MetricSpaceData d : data) {
-            if (!pivotIds.contains(d.getDataId())) {
-                remainingData.add(d);
-            }
+        // 把pivot移到片段开头（共享支撑点留在数据中，划分全部对象）
+        BuildSlice remainingData = data;
+        if (ordinals == null) {
+            data.moveToFront(nodePivots);
+            remainingData = data.subSlice(numPivots, data.size());
         }
 
         if (remainingData.isEmpty()) {
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
-        // 将数据映射到支撑点空间
-        double[][] coords = new double[remainingData.size()][NUM_PIVOTS];
+        // 将数据映射到支撑点空间（坐标写入距离暂存区）
         for (int i = 0; i < remainingData.size(); i++) {
-            for (int j = 0; j < NUM_PIVOTS; j++) {
-                coords[i][j] = metric.getDistance(remainingData.get(i), nodePivots.get(j));
-                buildDistanceComputations++;
+            for (int j = 0; j < numPivots; j++) {
+                double coord = metric.getDistance(remainingData.get(i), nodePivots.get(j));
+                buildDistanceComputations.increment();
+                recordPathDistance(remainingData.rowOf(i), depth, j, coord);
+                remainingData.setDistance(i, j, coord);
             }
         }
 
-        // 计算划分阈值（各维度中位数）
-        double[] splitThreshold = new double[NUM_PIVOTS];
-        for (int j = 0; j < NUM_PIVOTS; j++) {
-            double[] col = new double[coords.length];
-            for (int i = 0; i < coords.length; i++) {
-                col[i] = coords[i][j];
-            }
-            Arrays.sort(col);
-            splitThreshold[j] = col[col.length / 2];
+        // 计算划分阈值（各维度的s分位数，s=2时即中位数；逐列快速选择）
+        double[][] splitThreshold = new double[numPivots][];
+        for (int j = 0; j < numPivots; j++) {
+            splitThreshold[j] = remainingData.quantiles(j, splits);
         }
 
-        // 将数据分配到8个子集
-        @SuppressWarnings("unchecked")
-        List<MetricSpaceData>[] partitions = new ArrayList[NUM_CHILDREN];
-        @SuppressWarnings("unchecked")
-        List<double[]>[] partitionCoords = new ArrayList[NUM_CHILDREN];
-
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            partitions[i] = new ArrayList<>();
-            partitionCoords[i] = new ArrayList<>();
+        // 确定每个对象所属的子集，同时计算每个子集的坐标范围
+        double[][] lowerBound = new double[numChildren][numPivots];
+        double[][] upperBound = new double[numChildren][numPivots];
+        for (int i = 0; i < numChildren; i++) {
+            Arrays.fill(lowerBound[i], Double.MAX_VALUE);
+            Arrays.fill(upperBound[i], Double.MIN_VALUE);
         }
 
+        double[] coord = new double[numPivots];
         for (int i = 0; i < remainingData.size(); i++) {
-            int childIdx = 0;
-            if (coords[i][0] > splitThreshold[0])
-                childIdx |= 1;
-            if (coords[i][1] > splitThreshold[1])
-                childIdx |= 2;
-            if (coords[i][2] > splitThreshold[2])
-                childIdx |= 4;
-
-            partitions[childIdx].add(remainingData.get(i));
-            partitionCoords[childIdx].add(coords[i]);
+            for (int j = 0; j < numPivots; j++) {
+                coord[j] = remainingData.distance(i, j);
+            }
+            int childIdx = LinearPartitionInternalNode.computeChildIndex(coord, splitThreshold);
+            remainingData.setKey(i, childIdx);
+            for (int j = 0; j < numPivots; j++) {
+                lowerBound[childIdx][j] = Math.min(lowerBound[childIdx][j], coord[j]);
+                upperBound[childIdx][j] = Math.max(upperBound[childIdx][j], coord[j]);
+            }
+        }
+
+        // 按子集原地分组为s^k个连续片段
+        List<BuildSlice> partitions = remainingData.groupByKey(numChildren);
+        if (ordinals != null && isDegenerate(partitions, data.size())) {
+            return createLeaf(data, depth);
         }
 
         if (config.isVerbose()) {
             StringBuilder sb = new StringBuilder();
             sb.append(String.format("  深度%d: 数据划分完成，分布=[", depth));
-            for (int i = 0; i < NUM_CHILDREN; i++) {
+            for (int i = 0; i < numChildren; i++) {
                 if (i > 0)
                     sb.append(", ");
-                sb.append(partitions[i].size());
+                sb.append(partitions.get(i).size());
             }
             sb.append("]");
             System.out.println(sb.toString());
         }
 
-        // 计算每个子集的坐标范围
-        double[][] lowerBound = new double[NUM_CHILDREN][NUM_PIVOTS];
-        double[][] upperBound = new double[NUM_CHILDREN][NUM_PIVOTS];
-
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            Arrays.fill(lowerBound[i], Double.MAX_VALUE);
-            Arrays.fill(upperBound[i], Double.MIN_VALUE);
-
-            for (double[] coord : partitionCoords[i]) {
-                for (int j = 0; j < NUM_PIVOTS; j++) {
-                    lowerBound[i][j] = Math.min(lowerBound[i][j], coord[j]);
-                    upperBound[i][j] = Math.max(upperBound[i][j], coord[j]);
-                }
-            }
-
-            if (partitions[i].isEmpty()) {
+        for (int i = 0; i < numChildren; i++) {
+            if (partitions.get(i).isEmpty()) {
                 Arrays.fill(lowerBound[i], 0);
                 Arrays.fill(upperBound[i], 0);
             }
         }
 
-        // 递归构建子树
-        List<TreeNode> childNodes = new ArrayList<>();
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            if (partitions[i].isEmpty()) {
-                childNodes.add(null);
-            } else {
-                childNodes.add(buildTreeRecursive(partitions[i], depth + 1));
-            }
-        }
+        // 递归构建子树（空子集对应null子节点）
+        List<TreeNode> childNodes = buildChildren(partitions, depth + 1, rnd);
 
-        return new LinearPartitionInternalNode(nodePivots, childNodes, splitThreshold, lowerBound,
-                upperBound, depth);
+        LinearPartitionInternalNode node = new LinearPartitionInternalNode(nodePivots,
+                childNodes, splitThreshold, lowerBound, upperBound, depth);
+        return withPivotOrdinals(node, ordinals);
     }
 
     // ========== 范围查询实现 ==========
 
     @Override
     public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
-        List<MetricSpaceData> results = new ArrayList<>();
-
         if (root == null) {
-            return results;
+            return new ArrayList<>();
         }
 
         if (config.isVerbose()) {
@@ -217,67 +199,13 @@ public class LinearPartitionTree extends TreeIndex {
             System.out.println("查询半径: " + radius);
         }
 
-        rangeQueryRecursive(root, queryObject, radius, results);
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
-    }
-
-    private void rangeQueryRecursive(TreeNode node, MetricSpaceData queryObject, double radius,
-            List<MetricSpaceData> results) {
-        nodeAccesses++;
-
-        if (node == null) {
-            return;
-        }
-
-        if (node.isLeaf()) {
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                if (dist <= radius) {
-                    results.add(data);
-                }
-            }
-        } else {
-            LinearPartitionInternalNode internal = (LinearPartitionInternalNode) node;
-
-            // 计算查询对象的支撑点空间坐标
-            double[] dq = new double[NUM_PIVOTS];
-            for (int i = 0; i < NUM_PIVOTS; i++) {
-                dq[i] = metric.getDistance(queryObject, internal.getPivot(i));
-                queryDistanceComputations++;
-
-                // 检查pivot是否在查询范围内
-                if (dq[i] <= radius) {
-                    results.add(internal.getPivot(i));
-                }
-            }
-
-            // 检查每个子树
-            for (int i = 0; i < NUM_CHILDREN; i++) {
-                if (internal.shouldVisitChild(i, dq, radius)) {
-                    rangeQueryRecursive(internal.getChild(i), queryObject, radius, results);
-                }
-            }
-        }
+        return executeQuery(newRangeContext(queryObject, radius));
     }
 
     // ========== kNN查询实现 ==========
 
     @Override
     public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
-        PriorityQueue<KNNResult> knnHeap =
-                new PriorityQueue<>((a, b) -> Double.compare(b.getDistance(), a.getDistance()));
-
         if (root == null || k <= 0) {
             return new ArrayList<>();
         }
@@ -290,94 +218,31 @@ public class LinearPartitionTree extends TreeIndex {
             System.out.println("k = " + k);
         }
 
-        double[] currentRadius = {Double.MAX_VALUE};
-
-        knnQueryRecursive(root, queryObject, k, knnHeap, currentRadius);
-
-        List<MetricSpaceData> results = new ArrayList<>();
-        List<KNNResult> tempList = new ArrayList<>(knnHeap);
-        tempList.sort(Comparator.comparingDouble(KNNResult::getDistance));
-
-        for (KNNResult result : tempList) {
-            results.add(result.getData());
-        }
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
+        return executeQuery(newKnnContext(queryObject, k));
     }
 
-    private void knnQueryRecursive(TreeNode node, MetricSpaceData queryObject, int k,
-            PriorityQueue<KNNResult> knnHeap, double[] currentRadius) {
-        nodeAccesses++;
-
-        if (node == null) {
-            return;
-        }
+    // ========== 增量最近邻（最佳优先）==========
 
-        if (node.isLeaf()) {
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                updateKNNHeap(knnHeap, data, dist, k, currentRadius);
-            }
-        } else {
-            LinearPartitionInternalNode internal = (LinearPartitionInternalNode) node;
-
-            double[] dq = new double[NUM_PIVOTS];
-            for (int i = 0; i < NUM_PIVOTS; i++) {
-                dq[i] = metric.getDistance(queryObject, internal.getPivot(i));
-                queryDistanceComputations++;
-
-                updateKNNHeap(knnHeap, internal.getPivot(i), dq[i], k, currentRadius);
-            }
-
-            // 按优先级访问子树
-            List<int[]> childOrder = new ArrayList<>();
-            for (int i = 0; i < NUM_CHILDREN; i++) {
-                if (internal.getChild(i) != null) {
-                    double minDist = 0;
-                    for (int j = 0; j < NUM_PIVOTS; j++) {
-                        double L = internal.getLowerBound(i, j);
-                        double U = internal.getUpperBound(i, j);
-                        if (dq[j] < L) {
-                            minDist = Math.max(minDist, L - dq[j]);
-                        } else if (dq[j] > U) {
-                            minDist = Math.max(minDist, dq[j] - U);
-                        }
-                    }
-                    childOrder.add(new int[] {i, (int) (minDist * 1000)});
-                }
-            }
-            childOrder.sort(Comparator.comparingInt(a -> a[1]));
-
-            for (int[] entry : childOrder) {
-                int i = entry[0];
-                if (internal.shouldVisitChild(i, dq, currentRadius[0])) {
-                    knnQueryRecursive(internal.getChild(i), queryObject, k, knnHeap, currentRadius);
-                }
+    /**
+     * 展开线性划分树内部节点：支撑点作为对象入队，子节点以各维距离范围给出的下界入队
+     */
+    @Override
+    protected void expandNode(InternalNode node, double nodeLowerBound,
+            NearestNeighborIterator iterator) {
+        LinearPartitionInternalNode internal = (LinearPartitionInternalNode) node;
+        double[] dq = new double[internal.getNumPivots()];
+        for (int i = 0; i < internal.getNumPivots(); i++) {
+            dq[i] = internal.queryDistance(i, iterator.getContext());
+            if (!internal.isPivotStoredInChildren()) {
+                iterator.addObject(internal.getPivot(i), dq[i]);
             }
         }
-    }
 
-    private void updateKNNHeap(PriorityQueue<KNNResult> knnHeap, MetricSpaceData data, double dist,
-            int k, double[] currentRadius) {
-        if (knnHeap.size() < k) {
-            knnHeap.offer(new KNNResult(data, dist));
-            if (knnHeap.size() == k) {
-                currentRadius[0] = knnHeap.peek().getDistance();
+        for (int i = 0; i < internal.getNumChildren(); i++) {
+            if (internal.getChild(i) != null) {
+                iterator.addNode(internal.getChild(i),
+                        Math.max(nodeLowerBound, internal.getChildLowerBound(i, dq)));
             }
-        } else if (dist < currentRadius[0]) {
-            knnHeap.poll();
-            knnHeap.offer(new KNNResult(data, dist));
-            currentRadius[0] = knnHeap.peek().getDistance();
         }
     }
 
@@ -392,13 +257,13 @@ public class LinearPartitionTree extends TreeIndex {
             LinearPartitionInternalNode internal = (LinearPartitionInternalNode) node;
             StringBuilder sb = new StringBuilder();
             sb.append("LP内部节点 [pivots=");
-            for (int i = 0; i < NUM_PIVOTS; i++) {
+            for (int i = 0; i < internal.getNumPivots(); i++) {
                 if (i > 0)
                     sb.append(",");
                 sb.append("ID").append(internal.getPivot(i).getDataId());
             }
             sb.append(", sizes=[");
-            for (int i = 0; i < NUM_CHILDREN; i++) {
+            for (int i = 0; i < internal.getNumChildren(); i++) {
                 if (i > 0)
                     sb.append(",");
                 sb.append(internal.getChildSize(i));
@@ -420,13 +285,13 @@ public class LinearPartitionTree extends TreeIndex {
         if (!node.isLeaf()) {
             LinearPartitionInternalNode internal = (LinearPartitionInternalNode) node;
             int nonNullCount = 0;
-            for (int i = 0; i < NUM_CHILDREN; i++) {
+            for (int i = 0; i < internal.getNumChildren(); i++) {
                 if (internal.getChild(i) != null)
                     nonNullCount++;
             }
 
             int printed = 0;
-            for (int i = 0; i < NUM_CHILDREN; i++) {
+            for (int i = 0; i < internal.getNumChildren(); i++) {
                 TreeNode child = internal.getChild(i);
                 if (child != null) {
                     printed++;
@@ -5,83 +5,78 @@ import index.tree.InternalNode;
 import index.tree.TreeNode;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
  * MVP树内部节点
  *
- * 使用3个pivot进行嵌套球形划分，产生2^3=8个子区域。
- * 每个子区域由3个二进制位标识：
- * - bit 0: 第1个pivot的内/外球（0=内球，1=外球）
- * - bit 1: 第2个pivot的内/外球
- * - bit 2: 第3个pivot的内/外球
+ * 使用k个pivot进行嵌套球形划分，每个pivot按距离分为s段，产生s^k个子区域。
+ * 子区域编号是以s为基数的k位数，第j位是数据到第j个pivot的距离所在的段（0=最内层）：
+ * index = seg_0 + seg_1 * s + seg_2 * s^2 + ...
+ * 默认k=3、s=2时即8个子区域，第j位为第j个pivot的内/外球。
  *
  * @author Jixiang Ding
  * @version 1.0
  */
 public class MVPInternalNode extends InternalNode {
 
-    /** pivot数量 */
-    public static final int NUM_PIVOTS = 3;
+    /** 各pivot的划分半径 [k][s-1]（升序，s=2时为中位数距离） */
+    private double[][] splitRadius;
 
-    /** 子节点数量 */
-    public static final int NUM_CHILDREN = 8;
-
-    /** 划分半径（每个pivot的中位数距离） */
-    private double[] splitRadius;
-
-    /** 每个子树到每个pivot的距离下界 */
+    /** 每个子树到每个pivot的距离下界 [s^k][k] */
     private double[][] lowerBound;
 
-    /** 每个子树到每个pivot的距离上界 */
+    /** 每个子树到每个pivot的距离上界 [s^k][k] */
     private double[][] upperBound;
 
-    /** 每个子树的数据量 */
-    private int[] childSizes;
-
     /**
      * 构造MVP树内部节点
      *
-     * @param pivots 3个支撑点
-     * @param children 8个子节点
-     * @param splitRadius 3个划分半径
-     * @param lowerBound 距离下界矩阵 [8][3]
-     * @param upperBound 距离上界矩阵 [8][3]
+     * @param pivots k个支撑点
+     * @param children s^k个子节点
+     * @param splitRadius 划分半径矩阵 [k][s-1]
+     * @param lowerBound 距离下界矩阵 [s^k][k]
+     * @param upperBound 距离上界矩阵 [s^k][k]
      * @param depth 节点深度
      */
     public MVPInternalNode(List<MetricSpaceData> pivots, List<TreeNode> children,
-            double[] splitRadius, double[][] lowerBound, double[][] upperBound, int depth) {
+            double[][] splitRadius, double[][] lowerBound, double[][] upperBound, int depth) {
         this.pivots = new ArrayList<>(pivots);
         this.children = new ArrayList<>(children);
-        this.splitRadius = splitRadius.clone();
+        this.splitRadius = deepCopy(splitRadius);
         this.lowerBound = deepCopy(lowerBound);
         this.upperBound = deepCopy(upperBound);
         this.depth = depth;
-
-        // 计算子树大小
-        this.childSizes = new int[NUM_CHILDREN];
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            if (children.get(i) != null) {
-                childSizes[i] = children.get(i).size();
-            }
-        }
     }
 
     /**
      * 获取子节点索引
      *
-     * @param distToPivots 数据到3个pivot的距离数组
-     * @return 子节点索引（0-7）
+     * @param distToPivots 数据到k个pivot的距离数组
+     * @return 子节点索引（0 到 s^k-1）
      */
     public int getChildIndex(double[] distToPivots) {
+        return computeChildIndex(distToPivots, splitRadius);
+    }
+
+    /**
+     * 按划分半径计算子节点索引（构建时节点尚未创建，也使用此方法）
+     *
+     * @param distToPivots 数据到k个pivot的距离数组
+     * @param splitRadius 划分半径矩阵 [k][s-1]
+     * @return 子节点索引（0 到 s^k-1）
+     */
+    public static int computeChildIndex(double[] distToPivots, double[][] splitRadius) {
         int idx = 0;
-        if (distToPivots[0] > splitRadius[0])
-            idx |= 1; // bit 0
-        if (distToPivots[1] > splitRadius[1])
-            idx |= 2; // bit 1
-        if (distToPivots[2] > splitRadius[2])
-            idx |= 4; // bit 2
+        int weight = 1;
+        for (int p = 0; p < splitRadius.length; p++) {
+            int segment = 0;
+            while (segment < splitRadius[p].length && distToPivots[p] > splitRadius[p][segment]) {
+                segment++;
+            }
+            idx += segment * weight;
+            weight *= splitRadius[p].length + 1;
+        }
         return idx;
     }
 
@@ -100,7 +95,7 @@ public class MVPInternalNode extends InternalNode {
             return false;
         }
 
-        for (int p = 0; p < NUM_PIVOTS; p++) {
+        for (int p = 0; p < pivots.size(); p++) {
             double dq = distToQuery[p];
             double L = lowerBound[childIdx][p];
             double U = upperBound[childIdx][p];
@@ -113,6 +108,25 @@ public class MVPInternalNode extends InternalNode {
         return true;
     }
 
+    /**
+     * 计算子树中对象到查询对象的距离下界
+     *
+     * 与shouldVisitChild一致：对任意半径r，shouldVisitChild(i, dq, r)成立当且仅当r不小于该下界。
+     *
+     * @param childIdx 子节点索引
+     * @param dq 查询对象到各pivot的距离
+     * @return 距离下界
+     */
+    @Override
+    public double getChildLowerBound(int childIdx, double[] dq) {
+        double bound = 0;
+        for (int p = 0; p < pivots.size(); p++) {
+            bound = Math.max(bound, lowerBound[childIdx][p] - dq[p]);
+            bound = Math.max(bound, dq[p] - upperBound[childIdx][p]);
+        }
+        return bound;
+    }
+
     /**
      * 判断子节点是否完全包含在查询范围内（包含规则）
      *
@@ -124,7 +138,7 @@ public class MVPInternalNode extends InternalNode {
      * @return 是否完全包含
      */
     public boolean isChildFullyContained(int childIdx, double[] distToQuery, double radius) {
-        for (int p = 0; p < NUM_PIVOTS; p++) {
+        for (int p = 0; p < pivots.size(); p++) {
             double dq = distToQuery[p];
             double U = upperBound[childIdx][p];
 
@@ -136,6 +150,11 @@ public class MVPInternalNode extends InternalNode {
         return false;
     }
 
+    @Override
+    public boolean isChildContained(int childIdx, double[] dq, double radius) {
+        return children.get(childIdx) != null && isChildFullyContained(childIdx, dq, radius);
+    }
+
     /**
      * 获取第i个pivot
      */
@@ -144,17 +163,31 @@ public class MVPInternalNode extends InternalNode {
     }
 
     /**
-     * 获取第i个划分半径
+     * 获取第i个pivot的中间划分半径（s=2时即中位数）
      */
     public double getSplitRadius(int i) {
-        return splitRadius[i];
+        return splitRadius[i][(splitRadius[i].length - 1) / 2];
     }
 
     /**
-     * 获取所有划分半径
+     * 获取第i个pivot的全部划分半径（升序）
      */
-    public double[] getSplitRadii() {
-        return splitRadius.clone();
+    public double[] getSplitRadii(int i) {
+        return splitRadius[i].clone();
+    }
+
+    /**
+     * 获取pivot数量k
+     */
+    public int getNumPivots() {
+        return pivots.size();
+    }
+
+    /**
+     * 获取子节点数量 s^k
+     */
+    public int getNumChildren() {
+        return children.size();
     }
 
     /**
@@ -182,20 +215,31 @@ public class MVPInternalNode extends InternalNode {
      * 获取第i个子节点的数据量
      */
     public int getChildSize(int i) {
-        return childSizes[i];
+        return children.get(i) != null ? children.get(i).size() : 0;
     }
 
     /**
      * 重写size方法，包含pivot本身
-     * MVP树的pivot不在子树中，需要单独计数
+     * MVP树的pivot不在子树中，需要单独计数（共享支撑点已在子树中，不重复计数）
      */
     @Override
     public int size() {
-        int total = NUM_PIVOTS; // 3个pivot
-        for (int i = 0; i < NUM_CHILDREN; i++) {
-            total += childSizes[i];
+        return super.size() + (isPivotStoredInChildren() ? 0 : pivots.size());
+    }
+
+    @Override
+    public int chooseChild(double[] pivotDistances) {
+        return getChildIndex(pivotDistances);
+    }
+
+    @Override
+    public void extendChildBounds(int childIdx, double[] pivotDistances) {
+        boolean empty = children.get(childIdx) == null;
+        for (int p = 0; p < pivots.size(); p++) {
+            double d = pivotDistances[p];
+            lowerBound[childIdx][p] = empty ? d : Math.min(lowerBound[childIdx][p], d);
+            upperBound[childIdx][p] = empty ? d : Math.max(upperBound[childIdx][p], d);
         }
-        return total;
     }
 
     /**
@@ -211,20 +255,35 @@ public class MVPInternalNode extends InternalNode {
         return dst;
     }
 
+    @Override
+    public boolean hasDistanceBounds() {
+        return true;
+    }
+
+    @Override
+    public double getDistanceLower(int childIdx, int j) {
+        return lowerBound[childIdx][j];
+    }
+
+    @Override
+    public double getDistanceUpper(int childIdx, int j) {
+        return upperBound[childIdx][j];
+    }
+
     @Override
     public String getNodeInfo() {
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("MVPInternalNode[depth=%d, pivots=[", depth));
-        for (int i = 0; i < NUM_PIVOTS; i++) {
+        for (int i = 0; i < pivots.size(); i++) {
             if (i > 0)
                 sb.append(",");
             sb.append("ID").append(pivots.get(i).getDataId());
         }
         sb.append("], children=[");
-        for (int i = 0; i < NUM_CHILDREN; i++) {
+        for (int i = 0; i < children.size(); i++) {
             if (i > 0)
                 sb.append(",");
-            sb.append(childSizes[i]);
+            sb.append(getChildSize(i));
         }
         sb.append("]]");
         return sb.toString();
@@ -5,6 +5,7 @@ import index.tree.InternalNode;
 import index.tree.TreeNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -18,6 +19,7 @@ import java.util.List;
  * - d(x, p) <= median → 内球（左子树）
  * - d(x, p) > median → 外球（右子树）
  * 
+ * m叉VP树把距离按分位数划分为m个球壳（第0个最靠近支撑点），二叉时即内球和外球。
  * 每个子区域记录距离范围 [lower, upper]，用于查询时的剪枝。
  * 
  * @author Jixiang Ding
@@ -47,8 +49,8 @@ public class VPInternalNode extends InternalNode {
     /** 每个子树的距离范围 */
     private List<DistanceRange> distanceRanges;
 
-    /** 划分距离（中位数） */
-    private double medianDistance;
+    /** 相邻球壳之间的划分距离（m叉时共m-1个，二叉时只有中位数） */
+    private double[] splitDistances;
 
     /**
      * 构造VP树内部节点
@@ -63,14 +65,25 @@ public class VPInternalNode extends InternalNode {
      */
     public VPInternalNode(MetricSpaceData pivot, TreeNode innerChild, TreeNode outerChild,
             DistanceRange innerRange, DistanceRange outerRange, double medianDistance, int depth) {
+        this(pivot, Arrays.asList(innerChild, outerChild), Arrays.asList(innerRange, outerRange),
+                new double[] {medianDistance}, depth);
+    }
+
+    /**
+     * 构造m叉VP树内部节点
+     * 
+     * @param pivot 支撑点
+     * @param children 各球壳的子树（按距离由近到远）
+     * @param ranges 各球壳的距离范围
+     * @param splitDistances 相邻球壳之间的划分距离（长度为子树数-1）
+     * @param depth 节点深度
+     */
+    public VPInternalNode(MetricSpaceData pivot, List<TreeNode> children,
+            List<DistanceRange> ranges, double[] splitDistances, int depth) {
         this.pivots = Collections.singletonList(pivot);
-        this.children = new ArrayList<>();
-        this.children.add(innerChild);
-        this.children.add(outerChild);
-        this.distanceRanges = new ArrayList<>();
-        this.distanceRanges.add(innerRange);
-        this.distanceRanges.add(outerRange);
-        this.medianDistance = medianDistance;
+        this.children = new ArrayList<>(children);
+        this.distanceRanges = new ArrayList<>(ranges);
+        this.splitDistances = splitDistances;
         this.depth = depth;
     }
 
@@ -95,10 +108,19 @@ public class VPInternalNode extends InternalNode {
     /**
      * 获取外球子树
      * 
-     * @return 外球子树（距离较远的数据）
+     * @return 外球子树（距离最远的球壳）
      */
     public TreeNode getOuterChild() {
-        return children.get(1);
+        return children.get(children.size() - 1);
+    }
+
+    /**
+     * 获取分支数
+     * 
+     * @return 球壳个数
+     */
+    public int getArity() {
+        return children.size();
     }
 
     /**
@@ -116,13 +138,13 @@ public class VPInternalNode extends InternalNode {
      * @return 外球距离范围
      */
     public DistanceRange getOuterRange() {
-        return distanceRanges.get(1);
+        return distanceRanges.get(distanceRanges.size() - 1);
     }
 
     /**
      * 获取指定子树的距离范围
      * 
-     * @param childIndex 子树索引（0=内球，1=外球）
+     * @param childIndex 子树索引（0=内球，依次向外）
      * @return 距离范围
      */
     public DistanceRange getDistanceRange(int childIndex) {
@@ -141,10 +163,21 @@ public class VPInternalNode extends InternalNode {
     /**
      * 获取划分距离（中位数）
      * 
+     * m叉时返回中间的划分距离。
+     * 
      * @return 划分距离
      */
     public double getMedianDistance() {
-        return medianDistance;
+        return splitDistances[(splitDistances.length - 1) / 2];
+    }
+
+    /**
+     * 获取相邻球壳之间的全部划分距离
+     * 
+     * @return 划分距离数组（长度为子树数-1）
+     */
+    public double[] getSplitDistances() {
+        return splitDistances;
     }
 
     /**
@@ -162,7 +195,7 @@ public class VPInternalNode extends InternalNode {
      * @return 外球包含的数据数量
      */
     public int getOuterSize() {
-        return children.get(1).size();
+        return getOuterChild().size();
     }
 
     /**
@@ -171,16 +204,79 @@ public class VPInternalNode extends InternalNode {
      */
     @Override
     public int size() {
-        // 子树中的数据量 + pivot（1个）
-        return super.size() + 1;
+        // 子树中的数据量 + pivot（1个，共享支撑点已在子树中）
+        return super.size() + (isPivotStoredInChildren() ? 0 : 1);
+    }
+
+    /**
+     * 按划分距离选择球壳：距离不超过第s个划分距离的对象属于第s个球壳
+     */
+    @Override
+    public int chooseChild(double[] pivotDistances) {
+        int shell = 0;
+        while (shell < splitDistances.length && pivotDistances[0] > splitDistances[shell]) {
+            shell++;
+        }
+        return shell;
+    }
+
+    @Override
+    public void extendChildBounds(int childIdx, double[] pivotDistances) {
+        double d = pivotDistances[0];
+        DistanceRange range = distanceRanges.get(childIdx);
+        if (children.get(childIdx) == null) {
+            distanceRanges.set(childIdx, new DistanceRange(d, d));
+        } else if (d < range.lower || d > range.upper) {
+            distanceRanges.set(childIdx,
+                    new DistanceRange(Math.min(range.lower, d), Math.max(range.upper, d)));
+        }
+    }
+
+    @Override
+    public boolean isChildContained(int childIdx, double[] dq, double radius) {
+        return children.get(childIdx) != null
+                && dq[0] + distanceRanges.get(childIdx).upper <= radius;
+    }
+
+    @Override
+    public double getChildLowerBound(int childIdx, double[] dq) {
+        DistanceRange range = distanceRanges.get(childIdx);
+        return Math.max(0, Math.max(range.lower - dq[0], dq[0] - range.upper));
+    }
+
+    @Override
+    public boolean hasDistanceBounds() {
+        return true;
+    }
+
+    @Override
+    public double getDistanceLower(int childIdx, int j) {
+        return distanceRanges.get(childIdx).lower;
+    }
+
+    @Override
+    public double getDistanceUpper(int childIdx, int j) {
+        return distanceRanges.get(childIdx).upper;
     }
 
     @Override
     public String getNodeInfo() {
-        return String.format(
-                "VPInternalNode[depth=%d, inner=%d%s, outer=%d%s, median=%.4f, pivot=%s]", depth,
-                getInnerSize(), getInnerRange(), getOuterSize(), getOuterRange(), medianDistance,
-                pivots.get(0).toString());
+        if (children.size() == 2) {
+            return String.format(
+                    "VPInternalNode[depth=%d, inner=%d%s, outer=%d%s, median=%.4f, pivot=%s]",
+                    depth, getInnerSize(), getInnerRange(), getOuterSize(), getOuterRange(),
+                    getMedianDistance(), pivots.get(0).toString());
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("VPInternalNode[depth=%d, shells=", depth));
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(children.get(i).size()).append(distanceRanges.get(i));
+        }
+        sb.append(", pivot=").append(pivots.get(0)).append("]");
+        return sb.toString();
     }
 }
 
@@ -5,7 +5,6 @@ import core.MetricFunction;
 import index.tree.*;
 import index.tree.common.TreeConfig;
 import index.tree.vptree.VPInternalNode.DistanceRange;
-import query.KNNResult;
 
 import java.util.*;
 
@@ -26,6 +25,12 @@ import java.util.*;
  * - 如果 d(q, p) + r < L，可以剪枝该子树（查询球完全在子区域外侧）
  * - 如果 d(q, p) - r > U，可以剪枝该子树（查询球完全在子区域内侧）
  *
+ * 配置 vpArity = m > 2 时为m叉VP树：按距离的分位数划分为m个球壳，
+ * 剪枝规则对每个球壳的 [L, U] 同样适用。kNN查询按球壳的距离下界由近到远访问。
+ *
+ * GLOBAL模式下同一层的节点共用一个支撑点（即固定查询树FQT），一次查询的支撑点距离计算
+ * 不超过共享支撑点数。
+ *
  * @author Jixiang Ding
  * @version 1.0
  */
@@ -59,87 +64,130 @@ public class VPTree extends TreeIndex {
      * 1. 判断是否应该创建叶子节点
      * 2. 选择一个支撑点
      * 3. 计算所有数据到支撑点的距离
-     * 4. 按距离排序，使用中位数划分
+     * 4. 用快速选择原地找出中位数并划分（m叉时依次选出各分位点，划分为m个球壳）
      * 5. 记录每个子区域的距离范围
      * 6. 递归构建子树
      */
     @Override
-    protected TreeNode buildTreeRecursive(List<MetricSpaceData> data, int depth) {
+    protected TreeNode buildTreeRecursive(BuildSlice data, int depth, Random rnd) {
         // 判断是否创建叶子节点
         if (heightController.canCreateLeaf(depth, data.size())) {
             if (config.isVerbose()) {
                 System.out.printf("  深度%d: 创建叶子节点，数据量=%d%n", depth, data.size());
             }
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
-        // 选择支撑点
-        MetricSpaceData pivot = selectPivot(data);
+        // 选择支撑点：共享支撑点留在数据中，否则把支撑点移到片段开头
+        int[] ordinals = null;
+        MetricSpaceData pivot;
+        BuildSlice rest;
+        if (usesSharedPivots()) {
+            ordinals = selectSharedPivots(data, depth, 1, rnd);
+            pivot = getSharedPivot(ordinals[0]);
+            rest = data;
+        } else {
+            pivot = selectPivot(data, rnd);
+            data.moveToFront(List.of(pivot));
+            rest = data.subSlice(1, data.size());
+        }
 
         if (config.isVerbose()) {
             System.out.printf("  深度%d: 选择支撑点 %s%n", depth, pivot.toString());
         }
 
-        // 计算距离并封装
-        List<DataWithDistance> dataWithDist = new ArrayList<>();
-        for (MetricSpaceData obj : data) {
-            if (obj.getDataId() == pivot.getDataId())
-                continue; // 跳过pivot本身
-
-            double dist = metric.getDistance(obj, pivot);
-            buildDistanceComputations++;
-            dataWithDist.add(new DataWithDistance(obj, dist));
-        }
-
-        // 按距离排序
-        dataWithDist.sort(Comparator.comparingDouble(d -> d.distance));
-
-        // 计算中位数并划分
-        int midpoint = dataWithDist.size() / 2;
-        if (midpoint == 0) {
-            midpoint = 1;
+        // 其余对象的距离写入暂存区
+        for (int i = 0; i < rest.size(); i++) {
+            double dist = metric.getDistance(rest.get(i), pivot);
+            buildDistanceComputations.increment();
+            recordPathDistance(rest.rowOf(i), depth, 0, dist);
+            rest.setDistance(i, 0, dist);
         }
 
-        List<MetricSpaceData> innerData = new ArrayList<>();
-        List<MetricSpaceData> outerData = new ArrayList<>();
-
-        for (int i = 0; i < dataWithDist.size(); i++) {
-            if (i < midpoint) {
-                innerData.add(dataWithDist.get(i).data);
-            } else {
-                outerData.add(dataWithDist.get(i).data);
-            }
-        }
+        // 确定分支数（二叉时即按中位数划分）
+        int arity = chooseArity(rest);
 
         // 处理极端情况
-        if (innerData.isEmpty() || outerData.isEmpty()) {
+        if (arity < 2) {
             if (config.isVerbose()) {
                 System.out.printf("  警告：深度%d处数据划分不均，强制创建叶子节点%n", depth);
             }
-            return new LeafNode(data, depth);
+            return createLeaf(data, depth);
         }
 
-        // 计算距离范围
-        double innerLower = dataWithDist.get(0).distance;
-        double innerUpper = dataWithDist.get(midpoint - 1).distance;
-        double outerLower = dataWithDist.get(midpoint).distance;
-        double outerUpper = dataWithDist.get(dataWithDist.size() - 1).distance;
-        double medianDistance = (innerUpper + outerLower) / 2.0;
+        // 依次选出各分位点，把对象原地划分为arity个球壳，并记录每个球壳的距离范围
+        int n = rest.size();
+        List<BuildSlice> shells = new ArrayList<>(arity);
+        List<DistanceRange> ranges = new ArrayList<>(arity);
+        double[] splitDistances = new double[arity - 1];
+        for (int s = 1; s < arity; s++) {
+            int rank = s * n / arity;
+            rest.select(0, (s - 1) * n / arity, n, rank);
+        }
+        for (int s = 0; s < arity; s++) {
+            int from = s * n / arity;
+            int to = (s + 1) * n / arity;
+            shells.add(rest.subSlice(from, to));
+            ranges.add(new DistanceRange(rest.min(0, from, to), rest.max(0, from, to)));
+            if (s > 0) {
+                splitDistances[s - 1] = (ranges.get(s - 1).upper + ranges.get(s).lower) / 2.0;
+            }
+        }
 
-        DistanceRange innerRange = new DistanceRange(innerLower, innerUpper);
-        DistanceRange outerRange = new DistanceRange(outerLower, outerUpper);
+        if (ordinals != null && isDegenerate(shells, data.size())) {
+            return createLeaf(data, depth);
+        }
 
         if (config.isVerbose()) {
-            System.out.printf("  深度%d: 数据划分完成，内球=%d%s，外球=%d%s，中位数=%.4f%n", depth, innerData.size(),
-                    innerRange, outerData.size(), outerRange, medianDistance);
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("  深度%d: 数据划分完成，%d个球壳=[", depth, arity));
+            for (int s = 0; s < arity; s++) {
+                if (s > 0) {
+                    sb.append(", ");
+                }
+                sb.append(shells.get(s).size()).append(ranges.get(s));
+            }
+            sb.append("]");
+            System.out.println(sb.toString());
         }
 
         // 递归构建子树
-        TreeNode innerChild = buildTreeRecursive(innerData, depth + 1);
-        TreeNode outerChild = buildTreeRecursive(outerData, depth + 1);
+        List<TreeNode> children = buildChildren(shells, depth + 1, rnd);
 
-        return new VPInternalNode(pivot, innerChild, outerChild, innerRange, outerRange,
-                medianDistance, depth);
+        return withPivotOrdinals(
+                new VPInternalNode(pivot, children, ranges, splitDistances, depth), ordinals);
+    }
+
+    /**
+     * 确定节点的分支数
+     *
+     * 固定模式下为 min(vpArity, 对象数)。自适应模式下还不超过距离的不同取值个数
+     * （离散距离时更多球壳只会得到范围重叠的子树）和 对象数/叶子容量
+     * （避免产生装不满叶子的小球壳），但至少为2。
+     * 不同取值只需数到分支数上限为止，因此不需要排序。
+     *
+     * @param data 已写入到支撑点距离（第0列）的对象
+     * @return 分支数（小于2表示无法划分）
+     */
+    private int chooseArity(BuildSlice data) {
+        int arity = Math.min(config.getVpArity(), data.size());
+        if (!config.isAdaptiveArity() || arity <= 2) {
+            return arity;
+        }
+        double[] seen = new double[arity];
+        int distinct = 0;
+        for (int i = 0; i < data.size() && distinct < arity; i++) {
+            double d = data.distance(i, 0);
+            int j = 0;
+            while (j < distinct && seen[j] != d) {
+                j++;
+            }
+            if (j == distinct) {
+                seen[distinct++] = d;
+            }
+        }
+        int fill = data.size() / config.getMaxLeafSize();
+        return Math.min(arity, Math.max(2, Math.min(distinct, fill)));
     }
 
     /**
@@ -150,15 +198,15 @@ public class VPTree extends TreeIndex {
      * - FFT: 使用Farthest-First Traversal
      * - MAX_SPREAD: 选择离参考点最远的点
      */
-    private MetricSpaceData selectPivot(List<MetricSpaceData> data) {
+    private MetricSpaceData selectPivot(List<MetricSpaceData> data, Random rnd) {
         switch (config.getPivotStrategy()) {
             case FFT:
-                return selectFFTPivot(data);
+                return selectFFTPivot(data, rnd);
             case MAX_SPREAD:
-                return selectMaxSpreadPivot(data);
+                return selectMaxSpreadPivot(data, rnd);
             case RANDOM:
             default:
-                return data.get(random.nextInt(data.size()));
+                return data.get(rnd.nextInt(data.size()));
         }
     }
 
@@ -167,9 +215,9 @@ public class VPTree extends TreeIndex {
      *
      * 随机选择一个参考点，然后选择离参考点最远的点作为支撑点
      */
-    private MetricSpaceData selectFFTPivot(List<MetricSpaceData> data) {
+    private MetricSpaceData selectFFTPivot(List<MetricSpaceData> data, Random rnd) {
         // 随机选择参考点
-        MetricSpaceData ref = data.get(random.nextInt(data.size()));
+        MetricSpaceData ref = data.get(rnd.nextInt(data.size()));
 
         // 找到离参考点最远的点
         MetricSpaceData pivot = null;
@@ -178,9 +226,9 @@ public class VPTree extends TreeIndex {
         // 采样以减少计算
         int sampleSize = Math.min(50, data.size());
         for (int i = 0; i < sampleSize; i++) {
-            MetricSpaceData candidate = data.get(random.nextInt(data.size()));
+            MetricSpaceData candidate = data.get(rnd.nextInt(data.size()));
             double dist = metric.getDistance(ref, candidate);
-            buildDistanceComputations++;
+            buildDistanceComputations.increment();
 
             if (dist > maxDist) {
                 maxDist = dist;
@@ -196,22 +244,9 @@ public class VPTree extends TreeIndex {
      *
      * 选择数据集中方差最大的点
      */
-    private MetricSpaceData selectMaxSpreadPivot(List<MetricSpaceData> data) {
+    private MetricSpaceData selectMaxSpreadPivot(List<MetricSpaceData> data, Random rnd) {
         // 简化实现：使用FFT
-        return selectFFTPivot(data);
-    }
-
-    /**
-     * 辅助类：数据及其到支撑点的距离
-     */
-    private static class DataWithDistance {
-        final MetricSpaceData data;
-        final double distance;
-
-        DataWithDistance(MetricSpaceData data, double distance) {
-            this.data = data;
-            this.distance = distance;
-        }
+        return selectFFTPivot(data, rnd);
     }
 
     // ========== 范围查询实现 ==========
@@ -224,10 +259,8 @@ public class VPTree extends TreeIndex {
      */
     @Override
     public List<MetricSpaceData> rangeQuery(MetricSpaceData queryObject, double radius) {
-        List<MetricSpaceData> results = new ArrayList<>();
-
         if (root == null) {
-            return results;
+            return new ArrayList<>();
         }
 
         if (config.isVerbose()) {
@@ -238,79 +271,7 @@ public class VPTree extends TreeIndex {
             System.out.println("查询半径: " + radius);
         }
 
-        rangeQueryRecursive(root, queryObject, radius, results);
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
-    }
-
-    /**
-     * 递归执行范围查询
-     *
-     * VP树剪枝规则：
-     * 对于子区域的距离范围 [L, U]：
-     * - 如果 d(q, p) + r < L，可以跳过该子树（查询球在子区域外侧）
-     * - 如果 d(q, p) - r > U，可以跳过该子树（查询球在子区域内侧）
-     */
-    private void rangeQueryRecursive(TreeNode node, MetricSpaceData queryObject, double radius,
-            List<MetricSpaceData> results) {
-        nodeAccesses++;
-
-        if (node.isLeaf()) {
-            // 叶子节点：检查所有数据
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                if (dist <= radius) {
-                    results.add(data);
-                }
-            }
-        } else {
-            // 内部节点：应用剪枝规则
-            VPInternalNode internal = (VPInternalNode) node;
-            MetricSpaceData pivot = internal.getPivot();
-
-            double dq = metric.getDistance(queryObject, pivot);
-            queryDistanceComputations++;
-
-            // 重要：检查pivot本身是否在查询范围内！
-            // pivot不在子树中，必须单独检查
-            if (dq <= radius) {
-                results.add(pivot);
-            }
-
-            // 检查是否需要访问内球子树
-            DistanceRange innerRange = internal.getInnerRange();
-            boolean visitInner =
-                    !(dq + radius < innerRange.lower || dq - radius > innerRange.upper);
-
-            if (visitInner) {
-                rangeQueryRecursive(internal.getInnerChild(), queryObject, radius, results);
-            } else if (config.isVerbose()) {
-                System.out.printf("    剪枝内球子树 (dq=%.3f, r=%.3f, range=%s)%n", dq, radius,
-                        innerRange);
-            }
-
-            // 检查是否需要访问外球子树
-            DistanceRange outerRange = internal.getOuterRange();
-            boolean visitOuter =
-                    !(dq + radius < outerRange.lower || dq - radius > outerRange.upper);
-
-            if (visitOuter) {
-                rangeQueryRecursive(internal.getOuterChild(), queryObject, radius, results);
-            } else if (config.isVerbose()) {
-                System.out.printf("    剪枝外球子树 (dq=%.3f, r=%.3f, range=%s)%n", dq, radius,
-                        outerRange);
-            }
-        }
+        return executeQuery(newRangeContext(queryObject, radius));
     }
 
     // ========== kNN查询实现 ==========
@@ -322,9 +283,6 @@ public class VPTree extends TreeIndex {
      */
     @Override
     public List<MetricSpaceData> knnQuery(MetricSpaceData queryObject, int k) {
-        PriorityQueue<KNNResult> knnHeap =
-                new PriorityQueue<>((a, b) -> Double.compare(b.getDistance(), a.getDistance()));
-
         if (root == null || k <= 0) {
             return new ArrayList<>();
         }
@@ -337,108 +295,29 @@ public class VPTree extends TreeIndex {
             System.out.println("k = " + k);
         }
 
-        double[] currentRadius = {Double.MAX_VALUE};
-
-        knnQueryRecursive(root, queryObject, k, knnHeap, currentRadius);
-
-        // 提取结果
-        List<MetricSpaceData> results = new ArrayList<>();
-        List<KNNResult> tempList = new ArrayList<>(knnHeap);
-        tempList.sort(Comparator.comparingDouble(KNNResult::getDistance));
-
-        for (KNNResult result : tempList) {
-            results.add(result.getData());
-        }
-
-        if (config.isVerbose()) {
-            System.out.println("查询结果数量: " + results.size());
-            System.out.println("距离计算次数: " + queryDistanceComputations);
-            System.out.println("节点访问次数: " + nodeAccesses);
-            System.out.println("-".repeat(50));
-        }
-
-        return results;
+        return executeQuery(newKnnContext(queryObject, k));
     }
 
+    // ========== 增量最近邻（最佳优先）==========
+
     /**
-     * 递归执行kNN查询
+     * 展开VP树内部节点
+     *
+     * 子区域距离范围为 [L, U] 时，子树中对象的距离下界为 max(L - d(q,p), d(q,p) - U, 0)。
      */
-    private void knnQueryRecursive(TreeNode node, MetricSpaceData queryObject, int k,
-            PriorityQueue<KNNResult> knnHeap, double[] currentRadius) {
-        nodeAccesses++;
-
-        if (node.isLeaf()) {
-            LeafNode leaf = (LeafNode) node;
-            for (MetricSpaceData data : leaf.getData()) {
-                double dist = metric.getDistance(queryObject, data);
-                queryDistanceComputations++;
-
-                if (knnHeap.size() < k) {
-                    knnHeap.offer(new KNNResult(data, dist));
-                    if (knnHeap.size() == k) {
-                        currentRadius[0] = knnHeap.peek().getDistance();
-                    }
-                } else if (dist < currentRadius[0]) {
-                    knnHeap.poll();
-                    knnHeap.offer(new KNNResult(data, dist));
-                    currentRadius[0] = knnHeap.peek().getDistance();
-                }
-            }
-        } else {
-            VPInternalNode internal = (VPInternalNode) node;
-            MetricSpaceData pivot = internal.getPivot();
-
-            double dq = metric.getDistance(queryObject, pivot);
-            queryDistanceComputations++;
-
-            // 重要：检查pivot本身是否应加入kNN候选！
-            // pivot不在子树中，必须单独检查
-            if (knnHeap.size() < k) {
-                knnHeap.offer(new KNNResult(pivot, dq));
-                if (knnHeap.size() == k) {
-                    currentRadius[0] = knnHeap.peek().getDistance();
-                }
-            } else if (dq < currentRadius[0]) {
-                knnHeap.poll();
-                knnHeap.offer(new KNNResult(pivot, dq));
-                currentRadius[0] = knnHeap.peek().getDistance();
-            }
+    @Override
+    protected void expandNode(InternalNode node, double nodeLowerBound,
+            NearestNeighborIterator iterator) {
+        VPInternalNode internal = (VPInternalNode) node;
+        double dq = internal.queryDistance(0, iterator.getContext());
+        if (!internal.isPivotStoredInChildren()) {
+            iterator.addObject(internal.getPivot(), dq);
+        }
 
-            // 决定访问顺序：先访问更可能包含近邻的子树
-            double medianDist = internal.getMedianDistance();
-            boolean innerFirst = dq <= medianDist;
-
-            if (innerFirst) {
-                // 先访问内球
-                DistanceRange innerRange = internal.getInnerRange();
-                if (!(dq + currentRadius[0] < innerRange.lower
-                        || dq - currentRadius[0] > innerRange.upper)) {
-                    knnQueryRecursive(internal.getInnerChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-                // 再访问外球
-                DistanceRange outerRange = internal.getOuterRange();
-                if (!(dq + currentRadius[0] < outerRange.lower
-                        || dq - currentRadius[0] > outerRange.upper)) {
-                    knnQueryRecursive(internal.getOuterChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-            } else {
-                // 先访问外球
-                DistanceRange outerRange = internal.getOuterRange();
-                if (!(dq + currentRadius[0] < outerRange.lower
-                        || dq - currentRadius[0] > outerRange.upper)) {
-                    knnQueryRecursive(internal.getOuterChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-                // 再访问内球
-                DistanceRange innerRange = internal.getInnerRange();
-                if (!(dq + currentRadius[0] < innerRange.lower
-                        || dq - currentRadius[0] > innerRange.upper)) {
-                    knnQueryRecursive(internal.getInnerChild(), queryObject, k, knnHeap,
-                            currentRadius);
-                }
-            }
+        for (int i = 0; i < internal.getArity(); i++) {
+            DistanceRange range = internal.getDistanceRange(i);
+            iterator.addNode(internal.getChildren().get(i),
+                    Math.max(nodeLowerBound, Math.max(range.lower - dq, dq - range.upper)));
         }
     }
 
@@ -448,6 +327,14 @@ public class VPTree extends TreeIndex {
             return String.format("叶子节点 [数据量=%d]", node.size());
         } else {
             VPInternalNode internal = (VPInternalNode) node;
+            if (internal.getArity() > 2) {
+                StringBuilder sizes = new StringBuilder();
+                for (TreeNode child : internal.getChildren()) {
+                    sizes.append(sizes.length() > 0 ? ", " : "").append(child.size());
+                }
+                return String.format("VP内部节点 [%d叉, 球壳=%s, pivot=ID%d]", internal.getArity(),
+                        sizes, internal.getPivot().getDataId());
+            }
             return String.format("VP内部节点 [内=%d, 外=%d, median=%.3f, pivot=ID%d]",
                     internal.getInnerSize(), internal.getOuterSize(), internal.getMedianDistance(),
                     internal.getPivot().getDataId());
@@ -0,0 +1,150 @@
+package query;
+
+import core.MetricSpaceData;
+
+/**
+ * 近似k近邻查询定义类
+ *
+ * 在kNN查询的基础上用精度换速度，三种控制可以同时使用：
+ * 1. 计算预算：距离计算次数或节点访问次数达到上限后立即停止，返回当前找到的k个对象
+ * 2. (1+ε)近似剪枝：剪枝半径取当前第k近邻距离的 1/(1+ε)，
+ *    返回的第i个对象的距离不超过真实第i近邻距离的 (1+ε) 倍
+ * 3. 概率提前停止：根据采样得到的距离分布估计半径r_δ，使真实第k近邻距离小于r_δ的概率为δ；
+ *    当前第k近邻距离不超过r_δ时停止（以至少1-δ的概率，结果已与精确结果同样好）
+ *
+ * 所有控制都取默认值（ε=0、无预算、δ=0）时等同于精确kNN查询。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class ApproximateKNNQuery extends KNNQuery {
+    private final double epsilon; // 近似因子ε
+    private final long maxDistanceComputations; // 距离计算预算（0表示不限）
+    private final long maxNodeAccesses; // 节点访问预算（0表示不限）
+    private final double stopProbability; // 概率提前停止的δ（0表示关闭）
+
+    private ApproximateKNNQuery(Builder builder) {
+        super(builder.queryObject, builder.k);
+        this.epsilon = builder.epsilon;
+        this.maxDistanceComputations = builder.maxDistanceComputations;
+        this.maxNodeAccesses = builder.maxNodeAccesses;
+        this.stopProbability = builder.stopProbability;
+    }
+
+    /**
+     * 获取近似因子ε
+     * @return ε（0表示精确剪枝）
+     */
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * 获取距离计算预算
+     * @return 最多距离计算次数（0表示不限）
+     */
+    public long getMaxDistanceComputations() {
+        return maxDistanceComputations;
+    }
+
+    /**
+     * 获取节点访问预算
+     * @return 最多节点访问次数（0表示不限）
+     */
+    public long getMaxNodeAccesses() {
+        return maxNodeAccesses;
+    }
+
+    /**
+     * 获取概率提前停止的δ
+     * @return δ（0表示关闭）
+     */
+    public double getStopProbability() {
+        return stopProbability;
+    }
+
+    /**
+     * 是否等同于精确查询
+     * @return 没有任何近似控制时返回true
+     */
+    public boolean isExact() {
+        return epsilon == 0 && maxDistanceComputations == 0 && maxNodeAccesses == 0
+                && stopProbability == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ApproximateKNNQuery[q=%s, k=%d, epsilon=%.2f, maxDistances=%d, "
+                + "maxNodes=%d, delta=%.3f]", getQueryObject(), getK(), epsilon,
+                maxDistanceComputations, maxNodeAccesses, stopProbability);
+    }
+
+    /**
+     * 近似kNN查询构建器
+     */
+    public static class Builder {
+        private final MetricSpaceData queryObject;
+        private final int k;
+        private double epsilon = 0;
+        private long maxDistanceComputations = 0;
+        private long maxNodeAccesses = 0;
+        private double stopProbability = 0;
+
+        /**
+         * @param queryObject 查询对象
+         * @param k 近邻数量，必须 > 0
+         */
+        public Builder(MetricSpaceData queryObject, int k) {
+            this.queryObject = queryObject;
+            this.k = k;
+        }
+
+        /**
+         * 设置近似因子ε（剪枝半径为当前第k近邻距离的 1/(1+ε)）
+         */
+        public Builder epsilon(double epsilon) {
+            if (!(epsilon >= 0) || Double.isInfinite(epsilon)) {
+                throw new IllegalArgumentException("近似因子ε必须是非负有限数: " + epsilon);
+            }
+            this.epsilon = epsilon;
+            return this;
+        }
+
+        /**
+         * 设置距离计算预算（0表示不限）
+         */
+        public Builder maxDistanceComputations(long maxDistanceComputations) {
+            if (maxDistanceComputations < 0) {
+                throw new IllegalArgumentException("距离计算预算不能为负: " + maxDistanceComputations);
+            }
+            this.maxDistanceComputations = maxDistanceComputations;
+            return this;
+        }
+
+        /**
+         * 设置节点访问预算（0表示不限）
+         */
+        public Builder maxNodeAccesses(long maxNodeAccesses) {
+            if (maxNodeAccesses < 0) {
+                throw new IllegalArgumentException("节点访问预算不能为负: " + maxNodeAccesses);
+            }
+            this.maxNodeAccesses = maxNodeAccesses;
+            return this;
+        }
+
+        /**
+         * 设置概率提前停止的δ（取值范围[0,1)，0表示关闭）
+         */
+        public Builder stopProbability(double stopProbability) {
+            if (!(stopProbability >= 0 && stopProbability < 1)) {
+                throw new IllegalArgumentException("δ必须在[0,1)之间: " + stopProbability);
+            }
+            this.stopProbability = stopProbability;
+            return this;
+        }
+
+        public ApproximateKNNQuery build() {
+            return new ApproximateKNNQuery(this);
+        }
+    }
+}
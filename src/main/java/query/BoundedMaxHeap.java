@@ -0,0 +1,205 @@
+package query;
+
+import core.MetricSpaceData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 定容最大堆（基本类型实现）
+ *
+ * 用于kNN查询维护当前的k个最近邻：堆顶是其中距离最大的一个。
+ * 距离和数据编号分别存放在double[]和int[]中，插入时不创建任何对象。
+ * 编号不是数据集下标时（例如对象逐块读入），可以用长度为k的对象数组作为槽位：
+ * 堆未满时编号取size()，堆满时取堆顶编号 getId(0)，插入成功后把对象写入该槽位。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class BoundedMaxHeap {
+
+    /** 距离（堆序） */
+    private final double[] distances;
+
+    /** 与距离对应的数据编号 */
+    private final int[] ids;
+
+    /** 容量k */
+    private final int capacity;
+
+    /** 当前元素数 */
+    private int size;
+
+    /**
+     * 构造定容最大堆
+     * @param capacity 容量k
+     */
+    public BoundedMaxHeap(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("堆容量必须大于0");
+        }
+        this.capacity = capacity;
+        this.distances = new double[capacity];
+        this.ids = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * 尝试插入一个元素
+     *
+     * 堆未满时直接插入；堆满时只有距离严格小于堆顶才替换堆顶。
+     *
+     * @param distance 距离
+     * @param id 数据编号
+     * @return 是否插入
+     */
+    public boolean offer(double distance, int id) {
+        if (size < capacity) {
+            int i = size++;
+            // 上浮
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                ids[i] = ids[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            ids[i] = id;
+            return true;
+        }
+
+        if (distance >= distances[0]) {
+            return false;
+        }
+        siftDown(distance, id);
+        return true;
+    }
+
+    /**
+     * 用新元素替换堆顶并下沉
+     */
+    private void siftDown(double distance, int id) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && distances[right] > distances[child]) {
+                child = right;
+            }
+            if (distance >= distances[child]) {
+                break;
+            }
+            distances[i] = distances[child];
+            ids[i] = ids[child];
+            i = child;
+        }
+        distances[i] = distance;
+        ids[i] = id;
+    }
+
+    /**
+     * 获取当前的剪枝半径：堆满时为堆顶距离，否则为正无穷
+     * @return 第k近邻距离
+     */
+    public double kthDistance() {
+        return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * 将另一个堆的所有元素合并进来
+     * @param other 另一个堆
+     */
+    public void merge(BoundedMaxHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.distances[i], other.ids[i]);
+        }
+    }
+
+    /**
+     * 清空堆（复用数组）
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 获取当前元素数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 是否已满
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * 获取容量
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 获取堆数组中第i个元素的距离（无序）
+     */
+    public double getDistance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * 获取堆数组中第i个元素的数据编号（无序）
+     */
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    /**
+     * 按距离升序导出为KNNResult列表（只在查询结束时转换一次），导出后堆被清空
+     *
+     * @param data 编号到对象的映射：第id个元素是编号id对应的对象
+     * @return 按距离升序的结果
+     */
+    public List<KNNResult> drainResults(List<? extends MetricSpaceData> data) {
+        double[] sortedDistances = new double[size];
+        int[] sortedIds = drainSorted(sortedDistances);
+        List<KNNResult> results = new ArrayList<>(sortedIds.length);
+        for (int i = 0; i < sortedIds.length; i++) {
+            results.add(new KNNResult(data.get(sortedIds[i]), sortedDistances[i]));
+        }
+        return results;
+    }
+
+    /**
+     * 按距离升序导出数据编号，距离写入sortedDistances（可为null）
+     *
+     * 导出后堆被清空。
+     *
+     * @param sortedDistances 输出距离数组，长度至少为size()
+     * @return 升序的数据编号
+     */
+    public int[] drainSorted(double[] sortedDistances) {
+        int n = size;
+        int[] sortedIds = new int[n];
+        for (int pos = n - 1; pos >= 0; pos--) {
+            sortedIds[pos] = ids[0];
+            if (sortedDistances != null) {
+                sortedDistances[pos] = distances[0];
+            }
+            size--;
+            if (size > 0) {
+                double lastDistance = distances[size];
+                int lastId = ids[size];
+                siftDown(lastDistance, lastId);
+            }
+        }
+        return sortedIds;
+    }
+}
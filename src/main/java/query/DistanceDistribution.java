@@ -0,0 +1,146 @@
+package query;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 采样得到的距离分布（经验分布函数）
+ *
+ * 随机抽取若干对象对并计算距离，用排序后的样本近似整体距离分布F(r)。
+ * 假设查询对象与数据对象同分布，则数据集中到查询对象距离不超过r的对象数服从 Binomial(n, F(r))，
+ * 由此可以估计第k近邻距离的分布，用于近似kNN查询的概率提前停止。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class DistanceDistribution {
+
+    /** 默认采样的对象对数（k/n很小时需要足够的样本才能分辨分布的左尾） */
+    public static final int DEFAULT_SAMPLE_PAIRS = 10000;
+
+    /** 升序排列的样本距离 */
+    private final double[] samples;
+
+    private DistanceDistribution(double[] samples) {
+        this.samples = samples;
+        Arrays.sort(this.samples);
+    }
+
+    /**
+     * 从数据集中随机采样对象对，建立距离分布
+     *
+     * @param data 数据集（至少2个对象）
+     * @param metric 距离函数
+     * @param numPairs 采样的对象对数
+     * @param random 随机数生成器
+     * @return 距离分布
+     */
+    public static DistanceDistribution sample(List<? extends MetricSpaceData> data,
+            MetricFunction metric, int numPairs, Random random) {
+        if (data.size() < 2) {
+            throw new IllegalArgumentException("采样距离分布至少需要2个对象");
+        }
+        if (numPairs <= 0) {
+            throw new IllegalArgumentException("采样对数必须大于0: " + numPairs);
+        }
+        double[] samples = new double[numPairs];
+        for (int s = 0; s < numPairs; s++) {
+            int i = random.nextInt(data.size());
+            int j = random.nextInt(data.size() - 1);
+            if (j >= i) {
+                j++;
+            }
+            samples[s] = metric.getDistance(data.get(i), data.get(j));
+        }
+        return new DistanceDistribution(samples);
+    }
+
+    /**
+     * 经验分布函数 F(r)：样本中距离不超过r的比例
+     *
+     * @param r 距离
+     * @return 比例（0到1之间）
+     */
+    public double cdf(double r) {
+        int lo = 0;
+        int hi = samples.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (samples[mid] <= r) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return (double) lo / samples.length;
+    }
+
+    /**
+     * 估计概率提前停止半径r_δ
+     *
+     * r_δ 是满足 P(第k近邻距离 <= r) >= δ 的最小样本距离，其中
+     * P(第k近邻距离 <= r) = P(Binomial(n, F(r)) >= k)。
+     * 第i个样本取 F = i/m（不含其本身），估计偏小，因此停止条件偏保守。
+     *
+     * @param n 数据集大小
+     * @param k 近邻数量
+     * @param delta 概率δ（0到1之间）
+     * @return r_δ；n < k 或 δ <= 0 时返回负无穷（永不提前停止）
+     */
+    public double stopRadius(int n, int k, double delta) {
+        if (n < k || delta <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        int lo = 0;
+        int hi = samples.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (atLeastK(n, k, (double) mid / samples.length) >= delta) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return samples[lo];
+    }
+
+    /**
+     * 计算 P(Binomial(n, p) >= k)
+     *
+     * 用递推 P(j+1) = P(j) * (n-j)/(j+1) * p/(1-p) 累加 j < k 的概率，避免计算大组合数。
+     */
+    static double atLeastK(int n, int k, double p) {
+        if (p <= 0) {
+            return 0;
+        }
+        if (p >= 1) {
+            return 1;
+        }
+        double term = Math.exp(n * Math.log1p(-p));
+        double below = 0;
+        double ratio = p / (1 - p);
+        for (int j = 0; j < k; j++) {
+            below += term;
+            term *= (double) (n - j) / (j + 1) * ratio;
+        }
+        return Math.max(0, 1 - below);
+    }
+
+    /**
+     * 获取样本数量
+     */
+    public int getSampleSize() {
+        return samples.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DistanceDistribution[samples=%d, min=%.4f, median=%.4f, max=%.4f]",
+                samples.length, samples[0], samples[samples.length / 2],
+                samples[samples.length - 1]);
+    }
+}
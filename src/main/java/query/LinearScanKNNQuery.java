@@ -3,14 +3,13 @@ package query;
 import core.MetricFunction;
 import core.MetricSpaceData;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * 线性扫描k近邻查询
  *
- * 通过线性扫描所有数据对象，使用优先队列（最大堆）维护k个最近邻
+ * 通过线性扫描所有数据对象，使用定容最大堆维护k个最近邻（扫描过程中不创建对象）
  *
  * @author Jixiang Ding
  * @version 1.0
@@ -40,31 +39,28 @@ public class LinearScanKNNQuery {
     public static List<KNNResult> execute(List<? extends MetricSpaceData> dataset, KNNQuery query,
             MetricFunction metric, boolean verbose) {
 
-        // 使用优先队列（最大堆）维护k个最近邻
-        PriorityQueue<KNNResult> maxHeap = new PriorityQueue<>();
-        long distanceCalculations = 0;
-
         MetricSpaceData queryObject = query.getQueryObject();
         int k = query.getK();
 
+        // 使用定容最大堆维护k个最近邻，堆中编号是slots的槽位
+        BoundedMaxHeap maxHeap = new BoundedMaxHeap(k);
+        MetricSpaceData[] slots = new MetricSpaceData[k];
+        long distanceCalculations = 0;
+
         // 线性扫描所有数据
         for (MetricSpaceData data : dataset) {
             double distance = metric.getDistance(queryObject, data);
             distanceCalculations++;
 
-            if (maxHeap.size() < k) {
-                // 堆未满，直接加入
-                maxHeap.offer(new KNNResult(data, distance));
-            } else if (distance < maxHeap.peek().getDistance()) {
-                // 当前距离小于堆顶，替换堆顶
-                maxHeap.poll();
-                maxHeap.offer(new KNNResult(data, distance));
+            // 堆未满时直接加入；否则距离小于堆顶才替换堆顶（沿用堆顶的槽位）
+            int slot = maxHeap.isFull() ? maxHeap.getId(0) : maxHeap.size();
+            if (maxHeap.offer(distance, slot)) {
+                slots[slot] = data;
             }
         }
 
-        // 将结果转为列表并按距离升序排列
-        List<KNNResult> results = new ArrayList<>(maxHeap);
-        results.sort((a, b) -> Double.compare(a.getDistance(), b.getDistance()));
+        // 将结果转为按距离升序排列的列表
+        List<KNNResult> results = maxHeap.drainResults(Arrays.asList(slots));
 
         // 输出统计信息
         if (verbose) {
@@ -0,0 +1,256 @@
+package query;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * 并行线性扫描
+ *
+ * 线性扫描是正确性基准，也是低选择性查询的兜底方案。本类在多核上并行执行：
+ * 1. 数据集按下标切分为并行流的子区间（Spliterator），每个工作单元维护自己的结果
+ * 2. kNN查询中每个工作单元使用基本类型的定容堆 {@link BoundedMaxHeap}，最后合并
+ * 3. 各工作单元共享一个全局的第k近邻距离上界，距离不小于该上界的对象直接跳过
+ * 4. 批量查询时按数据块处理，一个数据块在缓存中时依次与所有查询比较
+ *
+ * 距离函数需要是线程安全的（本项目中的距离函数都是无状态的）。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public class ParallelLinearScan {
+
+    /** 批量查询时每个数据块的对象数 */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * 并行执行kNN查询
+     * @param dataset 数据集
+     * @param query 查询对象
+     * @param metric 距离函数
+     * @return kNN结果列表（按距离升序排列）
+     */
+    public static List<KNNResult> knn(List<? extends MetricSpaceData> dataset, KNNQuery query,
+            MetricFunction metric) {
+        return knn(dataset, query, metric, false);
+    }
+
+    /**
+     * 并行执行kNN查询
+     * @param dataset 数据集
+     * @param query 查询对象
+     * @param metric 距离函数
+     * @param verbose 是否打印统计信息
+     * @return kNN结果列表（按距离升序排列）
+     */
+    public static List<KNNResult> knn(List<? extends MetricSpaceData> dataset, KNNQuery query,
+            MetricFunction metric, boolean verbose) {
+        List<? extends MetricSpaceData> data = asRandomAccess(dataset);
+        MetricSpaceData queryObject = query.getQueryObject();
+        int k = query.getK();
+        AtomicLong sharedBound = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+
+        long startTime = System.currentTimeMillis();
+        BoundedMaxHeap heap = IntStream.range(0, data.size()).parallel().collect(
+                () -> new BoundedMaxHeap(k),
+                (localHeap, i) -> {
+                    double distance = metric.getDistance(queryObject, data.get(i));
+                    if (distance < Double.longBitsToDouble(sharedBound.get())
+                            && localHeap.offer(distance, i) && localHeap.isFull()) {
+                        lowerBound(sharedBound, localHeap.kthDistance());
+                    }
+                },
+                BoundedMaxHeap::merge);
+
+        List<KNNResult> results = heap.drainResults(data);
+
+        if (verbose) {
+            System.out.println("并行线性扫描kNN查询统计:");
+            System.out.println("  数据集大小: " + data.size());
+            System.out.println("  k值: " + k);
+            System.out.println("  距离计算次数: " + data.size());
+            System.out.println("  耗时: " + (System.currentTimeMillis() - startTime) + " ms");
+            System.out.println("  返回结果数: " + results.size());
+        }
+        return results;
+    }
+
+    /**
+     * 并行执行范围查询
+     * @param dataset 数据集
+     * @param query 查询对象
+     * @param metric 距离函数
+     * @return 查询结果列表（保持数据集中的顺序）
+     */
+    public static List<MetricSpaceData> range(List<? extends MetricSpaceData> dataset,
+            RangeQuery query, MetricFunction metric) {
+        return range(dataset, query, metric, false);
+    }
+
+    /**
+     * 并行执行范围查询
+     * @param dataset 数据集
+     * @param query 查询对象
+     * @param metric 距离函数
+     * @param verbose 是否打印统计信息
+     * @return 查询结果列表（保持数据集中的顺序）
+     */
+    public static List<MetricSpaceData> range(List<? extends MetricSpaceData> dataset,
+            RangeQuery query, MetricFunction metric, boolean verbose) {
+        List<? extends MetricSpaceData> data = asRandomAccess(dataset);
+        MetricSpaceData queryObject = query.getQueryObject();
+        double radius = query.getRadius();
+
+        long startTime = System.currentTimeMillis();
+        List<MetricSpaceData> results = IntStream.range(0, data.size()).parallel().collect(
+                ArrayList::new,
+                (localResults, i) -> {
+                    MetricSpaceData candidate = data.get(i);
+                    if (metric.getDistance(queryObject, candidate) <= radius) {
+                        localResults.add(candidate);
+                    }
+                },
+                ArrayList::addAll);
+
+        if (verbose) {
+            System.out.println("并行线性扫描范围查询统计:");
+            System.out.println("  数据集大小: " + data.size());
+            System.out.println("  查询半径: " + radius);
+            System.out.println("  距离计算次数: " + data.size());
+            System.out.println("  耗时: " + (System.currentTimeMillis() - startTime) + " ms");
+            System.out.println("  结果数量: " + results.size());
+        }
+        return results;
+    }
+
+    /**
+     * 并行执行一批kNN查询
+     *
+     * 以数据块为并行单位：每个数据块依次与所有查询比较，块内对象在缓存中被重复使用。
+     *
+     * @param dataset 数据集
+     * @param queries 查询列表
+     * @param metric 距离函数
+     * @return 每个查询的kNN结果（与查询列表一一对应）
+     */
+    public static List<List<KNNResult>> knnBatch(List<? extends MetricSpaceData> dataset,
+            List<KNNQuery> queries, MetricFunction metric) {
+        List<? extends MetricSpaceData> data = asRandomAccess(dataset);
+        int numQueries = queries.size();
+        int numBlocks = (data.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        AtomicLong[] sharedBounds = new AtomicLong[numQueries];
+        for (int q = 0; q < numQueries; q++) {
+            sharedBounds[q] =
+                    new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        }
+
+        BoundedMaxHeap[] heaps = IntStream.range(0, numBlocks).parallel().collect(
+                () -> {
+                    BoundedMaxHeap[] local = new BoundedMaxHeap[numQueries];
+                    for (int q = 0; q < numQueries; q++) {
+                        local[q] = new BoundedMaxHeap(queries.get(q).getK());
+                    }
+                    return local;
+                },
+                (local, block) -> {
+                    int from = block * BLOCK_SIZE;
+                    int to = Math.min(data.size(), from + BLOCK_SIZE);
+                    for (int q = 0; q < numQueries; q++) {
+                        MetricSpaceData queryObject = queries.get(q).getQueryObject();
+                        BoundedMaxHeap localHeap = local[q];
+                        double bound = Double.longBitsToDouble(sharedBounds[q].get());
+                        for (int i = from; i < to; i++) {
+                            double distance = metric.getDistance(queryObject, data.get(i));
+                            if (distance < bound && localHeap.offer(distance, i)
+                                    && localHeap.isFull()) {
+                                bound = Math.min(bound, localHeap.kthDistance());
+                            }
+                        }
+                        if (localHeap.isFull()) {
+                            lowerBound(sharedBounds[q], localHeap.kthDistance());
+                        }
+                    }
+                },
+                (left, right) -> {
+                    for (int q = 0; q < numQueries; q++) {
+                        left[q].merge(right[q]);
+                    }
+                });
+
+        List<List<KNNResult>> results = new ArrayList<>(numQueries);
+        for (int q = 0; q < numQueries; q++) {
+            results.add(heaps[q].drainResults(data));
+        }
+        return results;
+    }
+
+    /**
+     * 并行执行一批范围查询
+     * @param dataset 数据集
+     * @param queries 查询列表
+     * @param metric 距离函数
+     * @return 每个查询的结果（与查询列表一一对应，保持数据集中的顺序）
+     */
+    public static List<List<MetricSpaceData>> rangeBatch(List<? extends MetricSpaceData> dataset,
+            List<RangeQuery> queries, MetricFunction metric) {
+        List<? extends MetricSpaceData> data = asRandomAccess(dataset);
+        int numQueries = queries.size();
+        int numBlocks = (data.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        return IntStream.range(0, numBlocks).parallel().collect(
+                () -> {
+                    List<List<MetricSpaceData>> local = new ArrayList<>(numQueries);
+                    for (int q = 0; q < numQueries; q++) {
+                        local.add(new ArrayList<>());
+                    }
+                    return local;
+                },
+                (local, block) -> {
+                    int from = block * BLOCK_SIZE;
+                    int to = Math.min(data.size(), from + BLOCK_SIZE);
+                    for (int q = 0; q < numQueries; q++) {
+                        MetricSpaceData queryObject = queries.get(q).getQueryObject();
+                        double radius = queries.get(q).getRadius();
+                        List<MetricSpaceData> localResults = local.get(q);
+                        for (int i = from; i < to; i++) {
+                            MetricSpaceData candidate = data.get(i);
+                            if (metric.getDistance(queryObject, candidate) <= radius) {
+                                localResults.add(candidate);
+                            }
+                        }
+                    }
+                },
+                (left, right) -> {
+                    for (int q = 0; q < numQueries; q++) {
+                        left.get(q).addAll(right.get(q));
+                    }
+                });
+    }
+
+    /**
+     * 用CAS将共享上界更新为更小的值
+     */
+    private static void lowerBound(AtomicLong sharedBound, double candidate) {
+        long current = sharedBound.get();
+        while (candidate < Double.longBitsToDouble(current)) {
+            if (sharedBound.compareAndSet(current, Double.doubleToLongBits(candidate))) {
+                return;
+            }
+            current = sharedBound.get();
+        }
+    }
+
+    /**
+     * 保证按下标随机访问的效率
+     */
+    private static List<? extends MetricSpaceData> asRandomAccess(
+            List<? extends MetricSpaceData> dataset) {
+        return dataset instanceof RandomAccess ? dataset : new ArrayList<>(dataset);
+    }
+}
@@ -0,0 +1,68 @@
+package query;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多个并发kNN搜索共享的第k近邻距离上界
+ *
+ * 同一个kNN查询在几个分片上同时执行时，每个分片的结果堆满后，其堆顶距离都是全局第k近邻距离的上界
+ * （分片中已经有k个对象不超过这个距离）。把它们的最小值放在这里，各分片就可以用
+ * min(本地堆顶, 共享上界) 剪枝：距离下界超过共享上界的对象不可能进入全局的k近邻。
+ *
+ * 上界只会减小，用CAS更新，读写都不加锁。
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+public final class SharedKnnBound {
+
+    /** 当前上界（double的位表示） */
+    private final AtomicLong bits;
+
+    /**
+     * 创建初始为Double.MAX_VALUE（不剪枝）的上界
+     */
+    public SharedKnnBound() {
+        this(Double.MAX_VALUE);
+    }
+
+    /**
+     * 创建给定初始值的上界（例如已知第k近邻距离不超过某个值）
+     *
+     * @param initial 初始上界
+     */
+    public SharedKnnBound(double initial) {
+        this.bits = new AtomicLong(Double.doubleToRawLongBits(initial));
+    }
+
+    /**
+     * 获取当前上界
+     */
+    public double get() {
+        return Double.longBitsToDouble(bits.get());
+    }
+
+    /**
+     * 提交一个分片的第k近邻距离，小于当前上界时替换之
+     *
+     * @param distance 分片结果堆满后的堆顶距离
+     * @return 上界被降低时返回true
+     */
+    public boolean offer(double distance) {
+        long update = Double.doubleToRawLongBits(distance);
+        while (true) {
+            long current = bits.get();
+            if (!(distance < Double.longBitsToDouble(current))) {
+                return false;
+            }
+            if (bits.compareAndSet(current, update)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SharedKnnBound[" + get() + "]";
+    }
+}
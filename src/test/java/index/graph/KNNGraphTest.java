@@ -0,0 +1,143 @@
+package index.graph;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import datatype.protein.AlignmentDistance;
+import datatype.protein.ProteinData;
+import datatype.vector.MinkowskiDistance;
+import datatype.vector.VectorData;
+import index.BatchExecutor;
+import index.tree.TreeIndex;
+import index.tree.common.TreeConfig;
+import index.tree.ghtree.GHTree;
+import index.tree.mvptree.MVPTree;
+import index.tree.vptree.VPTree;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * kNN图测试
+ *
+ * 验证精确构建与线性扫描的k近邻一致，NN-descent的召回率和近邻距离，以及规模检查
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+@DisplayName("kNN图测试")
+public class KNNGraphTest {
+
+    @Test
+    @DisplayName("测试1: kNN图构建（精确与NN-descent）")
+    void testKNNGraph() {
+        System.out.println("\n=== 测试1: kNN图构建（精确与NN-descent） ===");
+
+        List<VectorData> dataset = createHighDimDataset(1500, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        int k = 8;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        KNNGraph exact = null;
+        for (TreeIndex tree : new TreeIndex[] {new VPTree(config), new GHTree(config),
+                new MVPTree(config)}) {
+            exact = new KNNGraph.Builder(dataset, metric, k).tree(tree).groupSize(16).build();
+            assertKnnGraph(dataset, metric, exact, tree.getIndexName());
+            System.out.printf("  精确(%s) ✓ %s%n", tree.getIndexName(), exact);
+        }
+
+        KNNGraph approx = new KNNGraph.Builder(dataset, metric, k)
+                .strategy(KNNGraph.Strategy.NN_DESCENT).randomSeed(7).build();
+        double recall = approx.recall(exact);
+        assertTrue(recall >= 0.9, "NN-descent召回率过低: " + recall);
+        for (int i = 0; i < dataset.size(); i++) {
+            assertEquals(k, approx.degree(i));
+            for (int j = 0; j < k; j++) {
+                assertNotEquals(i, approx.neighbor(i, j), "近邻中不应包含对象自身");
+                assertEquals(metric.getDistance(dataset.get(i), dataset.get(approx.neighbor(i, j))),
+                        approx.distance(i, j), 1e-4);
+            }
+        }
+        System.out.printf("  NN-descent ✓ 召回率=%.4f %s%n", recall, approx);
+
+        // 编辑距离（整数距离，大量相同距离）与对象数不足k+1的情况
+        List<ProteinData> proteins = createProteinDataset(60, 6);
+        MetricFunction alignment = new AlignmentDistance();
+        KNNGraph proteinExact = new KNNGraph.Builder(proteins, alignment, 5)
+                .executor(BatchExecutor.sequential()).build();
+        assertKnnGraph(proteins, alignment, proteinExact, "蛋白质");
+        KNNGraph proteinApprox = new KNNGraph.Builder(proteins, alignment, 5)
+                .strategy(KNNGraph.Strategy.NN_DESCENT).build();
+        assertTrue(proteinApprox.recall(proteinExact) >= 0.8);
+        KNNGraph tiny = new KNNGraph.Builder(proteins.subList(0, 4), alignment, 5).build();
+        assertEquals(3, tiny.degree(0));
+        assertEquals(-1, tiny.neighbor(0, 3));
+        System.out.printf("  蛋白质 ✓ NN-descent召回率=%.4f%n",
+                proteinApprox.recall(proteinExact));
+
+        // 邻接表（n * k项）超过单个数组的上限时在构建之前拒绝，而不是溢出为负数长度
+        IllegalArgumentException tooLarge = assertThrows(IllegalArgumentException.class,
+                () -> new KNNGraph.Builder(dataset, metric, Integer.MAX_VALUE / 1000));
+        assertTrue(tooLarge.getMessage().contains("k近邻图过大"));
+
+        System.out.println("测试通过！\n");
+    }
+
+    // ========== 辅助方法 ==========
+
+    private void assertKnnGraph(List<? extends MetricSpaceData> dataset, MetricFunction metric,
+            KNNGraph graph, String name) {
+        int k = graph.getK();
+        for (int i = 0; i < dataset.size(); i++) {
+            double[] all = new double[dataset.size() - 1];
+            int c = 0;
+            for (int j = 0; j < dataset.size(); j++) {
+                if (j != i) {
+                    all[c++] = metric.getDistance(dataset.get(i), dataset.get(j));
+                }
+            }
+            Arrays.sort(all);
+            int degree = Math.min(k, all.length);
+            assertEquals(degree, graph.degree(i), name + " 近邻数应一致");
+            for (int j = 0; j < degree; j++) {
+                assertNotEquals(i, graph.neighbor(i, j), name + " 近邻中不应包含对象自身");
+                assertEquals((float) all[j], graph.distance(i, j), 1e-4,
+                        name + " 第" + (j + 1) + "近邻距离应一致");
+            }
+        }
+    }
+
+    private List<VectorData> createHighDimDataset(int size, int dim) {
+        List<VectorData> data = new ArrayList<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < size; i++) {
+            double[] coords = new double[dim];
+            for (int j = 0; j < dim; j++) {
+                coords[j] = rand.nextDouble() * 10;
+            }
+            data.add(new VectorData(i, coords));
+        }
+        return data;
+    }
+
+    private List<ProteinData> createProteinDataset(int size, int length) {
+        List<ProteinData> data = new ArrayList<>();
+        Random rand = new Random(42);
+        char[] aminoAcids = "ACDEFGHIKLMNPQRSTVWY".toCharArray();
+
+        for (int i = 0; i < size; i++) {
+            StringBuilder seq = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                seq.append(aminoAcids[rand.nextInt(aminoAcids.length)]);
+            }
+            data.add(new ProteinData(i, seq.toString()));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,179 @@
+package index.shard;
+
+import core.MetricFunction;
+import core.MetricSpaceData;
+import datatype.vector.MinkowskiDistance;
+import datatype.vector.VectorData;
+import index.BoundedKnnIndex;
+import index.pivottable.PivotSelectionMethod;
+import index.pivottable.PivotTableIndex;
+import index.tree.common.TreeConfig;
+import index.tree.vptree.VPTree;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import query.KNNQuery;
+import query.KNNResult;
+import query.LinearScanKNNQuery;
+import query.LinearScanRangeQuery;
+import query.RangeQuery;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分片索引测试
+ *
+ * 验证各种划分方式下的查询结果与线性扫描一致，以及保存、载入和单个分片的重建
+ *
+ * @author Jixiang Ding
+ * @version 1.0
+ */
+@DisplayName("分片索引测试")
+public class ShardedIndexTest {
+
+    @Test
+    @DisplayName("测试1: 分片索引")
+    void testShardedIndex() throws IOException {
+        System.out.println("\n=== 测试1: 分片索引 ===");
+
+        List<VectorData> dataset = createHighDimDataset(4000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+        List<IntFunction<BoundedKnnIndex>> factories = Arrays.asList(s -> new VPTree(config),
+                s -> new PivotTableIndex(5, PivotSelectionMethod.FFT));
+
+        Random rand = new Random(11);
+        for (IntFunction<BoundedKnnIndex> factory : factories) {
+            for (ShardedIndex.Partitioning partitioning : ShardedIndex.Partitioning.values()) {
+                ShardedIndex index = new ShardedIndex.Builder(factory).numShards(6)
+                        .partitioning(partitioning).numPivots(6).randomSeed(3).build();
+                index.buildIndex(dataset, metric);
+                assertEquals(dataset.size(), index.getDatasetSize());
+                String name = index.getIndexName() + " " + partitioning;
+
+                for (int q = 0; q < 20; q++) {
+                    VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                    assertKnnDistances(dataset, metric, queryPoint, 10,
+                            index.knnQuery(queryPoint, 10), name);
+                    List<MetricSpaceData> expected = LinearScanRangeQuery.execute(dataset,
+                            new RangeQuery(queryPoint, 2.5), metric, false);
+                    assertTrue(setEquals(expected, index.rangeQuery(queryPoint, 2.5)),
+                            name + " 范围查询结果应与线性扫描一致");
+                }
+                if (partitioning == ShardedIndex.Partitioning.CLUSTERED) {
+                    assertTrue(index.getSkippedShards() > 0, name + " 聚类划分时应能跳过分片");
+                }
+                System.out.printf("  %s ✓ (查询距离计算 %,d, 跳过分片 %d)%n", name,
+                        index.getDistanceComputations(), index.getSkippedShards());
+            }
+        }
+
+        // 保存、载入与单个分片的重建
+        ShardedIndex index = new ShardedIndex.Builder(factories.get(0)).numShards(4)
+                .partitioning(ShardedIndex.Partitioning.CLUSTERED).numPivots(4).build();
+        index.buildIndex(dataset, metric);
+        File directory = Files.createTempDirectory("sharded-index").toFile();
+        index.save(directory);
+
+        ShardedIndex loaded = new ShardedIndex.Builder(factories.get(0)).numShards(4).build();
+        loaded.load(directory, metric);
+        assertEquals(dataset.size(), loaded.getDatasetSize());
+        VectorData queryPoint = dataset.get(123);
+        assertKnnDistances(dataset, metric, queryPoint, 10, loaded.knnQuery(queryPoint, 10),
+                "载入的分片索引");
+
+        List<VectorData> extra = createHighDimDataset(50, 5);
+        List<VectorData> all = new ArrayList<>(dataset);
+        List<MetricSpaceData> shard0 = new ArrayList<>(loaded.getShardData(0));
+        for (int i = 0; i < extra.size(); i++) {
+            VectorData point = new VectorData(dataset.size() + i, extra.get(i).getCoordinates());
+            shard0.add(point);
+            all.add(point);
+        }
+        loaded.rebuildShard(0, shard0);
+        loaded.saveShard(0, directory);
+        index.loadShard(0, directory);
+        for (ShardedIndex sharded : new ShardedIndex[] {index, loaded}) {
+            assertEquals(all.size(), sharded.getDatasetSize());
+            for (int q = 0; q < 10; q++) {
+                VectorData point = all.get(rand.nextInt(all.size()));
+                assertKnnDistances(all, metric, point, 10, sharded.knnQuery(point, 10),
+                        "重建分片后的分片索引");
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ShardedIndex.Builder(
+                factories.get(0)).numShards(3).build().load(directory, metric));
+
+        // 载入失败（缺少一个分片文件）时保持载入之前的状态
+        assertTrue(new File(directory, "shard-00002.data").delete());
+        assertThrows(IOException.class, () -> loaded.load(directory, metric));
+        assertEquals(all.size(), loaded.getDatasetSize());
+        assertKnnDistances(all, metric, queryPoint, 10, loaded.knnQuery(queryPoint, 10),
+                "载入失败后的分片索引");
+        ShardedIndex unbuilt = new ShardedIndex.Builder(factories.get(0)).numShards(4).build();
+        assertThrows(IOException.class, () -> unbuilt.load(directory, metric));
+        assertEquals(0, unbuilt.getDatasetSize());
+        assertThrows(IllegalStateException.class, () -> unbuilt.knnQuery(queryPoint, 10));
+
+        // 空分片不计为被下界跳过的分片（随机划分时下界都为0，不会跳过任何分片）
+        ShardedIndex sparse = new ShardedIndex.Builder(factories.get(0)).numShards(8).build();
+        sparse.buildIndex(dataset.subList(0, 5), metric);
+        assertEquals(5, sparse.knnQuery(queryPoint, 10).size());
+        sparse.rangeQuery(queryPoint, 2.5);
+        assertEquals(0, sparse.getSkippedShards());
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+
+        System.out.println("测试通过！\n");
+    }
+
+    // ========== 辅助方法 ==========
+
+    private void assertKnnDistances(List<VectorData> dataset, MetricFunction metric,
+            MetricSpaceData queryPoint, int k, List<MetricSpaceData> result, String name) {
+        List<KNNResult> expected = LinearScanKNNQuery.execute(dataset,
+                new KNNQuery(queryPoint, k), metric, false);
+        assertEquals(expected.size(), result.size(), name + " kNN结果数量应一致");
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getDistance(),
+                    metric.getDistance(queryPoint, result.get(i)), 1e-9,
+                    name + " 第" + (i + 1) + "近邻距离应一致");
+        }
+    }
+
+    private List<VectorData> createHighDimDataset(int size, int dim) {
+        List<VectorData> data = new ArrayList<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < size; i++) {
+            double[] coords = new double[dim];
+            for (int j = 0; j < dim; j++) {
+                coords[j] = rand.nextDouble() * 10;
+            }
+            data.add(new VectorData(i, coords));
+        }
+        return data;
+    }
+
+    private boolean setEquals(List<MetricSpaceData> list1, List<MetricSpaceData> list2) {
+        if (list1.size() != list2.size())
+            return false;
+
+        Set<Integer> ids1 = new HashSet<>();
+        Set<Integer> ids2 = new HashSet<>();
+
+        for (MetricSpaceData d : list1)
+            ids1.add(d.getDataId());
+        for (MetricSpaceData d : list2)
+            ids2.add(d.getDataId());
+
+        return ids1.equals(ids2);
+    }
+}
@@ -18,7 +18,7 @@ import static org.junit.jupiter.api.Assertions.*;
 /**
  * 多Pivot树索引测试类
  *
- * 测试3-pivot MVPT、CGHT和完全线性划分树的功能
+ * 测试多pivot MVPT、CGHT和完全线性划分树的功能
  *
  * @author Jixiang Ding
  */
@@ -423,4 +423,79 @@ public class MultiPivotTreeTest {
         System.out.println("正确抛出异常！");
         System.out.println("测试通过！\n");
     }
+
+    @Test
+    @Order(13)
+    void testPivotCountAndSplits() {
+        System.out.println("\n=== 测试13: 可配置pivot数与每pivot划分数 ===");
+
+        Random rand = new Random(7);
+        List<VectorData> data = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            double[] coords = new double[4];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = rand.nextDouble() * 10;
+            }
+            data.add(new VectorData(i, coords));
+        }
+
+        int[][] shapes = {{5, 2}, {2, 3}, {1, 4}};
+        for (int[] shape : shapes) {
+            TreeConfig shapeConfig = new TreeConfig.Builder().maxLeafSize(8)
+                    .numPivots(shape[0]).splitsPerPivot(shape[1])
+                    .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42L)
+                    .verbose(false).build();
+
+            List<TreeIndex> trees = new ArrayList<>();
+            trees.add(new MVPTree(shapeConfig));
+            trees.add(new LinearPartitionTree(shapeConfig));
+            if (shape[0] >= 2) {
+                trees.add(new CGHTree(shapeConfig));
+            } else {
+                assertThrows(IllegalArgumentException.class, () -> new CGHTree(shapeConfig),
+                        "CGH树pivot数小于2应抛出异常");
+            }
+
+            for (TreeIndex tree : trees) {
+                tree.buildIndex(data, euclidean);
+                System.out.println("k=" + shape[0] + ", s=" + shape[1] + " " + tree.getIndexName()
+                        + ": 高度=" + tree.getTreeHeight() + ", 节点数=" + tree.getTotalNodes());
+
+                for (int q = 0; q < 10; q++) {
+                    VectorData query = data.get(rand.nextInt(data.size()));
+                    double radius = rand.nextDouble() * 3 + 1;
+
+                    Set<Integer> linearIds = new HashSet<>();
+                    List<Double> linearDists = new ArrayList<>();
+                    for (VectorData v : data) {
+                        double d = euclidean.getDistance(query, v);
+                        linearDists.add(d);
+                        if (d <= radius) {
+                            linearIds.add(v.getDataId());
+                        }
+                    }
+                    Collections.sort(linearDists);
+
+                    Set<Integer> treeIds = new HashSet<>();
+                    for (MetricSpaceData d : tree.rangeQuery(query, radius)) {
+                        treeIds.add(d.getDataId());
+                    }
+                    assertEquals(linearIds, treeIds, tree.getIndexName() + " 范围查询应与线性扫描一致");
+
+                    List<MetricSpaceData> knn = tree.knnQuery(query, 5);
+                    assertEquals(5, knn.size());
+                    for (int i = 0; i < knn.size(); i++) {
+                        assertEquals(linearDists.get(i), euclidean.getDistance(query, knn.get(i)),
+                                1e-9, tree.getIndexName() + " 第" + (i + 1) + "近邻距离应一致");
+                    }
+                }
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new TreeConfig.Builder().numPivots(13).splitsPerPivot(2).build(),
+                "扇出超过上限应抛出异常");
+
+        System.out.println("测试通过！\n");
+    }
 }
@@ -6,15 +6,34 @@ import datatype.vector.VectorData;
 import datatype.vector.MinkowskiDistance;
 import datatype.protein.ProteinData;
 import datatype.protein.AlignmentDistance;
+import index.BatchExecutor;
+import index.BatchQueryResult;
+import index.tree.cght.CGHTree;
 import index.tree.ghtree.GHTree;
+import index.tree.linearpartition.LinearPartitionTree;
+import index.tree.mvptree.MVPTree;
 import index.tree.vptree.VPTree;
+import index.tree.common.QueryContext;
+import index.tree.common.RangeVisitor;
 import index.tree.common.TreeConfig;
+import query.ApproximateKNNQuery;
+import query.KNNQuery;
+import query.KNNResult;
+import query.LinearScanKNNQuery;
 import query.RangeQuery;
 import query.LinearScanRangeQuery;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -291,8 +310,1147 @@ public class TreeCorrectnessTest {
         System.out.println("测试通过！\n");
     }
 
+    @Test
+    @DisplayName("测试6: 并行构建正确性")
+    void testParallelBuild() {
+        System.out.println("\n=== 测试6: 并行构建正确性 ===");
+
+        List<VectorData> dataset = createHighDimDataset(3000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+
+        TreeConfig sequentialConfig = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+        TreeConfig parallelConfig = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42)
+                .parallelBuild(true).parallelThreshold(50).build();
+
+        TreeIndex[] sequentialTrees = {new VPTree(sequentialConfig), new GHTree(sequentialConfig),
+                new MVPTree(sequentialConfig), new CGHTree(sequentialConfig),
+                new LinearPartitionTree(sequentialConfig)};
+        TreeIndex[] parallelTrees = {new VPTree(parallelConfig), new GHTree(parallelConfig),
+                new MVPTree(parallelConfig), new CGHTree(parallelConfig),
+                new LinearPartitionTree(parallelConfig)};
+
+        Random rand = new Random(123);
+        for (int t = 0; t < sequentialTrees.length; t++) {
+            TreeIndex sequential = sequentialTrees[t];
+            TreeIndex parallel = parallelTrees[t];
+            sequential.buildIndex(dataset, metric);
+            parallel.buildIndex(dataset, metric);
+
+            // 相同种子下并行构建与串行构建得到相同的树
+            assertEquals(sequential.getTotalNodes(), parallel.getTotalNodes(),
+                    parallel.getIndexName() + " 节点数应一致");
+            assertEquals(sequential.getTreeHeight(), parallel.getTreeHeight(),
+                    parallel.getIndexName() + " 树高应一致");
+            assertEquals(sequential.getBuildDistanceComputations(),
+                    parallel.getBuildDistanceComputations(),
+                    parallel.getIndexName() + " 构建距离计算次数应一致");
+            assertEquals(dataset.size(), parallel.getRoot().size());
+
+            for (int q = 0; q < 5; q++) {
+                VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                RangeQuery query = new RangeQuery(queryPoint, 3.0);
+                List<MetricSpaceData> expected =
+                        LinearScanRangeQuery.execute(dataset, query, metric, false);
+                assertTrue(setEquals(expected, parallel.rangeQuery(queryPoint, 3.0)),
+                        parallel.getIndexName() + " 并行构建的树查询结果应与线性扫描一致");
+            }
+            System.out.println("  " + parallel.getIndexName() + " ✓");
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试7: 多线程并发查询同一棵树")
+    void testConcurrentQueries() throws Exception {
+        System.out.println("\n=== 测试7: 多线程并发查询同一棵树 ===");
+
+        List<VectorData> dataset = createHighDimDataset(2000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        Random rand = new Random(123);
+        List<VectorData> queries = new ArrayList<>();
+        for (int q = 0; q < 64; q++) {
+            queries.add(dataset.get(rand.nextInt(dataset.size())));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (TreeIndex tree : trees) {
+                tree.buildIndex(dataset, metric);
+
+                // 串行执行得到基准结果和统计
+                List<List<MetricSpaceData>> expectedRange = new ArrayList<>();
+                List<List<MetricSpaceData>> expectedKnn = new ArrayList<>();
+                tree.resetStatistics();
+                for (VectorData query : queries) {
+                    expectedRange.add(tree.rangeQuery(query, 3.0));
+                    expectedKnn.add(tree.knnQuery(query, 10));
+                }
+                long expectedDistances = tree.getQueryStatistics().getDistanceComputations();
+                long expectedAccesses = tree.getQueryStatistics().getNodeAccesses();
+
+                // 并发执行相同的查询
+                tree.resetStatistics();
+                List<Future<List<MetricSpaceData>>> rangeFutures = new ArrayList<>();
+                List<Future<List<MetricSpaceData>>> knnFutures = new ArrayList<>();
+                for (VectorData query : queries) {
+                    rangeFutures.add(executor.submit(() -> tree.rangeQuery(query, 3.0)));
+                    knnFutures.add(executor.submit(() -> tree.knnQuery(query, 10)));
+                }
+                for (int q = 0; q < queries.size(); q++) {
+                    assertEquals(expectedRange.get(q), rangeFutures.get(q).get(),
+                            tree.getIndexName() + " 并发范围查询结果应与串行一致");
+                    assertEquals(expectedKnn.get(q), knnFutures.get(q).get(),
+                            tree.getIndexName() + " 并发kNN查询结果应与串行一致");
+                }
+
+                // 汇总统计等于各查询计数之和
+                assertEquals(2L * queries.size(), tree.getQueryStatistics().getQueries());
+                assertEquals(expectedDistances,
+                        tree.getQueryStatistics().getDistanceComputations(),
+                        tree.getIndexName() + " 并发查询的距离计算次数汇总应一致");
+                assertEquals(expectedAccesses, tree.getQueryStatistics().getNodeAccesses(),
+                        tree.getIndexName() + " 并发查询的节点访问次数汇总应一致");
+                System.out.println("  " + tree.getIndexName() + " ✓ "
+                        + tree.getQueryStatistics());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试8: 增量最近邻迭代器")
+    void testNearestNeighborIterator() {
+        System.out.println("\n=== 测试8: 增量最近邻迭代器 ===");
+
+        List<VectorData> dataset = createHighDimDataset(1500, 4);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(15).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        Random rand = new Random(99);
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+
+            for (int q = 0; q < 5; q++) {
+                VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                double[] expected = new double[dataset.size()];
+                for (int i = 0; i < dataset.size(); i++) {
+                    expected[i] = metric.getDistance(queryPoint, dataset.get(i));
+                }
+                Arrays.sort(expected);
+
+                // 完整遍历：按距离升序返回全部对象，每个对象恰好一次
+                NearestNeighborIterator all = tree.nearestNeighbors(queryPoint);
+                Set<Integer> seen = new HashSet<>();
+                int count = 0;
+                while (all.hasNext()) {
+                    KNNResult neighbor = all.next();
+                    assertEquals(expected[count], neighbor.getDistance(), 1e-9,
+                            tree.getIndexName() + " 第" + count + "个近邻距离错误");
+                    assertTrue(seen.add(neighbor.getData().getDataId()));
+                    count++;
+                }
+                assertEquals(dataset.size(), count);
+
+                // 提前停止：取到距离超过阈值的近邻为止
+                double threshold = expected[19];
+                NearestNeighborIterator partial = tree.nearestNeighbors(queryPoint);
+                int taken = 0;
+                while (partial.hasNext() && partial.next().getDistance() <= threshold) {
+                    taken++;
+                }
+                assertTrue(taken >= 20);
+
+                tree.resetStatistics();
+                tree.knnQuery(queryPoint, 10);
+                long dfsAccesses = tree.getNodeAccesses();
+                NearestNeighborIterator first10 = tree.nearestNeighbors(queryPoint);
+                for (int i = 0; i < 10; i++) {
+                    first10.next();
+                }
+                if (q == 0) {
+                    System.out.printf("  %s: 10-NN 节点访问 DFS=%d, 最佳优先=%d%n",
+                            tree.getIndexName(), dfsAccesses, first10.getNodeAccesses());
+                }
+            }
+            System.out.println("  " + tree.getIndexName() + " ✓");
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试9: 冻结为数组布局后的查询")
+    void testFrozenTree() {
+        System.out.println("\n=== 测试9: 冻结为数组布局后的查询 ===");
+
+        List<VectorData> dataset = createHighDimDataset(2000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        Random rand = new Random(7);
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+            FrozenTree frozen = tree.freeze();
+            assertEquals(dataset.size(), frozen.getDatasetSize(),
+                    tree.getIndexName() + " 冻结后对象数应与数据集一致");
+            assertEquals(tree.getTotalNodes(), frozen.getNodeCount());
+
+            for (int q = 0; q < 10; q++) {
+                VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                RangeQuery query = new RangeQuery(queryPoint, 3.0);
+                List<MetricSpaceData> expected =
+                        LinearScanRangeQuery.execute(dataset, query, metric, false);
+                assertTrue(setEquals(expected, frozen.rangeQuery(queryPoint, 3.0)),
+                        frozen.getIndexName() + " 范围查询结果应与线性扫描一致");
+
+                List<MetricSpaceData> treeKnn = tree.knnQuery(queryPoint, 10);
+                List<MetricSpaceData> frozenKnn = frozen.knnQuery(queryPoint, 10);
+                assertEquals(treeKnn.size(), frozenKnn.size());
+                for (int i = 0; i < treeKnn.size(); i++) {
+                    assertEquals(metric.getDistance(queryPoint, treeKnn.get(i)),
+                            metric.getDistance(queryPoint, frozenKnn.get(i)), 1e-9,
+                            frozen.getIndexName() + " kNN结果距离应一致");
+                }
+            }
+            System.out.printf("  %s ✓ (数组占用 %,d bytes)%n", frozen.getIndexName(),
+                    frozen.getArrayBytes());
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试10: 叶子路径距离过滤与子树距离范围")
+    void testPathPivotFiltering() {
+        System.out.println("\n=== 测试10: 叶子路径距离过滤与子树距离范围 ===");
+
+        List<VectorData> dataset = createHighDimDataset(3000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig plainConfig = new TreeConfig.Builder().maxLeafSize(40).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+        TreeConfig pathConfig = new TreeConfig.Builder().maxLeafSize(40).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42)
+                .pathPivotLevels(3).build();
+
+        TreeIndex[] plainTrees = {new VPTree(plainConfig), new GHTree(plainConfig),
+                new MVPTree(plainConfig), new CGHTree(plainConfig),
+                new LinearPartitionTree(plainConfig)};
+        TreeIndex[] pathTrees = {new VPTree(pathConfig), new GHTree(pathConfig),
+                new MVPTree(pathConfig), new CGHTree(pathConfig),
+                new LinearPartitionTree(pathConfig)};
+
+        long plainTotal = 0;
+        long pathTotal = 0;
+        long plainNodes = 0;
+        long pathNodes = 0;
+        for (int t = 0; t < plainTrees.length; t++) {
+            TreeIndex plain = plainTrees[t];
+            TreeIndex path = pathTrees[t];
+            plain.buildIndex(dataset, metric);
+            path.buildIndex(dataset, metric);
+
+            Random rand = new Random(7);
+            for (int q = 0; q < 20; q++) {
+                VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                RangeQuery query = new RangeQuery(queryPoint, 2.5);
+                List<MetricSpaceData> expected =
+                        LinearScanRangeQuery.execute(dataset, query, metric, false);
+                assertTrue(setEquals(expected, path.rangeQuery(queryPoint, 2.5)),
+                        path.getIndexName() + " 范围查询结果应与线性扫描一致");
+                plain.rangeQuery(queryPoint, 2.5);
+
+                List<MetricSpaceData> plainKnn = plain.knnQuery(queryPoint, 10);
+                List<MetricSpaceData> pathKnn = path.knnQuery(queryPoint, 10);
+                assertEquals(plainKnn.size(), pathKnn.size());
+                for (int i = 0; i < plainKnn.size(); i++) {
+                    assertEquals(metric.getDistance(queryPoint, plainKnn.get(i)),
+                            metric.getDistance(queryPoint, pathKnn.get(i)), 1e-9,
+                            path.getIndexName() + " kNN结果距离应一致");
+                }
+            }
+
+            // 两棵树结构相同，过滤只会减少距离计算
+            assertTrue(path.getDistanceComputations() <= plain.getDistanceComputations(),
+                    path.getIndexName() + " 路径过滤不应增加距离计算");
+            plainTotal += plain.getDistanceComputations();
+            pathTotal += path.getDistanceComputations();
+            plainNodes += plain.getNodeAccesses();
+            pathNodes += path.getNodeAccesses();
+            System.out.printf("  %s ✓ 距离计算 %,d -> %,d，节点访问 %,d -> %,d%n",
+                    path.getIndexName(), plain.getDistanceComputations(),
+                    path.getDistanceComputations(), plain.getNodeAccesses(),
+                    path.getNodeAccesses());
+        }
+
+        assertTrue(pathTotal < plainTotal, "路径过滤应减少距离计算");
+        // 叶子过滤不减少节点访问，减少的部分来自子树距离范围的剪枝
+        assertTrue(pathNodes < plainNodes, "子树距离范围应减少节点访问");
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试11: 动态插入与删除")
+    void testDynamicInsertDelete() {
+        System.out.println("\n=== 测试11: 动态插入与删除 ===");
+
+        List<VectorData> dataset = createHighDimDataset(3000, 5);
+        // 按第一维排序后插入，使新数据集中落到少数子树，触发局部重建
+        List<VectorData> stream = new ArrayList<>(dataset.subList(1000, dataset.size()));
+        stream.sort(Comparator.comparingDouble(v -> v.getCoordinates()[0]));
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42)
+                .pathPivotLevels(2).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        for (TreeIndex tree : trees) {
+            // 构建后修改调用方的列表不影响索引（构建时保存了快照）
+            List<VectorData> initial = new ArrayList<>(dataset.subList(0, 1000));
+            tree.buildIndex(initial, metric);
+            initial.clear();
+            List<MetricSpaceData> live = new ArrayList<>(dataset.subList(0, 1000));
+            for (int i = 0; i < stream.size(); i++) {
+                tree.insert(stream.get(i));
+                live.add(stream.get(i));
+                if (i % 2 == 0) {
+                    // 交替删除最早的对象
+                    MetricSpaceData victim = live.remove(0);
+                    assertTrue(tree.delete(victim.getDataId()));
+                }
+            }
+            assertFalse(tree.delete(-1), "不存在的ID应返回false");
+            assertThrows(IllegalArgumentException.class, () -> tree.insert(live.get(0)),
+                    "重复的数据ID应抛出异常");
+
+            // 删除后重新插入同一实例
+            MetricSpaceData revived = live.remove(live.size() - 1);
+            assertTrue(tree.delete(revived.getDataId()));
+            tree.insert(revived);
+            live.add(revived);
+
+            assertEquals(live.size(), tree.getDatasetSize());
+            assertTrue(tree.getRebuildCount() > 0, tree.getIndexName() + " 应发生局部重建");
+
+            FrozenTree frozen = tree.freeze();
+            assertEquals(live.size(), frozen.getDatasetSize(), "冻结的树不应计入已删除的支撑点");
+            Random rand = new Random(7);
+            for (int q = 0; q < 10; q++) {
+                MetricSpaceData queryPoint = live.get(rand.nextInt(live.size()));
+                RangeQuery query = new RangeQuery(queryPoint, 2.5);
+                List<MetricSpaceData> expected =
+                        LinearScanRangeQuery.execute(live, query, metric, false);
+                assertTrue(setEquals(expected, tree.rangeQuery(queryPoint, 2.5)),
+                        tree.getIndexName() + " 更新后范围查询结果应与线性扫描一致");
+                assertTrue(setEquals(expected, frozen.rangeQuery(queryPoint, 2.5)),
+                        frozen.getIndexName() + " 更新后冻结的树结果应一致");
+
+                List<Double> expectedDists = new ArrayList<>();
+                for (MetricSpaceData obj : live) {
+                    expectedDists.add(metric.getDistance(queryPoint, obj));
+                }
+                Collections.sort(expectedDists);
+                List<MetricSpaceData> knn = tree.knnQuery(queryPoint, 10);
+                NearestNeighborIterator it = tree.nearestNeighbors(queryPoint);
+                for (int i = 0; i < 10; i++) {
+                    assertEquals(expectedDists.get(i), metric.getDistance(queryPoint, knn.get(i)),
+                            1e-9, tree.getIndexName() + " 更新后kNN结果距离应一致");
+                    assertEquals(expectedDists.get(i), it.next().getDistance(), 1e-9,
+                            tree.getIndexName() + " 更新后增量近邻距离应一致");
+                }
+            }
+            System.out.printf("  %s ✓ 存活=%d, 局部重建=%d, 未回收=%d, 高度=%d%n",
+                    tree.getIndexName(), tree.getDatasetSize(), tree.getRebuildCount(),
+                    tree.getTombstoneCount(), tree.getTreeHeight());
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试12: 近似kNN查询")
+    void testApproximateKnn() {
+        System.out.println("\n=== 测试12: 近似kNN查询 ===");
+
+        List<VectorData> dataset = createHighDimDataset(5000, 8);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        int k = 10;
+        double epsilon = 0.5;
+        long budget = 300;
+        Random rand = new Random(7);
+        List<VectorData> queries = new ArrayList<>();
+        for (int q = 0; q < 20; q++) {
+            double[] coords = new double[8];
+            for (int j = 0; j < coords.length; j++) {
+                coords[j] = rand.nextDouble() * 10;
+            }
+            queries.add(new VectorData(-1 - q, coords));
+        }
+
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+            double stopRecall = 0;
+            long exactDistances = 0;
+            long stopDistances = 0;
+
+            for (VectorData queryPoint : queries) {
+                List<Double> expectedDists = new ArrayList<>();
+                for (VectorData obj : dataset) {
+                    expectedDists.add(metric.getDistance(queryPoint, obj));
+                }
+                Collections.sort(expectedDists);
+                tree.resetStatistics();
+                List<MetricSpaceData> exact = tree.knnQuery(queryPoint, k);
+                exactDistances += tree.getDistanceComputations();
+
+                // 没有近似控制时与精确查询一致
+                List<MetricSpaceData> same =
+                        tree.knnQuery(new ApproximateKNNQuery.Builder(queryPoint, k).build());
+                for (int i = 0; i < k; i++) {
+                    assertEquals(expectedDists.get(i), metric.getDistance(queryPoint, same.get(i)),
+                            1e-9, tree.getIndexName() + " 无近似控制时应返回精确结果");
+                }
+
+                // (1+ε)近似：第i个结果不超过真实第i近邻距离的1+ε倍
+                List<MetricSpaceData> approx = tree.knnQuery(
+                        new ApproximateKNNQuery.Builder(queryPoint, k).epsilon(epsilon).build());
+                assertEquals(k, approx.size());
+                for (int i = 0; i < k; i++) {
+                    assertTrue(metric.getDistance(queryPoint, approx.get(i))
+                            <= (1 + epsilon) * expectedDists.get(i) + 1e-9,
+                            tree.getIndexName() + " 结果应满足(1+ε)近似");
+                }
+
+                // 距离计算预算：最多超出一个节点的支撑点数
+                tree.resetStatistics();
+                List<MetricSpaceData> capped = tree.knnQuery(new ApproximateKNNQuery.Builder(
+                        queryPoint, k).maxDistanceComputations(budget).build());
+                assertEquals(k, capped.size());
+                assertTrue(tree.getDistanceComputations() <= budget + tree.getPivotsPerNode(),
+                        tree.getIndexName() + " 距离计算次数应受预算限制");
+
+                // 节点访问预算
+                tree.resetStatistics();
+                tree.knnQuery(new ApproximateKNNQuery.Builder(queryPoint, k).maxNodeAccesses(5)
+                        .build());
+                assertTrue(tree.getNodeAccesses() <= 5,
+                        tree.getIndexName() + " 节点访问次数应受预算限制");
+
+                // 概率提前停止
+                tree.resetStatistics();
+                List<MetricSpaceData> early = tree.knnQuery(new ApproximateKNNQuery.Builder(
+                        queryPoint, k).stopProbability(0.1).build());
+                stopDistances += tree.getDistanceComputations();
+                stopRecall += recall(exact, early);
+            }
+
+            stopRecall /= queries.size();
+            System.out.printf("  %s ✓ 概率停止: 召回率=%.3f, 距离计算 %d / %d%n",
+                    tree.getIndexName(), stopRecall, stopDistances, exactDistances);
+            assertTrue(stopDistances <= exactDistances,
+                    tree.getIndexName() + " 概率停止不应比精确查询计算更多距离");
+            assertTrue(stopRecall >= 0.5, tree.getIndexName() + " 概率停止的召回率过低");
+        }
+
+        // 距离分布从存活对象中采样：删除原数据、插入尺度大100倍的数据后重新采样
+        VPTree updated = new VPTree(new TreeConfig.Builder().maxLeafSize(20).randomSeed(42)
+                .build());
+        List<VectorData> small = createHighDimDataset(400, 5);
+        updated.buildIndex(small, metric);
+        // 原数据中任意两点的距离不超过 diameter
+        double diameter = 0;
+        for (VectorData data : small) {
+            diameter = Math.max(diameter, 2 * metric.getDistance(small.get(0), data));
+        }
+        assertEquals(1.0, updated.getDistanceDistribution().cdf(diameter));
+        for (VectorData data : createHighDimDataset(400, 5)) {
+            double[] scaled = data.getCoordinates().clone();
+            for (int d = 0; d < scaled.length; d++) {
+                scaled[d] *= 100;
+            }
+            updated.insert(new VectorData(10000 + data.getDataId(), scaled));
+        }
+        for (VectorData data : small) {
+            assertTrue(updated.delete(data.getDataId()));
+        }
+        double covered = updated.getDistanceDistribution().cdf(diameter);
+        assertTrue(covered < 0.5, "距离分布应反映更新后的存活对象: F(diameter)=" + covered);
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试13: 流式范围查询、计数与结果数上限")
+    void testStreamingRangeQuery() {
+        System.out.println("\n=== 测试13: 流式范围查询、计数与结果数上限 ===");
+
+        List<VectorData> dataset = createHighDimDataset(3000, 4);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+            // 删除一部分对象，计数时包含规则必须扣除子树中的已删除对象
+            List<MetricSpaceData> live = new ArrayList<>(dataset);
+            for (int id = 0; id < dataset.size(); id += 7) {
+                assertTrue(tree.delete(id));
+                live.remove(dataset.get(id));
+            }
+
+            Random rand = new Random(7);
+            long listDistances = 0;
+            long countDistances = 0;
+            for (int q = 0; q < 10; q++) {
+                MetricSpaceData queryPoint = live.get(rand.nextInt(live.size()));
+                double radius = 2.0 + q * 0.5;
+                List<MetricSpaceData> expected = LinearScanRangeQuery.execute(live,
+                        new RangeQuery(queryPoint, radius), metric, false);
+
+                // 回调：结果集一致，已知的距离必须正确
+                List<MetricSpaceData> streamed = new ArrayList<>();
+                long emitted = tree.rangeQuery(queryPoint, radius, (data, distance) -> {
+                    streamed.add(data);
+                    if (!Double.isNaN(distance)) {
+                        assertEquals(metric.getDistance(queryPoint, data), distance, 1e-9);
+                    }
+                });
+                assertEquals(streamed.size(), emitted);
+                assertTrue(setEquals(expected, streamed),
+                        tree.getIndexName() + " 回调结果应与线性扫描一致");
+
+                // 只计数
+                tree.resetStatistics();
+                tree.rangeQuery(queryPoint, radius);
+                listDistances += tree.getDistanceComputations();
+                tree.resetStatistics();
+                assertEquals(expected.size(), tree.rangeCount(queryPoint, radius),
+                        tree.getIndexName() + " 计数应与线性扫描一致");
+                countDistances += tree.getDistanceComputations();
+
+                // 结果数上限
+                List<MetricSpaceData> limited = tree.rangeQuery(queryPoint, radius, 5);
+                assertEquals(Math.min(5, expected.size()), limited.size());
+                Set<Integer> expectedIds = new HashSet<>();
+                for (MetricSpaceData d : expected) {
+                    expectedIds.add(d.getDataId());
+                }
+                for (MetricSpaceData d : limited) {
+                    assertTrue(expectedIds.contains(d.getDataId()));
+                }
+                long[] calls = {0};
+                RangeVisitor counter = (data, distance) -> calls[0]++;
+                assertEquals(Math.min(3, expected.size()),
+                        tree.rangeQuery(queryPoint, radius, counter, 3));
+                assertEquals(Math.min(3, expected.size()), calls[0]);
+                assertEquals(Math.min(1, expected.size()), tree.rangeCount(queryPoint, radius, 1),
+                        tree.getIndexName() + " limit=1 的计数可用于判断是否存在");
+            }
+            assertTrue(countDistances <= listDistances);
+            System.out.printf("  %s ✓ 距离计算: 列表 %d, 计数 %d%n", tree.getIndexName(),
+                    listDistances, countDistances);
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> trees[0].rangeQuery(dataset.get(0), 1.0, 0));
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试14: 原地划分构建（大量相同距离）")
+    void testInPlaceBuildWithTies() {
+        System.out.println("\n=== 测试14: 原地划分构建（大量相同距离） ===");
+
+        // 整数网格坐标，到支撑点的距离大量相同，快速选择的分区要正确处理相等元素
+        List<VectorData> dataset = new ArrayList<>();
+        Random rand = new Random(5);
+        for (int i = 0; i < 4000; i++) {
+            dataset.add(new VectorData(i, new double[] {rand.nextInt(8), rand.nextInt(8)}));
+        }
+        List<VectorData> original = new ArrayList<>(dataset);
+        MetricFunction metric = MinkowskiDistance.L1;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(15).minTreeHeight(3)
+                .vpArity(4).splitsPerPivot(3).pathPivotLevels(2)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        for (TreeIndex tree : trees) {
+            // 不支持随机访问的输入同样可以构建
+            tree.buildIndex(new LinkedList<>(dataset), metric);
+            assertEquals(original, dataset, "构建不能修改调用方的数据");
+
+            for (int q = 0; q < 20; q++) {
+                MetricSpaceData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                double radius = q % 4;
+                List<MetricSpaceData> expected = LinearScanRangeQuery.execute(dataset,
+                        new RangeQuery(queryPoint, radius), metric, false);
+                List<MetricSpaceData> result = tree.rangeQuery(queryPoint, radius);
+                assertEquals(expected.size(), result.size());
+                assertTrue(setEquals(expected, result),
+                        tree.getIndexName() + " 结果应与线性扫描一致");
+            }
+            System.out.printf("  %s ✓ 高度=%d, 节点数=%d%n", tree.getIndexName(),
+                    tree.getTreeHeight(), tree.getTotalNodes());
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试15: 查询缓冲区复用（连续查询与回调中的嵌套查询）")
+    void testPooledQueryBuffers() {
+        System.out.println("\n=== 测试15: 查询缓冲区复用（连续查询与回调中的嵌套查询） ===");
+
+        List<VectorData> dataset = createHighDimDataset(2000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+            Random rand = new Random(11);
+
+            // 同一线程上连续查询，k不断变化，结果堆和临时数组被反复复用
+            for (int q = 0; q < 30; q++) {
+                MetricSpaceData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                int k = 1 + q % 7;
+                assertKnnDistances(dataset, metric, queryPoint, k,
+                        tree.knnQuery(queryPoint, k), tree.getIndexName());
+            }
+
+            // 范围查询回调中再做kNN查询：嵌套查询不能破坏外层查询的缓冲区
+            MetricSpaceData outer = dataset.get(0);
+            List<MetricSpaceData> streamed = new ArrayList<>();
+            tree.rangeQuery(outer, 3.0, (data, distance) -> {
+                streamed.add(data);
+                if (streamed.size() <= 5) {
+                    assertKnnDistances(dataset, metric, data, 3, tree.knnQuery(data, 3),
+                            tree.getIndexName());
+                }
+            });
+            List<MetricSpaceData> expected = LinearScanRangeQuery.execute(dataset,
+                    new RangeQuery(outer, 3.0), metric, false);
+            assertTrue(streamed.size() > 5);
+            assertTrue(setEquals(expected, streamed),
+                    tree.getIndexName() + " 嵌套查询后外层范围查询结果应正确");
+
+            // 回调抛出异常时缓冲区同样归还：之后的查询仍然借到线程的缓冲区
+            QueryContext probe = QueryContext.forRange(outer, 1.0, metric);
+            double[] pooled = probe.getScratch(0, 4);
+            probe.release();
+            assertThrows(IllegalStateException.class, () -> tree.rangeQuery(outer, 3.0,
+                    (data, distance) -> {
+                        throw new IllegalStateException("回调失败");
+                    }));
+            probe = QueryContext.forRange(outer, 1.0, metric);
+            assertSame(pooled, probe.getScratch(0, 4),
+                    tree.getIndexName() + " 回调抛出异常后缓冲区应已归还");
+            probe.release();
+            System.out.printf("  %s ✓%n", tree.getIndexName());
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试16: 多查询共享遍历")
+    void testGroupTraversal() {
+        System.out.println("\n=== 测试16: 多查询共享遍历 ===");
+
+        List<VectorData> dataset = createHighDimDataset(2000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        Random rand = new Random(16);
+        List<MetricSpaceData> queries = new ArrayList<>();
+        for (int q = 0; q < 100; q++) {
+            queries.add(dataset.get(rand.nextInt(dataset.size())));
+        }
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+
+            // 组大小不整除查询数，最后一组不满
+            BatchQueryResult range = tree.groupRangeQuery(queries, 2.5, 7,
+                    BatchExecutor.sequential());
+            BatchQueryResult knn = tree.groupKnnQuery(queries, 5);
+            assertEquals(queries.size(), range.getNumQueries());
+            assertEquals(queries.size(), knn.getNumQueries());
+
+            for (int q = 0; q < queries.size(); q++) {
+                MetricSpaceData queryPoint = queries.get(q);
+                List<MetricSpaceData> expected = LinearScanRangeQuery.execute(dataset,
+                        new RangeQuery(queryPoint, 2.5), metric, false);
+                assertTrue(setEquals(expected, range.getResult(q)),
+                        tree.getIndexName() + " 分组范围查询结果应与线性扫描一致");
+                assertKnnDistances(dataset, metric, queryPoint, 5, knn.getResult(q),
+                        tree.getIndexName());
+            }
+
+            // 组大小为1时每个窗口256个查询，600个查询分三个窗口执行，结果按原顺序返回
+            List<MetricSpaceData> manyQueries = new ArrayList<>();
+            for (int q = 0; q < 600; q++) {
+                manyQueries.add(dataset.get(rand.nextInt(dataset.size())));
+            }
+            BatchQueryResult windowed = tree.groupKnnQuery(manyQueries, 3, 1,
+                    BatchExecutor.forkJoin());
+            assertEquals(manyQueries.size(), windowed.getNumQueries());
+            for (int q = 0; q < manyQueries.size(); q++) {
+                assertKnnDistances(dataset, metric, manyQueries.get(q), 3,
+                        windowed.getResult(q), tree.getIndexName());
+            }
+
+            tree.resetStatistics();
+            for (MetricSpaceData queryPoint : queries) {
+                tree.knnQuery(queryPoint, 5);
+            }
+            System.out.printf("  %s ✓ (kNN平均距离计算: 分组=%.1f, 逐个=%.1f)%n",
+                    tree.getIndexName(), knn.getAverageDistanceComputations(),
+                    (double) tree.getDistanceComputations() / queries.size());
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试17: 相似性自连接与R–S连接")
+    void testSimilarityJoin() {
+        System.out.println("\n=== 测试17: 相似性自连接与R–S连接 ===");
+
+        List<VectorData> dataset = createVector2DDataset(600);
+        MetricFunction metric = MinkowskiDistance.L2;
+        double radius = 0.4;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(10).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+
+        // 删除一个对象：连接结果中不应再出现它
+        int deletedId = 7;
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < dataset.size(); i++) {
+            for (int j = i + 1; j < dataset.size(); j++) {
+                if (i != deletedId && j != deletedId
+                        && metric.getDistance(dataset.get(i), dataset.get(j)) <= radius) {
+                    expected.add(pairKey(i, j));
+                }
+            }
+        }
+
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        for (TreeIndex tree : trees) {
+            tree.buildIndex(dataset, metric);
+            assertTrue(tree.delete(deletedId));
+
+            Set<Long> found = ConcurrentHashMap.newKeySet();
+            long count = tree.similarityJoin(radius, (left, right, distance) -> {
+                assertTrue(Double.isNaN(distance) || distance <= radius);
+                found.add(pairKey(Math.min(left, right), Math.max(left, right)));
+            });
+            assertEquals(expected.size(), count, tree.getIndexName() + " 每对只应输出一次");
+            assertEquals(expected, found, tree.getIndexName() + " 自连接结果应与两两比较一致");
+            System.out.printf("  %s ✓ (%d对)%n", tree.getIndexName(), count);
+        }
+
+        // R–S连接：两棵不同类型的树，左侧是调用方的对象
+        List<VectorData> others = new ArrayList<>();
+        Random rand = new Random(17);
+        for (int i = 0; i < 300; i++) {
+            others.add(new VectorData(10000 + i,
+                    new double[] {rand.nextDouble() * 10, rand.nextDouble() * 10}));
+        }
+        Set<Long> expectedRS = new HashSet<>();
+        for (VectorData a : dataset) {
+            for (VectorData b : others) {
+                if (metric.getDistance(a, b) <= radius) {
+                    expectedRS.add(pairKey(a.getDataId(), b.getDataId()));
+                }
+            }
+        }
+        TreeIndex left = new VPTree(config);
+        left.buildIndex(dataset, metric);
+        TreeIndex right = new MVPTree(config);
+        right.buildIndex(others, metric);
+        Set<Long> foundRS = ConcurrentHashMap.newKeySet();
+        long count = left.similarityJoin(right, radius,
+                (a, b, distance) -> foundRS.add(pairKey(a, b)));
+        assertEquals(expectedRS.size(), count);
+        assertEquals(expectedRS, foundRS, "R–S连接结果应与两两比较一致");
+        System.out.printf("  R–S连接 ✓ (%d对)%n", count);
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试18: 分页树与缓冲池")
+    void testPagedTree() throws IOException {
+        System.out.println("\n=== 测试18: 分页树与缓冲池 ===");
+
+        List<VectorData> dataset = createHighDimDataset(3000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .pivotStrategy(TreeConfig.PivotSelectionStrategy.FFT).randomSeed(42).build();
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+
+        File directory = Files.createTempDirectory("paged-tree").toFile();
+        Random rand = new Random(7);
+        for (int t = 0; t < trees.length; t++) {
+            TreeIndex tree = trees[t];
+            tree.buildIndex(dataset, metric);
+            Set<MetricSpaceData> deleted = new HashSet<>();
+            for (int i = 0; i < 30; i++) {
+                VectorData victim = dataset.get(i * 97);
+                assertTrue(tree.delete(victim.getDataId()));
+                deleted.add(victim);
+            }
+            List<VectorData> live = new ArrayList<>(dataset);
+            live.removeAll(deleted);
+
+            File file = new File(directory, "tree-" + t + ".pages");
+            int pages = tree.writePaged(file, 1024);
+            assertEquals((long) pages * 1024, file.length());
+
+            // 缓冲池只有64页（约为文件的一小部分），最上面两层常驻
+            try (PagedTree paged = PagedTree.open(file, metric, 64 * 1024, 2, 8)) {
+                assertEquals(live.size(), paged.getDatasetSize());
+                assertEquals(tree.getTotalNodes(), paged.getNodeCount());
+                BufferPool pool = paged.getBufferPool();
+                assertTrue(pool.getCapacityPages() < pages / 4,
+                        paged.getIndexName() + " 缓冲池应远小于文件");
+
+                for (int q = 0; q < 20; q++) {
+                    VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                    List<MetricSpaceData> expected = LinearScanRangeQuery.execute(live,
+                            new RangeQuery(queryPoint, 3.0), metric, false);
+                    assertTrue(setEquals(expected, paged.rangeQuery(queryPoint, 3.0)),
+                            paged.getIndexName() + " 范围查询结果应与线性扫描一致");
+
+                    List<MetricSpaceData> treeKnn = tree.knnQuery(queryPoint, 10);
+                    List<MetricSpaceData> pagedKnn = paged.knnQuery(queryPoint, 10);
+                    assertEquals(treeKnn.size(), pagedKnn.size());
+                    for (int i = 0; i < treeKnn.size(); i++) {
+                        assertFalse(deleted.contains(pagedKnn.get(i)), "不应返回已删除的对象");
+                        assertEquals(metric.getDistance(queryPoint, treeKnn.get(i)),
+                                metric.getDistance(queryPoint, pagedKnn.get(i)), 1e-9,
+                                paged.getIndexName() + " kNN结果距离应一致");
+                    }
+                    assertTrue(pool.getResidentPages() <= pool.getCapacityPages());
+                }
+                assertTrue(pool.getEvictions() > 0, "缓冲池较小时应发生换出");
+                assertTrue(pool.getHits() > 0 && pool.getReadAheadNodes() > 0);
+                System.out.printf("  %s ✓ (%d页, 命中率 %.1f%%, 读操作 %d, 预读命中 %d/%d)%n",
+                        paged.getIndexName(), pages, pool.getHitRate() * 100, pool.getReads(),
+                        pool.getReadAheadHits(), pool.getReadAheadNodes());
+            }
+            assertThrows(IllegalArgumentException.class,
+                    () -> PagedTree.open(file, metric, 512));
+            IllegalStateException tooSmall = assertThrows(IllegalStateException.class,
+                    () -> PagedTree.open(file, metric, 4 * 1024, 10, 1),
+                    "常驻的层放不进缓冲池时应报错");
+            assertTrue(tooSmall.getMessage().contains("常驻10层"), tooSmall.getMessage());
+            // 检查在pin住任何节点之前完成，报错后文件可以正常再次打开
+            try (PagedTree reopened = PagedTree.open(file, metric, 64 * 1024, 1, 8)) {
+                assertEquals(live.size(), reopened.getDatasetSize());
+            }
+
+            // 只有8页的缓冲池被8个线程同时使用：池暂时被pin满时等待，而不是报错
+            try (PagedTree tiny = PagedTree.open(file, metric, 8 * 1024, 0, 4)) {
+                ExecutorService executor = Executors.newFixedThreadPool(8);
+                try {
+                    List<Future<Boolean>> futures = new ArrayList<>();
+                    for (int q = 0; q < 32; q++) {
+                        VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                        futures.add(executor.submit(() -> setEquals(
+                                LinearScanRangeQuery.execute(live,
+                                        new RangeQuery(queryPoint, 3.0), metric, false),
+                                tiny.rangeQuery(queryPoint, 3.0))));
+                    }
+                    for (Future<Boolean> future : futures) {
+                        assertTrue(future.get(), tiny.getIndexName() + " 并发查询结果应一致");
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new AssertionError(tiny.getIndexName() + " 并发查询失败", e);
+                } finally {
+                    executor.shutdown();
+                }
+                BufferPool pool = tiny.getBufferPool();
+                assertTrue(pool.getResidentPages() <= pool.getCapacityPages());
+            }
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试19: GLOBAL/MIX共享支撑点与距离备忘")
+    void testSharedPivotModes() {
+        System.out.println("\n=== 测试19: GLOBAL/MIX共享支撑点与距离备忘 ===");
+
+        List<VectorData> dataset = createHighDimDataset(3000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        Random rand = new Random(21);
+        for (TreeConfig.HierarchicalPivotMode mode : new TreeConfig.HierarchicalPivotMode[] {
+                TreeConfig.HierarchicalPivotMode.GLOBAL, TreeConfig.HierarchicalPivotMode.MIX}) {
+            TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                    .hierarchicalPivotMode(mode).sharedPivotCount(12).randomSeed(42).build();
+            TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                    new CGHTree(config), new LinearPartitionTree(config)};
+            for (TreeIndex tree : trees) {
+                tree.buildIndex(dataset, metric);
+                assertEquals(12, tree.getSharedPivots().size());
+                assertEquals(dataset.size(), tree.getRoot().size(),
+                        tree.getIndexName() + " 共享支撑点留在子树中，不应重复计数");
+                FrozenTree frozen = tree.freeze();
+                String name = tree.getIndexName() + " " + mode;
+
+                for (int q = 0; q < 20; q++) {
+                    VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                    List<MetricSpaceData> expected = LinearScanRangeQuery.execute(dataset,
+                            new RangeQuery(queryPoint, 2.5), metric, false);
+                    List<MetricSpaceData> result = tree.rangeQuery(queryPoint, 2.5);
+                    assertEquals(expected.size(), result.size(), name + " 结果不应重复");
+                    assertTrue(setEquals(expected, result), name + " 范围查询结果应与线性扫描一致");
+                    assertTrue(setEquals(expected, frozen.rangeQuery(queryPoint, 2.5)),
+                            name + " 冻结后范围查询结果应一致");
+                    assertKnnDistances(dataset, metric, queryPoint, 10,
+                            tree.knnQuery(queryPoint, 10), name);
+                    assertKnnDistances(dataset, metric, queryPoint, 10,
+                            frozen.knnQuery(queryPoint, 10), name + " (冻结)");
+                    NearestNeighborIterator iterator = tree.nearestNeighbors(queryPoint);
+                    assertEquals(0.0, iterator.next().getDistance(), 1e-12,
+                            name + " 增量最近邻的第一个应为查询对象自身");
+                }
+                assertTrue(tree.getQueryStatistics().getMemoHits() > 0,
+                        name + " 共享支撑点应命中备忘表");
+
+                // 动态更新同样适用
+                for (int i = 0; i < 20; i++) {
+                    assertTrue(tree.delete(dataset.get(i * 101).getDataId()));
+                }
+                assertEquals(dataset.size() - 20, tree.getDatasetSize());
+                assertEquals(1, tree.knnQuery(dataset.get(5), 1).size());
+                System.out.printf("  %s ✓ (备忘表省去距离计算 %,d)%n", name,
+                        tree.getQueryStatistics().getMemoHits());
+            }
+        }
+
+        // GLOBAL模式的VP树同一层共用支撑点：访问所有节点的查询，支撑点距离只有每层一次
+        TreeConfig fqt = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .hierarchicalPivotMode(TreeConfig.HierarchicalPivotMode.GLOBAL)
+                .sharedPivotCount(64).randomSeed(42).build();
+        VPTree tree = new VPTree(fqt);
+        tree.buildIndex(dataset, metric);
+        tree.resetStatistics();
+        tree.knnQuery(dataset.get(0), dataset.size());
+        long computed = tree.getQueryStatistics().getDistanceComputations();
+        assertTrue(computed <= dataset.size() + tree.getTreeHeight(),
+                "支撑点距离计算应不超过树高: " + computed);
+        assertEquals(dataset.size() + tree.getInternalNodes(),
+                computed + tree.getQueryStatistics().getMemoHits());
+
+        assertThrows(IllegalArgumentException.class, () -> new MVPTree(new TreeConfig.Builder()
+                .hierarchicalPivotMode(TreeConfig.HierarchicalPivotMode.MIX)
+                .sharedPivotCount(2).numPivots(3).build()).buildIndex(dataset, metric),
+                "共享支撑点数少于每个节点的支撑点数时应报错");
+
+        System.out.println("测试通过！\n");
+    }
+
+    @Test
+    @DisplayName("测试20: 显式栈遍历（深树与可挂起的查询）")
+    void testExplicitStackTraversal() throws Exception {
+        System.out.println("\n=== 测试20: 显式栈遍历（深树与可挂起的查询） ===");
+
+        List<VectorData> dataset = createHighDimDataset(3000, 5);
+        MetricFunction metric = MinkowskiDistance.L2;
+        TreeConfig config = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(3)
+                .randomSeed(42).build();
+        TreeIndex[] trees = {new VPTree(config), new GHTree(config), new MVPTree(config),
+                new CGHTree(config), new LinearPartitionTree(config)};
+        Random rand = new Random(22);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (TreeIndex tree : trees) {
+                tree.buildIndex(dataset, metric);
+                FrozenTree frozen = tree.freeze();
+                String name = tree.getIndexName();
+                for (int q = 0; q < 10; q++) {
+                    VectorData queryPoint = dataset.get(rand.nextInt(dataset.size()));
+                    List<MetricSpaceData> expected = LinearScanRangeQuery.execute(dataset,
+                            new RangeQuery(queryPoint, 2.5), metric, false);
+                    assertTrue(setEquals(expected, tree.rangeQuery(queryPoint, 2.5)),
+                            name + " 范围查询结果应与线性扫描一致");
+
+                    // kNN按下界升序访问子节点，与冻结布局的遍历顺序相同，距离计算次数也相同
+                    tree.resetStatistics();
+                    frozen.resetStatistics();
+                    List<MetricSpaceData> knn = tree.knnQuery(queryPoint, 10);
+                    assertKnnDistances(dataset, metric, queryPoint, 10, knn, name);
+                    frozen.knnQuery(queryPoint, 10);
+                    assertEquals(frozen.getDistanceComputations(),
+                            tree.getDistanceComputations(), name + " kNN距离计算次数应与冻结布局相同");
+
+                    // 每次只推进一个栈元素，结果与一次完成的查询相同
+                    TreeTraversal range = tree.rangeTraversal(queryPoint, 2.5);
+                    int steps = 0;
+                    while (range.advance(1)) {
+                        steps++;
+                    }
+                    assertTrue(steps > 0, name + " 遍历应可以挂起");
+                    assertTrue(range.getMaxStackDepth() <= 20 * (tree.getTreeHeight() + 1),
+                            name + " 栈深度应只与树高和扇出有关");
+                    assertTrue(setEquals(expected, range.finish()), name + " 分步范围查询结果应一致");
+                    assertThrows(IllegalStateException.class, range::finish);
+
+                    // 在一个线程上开始kNN遍历，挂起后换到另一个线程上完成
+                    TreeTraversal traversal = tree.knnTraversal(queryPoint, 10);
+                    traversal.advance(3);
+                    Future<List<MetricSpaceData>> resumed = executor.submit(() -> {
+                        traversal.run();
+                        return traversal.finish();
+                    });
+                    assertEquals(knn, resumed.get(), name + " 换线程继续的kNN遍历结果应一致");
+
+                    // 流式回调随遍历推进交付结果；取消后只返回已经找到的部分
+                    List<MetricSpaceData> streamed = new ArrayList<>();
+                    TreeTraversal stream = tree.rangeTraversal(queryPoint, 2.5,
+                            (data, distance) -> streamed.add(data));
+                    stream.run();
+                    assertTrue(stream.finish().isEmpty());
+                    assertTrue(setEquals(expected, streamed), name + " 流式遍历结果应一致");
+                    TreeTraversal cancelled = tree.rangeTraversal(queryPoint, 2.5);
+                    cancelled.advance(2);
+                    cancelled.cancel();
+                    assertTrue(cancelled.isFinished());
+                    List<MetricSpaceData> partial = cancelled.finish();
+                    assertTrue(expected.containsAll(partial) && partial.size() <= expected.size(),
+                            name + " 取消后的结果应是完整结果的子集");
+                }
+                System.out.printf("  %s ✓%n", name);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // 按坐标顺序逐个插入一维点且不做平衡重建，树退化成几千层的链
+        TreeConfig chain = new TreeConfig.Builder().maxLeafSize(1).minTreeHeight(1)
+                .rebuildBalance(1.0).randomSeed(42).build();
+        List<VectorData> line = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            line.add(new VectorData(i, new double[] {i}));
+        }
+        for (TreeIndex tree : new TreeIndex[] {new VPTree(chain), new GHTree(chain)}) {
+            tree.buildIndex(line.subList(0, 4), metric);
+            for (int i = 4; i < line.size(); i++) {
+                tree.insert(line.get(i));
+            }
+            int depth = 0;
+            TreeNode node = tree.getRoot();
+            while (!node.isLeaf()) {
+                TreeNode deepest = null;
+                for (TreeNode child : ((InternalNode) node).getChildren()) {
+                    if (child != null && (deepest == null || child.size() > deepest.size())) {
+                        deepest = child;
+                    }
+                }
+                node = deepest;
+                depth++;
+            }
+            assertTrue(depth > 1000, tree.getIndexName() + " 应构造出很深的树: " + depth);
+
+            // 在很小的线程栈上查询：遍历深度不受Java调用栈限制
+            VectorData far = new VectorData(-1, new double[] {line.size() + 5});
+            VectorData middle = new VectorData(-2, new double[] {line.size() / 2 + 0.5});
+            List<List<MetricSpaceData>> results = new ArrayList<>();
+            int[] height = new int[1];
+            Thread thread = new Thread(null, () -> {
+                results.add(tree.knnQuery(far, 3));
+                results.add(tree.rangeQuery(middle, 2.0));
+                height[0] = tree.getTreeHeight();
+                // 定位和统计也用显式栈；冻结布局上的查询同样不递归
+                assertTrue(tree.delete(line.get(3998).getDataId()));
+                results.add(tree.knnQuery(far, 3));
+                results.add(tree.freeze().knnQuery(far, 3));
+            }, "small-stack", 256 * 1024);
+            thread.start();
+            thread.join();
+            assertEquals(4, results.size(), tree.getIndexName() + " 深树查询不应栈溢出");
+            assertEquals(Arrays.asList(line.get(3999), line.get(3998), line.get(3997)),
+                    results.get(0));
+            assertEquals(4, results.get(1).size());
+            assertTrue(height[0] >= depth, tree.getIndexName() + " 树高应覆盖最深路径");
+            List<MetricSpaceData> afterDelete = Arrays.asList(line.get(3999), line.get(3997),
+                    line.get(3996));
+            assertEquals(afterDelete, results.get(2));
+            assertEquals(afterDelete, results.get(3));
+            assertEquals(4, tree.rangeCount(middle, 2.0));
+            System.out.printf("  %s 深度%d ✓%n", tree.getIndexName(), depth);
+        }
+
+        System.out.println("测试通过！\n");
+    }
+
     // ========== 辅助方法 ==========
 
+    private static long pairKey(int a, int b) {
+        return ((long) a << 32) | b;
+    }
+
+    private void assertKnnDistances(List<VectorData> dataset, MetricFunction metric,
+            MetricSpaceData queryPoint, int k, List<MetricSpaceData> result, String name) {
+        List<KNNResult> expected = LinearScanKNNQuery.execute(dataset,
+                new KNNQuery(queryPoint, k), metric, false);
+        assertEquals(expected.size(), result.size(), name + " kNN结果数量应一致");
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getDistance(),
+                    metric.getDistance(queryPoint, result.get(i)), 1e-9,
+                    name + " 第" + (i + 1) + "近邻距离应一致");
+        }
+    }
+
     private List<VectorData> createVector2DDataset(int size) {
         List<VectorData> data = new ArrayList<>();
         Random rand = new Random(42);
@@ -331,6 +1489,18 @@ public class TreeCorrectnessTest {
         return data;
     }
 
+    private double recall(List<MetricSpaceData> exact, List<MetricSpaceData> approx) {
+        Set<Integer> ids = new HashSet<>();
+        for (MetricSpaceData d : exact)
+            ids.add(d.getDataId());
+        int hits = 0;
+        for (MetricSpaceData d : approx) {
+            if (ids.contains(d.getDataId()))
+                hits++;
+        }
+        return (double) hits / exact.size();
+    }
+
     private boolean setEquals(List<MetricSpaceData> list1, List<MetricSpaceData> list2) {
         if (list1.size() != list2.size())
             return false;
@@ -227,4 +227,59 @@ public class VPTreeTest {
         System.out.println(stats);
         System.out.println("测试通过！\n");
     }
+
+    @Test
+    @DisplayName("测试7: m叉VP树")
+    void testMultiWayVPTree() {
+        System.out.println("\n=== 测试7: m叉VP树 ===");
+
+        List<VectorData> data = new ArrayList<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 3000; i++) {
+            data.add(new VectorData(i, new double[] {rand.nextDouble() * 10,
+                    rand.nextDouble() * 10, rand.nextDouble() * 10}));
+        }
+
+        TreeConfig binaryConfig = new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(2)
+                .randomSeed(42).build();
+        VPTree binary = new VPTree(binaryConfig);
+        binary.buildIndex(data, metric);
+
+        TreeConfig[] configs = {
+                new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(2).randomSeed(42)
+                        .vpArity(4).build(),
+                new TreeConfig.Builder().maxLeafSize(20).minTreeHeight(2).randomSeed(42)
+                        .vpArity(8).adaptiveArity(true).build()};
+
+        for (TreeConfig multiConfig : configs) {
+            VPTree tree = new VPTree(multiConfig);
+            tree.buildIndex(data, metric);
+            assertTrue(tree.getTreeHeight() < binary.getTreeHeight(), "m叉VP树应更浅");
+
+            for (int q = 0; q < 20; q++) {
+                VectorData queryPoint = data.get(rand.nextInt(data.size()));
+                int expected = 0;
+                for (VectorData v : data) {
+                    if (metric.getDistance(queryPoint, v) <= 1.5) {
+                        expected++;
+                    }
+                }
+                assertEquals(expected, tree.rangeQuery(queryPoint, 1.5).size(),
+                        "m叉VP树范围查询结果数量应正确");
+
+                List<MetricSpaceData> expectedKnn = binary.knnQuery(queryPoint, 10);
+                List<MetricSpaceData> knn = tree.knnQuery(queryPoint, 10);
+                assertEquals(expectedKnn.size(), knn.size());
+                for (int i = 0; i < knn.size(); i++) {
+                    assertEquals(metric.getDistance(queryPoint, expectedKnn.get(i)),
+                            metric.getDistance(queryPoint, knn.get(i)), 1e-9,
+                            "m叉VP树kNN结果距离应一致");
+                }
+            }
+            System.out.printf("  %s: 树高 %d (二叉 %d)%n", multiConfig, tree.getTreeHeight(),
+                    binary.getTreeHeight());
+        }
+
+        System.out.println("测试通过！\n");
+    }
 }
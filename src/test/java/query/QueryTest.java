@@ -2,13 +2,29 @@ package query;
 
 import datatype.vector.MinkowskiDistance;
 import datatype.vector.VectorData;
+import index.BatchExecutor;
+import index.BatchQueryResult;
+import index.Index;
 import index.pivottable.*;
+import index.pivottable.bitmap.RoaringBitmap;
+import index.tree.common.TreeConfig;
+import index.tree.vptree.VPTree;
 import io.VectorDataReader;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.Assert.*;
 
@@ -214,5 +230,422 @@ public class QueryTest {
             System.out.println("错误: " + e.getMessage() + "\n");
         }
     }
-}
 
+    @Test
+    public void testQuantizedPivotTableQuery() {
+        System.out.println("=== 测试6：压缩存储Pivot Table查询 ===\n");
+
+        Random random = new Random(42);
+        List<VectorData> dataset = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double[] coords = new double[5];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = random.nextDouble() * 100;
+            }
+            dataset.add(new VectorData(i, coords));
+        }
+
+        for (DistanceStorageMode mode : new DistanceStorageMode[] {DistanceStorageMode.BYTE,
+                DistanceStorageMode.SHORT}) {
+            PivotTable pivotTable = new PivotTable(dataset, 8, MinkowskiDistance.L2,
+                    PivotSelectionMethod.FFT, mode, false);
+            System.out.println(mode + " 距离表字节数: " + pivotTable.getDistanceTableBytes());
+            assertEquals(2000L * 8 * mode.getBits() / 8, pivotTable.getDistanceTableBytes());
+
+            for (int q = 0; q < 10; q++) {
+                VectorData queryObject = dataset.get(random.nextInt(dataset.size()));
+
+                RangeQuery rangeQuery = new RangeQuery(queryObject, 40.0);
+                List<core.MetricSpaceData> ptRange =
+                        PivotTableRangeQuery.execute(pivotTable, rangeQuery, false);
+                List<core.MetricSpaceData> lsRange =
+                        LinearScanRangeQuery.execute(dataset, rangeQuery, MinkowskiDistance.L2, false);
+                assertEquals(mode + " 范围查询结果数量应该一致", lsRange.size(), ptRange.size());
+
+                KNNQuery knnQuery = new KNNQuery(queryObject, 10);
+                List<KNNResult> ptKnn = PivotTableKNNQuery.execute(pivotTable, knnQuery, false);
+                List<KNNResult> lsKnn =
+                        LinearScanKNNQuery.execute(dataset, knnQuery, MinkowskiDistance.L2, false);
+                assertEquals(lsKnn.size(), ptKnn.size());
+                for (int i = 0; i < ptKnn.size(); i++) {
+                    assertEquals(mode + " 第" + i + "个结果距离应该相同", lsKnn.get(i).getDistance(),
+                            ptKnn.get(i).getDistance(), 0.0001);
+                }
+            }
+        }
+
+        System.out.println("正确性验证通过！\n");
+    }
+
+    @Test
+    public void testPivotTableBitmapIndex() {
+        System.out.println("=== 测试7：位图索引Pivot Table范围查询 ===\n");
+
+        // 位图基本运算：跨越多个高16位块，覆盖数组、位图、行程三种容器
+        RoaringBitmap evens = new RoaringBitmap();
+        RoaringBitmap block = new RoaringBitmap();
+        for (int i = 0; i < 200000; i += 2) {
+            evens.add(i);
+        }
+        for (int i = 60000; i < 140000; i++) {
+            block.add(i);
+        }
+        evens.runOptimize();
+        block.runOptimize();
+        assertEquals(100000, evens.getCardinality());
+        assertEquals(40000, RoaringBitmap.and(evens, block).getCardinality());
+        assertEquals(140000, RoaringBitmap.or(Arrays.asList(evens, block)).getCardinality());
+        assertTrue(block.contains(100000));
+        assertFalse(block.contains(140000));
+        RoaringBitmap blockCopy = block.copy();
+        blockCopy.add(150000);
+        assertFalse(block.contains(150000));
+        assertEquals(40000, RoaringBitmap.and(evens, block).getCardinality());
+
+        Random random = new Random(7);
+        List<VectorData> dataset = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            double[] coords = new double[4];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = random.nextDouble() * 100;
+            }
+            dataset.add(new VectorData(i, coords));
+        }
+
+        for (DistanceStorageMode mode : new DistanceStorageMode[] {DistanceStorageMode.DOUBLE,
+                DistanceStorageMode.BYTE}) {
+            PivotTable pivotTable = new PivotTable(dataset, 6, MinkowskiDistance.L2,
+                    PivotSelectionMethod.FFT, mode, false);
+            pivotTable.buildBitmapIndex(32, true);
+
+            // 返回的候选集是新位图，修改它不影响索引
+            PivotBitmapIndex bitmapIndex = new PivotBitmapIndex(pivotTable, 32);
+            double[] toPivots = new double[6];
+            for (double radius : new double[] {1e9, 0}) {
+                RoaringBitmap candidates = bitmapIndex.getCandidates(toPivots, radius);
+                int cardinality = candidates.getCardinality();
+                candidates.add(dataset.size() + 1);
+                assertEquals(cardinality,
+                        bitmapIndex.getCandidates(toPivots, radius).getCardinality());
+            }
+
+            for (int q = 0; q < 10; q++) {
+                VectorData queryObject = dataset.get(random.nextInt(dataset.size()));
+                RangeQuery rangeQuery = new RangeQuery(queryObject, 15.0 + q * 5);
+                List<core.MetricSpaceData> ptRange =
+                        PivotTableRangeQuery.execute(pivotTable, rangeQuery, false);
+                List<core.MetricSpaceData> lsRange =
+                        LinearScanRangeQuery.execute(dataset, rangeQuery, MinkowskiDistance.L2, false);
+                assertEquals(mode + " 范围查询结果数量应该一致", lsRange.size(), ptRange.size());
+            }
+        }
+
+        System.out.println("正确性验证通过！\n");
+    }
+
+    @Test
+    public void testPivotSelectionMethods() {
+        System.out.println("=== 测试8：支撑点选择方法 ===\n");
+
+        Random random = new Random(11);
+        List<VectorData> dataset = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            double[] coords = new double[4];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = random.nextDouble() * 100;
+            }
+            dataset.add(new VectorData(i, coords));
+        }
+
+        // 并行阈值设为0，确保并行路径也被覆盖
+        PivotSelectionConfig config = new PivotSelectionConfig.Builder().sampleSize(200)
+                .candidateSize(1000).incrementalCandidates(20).incrementalPairs(300)
+                .parallelThreshold(0).build();
+
+        for (PivotSelectionMethod method : PivotSelectionMethod.values()) {
+            List<core.MetricSpaceData> pivots = PivotSelector.selectPivots(dataset, 6, method,
+                    MinkowskiDistance.L2, config, false);
+            assertEquals(method + " 支撑点数量", 6, pivots.size());
+            assertEquals(method + " 支撑点不应重复", 6, new HashSet<>(pivots).size());
+
+            PivotTable pivotTable =
+                    new PivotTable(dataset, 6, MinkowskiDistance.L2, method, false);
+            VectorData queryObject = dataset.get(random.nextInt(dataset.size()));
+            RangeQuery rangeQuery = new RangeQuery(queryObject, 20.0);
+            assertEquals(method + " 范围查询结果数量应该一致",
+                    LinearScanRangeQuery.execute(dataset, rangeQuery, MinkowskiDistance.L2, false)
+                            .size(),
+                    PivotTableRangeQuery.execute(pivotTable, rangeQuery, false).size());
+            System.out.println(method + " 验证通过");
+        }
+
+        System.out.println("正确性验证通过！\n");
+    }
+
+    @Test
+    public void testChunkedPivotTableQuery() throws IOException {
+        System.out.println("=== 测试9：分块Pivot Table查询 ===\n");
+
+        Random random = new Random(5);
+        List<VectorData> dataset = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            double[] coords = new double[4];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = random.nextDouble() * 100;
+            }
+            dataset.add(new VectorData(i, coords));
+        }
+
+        File directory = Files.createTempDirectory("chunked-pivot-table").toFile();
+        try {
+            List<core.MetricSpaceData> pivots = PivotSelector.selectPivots(dataset, 5,
+                    PivotSelectionMethod.FFT, MinkowskiDistance.L2, false);
+            ChunkedPivotTable.build(dataset, pivots, MinkowskiDistance.L2, directory, 400, false);
+            ChunkedPivotTable table = ChunkedPivotTable.open(directory, MinkowskiDistance.L2);
+            assertEquals(7, table.getNumChunks());
+            assertEquals(2500, table.getDatasetSize());
+
+            for (int q = 0; q < 5; q++) {
+                VectorData queryObject = dataset.get(random.nextInt(dataset.size()));
+
+                RangeQuery rangeQuery = new RangeQuery(queryObject, 25.0);
+                List<core.MetricSpaceData> chunkedRange =
+                        PivotTableRangeQuery.execute(table, rangeQuery, q == 0);
+                assertEquals(
+                        LinearScanRangeQuery.execute(dataset, rangeQuery, MinkowskiDistance.L2, false)
+                                .size(),
+                        chunkedRange.size());
+
+                KNNQuery knnQuery = new KNNQuery(queryObject, 8);
+                List<KNNResult> chunkedKnn = PivotTableKNNQuery.execute(table, knnQuery, false);
+                List<KNNResult> lsKnn =
+                        LinearScanKNNQuery.execute(dataset, knnQuery, MinkowskiDistance.L2, false);
+                assertEquals(lsKnn.size(), chunkedKnn.size());
+                for (int i = 0; i < lsKnn.size(); i++) {
+                    assertEquals(lsKnn.get(i).getDistance(), chunkedKnn.get(i).getDistance(),
+                            0.0001);
+                }
+            }
+
+            // 多个线程同时查询：各线程的统计信息只反映自己的查询
+            VectorData first = dataset.get(0);
+            VectorData second = dataset.get(1);
+            PivotTableRangeQuery.execute(table, new RangeQuery(first, 25.0), false);
+            long firstDistances = table.getLastQueryDistanceCalculations();
+            long firstBytes = table.getLastQueryBytesRead();
+            PivotTableRangeQuery.execute(table, new RangeQuery(second, 40.0), false);
+            long secondDistances = table.getLastQueryDistanceCalculations();
+            long secondBytes = table.getLastQueryBytesRead();
+            ExecutorService service = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Boolean>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    final boolean useFirst = t % 2 == 0;
+                    futures.add(service.submit(() -> {
+                        boolean consistent = true;
+                        for (int q = 0; q < 20; q++) {
+                            PivotTableRangeQuery.execute(table,
+                                    new RangeQuery(useFirst ? first : second,
+                                            useFirst ? 25.0 : 40.0), false);
+                            consistent &= table.getLastQueryDistanceCalculations()
+                                    == (useFirst ? firstDistances : secondDistances);
+                            consistent &= table.getLastQueryBytesRead()
+                                    == (useFirst ? firstBytes : secondBytes);
+                        }
+                        return consistent;
+                    }));
+                }
+                for (Future<Boolean> future : futures) {
+                    assertTrue("并发查询的统计信息应互不干扰", future.get());
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new AssertionError(e);
+            } finally {
+                service.shutdown();
+            }
+
+            // 距离块超过单个数组的上限时构建直接失败
+            assertThrows(IllegalArgumentException.class, () -> ChunkedPivotTable.build(dataset,
+                    pivots, MinkowskiDistance.L2, directory, Integer.MAX_VALUE / 8, false));
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+
+        System.out.println("正确性验证通过！\n");
+    }
+
+    @Test
+    public void testParallelLinearScan() {
+        System.out.println("=== 测试10：并行线性扫描 ===\n");
+
+        Random random = new Random(3);
+        List<VectorData> dataset = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            double[] coords = new double[6];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = random.nextDouble() * 100;
+            }
+            dataset.add(new VectorData(i, coords));
+        }
+
+        List<KNNQuery> knnQueries = new ArrayList<>();
+        List<RangeQuery> rangeQueries = new ArrayList<>();
+        for (int q = 0; q < 8; q++) {
+            VectorData queryObject = dataset.get(random.nextInt(dataset.size()));
+            knnQueries.add(new KNNQuery(queryObject, 1 + q * 3));
+            rangeQueries.add(new RangeQuery(queryObject, 20.0 + q * 5));
+        }
+
+        List<List<KNNResult>> knnBatch =
+                ParallelLinearScan.knnBatch(dataset, knnQueries, MinkowskiDistance.L2);
+        List<List<core.MetricSpaceData>> rangeBatch =
+                ParallelLinearScan.rangeBatch(dataset, rangeQueries, MinkowskiDistance.L2);
+
+        for (int q = 0; q < knnQueries.size(); q++) {
+            List<KNNResult> expected = LinearScanKNNQuery.execute(dataset, knnQueries.get(q),
+                    MinkowskiDistance.L2, false);
+            List<KNNResult> single =
+                    ParallelLinearScan.knn(dataset, knnQueries.get(q), MinkowskiDistance.L2);
+            assertEquals(expected.size(), single.size());
+            assertEquals(expected.size(), knnBatch.get(q).size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getDistance(), single.get(i).getDistance(), 1e-9);
+                assertEquals(expected.get(i).getDistance(), knnBatch.get(q).get(i).getDistance(),
+                        1e-9);
+            }
+
+            List<core.MetricSpaceData> expectedRange = LinearScanRangeQuery.execute(dataset,
+                    rangeQueries.get(q), MinkowskiDistance.L2, false);
+            assertEquals(expectedRange, ParallelLinearScan.range(dataset, rangeQueries.get(q),
+                    MinkowskiDistance.L2));
+            assertEquals(expectedRange, rangeBatch.get(q));
+        }
+
+        System.out.println("正确性验证通过！\n");
+    }
+
+    @Test
+    public void testBatchQueries() {
+        System.out.println("=== 测试11：批量查询 ===\n");
+
+        Random random = new Random(5);
+        List<VectorData> dataset = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            double[] coords = new double[4];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = random.nextDouble() * 100;
+            }
+            dataset.add(new VectorData(i, coords));
+        }
+        List<VectorData> queries = new ArrayList<>();
+        for (int q = 0; q < 200; q++) {
+            queries.add(dataset.get(random.nextInt(dataset.size())));
+        }
+
+        Index[] indexes = {new PivotTableIndex(5, PivotSelectionMethod.FFT),
+                new VPTree(new TreeConfig.Builder().maxLeafSize(20).randomSeed(42).build())};
+        BatchExecutor[] executors = {BatchExecutor.forkJoin(), BatchExecutor.forkJoin(3),
+                BatchExecutor.virtualThreads(), BatchExecutor.sequential()};
+
+        for (Index index : indexes) {
+            index.buildIndex(dataset, MinkowskiDistance.L2);
+
+            // 逐个查询得到基准结果
+            List<List<core.MetricSpaceData>> expectedRange = new ArrayList<>();
+            List<List<core.MetricSpaceData>> expectedKnn = new ArrayList<>();
+            index.resetStatistics();
+            for (VectorData query : queries) {
+                expectedRange.add(index.rangeQuery(query, 15.0));
+            }
+            long rangeDistances = index.getDistanceComputations();
+            index.resetStatistics();
+            for (VectorData query : queries) {
+                expectedKnn.add(index.knnQuery(query, 8));
+            }
+            long knnDistances = index.getDistanceComputations();
+
+            for (BatchExecutor executor : executors) {
+                BatchQueryResult range = index.batchRangeQuery(queries, 15.0, executor);
+                BatchQueryResult knn = index.batchKnnQuery(queries, 8, executor);
+                System.out.println(index.getIndexName() + " " + range);
+
+                assertEquals(queries.size(), range.getNumQueries());
+                assertEquals(expectedRange, range.getResults());
+                assertEquals(expectedKnn, knn.getResults());
+                assertEquals(rangeDistances, range.getDistanceComputations());
+                assertEquals(knnDistances, knn.getDistanceComputations());
+            }
+        }
+
+        // forkJoin(3)拥有自己的线程池，关闭后不再接受查询；共享的默认执行器关闭后仍然可用
+        for (BatchExecutor executor : executors) {
+            executor.close();
+        }
+        assertThrows(RejectedExecutionException.class,
+                () -> executors[1].map(4, i -> i));
+        assertEquals(List.of(0, 1, 2, 3), BatchExecutor.forkJoin().map(4, i -> i));
+
+        System.out.println("正确性验证通过！\n");
+    }
+
+    @Test
+    public void testApproximatePivotTableKNNQuery() {
+        System.out.println("=== 测试12：Pivot Table近似kNN查询 ===\n");
+
+        Random random = new Random(11);
+        List<VectorData> dataset = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            double[] coords = new double[8];
+            for (int d = 0; d < coords.length; d++) {
+                coords[d] = random.nextDouble() * 100;
+            }
+            dataset.add(new VectorData(i, coords));
+        }
+        PivotTable pivotTable = new PivotTable(dataset, 8, MinkowskiDistance.L2,
+                PivotSelectionMethod.FFT, false);
+
+        for (int q = 0; q < 10; q++) {
+            VectorData queryObject = dataset.get(random.nextInt(dataset.size()));
+            List<KNNResult> expected = LinearScanKNNQuery.execute(dataset,
+                    new KNNQuery(queryObject, 10), MinkowskiDistance.L2, false);
+
+            // 没有近似控制时与精确查询一致
+            List<KNNResult> same = PivotTableKNNQuery.execute(pivotTable,
+                    new ApproximateKNNQuery.Builder(queryObject, 10).build(), false);
+            assertEquals(expected.size(), same.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getDistance(), same.get(i).getDistance(), 1e-9);
+            }
+
+            // (1+ε)近似
+            List<KNNResult> approx = PivotTableKNNQuery.execute(pivotTable,
+                    new ApproximateKNNQuery.Builder(queryObject, 10).epsilon(0.5).build(), false);
+            for (int i = 0; i < expected.size(); i++) {
+                assertTrue(approx.get(i).getDistance() <= 1.5 * expected.get(i).getDistance()
+                        + 1e-9);
+            }
+
+            // 距离计算预算（含支撑点）
+            List<KNNResult> capped = PivotTableKNNQuery.execute(pivotTable,
+                    new ApproximateKNNQuery.Builder(queryObject, 10).maxDistanceComputations(100)
+                            .build(), false);
+            assertEquals(10, capped.size());
+            assertTrue(pivotTable.getLastQueryDistanceCalculations() <= 100);
+
+            // 概率提前停止
+            PivotTableKNNQuery.execute(pivotTable,
+                    new ApproximateKNNQuery.Builder(queryObject, 10).stopProbability(0.1).build(),
+                    false);
+            assertTrue(pivotTable.getLastQueryVerified() >= 10);
+        }
+
+        System.out.println("距离分布: " + pivotTable.getDistanceDistribution());
+        System.out.println("正确性验证通过！\n");
+    }
+}